@@ -5,6 +5,7 @@ import fs.explorer.controllers.FTPDialogController;
 import fs.explorer.controllers.FTPInfoValidator;
 import fs.explorer.models.dirtree.DirTreeModel;
 import fs.explorer.providers.dirtree.local.LocalFsManager;
+import fs.explorer.providers.dirtree.archives.ArchiveIndexStore;
 import fs.explorer.providers.dirtree.archives.ArchivesManager;
 import fs.explorer.providers.dirtree.archives.ArchivesReader;
 import fs.explorer.providers.preview.AsyncPreviewProvider;
@@ -12,6 +13,7 @@ import fs.explorer.providers.preview.DefaultPreviewProvider;
 import fs.explorer.providers.preview.PreviewRenderer;
 import fs.explorer.providers.preview.PreviewRenderersService;
 import fs.explorer.utils.Disposable;
+import fs.explorer.utils.OSInfo;
 import fs.explorer.views.*;
 
 import javax.swing.*;
@@ -24,21 +26,32 @@ class Application {
     private boolean applicationInitialized = false;
     private String errorMessage;
 
+    private static final String APPLICATION_NAME = "FsExplorer";
+    private static final String ARCHIVE_INDEX_DIRECTORY = "archive-index";
+
     private static final String STATUS_BAR_INITIAL_MESSAGE = "Ready";
 
     private static final String APP_START_ERROR = "Failed to start the application";
     private static final String DISK_ACCESS_ERROR = "failed to access local disk";
 
     private static final long previewTaskStartDelayMilliseconds = 100;
+    private static final long maxCachedArchiveEntries = 500_000;
+    private static final long maxExtractedArchivesBytes = 1024L * 1024 * 1024;
+    private static final long maxArchiveIndexStoreBytes = 256L * 1024 * 1024;
 
     Application() {
         try {
             List<Disposable> disposables = new ArrayList<>();
 
             LocalFsManager localFsManager = new LocalFsManager();
-
-            ArchivesReader archivesReader = new ArchivesReader();
-            ArchivesManager archivesManager = new ArchivesManager(archivesReader);
+            disposables.add(localFsManager);
+
+            ArchiveIndexStore archiveIndexStore = new ArchiveIndexStore(
+                    OSInfo.getUserCacheDirectory(APPLICATION_NAME).resolve(ARCHIVE_INDEX_DIRECTORY),
+                    maxArchiveIndexStoreBytes);
+            ArchivesReader archivesReader = new ArchivesReader(archiveIndexStore);
+            ArchivesManager archivesManager = new ArchivesManager(
+                    archivesReader, maxCachedArchiveEntries, maxExtractedArchivesBytes);
             disposables.add(archivesManager);
 
             StatusBar statusBar = new StatusBar(STATUS_BAR_INITIAL_MESSAGE);
@@ -81,7 +94,8 @@ class Application {
                     fsTypeSwitcher, ftpDialogController, dirTreeController, statusBarController);
             ToolBar toolBar = new ToolBar(toolBarController);
 
-            mainWindow = new MainWindow("FsExplorer", toolBar, statusBar, dirTreePane, previewPane);
+            mainWindow = new MainWindow(
+                    APPLICATION_NAME, toolBar, statusBar, dirTreePane, previewPane);
             MainWindowController mainWindowController = new MainWindowController(
                     mainWindow,
                     statusBarController,
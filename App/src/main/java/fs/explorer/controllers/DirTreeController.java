@@ -4,16 +4,21 @@ import fs.explorer.providers.dirtree.AsyncFsDataProvider;
 import fs.explorer.providers.dirtree.TreeNodeData;
 import fs.explorer.models.dirtree.DirTreeModel;
 import fs.explorer.models.dirtree.ExtTreeNodeData;
+import fs.explorer.providers.dirtree.path.FsPath;
 import fs.explorer.providers.dirtree.path.TargetType;
 import fs.explorer.providers.dirtree.TreeNodeLoader;
+import fs.explorer.utils.Disposable;
 import fs.explorer.views.DirTreePane;
 
 import javax.swing.event.TreeExpansionEvent;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.TreePath;
-import java.util.List;
+import java.util.*;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class DirTreeController {
     private final DirTreePane dirTreePane;
@@ -24,9 +29,15 @@ public class DirTreeController {
     private AsyncFsDataProvider treeDataProvider;
 
     private DefaultMutableTreeNode lastSelectedNode;
+    // loading and loaded directory nodes, so changes of a directory do not walk the whole tree
+    private final Map<FsPath, Set<DefaultMutableTreeNode>> directoryNodes = new HashMap<>();
 
     private static final String DATA_PROVIDER_ERROR = "Failed to load data";
     private static final String INTERNAL_ERROR = "internal error";
+    // directories go first
+    private static final Comparator<TreeNodeData> NODES_ORDER = Comparator
+            .comparing((TreeNodeData nodeData) -> !nodeData.pathTargetIsDirectory())
+            .thenComparing(TreeNodeData::getLabel);
 
     public DirTreeController(
             DirTreePane dirTreePane,
@@ -68,21 +79,35 @@ public class DirTreeController {
             return;
         }
         ExtTreeNodeData extNodeData = DirTreeModel.getExtNodeData(node);
-        if (extNodeData.getType() == ExtTreeNodeData.Type.NORMAL &&
-                extNodeData.getStatus() == ExtTreeNodeData.Status.NULL) {
+        if (extNodeData.getType() != ExtTreeNodeData.Type.NORMAL) {
+            return;
+        }
+        if (extNodeData.getStatus() == ExtTreeNodeData.Status.NULL) {
             reloadContents(node, extNodeData);
+        } else if (extNodeData.getStatus() == ExtTreeNodeData.Status.LOADED &&
+                extNodeData.getWatch() == null) {
+            refreshContents(node, extNodeData);
         }
+        refreshExpandedDescendants(node);
     }
 
+    /**
+     * Collapsed directories are not watched, including the ones that stay expanded
+     * inside the collapsed one.
+     */
     public void handleTreeCollapse(TreeExpansionEvent event) {
         DefaultMutableTreeNode node = getNode(event);
         if (node == null) {
             return;
         }
+        DirTreeModel.materializedBreadthFirstEnumeration(node).forEach(descendant ->
+                stopWatch(DirTreeModel.getExtNodeData(descendant)));
         ExtTreeNodeData extNodeData = DirTreeModel.getExtNodeData(node);
         if (extNodeData.getType() == ExtTreeNodeData.Type.NORMAL &&
                 extNodeData.getStatus() == ExtTreeNodeData.Status.LOADING) {
             extNodeData.setStatus(ExtTreeNodeData.Status.NULL);
+            extNodeData.setPendingChanges(null);
+            removeDirectoryNode(node);
             if (extNodeData.getLoader() != null) {
                 extNodeData.getLoader().cancel(true);
                 extNodeData.setLoader(null);
@@ -90,6 +115,20 @@ public class DirTreeController {
         }
     }
 
+    /**
+     * Nodes of the collapsed directory that keep nothing but their entries are released,
+     * they are created again when the directory is expanded.
+     */
+    public void releaseCollapsedContents(
+            TreeExpansionEvent event,
+            Predicate<TreePath> hasBeenExpanded
+    ) {
+        DefaultMutableTreeNode node = getNode(event);
+        if (node != null && dirTreeModel.containsNode(node)) {
+            dirTreeModel.releaseChildren(node, hasBeenExpanded);
+        }
+    }
+
     void reloadLastSelectedNode() {
         if (lastSelectedNode == null) {
             return;
@@ -102,6 +141,9 @@ public class DirTreeController {
             TargetType targetType = extNodeData.getNodeData().getPathTargetType();
             // TODO support reload for zip archives
             if (targetType == TargetType.DIRECTORY) {
+                if (treeDataProvider != null) {
+                    treeDataProvider.invalidateNodesFor(extNodeData.getNodeData());
+                }
                 reloadContents(lastSelectedNode, extNodeData);
             } else if (targetType == TargetType.FILE) {
                 previewController.updatePreview(extNodeData.getNodeData());
@@ -109,6 +151,40 @@ public class DirTreeController {
         }
     }
 
+    /**
+     * Applies newer contents of a directory to its loaded nodes:
+     * nodes of removed entries are removed, nodes of new entries are inserted
+     * and nodes of other entries are kept along with their loaded contents.
+     */
+    void updateContents(TreeNodeData directoryData, List<TreeNodeData> contents) {
+        getDirectoryNodes(directoryData, ExtTreeNodeData.Status.LOADED)
+                .forEach(node -> mergeContents(node, contents));
+    }
+
+    /**
+     * Applies changes of contents of a watched directory to its loaded nodes
+     * without listing it: nodes of removed entries are removed, nodes of new entries
+     * are inserted and nodes of entries that changed their type are replaced.
+     * Changes of a directory that is being listed are applied when the listing completes.
+     */
+    void applyChanges(
+            TreeNodeData directoryData,
+            List<TreeNodeData> changedContents,
+            List<TreeNodeData> removedContents
+    ) {
+        Set<String> affectedPaths = Stream
+                .concat(changedContents.stream(), removedContents.stream())
+                .map(DirTreeController::getFsPath)
+                .filter(Objects::nonNull)
+                .map(FsPath::getPath)
+                .collect(Collectors.toSet());
+        getDirectoryNodes(directoryData, ExtTreeNodeData.Status.LOADED).forEach(node ->
+                mergeChanges(node, affectedPaths, changedContents));
+        getDirectoryNodes(directoryData, ExtTreeNodeData.Status.LOADING).forEach(node ->
+                addPendingChanges(DirTreeModel.getExtNodeData(node),
+                        changedContents, removedContents));
+    }
+
     AsyncFsDataProvider getTreeDataProvider() {
         return treeDataProvider;
     }
@@ -120,6 +196,7 @@ public class DirTreeController {
         }
         this.treeDataProvider = treeDataProvider;
         DefaultMutableTreeNode root = dirTreeModel.getRoot();
+        stopLoadings(dirTreeModel.getMaterializedChildren(root));
         dirTreeModel.removeAllChildren(root);
         this.treeDataProvider.getTopNode(nodeData -> {
             dirTreeModel.addNullDirChild(root, nodeData);
@@ -127,6 +204,34 @@ public class DirTreeController {
         });
     }
 
+    private List<DefaultMutableTreeNode> getDirectoryNodes(
+            TreeNodeData directoryData,
+            ExtTreeNodeData.Status status
+    ) {
+        Set<DefaultMutableTreeNode> nodes = directoryNodes.get(getFsPath(directoryData));
+        if (nodes == null) {
+            return Collections.emptyList();
+        }
+        return nodes.stream()
+                .filter(node -> DirTreeModel.getExtNodeData(node).getStatus() == status)
+                .collect(Collectors.toList());
+    }
+
+    private void addDirectoryNode(DefaultMutableTreeNode node) {
+        FsPath path = getFsPath(DirTreeModel.getExtNodeData(node).getNodeData());
+        if (path != null) {
+            directoryNodes.computeIfAbsent(path, p -> new HashSet<>()).add(node);
+        }
+    }
+
+    private void removeDirectoryNode(DefaultMutableTreeNode node) {
+        FsPath path = getFsPath(DirTreeModel.getExtNodeData(node).getNodeData());
+        Set<DefaultMutableTreeNode> nodes = directoryNodes.get(path);
+        if (nodes != null && nodes.remove(node) && nodes.isEmpty()) {
+            directoryNodes.remove(path);
+        }
+    }
+
     private DefaultMutableTreeNode getNode(TreeExpansionEvent event) {
         TreePath treePath = event.getPath();
         if (treePath == null) {
@@ -141,62 +246,294 @@ public class DirTreeController {
             return;
         }
         extNodeData.setStatus(ExtTreeNodeData.Status.LOADING);
-        List<DefaultMutableTreeNode> children = dirTreeModel.getChildren(node);
-        dirTreeModel.removeAllChildren(node);
-        dirTreeModel.addFakeChild(node, "<loading...>");
+        extNodeData.setPendingChanges(null);
+        addDirectoryNode(node);
+        List<DefaultMutableTreeNode> children = dirTreeModel.getMaterializedChildren(node);
+        dirTreeModel.replaceWithFakeChild(node, "<loading...>");
         dirTreePane.expandPath(new TreePath(node.getPath()));
         stopLoadings(children);
         if (extNodeData.getLoader() != null) {
             extNodeData.getLoader().cancel(true);
+            extNodeData.setLoader(null);
         }
+        if (extNodeData.getWatch() != null) {
+            loadContents(node, extNodeData);
+            return;
+        }
+        // the directory is listed once it is watched, so changes in between are not missed
+        treeDataProvider.watchNodesFor(extNodeData.getNodeData(), watch -> {
+            boolean isWatchNeeded = dirTreeModel.containsNode(node) &&
+                    extNodeData.getStatus() == ExtTreeNodeData.Status.LOADING &&
+                    extNodeData.getLoader() == null &&
+                    extNodeData.getWatch() == null;
+            if (!isWatchNeeded) {
+                dispose(watch);
+                return;
+            }
+            extNodeData.setWatch(watch);
+            loadContents(node, extNodeData);
+        });
+    }
+
+    private void loadContents(DefaultMutableTreeNode node, ExtTreeNodeData extNodeData) {
         TreeNodeLoader loader = treeDataProvider.getNodesFor(
                 extNodeData.getNodeData(),
                 contentsInserter(node, extNodeData),
+                loadingCompleter(node, extNodeData),
                 loadContentsErrorHandler(node, extNodeData)
         );
         extNodeData.setLoader(loader);
     }
 
+    /**
+     * A loaded directory is not watched while it is collapsed, so it is watched again
+     * and its contents are listed once and merged into its nodes.
+     */
+    private void refreshContents(DefaultMutableTreeNode node, ExtTreeNodeData extNodeData) {
+        if (treeDataProvider == null) {
+            return;
+        }
+        treeDataProvider.watchNodesFor(extNodeData.getNodeData(), watch -> {
+            boolean isWatchNeeded = watch != null &&
+                    dirTreeModel.containsNode(node) &&
+                    extNodeData.getStatus() == ExtTreeNodeData.Status.LOADED &&
+                    extNodeData.getWatch() == null &&
+                    dirTreePane.isExpanded(new TreePath(node.getPath()));
+            if (!isWatchNeeded) {
+                dispose(watch);
+                return;
+            }
+            extNodeData.setWatch(watch);
+            listWatchedContents(node, extNodeData);
+        });
+    }
+
+    private void listWatchedContents(DefaultMutableTreeNode node, ExtTreeNodeData extNodeData) {
+        if (extNodeData.getLoader() != null) {
+            extNodeData.getLoader().cancel(true);
+        }
+        TreeNodeLoader loader = treeDataProvider.getNodesFor(
+                extNodeData.getNodeData(),
+                contents -> {
+                    if (dirTreeModel.containsNode(node) &&
+                            extNodeData.getStatus() == ExtTreeNodeData.Status.LOADED) {
+                        mergeContents(node, contents);
+                        extNodeData.setLoader(null);
+                    }
+                },
+                errorMessage -> {
+                    if (extNodeData.getStatus() == ExtTreeNodeData.Status.LOADED) {
+                        stopWatch(extNodeData);
+                        extNodeData.setLoader(null);
+                    }
+                }
+        );
+        extNodeData.setLoader(loader);
+    }
+
+    // the tree shows expanded descendants of an expanded node again without expanding them
+    private void refreshExpandedDescendants(DefaultMutableTreeNode node) {
+        for (DefaultMutableTreeNode descendant :
+                DirTreeModel.materializedBreadthFirstEnumeration(node)) {
+            ExtTreeNodeData extNodeData = DirTreeModel.getExtNodeData(descendant);
+            boolean isRefreshNeeded = descendant != node &&
+                    extNodeData.getType() == ExtTreeNodeData.Type.NORMAL &&
+                    extNodeData.getStatus() == ExtTreeNodeData.Status.LOADED &&
+                    extNodeData.getWatch() == null &&
+                    dirTreePane.isExpanded(new TreePath(descendant.getPath()));
+            if (isRefreshNeeded) {
+                refreshContents(descendant, extNodeData);
+            }
+        }
+    }
+
+    private static void stopWatch(ExtTreeNodeData extNodeData) {
+        dispose(extNodeData.getWatch());
+        extNodeData.setWatch(null);
+    }
+
+    private static void dispose(Disposable watch) {
+        if (watch != null) {
+            watch.dispose();
+        }
+    }
+
     // TODO it is better to run this in a background thread
+    // Only created nodes can have loaders and watches
     private void stopLoadings(List<DefaultMutableTreeNode> removedNodes) {
         removedNodes.forEach(root ->
-                DirTreeModel.breadthFirstEnumeration(root).forEach(child -> {
+                DirTreeModel.materializedBreadthFirstEnumeration(root).forEach(child -> {
                     ExtTreeNodeData extNodeData = DirTreeModel.getExtNodeData(child);
                     TreeNodeLoader loader = extNodeData.getLoader();
                     if (loader != null) {
                         loader.cancel(true);
                     }
                     extNodeData.setLoader(null);
+                    stopWatch(extNodeData);
+                    removeDirectoryNode(child);
                 })
         );
     }
 
+    /**
+     * Contents come in sorted batches, each batch is merged into already inserted nodes.
+     * Batches that come after the loading was cancelled are ignored.
+     */
     private Consumer<List<TreeNodeData>> contentsInserter(
             DefaultMutableTreeNode node,
             ExtTreeNodeData extNodeData
     ) {
         return contents -> {
-            if (!dirTreeModel.containsNode(node)) {
+            if (!dirTreeModel.containsNode(node) ||
+                    extNodeData.getStatus() != ExtTreeNodeData.Status.LOADING) {
                 return;
             }
-            dirTreeModel.removeAllChildren(node);
-            if (contents.isEmpty()) {
-                dirTreeModel.addFakeChild(node, "<empty>");
+            if (hasOnlyFakeChild(node)) {
+                dirTreeModel.replaceChildren(node, contents);
             } else {
-                for (TreeNodeData nodeData : contents) {
-                    TargetType targetType = nodeData.getPathTargetType();
-                    if (targetType == TargetType.DIRECTORY ||
-                            targetType == TargetType.ZIP_ARCHIVE) {
-                        dirTreeModel.addNullDirChild(node, nodeData);
-                    } else {
-                        dirTreeModel.addFileChild(node, nodeData);
-                    }
-                }
+                dirTreeModel.insertChildren(node, contents, NODES_ORDER);
+            }
+        };
+    }
+
+    /**
+     * Nodes of files with changed sizes or times are replaced,
+     * nodes of directories are kept with their contents.
+     */
+    private void mergeContents(DefaultMutableTreeNode node, List<TreeNodeData> contents) {
+        Map<FsPath, FsPath> newPaths = new HashMap<>();
+        contents.stream()
+                .map(DirTreeController::getFsPath)
+                .filter(Objects::nonNull)
+                .forEach(path -> newPaths.put(path, path));
+        mergeContents(node, childPath -> {
+            FsPath newPath = newPaths.get(childPath);
+            if (newPath == null) {
+                return true;
             }
+            return !childPath.isDirectory() &&
+                    (childPath.getSize() != newPath.getSize() ||
+                            childPath.getLastModifiedTime() != newPath.getLastModifiedTime());
+        }, contents);
+    }
+
+    private void mergeChanges(
+            DefaultMutableTreeNode node,
+            Set<String> affectedPaths,
+            List<TreeNodeData> changedContents
+    ) {
+        Set<FsPath> changedPaths = changedContents.stream()
+                .map(DirTreeController::getFsPath)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        // removed entries have no known type, so they are matched by path
+        mergeContents(node,
+                childPath -> affectedPaths.contains(childPath.getPath()) &&
+                        !changedPaths.contains(childPath),
+                changedContents);
+    }
+
+    // the latest change of an entry wins, removed entries are mapped to null
+    private static void addPendingChanges(
+            ExtTreeNodeData extNodeData,
+            List<TreeNodeData> changedContents,
+            List<TreeNodeData> removedContents
+    ) {
+        Map<String, TreeNodeData> pendingChanges = extNodeData.getPendingChanges();
+        if (pendingChanges == null) {
+            pendingChanges = new HashMap<>();
+            extNodeData.setPendingChanges(pendingChanges);
+        }
+        for (TreeNodeData nodeData : removedContents) {
+            FsPath path = getFsPath(nodeData);
+            if (path != null) {
+                pendingChanges.put(path.getPath(), null);
+            }
+        }
+        for (TreeNodeData nodeData : changedContents) {
+            FsPath path = getFsPath(nodeData);
+            if (path != null) {
+                pendingChanges.put(path.getPath(), nodeData);
+            }
+        }
+    }
+
+    private void applyPendingChanges(DefaultMutableTreeNode node, ExtTreeNodeData extNodeData) {
+        Map<String, TreeNodeData> pendingChanges = extNodeData.getPendingChanges();
+        extNodeData.setPendingChanges(null);
+        if (pendingChanges == null || pendingChanges.isEmpty()) {
+            return;
+        }
+        List<TreeNodeData> changedContents = pendingChanges.values().stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        mergeChanges(node, pendingChanges.keySet(), changedContents);
+    }
+
+    /**
+     * Fake children are always removed, given contents are inserted
+     * unless nodes of the same entries are kept.
+     */
+    private void mergeContents(
+            DefaultMutableTreeNode node,
+            Predicate<FsPath> isRemoved,
+            List<TreeNodeData> contents
+    ) {
+        Set<FsPath> keptPaths = new HashSet<>();
+        List<DefaultMutableTreeNode> removedChildren = new ArrayList<>();
+        // nodes are created only for removed children
+        int childCount = node.getChildCount();
+        for (int i = 0; i < childCount; ++i) {
+            FsPath childPath = getFsPath(dirTreeModel.getChildData(node, i));
+            if (childPath != null && !isRemoved.test(childPath)) {
+                keptPaths.add(childPath);
+            } else {
+                removedChildren.add((DefaultMutableTreeNode) node.getChildAt(i));
+            }
+        }
+        stopLoadings(removedChildren);
+        dirTreeModel.removeChildren(node, removedChildren);
+        List<TreeNodeData> addedContents = contents.stream()
+                .filter(nodeData -> !keptPaths.contains(getFsPath(nodeData)))
+                .collect(Collectors.toList());
+        dirTreeModel.insertChildren(node, addedContents, NODES_ORDER);
+        if (node.getChildCount() == 0) {
+            dirTreeModel.addFakeChild(node, "<empty>");
+        }
+    }
+
+    private static FsPath getFsPath(TreeNodeData nodeData) {
+        if (nodeData == null || !nodeData.getPath().isFsPath()) {
+            return null;
+        }
+        return nodeData.getPath().asFsPath();
+    }
+
+    private Runnable loadingCompleter(
+            DefaultMutableTreeNode node,
+            ExtTreeNodeData extNodeData
+    ) {
+        return () -> {
+            if (!dirTreeModel.containsNode(node) ||
+                    extNodeData.getStatus() != ExtTreeNodeData.Status.LOADING) {
+                return;
+            }
+            if (node.getChildCount() == 0 || hasOnlyFakeChild(node)) {
+                dirTreeModel.replaceWithFakeChild(node, "<empty>");
+            }
+            applyPendingChanges(node, extNodeData);
             loadingFinished(node, extNodeData);
         };
     }
 
+    private static boolean hasOnlyFakeChild(DefaultMutableTreeNode node) {
+        if (node.getChildCount() != 1) {
+            return false;
+        }
+        DefaultMutableTreeNode child = (DefaultMutableTreeNode) node.getChildAt(0);
+        return DirTreeModel.getExtNodeData(child).getType() == ExtTreeNodeData.Type.FAKE;
+    }
+
     private Consumer<String> loadContentsErrorHandler(
             DefaultMutableTreeNode node,
             ExtTreeNodeData extNodeData
@@ -205,8 +542,10 @@ public class DirTreeController {
             if (!dirTreeModel.containsNode(node)) {
                 return;
             }
-            dirTreeModel.removeAllChildren(node);
-            dirTreeModel.addFakeChild(node, "<error>");
+            stopLoadings(dirTreeModel.getMaterializedChildren(node));
+            dirTreeModel.replaceWithFakeChild(node, "<error>");
+            stopWatch(extNodeData);
+            extNodeData.setPendingChanges(null);
             statusBarController.setErrorMessage(DATA_PROVIDER_ERROR, errorMessage);
             loadingFinished(node, extNodeData);
         };
@@ -6,13 +6,16 @@ import fs.explorer.providers.dirtree.local.LocalFsManager;
 import fs.explorer.providers.dirtree.path.FsPath;
 import fs.explorer.providers.dirtree.path.TargetType;
 import fs.explorer.providers.dirtree.remote.FTPConnectionInfo;
+import fs.explorer.providers.dirtree.remote.RemoteContentCache;
 import fs.explorer.providers.dirtree.remote.FTPException;
 import fs.explorer.providers.dirtree.remote.RemoteFsManager;
+import fs.explorer.providers.dirtree.remote.RemoteListingCache;
 import fs.explorer.providers.preview.DefaultPreviewProvider;
 import fs.explorer.utils.Disposable;
 import fs.explorer.utils.OSInfo;
 
 import javax.swing.*;
+import java.io.IOException;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 
@@ -22,8 +25,13 @@ public class FsTypeSwitcher implements Disposable {
     private final LocalFsManager localFsManager;
     private final ArchivesManager archivesManager;
     private final boolean switchToRemoteFsAsynchronously;
+    // outlive remote file system managers, so listings and files are kept on reconnect
+    private final RemoteListingCache remoteListingCache = new RemoteListingCache();
+    private final RemoteContentCache remoteContentCache = new RemoteContentCache();
 
     private DefaultAsyncFsDataProvider asyncFsDataProvider;
+    // holds connections to the server, so it is disposed on switch
+    private RemoteFsManager remoteFsManager;
 
     private SwingWorker<RemoteFsManager, Void> asyncRemoteFsSwitcher;
 
@@ -56,6 +64,11 @@ public class FsTypeSwitcher implements Disposable {
     @Override
     public void dispose() {
         disposeCurrentFsDataProvider();
+        try {
+            remoteContentCache.clear();
+        } catch (IOException e) {
+            // do nothing
+        }
     }
 
     void switchToLocalFs() {
@@ -77,8 +90,8 @@ public class FsTypeSwitcher implements Disposable {
             FsTypeSwitchProgressHandler handler
     ) {
         try {
-            RemoteFsManager remoteFsManager = makeRemoteFsManager(connectionInfo);
-            switchFs(remoteHostTopDir, remoteFsManager);
+            RemoteFsManager fsManager = makeRemoteFsManager(connectionInfo);
+            switchFs(remoteHostTopDir, fsManager);
             handler.onComplete();
         } catch (FTPException e) {
             handler.onFail(e.getMessage());
@@ -93,8 +106,8 @@ public class FsTypeSwitcher implements Disposable {
             @Override
             protected void done() {
                 try {
-                    RemoteFsManager remoteFsManager = get();
-                    switchFs(remoteHostTopDir, remoteFsManager);
+                    RemoteFsManager fsManager = get();
+                    switchFs(remoteHostTopDir, fsManager);
                     handler.onComplete();
                 } catch (InterruptedException | CancellationException e) {
                     // do nothing
@@ -117,6 +130,10 @@ public class FsTypeSwitcher implements Disposable {
             asyncFsDataProvider.dispose();
             asyncFsDataProvider = null;
         }
+        if (remoteFsManager != null) {
+            remoteFsManager.dispose();
+            remoteFsManager = null;
+        }
     }
 
     private void cancelCurrentSwitch() {
@@ -127,16 +144,28 @@ public class FsTypeSwitcher implements Disposable {
 
     private RemoteFsManager makeRemoteFsManager(FTPConnectionInfo connectionInfo)
             throws FTPException {
-        RemoteFsManager remoteFsManager = new RemoteFsManager(connectionInfo);
-        remoteFsManager.checkConnection();
-        return remoteFsManager;
+        RemoteFsManager fsManager = new RemoteFsManager(
+                connectionInfo, remoteListingCache, remoteContentCache);
+        try {
+            fsManager.checkConnection();
+        } catch (FTPException e) {
+            fsManager.dispose();
+            throw e;
+        }
+        return fsManager;
     }
 
     private void switchFs(FsPath topDir, FsManager fsManager) {
         disposeCurrentFsDataProvider();
+        if (fsManager instanceof RemoteFsManager) {
+            remoteFsManager = (RemoteFsManager) fsManager;
+            remoteFsManager.keepSessionAlive();
+        }
         asyncFsDataProvider = new DefaultAsyncFsDataProvider(
                 new DefaultFsDataProvider(topDir, fsManager, archivesManager)
         );
+        asyncFsDataProvider.setNodesUpdateListener(dirTreeController::updateContents);
+        asyncFsDataProvider.setNodesChangeListener(dirTreeController::applyChanges);
         dirTreeController.resetDataProvider(asyncFsDataProvider);
         previewProvider.resetFsManager(fsManager);
     }
@@ -5,17 +5,22 @@ import fs.explorer.providers.dirtree.TreeNodeData;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreeNode;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import javax.swing.tree.TreePath;
+import java.util.*;
+import java.util.function.Predicate;
 
+/**
+ * Children of nodes are kept as compact entries and their nodes are created
+ * only when they are asked for, e.g. for rows that the tree shows.
+ * Nodes of collapsed directories can be released to free memory.
+ */
 public class DirTreeModel {
-    private final DefaultTreeModel treeModel;
-    private final DefaultMutableTreeNode root;
+    private final InnerTreeModel treeModel;
+    private final DirTreeNode root;
 
     public DirTreeModel() {
-        root = new DefaultMutableTreeNode(ExtTreeNodeData.fakeNodeData("root"), true);
-        treeModel = new DefaultTreeModel(root);
+        root = DirTreeNode.newFakeNode("root", true);
+        treeModel = new InnerTreeModel(root);
     }
 
     public DefaultTreeModel getInnerTreeModel() {
@@ -26,6 +31,9 @@ public class DirTreeModel {
         return root;
     }
 
+    /**
+     * Creates nodes of all children.
+     */
     public List<DefaultMutableTreeNode> getChildren(DefaultMutableTreeNode node) {
         int childCount = treeModel.getChildCount(node);
         List<DefaultMutableTreeNode> children = new ArrayList<>(childCount);
@@ -35,6 +43,31 @@ public class DirTreeModel {
         return children;
     }
 
+    /**
+     * Returns children whose nodes have been created.
+     * Other children have no state of their own, e.g. they are not loaded.
+     */
+    public List<DefaultMutableTreeNode> getMaterializedChildren(DefaultMutableTreeNode node) {
+        DirTreeNode dirTreeNode = asDirTreeNode(node);
+        int childCount = dirTreeNode.getChildCount();
+        List<DefaultMutableTreeNode> children = new ArrayList<>();
+        for (int i = 0; i < childCount; ++i) {
+            DirTreeNode child = dirTreeNode.getCreatedChild(i);
+            if (child != null) {
+                children.add(child);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Returns data of the child without creating its node, fake children have none.
+     */
+    public TreeNodeData getChildData(DefaultMutableTreeNode parent, int index) {
+        Object entry = asDirTreeNode(parent).getEntry(index);
+        return entry instanceof TreeNodeData ? (TreeNodeData) entry : null;
+    }
+
     public boolean containsNode(DefaultMutableTreeNode node) {
         TreeNode[] nodes = node.getPath();
         if (nodes == null || nodes.length == 0) {
@@ -45,20 +78,144 @@ public class DirTreeModel {
         return farthestParent == root;
     }
 
+    /**
+     * Fires one event for all removed children.
+     */
     public void removeAllChildren(DefaultMutableTreeNode parent) {
-        getChildren(parent).forEach(treeModel::removeNodeFromParent);
+        removeChildren(parent, getChildren(parent));
+    }
+
+    public void removeNode(DefaultMutableTreeNode node) {
+        treeModel.removeNodeFromParent(node);
+    }
+
+    /**
+     * Fires one event for all removed children.
+     * Nodes that are not children of the parent are ignored.
+     */
+    public void removeChildren(DefaultMutableTreeNode parent, List<DefaultMutableTreeNode> nodes) {
+        DirTreeNode dirTreeNode = asDirTreeNode(parent);
+        Set<DefaultMutableTreeNode> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed.addAll(nodes);
+        int childCount = dirTreeNode.getChildCount();
+        Object[] keptEntries = new Object[childCount];
+        DirTreeNode[] keptNodes = new DirTreeNode[childCount];
+        int[] indices = new int[childCount];
+        Object[] removedChildren = new Object[childCount];
+        int keptCount = 0;
+        int removedCount = 0;
+        for (int i = 0; i < childCount; ++i) {
+            DirTreeNode child = dirTreeNode.getCreatedChild(i);
+            if (child != null && removed.contains(child)) {
+                indices[removedCount] = i;
+                removedChildren[removedCount] = child;
+                ++removedCount;
+            } else {
+                keptEntries[keptCount] = dirTreeNode.getEntry(i);
+                keptNodes[keptCount] = child;
+                ++keptCount;
+            }
+        }
+        if (removedCount == 0) {
+            return;
+        }
+        dirTreeNode.setChildren(keptEntries, keptNodes, keptCount);
+        treeModel.nodesWereRemoved(parent, Arrays.copyOf(indices, removedCount),
+                Arrays.copyOf(removedChildren, removedCount));
+    }
+
+    /**
+     * Merges children for the given nodes into the children of the parent,
+     * which are kept in the given order, and fires one event for all inserted children.
+     * Children that are equal in the order stay before the inserted ones.
+     */
+    public void insertChildren(
+            DefaultMutableTreeNode parent,
+            List<TreeNodeData> nodesData,
+            Comparator<TreeNodeData> order
+    ) {
+        if (nodesData.isEmpty()) {
+            return;
+        }
+        DirTreeNode dirTreeNode = asDirTreeNode(parent);
+        if (!dirTreeNode.getAllowsChildren()) {
+            throw new IllegalStateException("node does not allow children");
+        }
+        List<TreeNodeData> sortedData = new ArrayList<>(nodesData);
+        sortedData.sort(order);
+        int childCount = dirTreeNode.getChildCount();
+        int mergedCount = childCount + sortedData.size();
+        Object[] mergedEntries = new Object[mergedCount];
+        DirTreeNode[] mergedNodes = new DirTreeNode[mergedCount];
+        int[] indices = new int[sortedData.size()];
+        int i = 0;
+        int j = 0;
+        for (TreeNodeData nodeData : sortedData) {
+            while (i < childCount && order.compare(
+                    DirTreeNode.getEntryData(dirTreeNode.getEntry(i)), nodeData) <= 0) {
+                mergedEntries[i + j] = dirTreeNode.getEntry(i);
+                mergedNodes[i + j] = dirTreeNode.getCreatedChild(i);
+                ++i;
+            }
+            indices[j] = i + j;
+            mergedEntries[i + j] = nodeData;
+            ++j;
+        }
+        for (; i < childCount; ++i) {
+            mergedEntries[i + j] = dirTreeNode.getEntry(i);
+            mergedNodes[i + j] = dirTreeNode.getCreatedChild(i);
+        }
+        dirTreeNode.setChildren(mergedEntries, mergedNodes, mergedCount);
+        treeModel.fireNodesInserted(parent, indices);
+    }
+
+    /**
+     * Replaces the children of the parent with children for the given nodes in the same order
+     * and fires one event for the changed structure.
+     */
+    public void replaceChildren(DefaultMutableTreeNode parent, List<TreeNodeData> nodesData) {
+        DirTreeNode dirTreeNode = asDirTreeNode(parent);
+        dirTreeNode.setChildren(nodesData.toArray(), null, nodesData.size());
+        treeModel.nodeStructureChanged(parent);
+    }
+
+    /**
+     * Replaces the children of the parent with a fake child
+     * and fires one event for the changed structure.
+     */
+    public void replaceWithFakeChild(DefaultMutableTreeNode parent, String label) {
+        asDirTreeNode(parent).setChildren(new Object[] {label}, null, 1);
+        treeModel.nodeStructureChanged(parent);
+    }
+
+    /**
+     * Releases nodes of children in the subtree of the node that have no state of their own,
+     * they are created again when they are asked for.
+     * Nodes the view has ever expanded are kept, as the view remembers them.
+     * Fires no events, so the node should be collapsed.
+     */
+    public void releaseChildren(
+            DefaultMutableTreeNode node,
+            Predicate<TreePath> hasBeenExpanded
+    ) {
+        asDirTreeNode(node).releaseChildren(
+                child -> hasBeenExpanded.test(new TreePath(child.getPath())));
     }
 
     public DefaultMutableTreeNode addNullDirChild(
             DefaultMutableTreeNode parent,
             TreeNodeData nodeData
     ) {
-        DefaultMutableTreeNode nullDirNode = new DefaultMutableTreeNode(
-                ExtTreeNodeData.nullNodeData(nodeData), true);
-        DefaultMutableTreeNode loadingNode = new DefaultMutableTreeNode(
-                ExtTreeNodeData.fakeNodeData("<loading...>"), false);
-        nullDirNode.add(loadingNode);
-        treeModel.insertNodeInto(nullDirNode, parent, parent.getChildCount());
+        return insertNullDirChild(parent, nodeData, parent.getChildCount());
+    }
+
+    public DefaultMutableTreeNode insertNullDirChild(
+            DefaultMutableTreeNode parent,
+            TreeNodeData nodeData,
+            int index
+    ) {
+        DefaultMutableTreeNode nullDirNode = DirTreeNode.newNullDirNode(nodeData);
+        treeModel.insertNodeInto(nullDirNode, parent, index);
         return nullDirNode;
     }
 
@@ -66,16 +223,29 @@ public class DirTreeModel {
             DefaultMutableTreeNode parent,
             TreeNodeData nodeData
     ) {
-        DefaultMutableTreeNode fileNode = new DefaultMutableTreeNode(
-                ExtTreeNodeData.loadedNodeData(nodeData), false);
-        treeModel.insertNodeInto(fileNode, parent, parent.getChildCount());
+        return insertFileChild(parent, nodeData, parent.getChildCount());
+    }
+
+    public DefaultMutableTreeNode insertFileChild(
+            DefaultMutableTreeNode parent,
+            TreeNodeData nodeData,
+            int index
+    ) {
+        DefaultMutableTreeNode fileNode = DirTreeNode.newFileNode(nodeData);
+        treeModel.insertNodeInto(fileNode, parent, index);
         return fileNode;
     }
 
     public void addFakeChild(DefaultMutableTreeNode parent, String label) {
-        DefaultMutableTreeNode fakeNode = new DefaultMutableTreeNode(
-                ExtTreeNodeData.fakeNodeData(label), false);
-        treeModel.insertNodeInto(fakeNode, parent, parent.getChildCount());
+        treeModel.insertNodeInto(
+                DirTreeNode.newFakeNode(label, false), parent, parent.getChildCount());
+    }
+
+    private static DirTreeNode asDirTreeNode(DefaultMutableTreeNode node) {
+        if (!(node instanceof DirTreeNode)) {
+            throw new IllegalArgumentException("node is not created by the model");
+        }
+        return (DirTreeNode) node;
     }
 
     // TODO these static methods should be embedded in DefaultMutableTreeNode
@@ -94,4 +264,36 @@ public class DirTreeModel {
     ) {
         return Collections.list(node.breadthFirstEnumeration());
     }
+
+    /**
+     * Enumerates only nodes that have been created, see getMaterializedChildren.
+     */
+    public static List<DefaultMutableTreeNode> materializedBreadthFirstEnumeration(
+            DefaultMutableTreeNode node
+    ) {
+        List<DefaultMutableTreeNode> nodes = new ArrayList<>();
+        nodes.add(node);
+        for (int i = 0; i < nodes.size(); ++i) {
+            DirTreeNode current = asDirTreeNode(nodes.get(i));
+            int childCount = current.getChildCount();
+            for (int j = 0; j < childCount; ++j) {
+                DirTreeNode child = current.getCreatedChild(j);
+                if (child != null) {
+                    nodes.add(child);
+                }
+            }
+        }
+        return nodes;
+    }
+
+    // fires insertions without children, so their nodes are not created for the event
+    private static class InnerTreeModel extends DefaultTreeModel {
+        private InnerTreeModel(TreeNode root) {
+            super(root);
+        }
+
+        private void fireNodesInserted(TreeNode parent, int[] indices) {
+            fireTreeNodesInserted(this, getPathToRoot(parent), indices, null);
+        }
+    }
 }
@@ -0,0 +1,276 @@
+package fs.explorer.models.dirtree;
+
+import fs.explorer.providers.dirtree.TreeNodeData;
+import fs.explorer.providers.dirtree.path.TargetType;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.MutableTreeNode;
+import javax.swing.tree.TreeNode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Keeps children as compact entries and creates their nodes only when they are asked for.
+ * An entry is the data of a normal child or the label of a fake child.
+ * Nodes of children without state of their own can be released
+ * and are created again from their entries on demand.
+ */
+class DirTreeNode extends DefaultMutableTreeNode {
+    private Object[] entries = NO_ENTRIES;
+    // created nodes of children, null until one of them is created
+    private DirTreeNode[] nodes;
+    private int count = 0;
+    // index of this node among children of its parent when it was last known
+    private int indexHint = -1;
+
+    private static final Object[] NO_ENTRIES = new Object[0];
+    static final String LOADING_LABEL = "<loading...>";
+
+    private DirTreeNode(ExtTreeNodeData extNodeData, boolean allowsChildren) {
+        super(extNodeData, allowsChildren);
+    }
+
+    static DirTreeNode newFakeNode(String label, boolean allowsChildren) {
+        return new DirTreeNode(ExtTreeNodeData.fakeNodeData(label), allowsChildren);
+    }
+
+    // directories and archives get a fake child, so they can be expanded
+    static DirTreeNode newNode(TreeNodeData nodeData) {
+        TargetType targetType = nodeData.getPathTargetType();
+        if (targetType == TargetType.DIRECTORY || targetType == TargetType.ZIP_ARCHIVE) {
+            return newNullDirNode(nodeData);
+        }
+        return newFileNode(nodeData);
+    }
+
+    static DirTreeNode newNullDirNode(TreeNodeData nodeData) {
+        DirTreeNode node = new DirTreeNode(ExtTreeNodeData.nullNodeData(nodeData), true);
+        node.entries = new Object[] {LOADING_LABEL};
+        node.count = 1;
+        return node;
+    }
+
+    static DirTreeNode newFileNode(TreeNodeData nodeData) {
+        return new DirTreeNode(ExtTreeNodeData.loadedNodeData(nodeData), false);
+    }
+
+    ExtTreeNodeData getExtNodeData() {
+        return (ExtTreeNodeData) getUserObject();
+    }
+
+    @Override
+    public int getChildCount() {
+        return count;
+    }
+
+    @Override
+    public TreeNode getChildAt(int index) {
+        checkIndex(index);
+        DirTreeNode node = getCreatedChild(index);
+        if (node == null) {
+            node = newChild(entries[index]);
+            if (nodes == null) {
+                nodes = new DirTreeNode[entries.length];
+            }
+            nodes[index] = node;
+            node.setParent(this);
+            node.indexHint = index;
+        }
+        return node;
+    }
+
+    @Override
+    public int getIndex(TreeNode child) {
+        if (child == null) {
+            throw new IllegalArgumentException("argument is null");
+        }
+        if (child.getParent() != this || nodes == null) {
+            return -1;
+        }
+        int hint = ((DirTreeNode) child).indexHint;
+        if (hint >= 0 && hint < count && nodes[hint] == child) {
+            return hint;
+        }
+        for (int i = 0; i < count; ++i) {
+            if (nodes[i] == child) {
+                ((DirTreeNode) child).indexHint = i;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates nodes of all children.
+     */
+    @Override
+    public Enumeration children() {
+        List<TreeNode> children = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            children.add(getChildAt(i));
+        }
+        return Collections.enumeration(children);
+    }
+
+    @Override
+    public void insert(MutableTreeNode newChild, int index) {
+        if (!getAllowsChildren()) {
+            throw new IllegalStateException("node does not allow children");
+        }
+        if (!(newChild instanceof DirTreeNode)) {
+            throw new IllegalArgumentException("new child is not a directory tree node");
+        }
+        if (isNodeAncestor(newChild)) {
+            throw new IllegalArgumentException("new child is an ancestor");
+        }
+        if (index < 0 || index > count) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        MutableTreeNode oldParent = (MutableTreeNode) newChild.getParent();
+        if (oldParent != null) {
+            oldParent.remove(newChild);
+        }
+        DirTreeNode node = (DirTreeNode) newChild;
+        if (count == entries.length) {
+            int capacity = Math.max(4, 2 * count);
+            entries = Arrays.copyOf(entries, capacity);
+            if (nodes != null) {
+                nodes = Arrays.copyOf(nodes, capacity);
+            }
+        }
+        if (nodes == null) {
+            nodes = new DirTreeNode[entries.length];
+        }
+        System.arraycopy(entries, index, entries, index + 1, count - index);
+        System.arraycopy(nodes, index, nodes, index + 1, count - index);
+        entries[index] = node.toEntry();
+        nodes[index] = node;
+        ++count;
+        node.setParent(this);
+        node.indexHint = index;
+    }
+
+    @Override
+    public void remove(int index) {
+        checkIndex(index);
+        DirTreeNode node = getCreatedChild(index);
+        System.arraycopy(entries, index + 1, entries, index, count - index - 1);
+        entries[count - 1] = null;
+        if (nodes != null) {
+            System.arraycopy(nodes, index + 1, nodes, index, count - index - 1);
+            nodes[count - 1] = null;
+        }
+        --count;
+        if (node != null) {
+            node.setParent(null);
+        }
+    }
+
+    @Override
+    public void removeAllChildren() {
+        setChildren(NO_ENTRIES, null, 0);
+    }
+
+    Object getEntry(int index) {
+        checkIndex(index);
+        return entries[index];
+    }
+
+    /**
+     * Returns null if the node of the child has not been created.
+     */
+    DirTreeNode getCreatedChild(int index) {
+        checkIndex(index);
+        return nodes == null ? null : nodes[index];
+    }
+
+    /**
+     * Created nodes that are not among the new children are detached.
+     * Arrays are owned by this node afterwards, nodes may be null
+     * or have the same length as entries.
+     */
+    void setChildren(Object[] newEntries, DirTreeNode[] newNodes, int newCount) {
+        if (newNodes != null && newNodes.length != newEntries.length) {
+            throw new IllegalArgumentException("entries and nodes differ in length");
+        }
+        for (int i = 0; nodes != null && i < count; ++i) {
+            if (nodes[i] != null) {
+                nodes[i].setParent(null);
+            }
+        }
+        entries = newEntries;
+        nodes = newNodes;
+        count = newCount;
+        for (int i = 0; nodes != null && i < count; ++i) {
+            if (nodes[i] != null) {
+                nodes[i].setParent(this);
+                nodes[i].indexHint = i;
+            }
+        }
+    }
+
+    /**
+     * Releases nodes of children that can be created again from their entries
+     * and are not kept by the given predicate,
+     * nodes of other children release their children in turn.
+     */
+    void releaseChildren(Predicate<DirTreeNode> isKept) {
+        for (int i = 0; nodes != null && i < count; ++i) {
+            DirTreeNode node = nodes[i];
+            if (node == null) {
+                continue;
+            }
+            if (node.isReleasable() && !isKept.test(node)) {
+                nodes[i] = null;
+                node.setParent(null);
+            } else {
+                node.releaseChildren(isKept);
+            }
+        }
+    }
+
+    /**
+     * Returns the data of the entry, fake children get data of their label.
+     */
+    static TreeNodeData getEntryData(Object entry) {
+        if (entry instanceof TreeNodeData) {
+            return (TreeNodeData) entry;
+        }
+        return ExtTreeNodeData.fakeNodeData((String) entry).getNodeData();
+    }
+
+    private boolean isReleasable() {
+        ExtTreeNodeData extNodeData = getExtNodeData();
+        if (extNodeData.getType() == ExtTreeNodeData.Type.FAKE || !getAllowsChildren()) {
+            return true;
+        }
+        // such directories have only the fake child they were created with
+        return extNodeData.getStatus() == ExtTreeNodeData.Status.NULL &&
+                extNodeData.getLoader() == null;
+    }
+
+    private Object toEntry() {
+        ExtTreeNodeData extNodeData = getExtNodeData();
+        if (extNodeData.getType() == ExtTreeNodeData.Type.FAKE) {
+            return extNodeData.getNodeData().getLabel();
+        }
+        return extNodeData.getNodeData();
+    }
+
+    private static DirTreeNode newChild(Object entry) {
+        if (entry instanceof TreeNodeData) {
+            return newNode((TreeNodeData) entry);
+        }
+        return newFakeNode((String) entry, false);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+}
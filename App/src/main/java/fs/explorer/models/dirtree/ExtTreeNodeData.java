@@ -4,6 +4,9 @@ import fs.explorer.providers.dirtree.TreeNodeLoader;
 import fs.explorer.providers.dirtree.path.FsPath;
 import fs.explorer.providers.dirtree.TreeNodeData;
 import fs.explorer.providers.dirtree.path.TargetType;
+import fs.explorer.utils.Disposable;
+
+import java.util.Map;
 
 public class ExtTreeNodeData {
     private final TreeNodeData nodeData;
@@ -11,6 +14,10 @@ public class ExtTreeNodeData {
     private final Type type;
 
     private TreeNodeLoader loader;
+    // reports changes of contents while the directory is expanded
+    private Disposable watch;
+    // changes reported while the directory is listed, by paths of entries
+    private Map<String, TreeNodeData> pendingChanges;
 
     private ExtTreeNodeData(TreeNodeData nodeData, Status status, Type type) {
         this.nodeData = nodeData;
@@ -42,6 +49,22 @@ public class ExtTreeNodeData {
         this.loader = loader;
     }
 
+    public Disposable getWatch() {
+        return watch;
+    }
+
+    public void setWatch(Disposable watch) {
+        this.watch = watch;
+    }
+
+    public Map<String, TreeNodeData> getPendingChanges() {
+        return pendingChanges;
+    }
+
+    public void setPendingChanges(Map<String, TreeNodeData> pendingChanges) {
+        this.pendingChanges = pendingChanges;
+    }
+
     @Override
     public String toString() {
         return nodeData.toString();
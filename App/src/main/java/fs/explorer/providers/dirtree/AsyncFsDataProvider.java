@@ -1,5 +1,7 @@
 package fs.explorer.providers.dirtree;
 
+import fs.explorer.utils.Disposable;
+
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -11,4 +13,20 @@ public interface AsyncFsDataProvider {
             Consumer<List<TreeNodeData>> onComplete,
             Consumer<String> onFail
     );
+
+    TreeNodeLoader getNodesFor(
+            TreeNodeData node,
+            Consumer<List<TreeNodeData>> onBatch,
+            Runnable onComplete,
+            Consumer<String> onFail
+    );
+
+    void invalidateNodesFor(TreeNodeData node);
+
+    /**
+     * Changes of contents of the node are reported until the watch passed to onWatch
+     * is disposed, null is passed if changes of the node are not reported.
+     * Starting a watch may read the directory, so it is started in the background.
+     */
+    void watchNodesFor(TreeNodeData node, Consumer<Disposable> onWatch);
 }
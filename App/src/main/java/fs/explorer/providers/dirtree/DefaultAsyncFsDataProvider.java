@@ -5,6 +5,7 @@ import fs.explorer.utils.Disposable;
 import javax.swing.*;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 public class DefaultAsyncFsDataProvider implements AsyncFsDataProvider, Disposable {
@@ -43,6 +44,72 @@ public class DefaultAsyncFsDataProvider implements AsyncFsDataProvider, Disposab
         }
     }
 
+    @Override
+    public TreeNodeLoader getNodesFor(
+            TreeNodeData node,
+            Consumer<List<TreeNodeData>> onBatch,
+            Runnable onComplete,
+            Consumer<String> onFail
+    ) {
+        try {
+            Future<?> task = executor.submit(() ->
+                    fsDataProvider.getNodesFor(
+                            node,
+                            arg -> SwingUtilities.invokeLater(() -> onBatch.accept(arg)),
+                            () -> SwingUtilities.invokeLater(onComplete),
+                            arg -> SwingUtilities.invokeLater(() -> onFail.accept(arg))
+                    )
+            );
+            return new TreeNodeLoader(task);
+        } catch (RejectedExecutionException e) {
+            onFail.accept(INTERNAL_ERROR);
+            return null;
+        }
+    }
+
+    @Override
+    public void invalidateNodesFor(TreeNodeData node) {
+        fsDataProvider.invalidateNodesFor(node);
+    }
+
+    @Override
+    public void watchNodesFor(TreeNodeData node, Consumer<Disposable> onWatch) {
+        try {
+            executor.submit(() -> {
+                Disposable watch = fsDataProvider.watchNodesFor(node);
+                SwingUtilities.invokeLater(() -> onWatch.accept(watch));
+            });
+        } catch (RejectedExecutionException e) {
+            onWatch.accept(null);
+        }
+    }
+
+    /**
+     * The listener is called in the event dispatch thread until the provider is disposed.
+     */
+    public void setNodesChangeListener(NodesChangeListener listener) {
+        fsDataProvider.setNodesChangeListener((node, changedNodes, removedNodes) ->
+                SwingUtilities.invokeLater(() -> {
+                    if (!executor.isShutdown()) {
+                        listener.onNodesChanged(node, changedNodes, removedNodes);
+                    }
+                })
+        );
+    }
+
+    /**
+     * The listener is called in the event dispatch thread until the provider is disposed.
+     */
+    public void setNodesUpdateListener(BiConsumer<TreeNodeData, List<TreeNodeData>> listener) {
+        fsDataProvider.setNodesUpdateListener((node, contents) ->
+                SwingUtilities.invokeLater(() -> {
+                    if (!executor.isShutdown()) {
+                        listener.accept(node, contents);
+                    }
+                })
+        );
+    }
+
     @Override
     public void dispose() {
         shutdownNow();
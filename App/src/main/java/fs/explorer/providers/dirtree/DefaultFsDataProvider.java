@@ -2,12 +2,14 @@ package fs.explorer.providers.dirtree;
 
 import fs.explorer.providers.dirtree.archives.ArchivesManager;
 import fs.explorer.providers.dirtree.path.*;
+import fs.explorer.utils.Disposable;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -22,6 +24,7 @@ public class DefaultFsDataProvider implements FsDataProvider {
 
     private static final String INTERNAL_ERROR = "internal error";
     private static final String DATA_READ_ERROR = "data read error";
+    private static final int BATCH_SIZE = 500;
 
     public DefaultFsDataProvider(
             FsPath topDir,
@@ -61,7 +64,90 @@ public class DefaultFsDataProvider implements FsDataProvider {
         } catch (InterruptedIOException e) {
             // do nothing
         } catch (IOException e) {
-            onFail.accept(DATA_READ_ERROR + " - " + node.pathToString());
+            onFail.accept(dataReadErrorMessage(node, e));
+        }
+    }
+
+    /**
+     * Contents of directories are passed in batches,
+     * contents of archives are passed at once.
+     */
+    @Override
+    public void getNodesFor(
+            TreeNodeData node,
+            Consumer<List<TreeNodeData>> onBatch,
+            Runnable onComplete,
+            Consumer<String> onFail
+    ) {
+        boolean isDirectory = node != null && node.getPath() != null &&
+                node.getPath().isFsPath() &&
+                node.getPath().asFsPath().getTargetType() == TargetType.DIRECTORY;
+        if (!isDirectory) {
+            FsDataProvider.super.getNodesFor(node, onBatch, onComplete, onFail);
+            return;
+        }
+        try {
+            fsManager.list(node.getPath().asFsPath(), BATCH_SIZE, entries -> {
+                List<TreeNodeData> data = entries.stream()
+                        .map(DefaultFsDataProvider::toTreeNodeData)
+                        .collect(Collectors.toList());
+                onBatch.accept(groupAndSort(data));
+            });
+            onComplete.run();
+        } catch (InterruptedIOException e) {
+            // do nothing
+        } catch (IOException e) {
+            onFail.accept(dataReadErrorMessage(node, e));
+        }
+    }
+
+    @Override
+    public void setNodesUpdateListener(BiConsumer<TreeNodeData, List<TreeNodeData>> listener) {
+        fsManager.setListingUpdateListener((directoryPath, entries) -> {
+            List<TreeNodeData> data = entries.stream()
+                    .map(DefaultFsDataProvider::toTreeNodeData)
+                    .collect(Collectors.toList());
+            listener.accept(toTreeNodeData(directoryPath), groupAndSort(data));
+        });
+    }
+
+    @Override
+    public void setNodesChangeListener(NodesChangeListener listener) {
+        fsManager.setEntriesChangeListener((directoryPath, changedEntries, removedEntries) ->
+                listener.onNodesChanged(
+                        toTreeNodeData(directoryPath),
+                        groupAndSort(changedEntries.stream()
+                                .map(DefaultFsDataProvider::toTreeNodeData)
+                                .collect(Collectors.toList())),
+                        removedEntries.stream()
+                                .map(DefaultFsDataProvider::toTreeNodeData)
+                                .collect(Collectors.toList())
+                )
+        );
+    }
+
+    /**
+     * Only directories are watched, a watch that fails to start is treated as unsupported.
+     */
+    @Override
+    public Disposable watchNodesFor(TreeNodeData node) {
+        boolean isDirectory = node != null && node.getPath() != null &&
+                node.getPath().isFsPath() &&
+                node.getPath().asFsPath().getTargetType() == TargetType.DIRECTORY;
+        if (!isDirectory) {
+            return null;
+        }
+        try {
+            return fsManager.watchDirectory(node.getPath().asFsPath());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void invalidateNodesFor(TreeNodeData node) {
+        if (node != null && node.getPath() != null && node.getPath().isFsPath()) {
+            fsManager.invalidateListing(node.getPath().asFsPath());
         }
     }
 
@@ -118,6 +204,14 @@ public class DefaultFsDataProvider implements FsDataProvider {
         }
     }
 
+    private static String dataReadErrorMessage(TreeNodeData node, IOException e) {
+        String message = DATA_READ_ERROR + " - " + node.pathToString();
+        if (e.getMessage() != null) {
+            message += " (" + e.getMessage() + ")";
+        }
+        return message;
+    }
+
     private static TreeNodeData toTreeNodeData(FsPath path) {
         String label = path.getLastComponent();
         if (label.isEmpty()) {
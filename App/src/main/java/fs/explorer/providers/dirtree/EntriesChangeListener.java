@@ -0,0 +1,18 @@
+package fs.explorer.providers.dirtree;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+
+import java.util.List;
+
+@FunctionalInterface
+public interface EntriesChangeListener {
+    /**
+     * Changed entries exist in the directory now, removed ones do not.
+     * Types of removed entries are unknown, so they are told apart only by their paths.
+     */
+    void onEntriesChanged(
+            FsPath directoryPath,
+            List<FsPath> changedEntries,
+            List<FsPath> removedEntries
+    );
+}
@@ -1,6 +1,9 @@
 package fs.explorer.providers.dirtree;
 
+import fs.explorer.utils.Disposable;
+
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 public interface FsDataProvider {
@@ -11,4 +14,50 @@ public interface FsDataProvider {
             Consumer<List<TreeNodeData>> onComplete,
             Consumer<String> onFail
     );
+
+    /**
+     * Passes nodes to onBatch in sorted groups as soon as they are read
+     * and calls onComplete after the last group.
+     * By default all nodes are passed at once.
+     */
+    default void getNodesFor(
+            TreeNodeData node,
+            Consumer<List<TreeNodeData>> onBatch,
+            Runnable onComplete,
+            Consumer<String> onFail
+    ) {
+        getNodesFor(node, nodes -> {
+            onBatch.accept(nodes);
+            onComplete.run();
+        }, onFail);
+    }
+
+    /**
+     * The listener is called with a directory node and its sorted contents
+     * when contents provided earlier turn out to be outdated.
+     */
+    default void setNodesUpdateListener(BiConsumer<TreeNodeData, List<TreeNodeData>> listener) {
+    }
+
+    /**
+     * Makes the next call of getNodesFor read contents of the node again
+     * if contents are cached.
+     */
+    default void invalidateNodesFor(TreeNodeData node) {
+    }
+
+    /**
+     * The listener is called with a directory node and its changed nodes
+     * when the directory is watched and its contents change.
+     */
+    default void setNodesChangeListener(NodesChangeListener listener) {
+    }
+
+    /**
+     * Changes of contents of the node are reported until the returned watch is disposed.
+     * Returns null if changes of the node are not reported.
+     */
+    default Disposable watchNodesFor(TreeNodeData node) {
+        return null;
+    }
 }
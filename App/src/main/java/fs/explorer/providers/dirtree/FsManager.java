@@ -1,15 +1,103 @@
 package fs.explorer.providers.dirtree;
 
 import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.utils.Disposable;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public interface FsManager {
     byte[] readFile(FsPath filePath) throws IOException;
 
     <R> R withFileStream(FsPath fsPath, IOFunction<InputStream, R> streamReader) throws IOException;
 
+    /**
+     * Reads at most maxBytes bytes of the file starting at offset,
+     * fewer bytes are returned only at the end of the file.
+     */
+    default byte[] readFileRange(FsPath filePath, long offset, int maxBytes) throws IOException {
+        return withFileStream(filePath, is -> {
+            long skipped = 0;
+            while (skipped < offset) {
+                long len = is.skip(offset - skipped);
+                if (len <= 0) {
+                    // skip does not tell about the end of stream
+                    if (is.read() == -1) {
+                        return new byte[0];
+                    }
+                    len = 1;
+                }
+                skipped += len;
+            }
+            byte[] bytes = new byte[maxBytes];
+            int count = 0;
+            int len;
+            while (count < maxBytes && (len = is.read(bytes, count, maxBytes - count)) != -1) {
+                count += len;
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException();
+                }
+            }
+            return count == maxBytes ? bytes : Arrays.copyOf(bytes, count);
+        });
+    }
+
     List<FsPath> list(FsPath directoryPath) throws IOException;
+
+    /**
+     * Passes entries to onBatch in groups of at most batchSize entries
+     * as soon as they are read, so long listings can be shown and cancelled early.
+     * By default all entries are passed at once.
+     */
+    default void list(FsPath directoryPath, int batchSize, Consumer<List<FsPath>> onBatch)
+            throws IOException {
+        onBatch.accept(list(directoryPath));
+    }
+
+    /**
+     * File systems that cache listings call the listener with the new entries
+     * of a directory when they find out that its cached listing is outdated.
+     * The listener is called from a background thread.
+     */
+    default void setListingUpdateListener(BiConsumer<FsPath, List<FsPath>> listener) {
+    }
+
+    /**
+     * Makes the next listing of the directory read it from the file system
+     * if listings are cached.
+     */
+    default void invalidateListing(FsPath directoryPath) {
+    }
+
+    /**
+     * File systems that report changes of directories call the listener
+     * with changed entries of watched directories, see watchDirectory.
+     * The listener is called from a background thread.
+     */
+    default void setEntriesChangeListener(EntriesChangeListener listener) {
+    }
+
+    /**
+     * Changes of entries of the directory are reported until the returned watch is disposed.
+     * Returns null if the file system does not report changes.
+     */
+    default Disposable watchDirectory(FsPath directoryPath) throws IOException {
+        return null;
+    }
+
+    /**
+     * Returns null if random access to files is not supported.
+     */
+    SeekableByteChannel newByteChannel(FsPath filePath) throws IOException;
+
+    /**
+     * Returns time of the last modification in milliseconds or -1 if it is unknown.
+     */
+    long getLastModifiedTime(FsPath filePath) throws IOException;
 }
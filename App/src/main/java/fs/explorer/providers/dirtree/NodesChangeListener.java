@@ -0,0 +1,15 @@
+package fs.explorer.providers.dirtree;
+
+import java.util.List;
+
+@FunctionalInterface
+public interface NodesChangeListener {
+    /**
+     * Changed nodes are sorted, removed nodes are told apart only by their paths.
+     */
+    void onNodesChanged(
+            TreeNodeData directoryNode,
+            List<TreeNodeData> changedNodes,
+            List<TreeNodeData> removedNodes
+    );
+}
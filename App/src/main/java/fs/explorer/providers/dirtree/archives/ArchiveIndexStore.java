@@ -0,0 +1,254 @@
+package fs.explorer.providers.dirtree.archives;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.utils.FsUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Keeps indexes of archives on disk between sessions.
+ * An index is valid while size and modification time of its archive do not change.
+ * Least recently used indexes are deleted when the store exceeds its size limit.
+ */
+public class ArchiveIndexStore {
+    private final Path directory;
+    private final long maxSizeBytes;
+
+    private static final int MAGIC = 0x46534958;
+    private static final int VERSION = 2;
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 8192;
+
+    public static final long DEFAULT_MAX_SIZE_BYTES = 256L * 1024 * 1024;
+
+    public ArchiveIndexStore(Path directory) {
+        this(directory, DEFAULT_MAX_SIZE_BYTES);
+    }
+
+    public ArchiveIndexStore(Path directory, long maxSizeBytes) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Returns null if there is no valid index for the archive.
+     */
+    ZipArchive load(FsPath archivePath, long archiveSize, long lastModifiedTime)
+            throws IOException {
+        Path indexFile = indexFile(archivePath);
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+        EntryTable entries;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(indexFile), BUFFER_SIZE))) {
+            entries = readIndex(in, archivePath, archiveSize, lastModifiedTime);
+        } catch (EOFException | UTFDataFormatException e) {
+            entries = null;
+        }
+        if (entries == null) {
+            Files.deleteIfExists(indexFile);
+            return null;
+        }
+        // modification time of an index is the time it was used last
+        Files.setLastModifiedTime(indexFile, FileTime.fromMillis(System.currentTimeMillis()));
+        return new ZipArchive(archivePath, entries);
+    }
+
+    void save(ZipArchive archive, long archiveSize, long lastModifiedTime) throws IOException {
+        Files.createDirectories(directory);
+        Path indexFile = indexFile(archive.getPath());
+        Path tmpFile = Files.createTempFile(
+                directory, indexFile.getFileName().toString(), TMP_SUFFIX);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmpFile), BUFFER_SIZE))) {
+                writeIndex(out, archive, archiveSize, lastModifiedTime);
+            }
+            Files.move(tmpFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+        removeLeastRecentlyUsed();
+    }
+
+    private void writeIndex(
+            DataOutputStream out,
+            ZipArchive archive,
+            long archiveSize,
+            long lastModifiedTime
+    ) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, archive.getPath().getPath());
+        out.writeLong(archiveSize);
+        out.writeLong(lastModifiedTime);
+        List<ZipEntry> entries = archive.listAllEntries();
+        out.writeInt(entries.size());
+        byte[] previousName = new byte[0];
+        for (ZipEntry entry : entries) {
+            if (!(entry instanceof IndexedZipEntry)) {
+                throw new IOException("archive is not indexed");
+            }
+            // names in archives are mostly sorted, so we only store
+            // what differs from the previous name
+            byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+            int prefixLength = commonPrefixLength(previousName, name);
+            out.writeInt(prefixLength);
+            out.writeInt(name.length - prefixLength);
+            out.write(name, prefixLength, name.length - prefixLength);
+            out.writeByte(entry.getMethod());
+            out.writeLong(entry.getTime());
+            out.writeLong(entry.getCrc());
+            out.writeLong(entry.getSize());
+            out.writeLong(entry.getCompressedSize());
+            out.writeLong(((IndexedZipEntry) entry).getLocalHeaderOffset());
+            previousName = name;
+        }
+    }
+
+    private EntryTable readIndex(
+            DataInputStream in,
+            FsPath archivePath,
+            long archiveSize,
+            long lastModifiedTime
+    ) throws IOException {
+        boolean isValid = in.readInt() == MAGIC &&
+                in.readInt() == VERSION &&
+                readString(in).equals(archivePath.getPath()) &&
+                in.readLong() == archiveSize &&
+                in.readLong() == lastModifiedTime;
+        if (!isValid) {
+            return null;
+        }
+        int entriesCount = in.readInt();
+        if (entriesCount < 0) {
+            return null;
+        }
+        EntryTable entries = new EntryTable(Math.min(entriesCount, 1 << 16));
+        byte[] name = new byte[0];
+        int previousLength = 0;
+        for (int i = 0; i < entriesCount; ++i) {
+            int prefixLength = in.readInt();
+            if (prefixLength < 0 || prefixLength > previousLength) {
+                return null;
+            }
+            // names are stored as UTF-8 suffixes of previous names, so they
+            // are kept as bytes and go to the table without being decoded
+            int suffixLength = readLength(in);
+            if (prefixLength + suffixLength > name.length) {
+                name = Arrays.copyOf(name, Math.max(prefixLength + suffixLength, name.length * 2));
+            }
+            in.readFully(name, prefixLength, suffixLength);
+            previousLength = prefixLength + suffixLength;
+            int method = in.readByte();
+            long time = in.readLong();
+            long crc = in.readLong();
+            long size = in.readLong();
+            long compressedSize = in.readLong();
+            long localHeaderOffset = in.readLong();
+            boolean isValidEntry = (method == -1 || method == ZipEntry.STORED ||
+                    method == ZipEntry.DEFLATED) &&
+                    crc >= -1 && crc <= 0xFFFFFFFFL &&
+                    size >= -1 && compressedSize >= -1;
+            if (!isValidEntry) {
+                return null;
+            }
+            entries.addEntry(name, 0, previousLength, method, time, crc, size,
+                    compressedSize, localHeaderOffset);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+        }
+        entries.trim();
+        return entries;
+    }
+
+    private void removeLeastRecentlyUsed() throws IOException {
+        List<Path> indexFiles;
+        try (Stream<Path> files = Files.list(directory)) {
+            indexFiles = files
+                    .filter(f -> f.getFileName().toString().endsWith(INDEX_SUFFIX))
+                    .collect(Collectors.toList());
+        }
+        long totalSize = 0;
+        List<IndexFileInfo> infos = new ArrayList<>(indexFiles.size());
+        for (Path file : indexFiles) {
+            try {
+                IndexFileInfo info = new IndexFileInfo(
+                        file, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+                infos.add(info);
+                totalSize += info.size;
+            } catch (NoSuchFileException e) {
+                // removed concurrently
+            }
+        }
+        if (totalSize <= maxSizeBytes) {
+            return;
+        }
+        infos.sort(Comparator.comparingLong(info -> info.lastUsedTime));
+        for (IndexFileInfo info : infos) {
+            if (totalSize <= maxSizeBytes) {
+                break;
+            }
+            Files.deleteIfExists(info.file);
+            totalSize -= info.size;
+        }
+    }
+
+    private Path indexFile(FsPath archivePath) {
+        return directory.resolve(FsUtils.toFileName(archivePath.getPath()) + INDEX_SUFFIX);
+    }
+
+    private static int commonPrefixLength(byte[] s1, byte[] s2) {
+        int length = 0;
+        int maxLength = Math.min(s1.length, s2.length);
+        while (length < maxLength && s1[length] == s2[length]) {
+            ++length;
+        }
+        return length;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > 0xFFFF * 4) {
+            throw new UTFDataFormatException("bad string length");
+        }
+        return length;
+    }
+
+    private static class IndexFileInfo {
+        private final Path file;
+        private final long size;
+        private final long lastUsedTime;
+
+        private IndexFileInfo(Path file, long size, long lastUsedTime) {
+            this.file = file;
+            this.size = size;
+            this.lastUsedTime = lastUsedTime;
+        }
+    }
+}
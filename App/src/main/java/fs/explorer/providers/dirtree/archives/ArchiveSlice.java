@@ -0,0 +1,33 @@
+package fs.explorer.providers.dirtree.archives;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+
+/**
+ * Location of a nested archive that is stored uncompressed inside
+ * another archive, so it can be read in place without extraction.
+ * Slices of slices are flattened, so the offset is always relative
+ * to the beginning of the outermost archive file.
+ */
+class ArchiveSlice {
+    private final FsPath filePath;
+    private final long offset;
+    private final long size;
+
+    ArchiveSlice(FsPath filePath, long offset, long size) {
+        this.filePath = filePath;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    FsPath getFilePath() {
+        return filePath;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    long getSize() {
+        return size;
+    }
+}
@@ -6,23 +6,70 @@ import fs.explorer.providers.dirtree.path.FsPath;
 import fs.explorer.providers.dirtree.path.TargetType;
 import fs.explorer.utils.Disposable;
 import fs.explorer.utils.FsUtils;
+import fs.explorer.utils.WeightedLruCache;
 
 import java.io.*;
+import java.nio.channels.ClosedByInterruptException;
 import java.nio.file.*;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
 
 public class ArchivesManager implements Disposable {
-    private final ConcurrentMap<FsPath, ArchiveData> archives;
+    // weight of an archive is the number of its entries
+    private final WeightedLruCache<FsPath, ArchiveData> archives;
+    // origins outlive their archives to re-index them on demand,
+    // the least recently used ones are forgotten over the limit
+    private final WeightedLruCache<FsPath, ArchiveOrigin> origins;
+    private final ConcurrentMap<FsPath, ArchiveLoad> loads;
+    private final ConcurrentMap<FsPath, LoadFailure> failures;
+    // weight of an extracted archive is its size in bytes
+    private final WeightedLruCache<FsPath, Long> extractedArchives;
+    private final ExecutorService loadExecutor;
     private final ArchivesReader archivesReader;
     private final Path archiveCacheDirectory;
 
     private static final String ARCHIVE_CACHE_PREFIX = "ArchiveCache";
     private static final String EXTRACTED_SUB_ARCHIVE_PREFIX = "SubArchive";
+    private static final String NESTED_ARCHIVE_SEPARATOR = "!/";
+    private static final String FAILED_TO_PROCESS_ARCHIVE = "failed to process archive";
+    private static final long MIN_RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 60_000;
+
+    public static final long DEFAULT_MAX_CACHED_ENTRIES = 500_000;
+    public static final long DEFAULT_MAX_EXTRACTED_BYTES = 1024L * 1024 * 1024;
+    public static final long DEFAULT_MAX_ORIGINS = 10_000;
 
     public ArchivesManager(ArchivesReader archivesReader) throws IOException {
-        this.archives = new ConcurrentHashMap<>();
+        this(archivesReader, DEFAULT_MAX_CACHED_ENTRIES, DEFAULT_MAX_EXTRACTED_BYTES);
+    }
+
+    public ArchivesManager(
+            ArchivesReader archivesReader,
+            long maxCachedEntries,
+            long maxExtractedBytes
+    ) throws IOException {
+        this(archivesReader, maxCachedEntries, maxExtractedBytes, DEFAULT_MAX_ORIGINS);
+    }
+
+    ArchivesManager(
+            ArchivesReader archivesReader,
+            long maxCachedEntries,
+            long maxExtractedBytes,
+            long maxOrigins
+    ) throws IOException {
+        this.archives = new WeightedLruCache<>(maxCachedEntries, ArchiveData::getWeight);
+        this.extractedArchives = new WeightedLruCache<>(
+                maxExtractedBytes, size -> size, (path, size) -> removeExtractedArchive(path));
+        this.origins = new WeightedLruCache<>(maxOrigins, origin -> 1);
+        this.loads = new ConcurrentHashMap<>();
+        this.failures = new ConcurrentHashMap<>();
+        this.loadExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "archive-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
         this.archivesReader = archivesReader;
         this.archiveCacheDirectory = Files.createTempDirectory(ARCHIVE_CACHE_PREFIX);
     }
@@ -38,7 +85,7 @@ public class ArchivesManager implements Disposable {
 
     public List<ArchiveEntryPath> listArchive(FsPath archivePath, FsManager fsManager)
             throws IOException {
-        ArchiveData archiveData = archives.get(archivePath);
+        ArchiveData archiveData = getArchive(archivePath, fsManager);
         if (archiveData == null) {
             return null;
         }
@@ -47,7 +94,7 @@ public class ArchivesManager implements Disposable {
 
     public List<ArchiveEntryPath> listSubEntry(ArchiveEntryPath entryPath, FsManager fsManager)
             throws IOException {
-        ArchiveData archiveData = archives.get(entryPath.getArchivePath());
+        ArchiveData archiveData = getArchive(entryPath.getArchivePath(), fsManager);
         if (archiveData == null) {
             return null;
         }
@@ -55,8 +102,7 @@ public class ArchivesManager implements Disposable {
         if (entryType == TargetType.DIRECTORY) {
             return archiveData.getZipArchive().list(entryPath);
         } else if (entryType == TargetType.ZIP_ARCHIVE) {
-            FsPath subArchivePath = extractSubArchive(archiveData, entryPath, fsManager);
-            ArchiveData subArchiveData = addArchiveIfAbsent(subArchivePath, false, fsManager);
+            ArchiveData subArchiveData = addSubArchiveIfAbsent(archiveData, entryPath, fsManager);
             return subArchiveData.getZipArchive().listRoot();
         } else {
             return null;
@@ -64,19 +110,17 @@ public class ArchivesManager implements Disposable {
     }
 
     public byte[] readEntry(ArchiveEntryPath entryPath, FsManager fsManager) throws IOException {
-        FsPath archivePath = entryPath.getArchivePath();
-        ArchiveData archiveData = archives.get(archivePath);
+        ArchiveData archiveData = getArchive(entryPath.getArchivePath(), fsManager);
         if (archiveData == null) {
             return null;
         }
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        boolean entryFound;
-        if (archiveData.isTopLevel()) {
-            entryFound = archivesReader.readEntryFile(
-                    archivePath, entryPath.getEntryPath(), baos, fsManager);
-        } else {
-            entryFound = archivesReader.readEntryFile(archivePath, entryPath.getEntryPath(), baos);
-        }
+        boolean entryFound = archivesReader.readEntry(
+                archiveData.getZipArchive(),
+                entryPath.getEntryPath(),
+                baos,
+                archiveData.needsFsManager() ? fsManager : null
+        );
         if (!entryFound) {
             return null;
         }
@@ -85,6 +129,7 @@ public class ArchivesManager implements Disposable {
 
     @Override
     public void dispose() {
+        loadExecutor.shutdownNow();
         try {
             clearCache();
         } catch (IOException e) {
@@ -92,6 +137,10 @@ public class ArchivesManager implements Disposable {
         }
     }
 
+    public WeightedLruCache.Stats getCacheStats() {
+        return archives.getStats();
+    }
+
     boolean containsArchive(FsPath archivePath) {
         return archives.containsKey(archivePath);
     }
@@ -100,82 +149,397 @@ public class ArchivesManager implements Disposable {
         FsUtils.deleteDirectoryRecursively(archiveCacheDirectory);
     }
 
+    /**
+     * Returns null if the archive was never added or its origin was forgotten,
+     * re-indexes it if it was evicted from the cache.
+     */
+    private ArchiveData getArchive(FsPath archivePath, FsManager fsManager) throws IOException {
+        ArchiveData archiveData = archives.get(archivePath);
+        if (archiveData != null) {
+            return archiveData;
+        }
+        ArchiveOrigin origin = origins.get(archivePath);
+        if (origin == null) {
+            return null;
+        }
+        ArchiveEntryPath parentEntry = origin.getParentEntry();
+        if (parentEntry == null) {
+            return addArchiveIfAbsent(archivePath, origin.needsFsManager(), fsManager);
+        }
+        ArchiveData parentData = getArchive(parentEntry.getArchivePath(), fsManager);
+        if (parentData == null) {
+            return null;
+        }
+        return addSubArchiveIfAbsent(parentData, parentEntry, fsManager);
+    }
+
     private ArchiveData addArchiveIfAbsent(
             FsPath archivePath,
-            boolean isTopLevel,
+            boolean needsFsManager,
             FsManager fsManager
     ) throws IOException {
-        ArchiveData archiveData = archives.computeIfAbsent(
-                archivePath, key -> tryMakeArchive(key, isTopLevel, fsManager));
-        if (archiveData == null) {
-            if (Thread.currentThread().isInterrupted()) {
-                throw new InterruptedIOException();
-            } else {
-                throw new IOException("failed to process archive");
-            }
-        }
-        return archiveData;
-    }
-
-    private ArchiveData tryMakeArchive(FsPath archivePath, boolean isTopLevel, FsManager fsManager) {
-        try {
+        ArchiveData archiveData = loadIfAbsent(archivePath, () -> {
             ZipArchive zipArchive;
-            if (isTopLevel) {
+            if (needsFsManager) {
                 // only fsManager knows where to find top level archives
                 zipArchive = archivesReader.readEntries(archivePath, fsManager);
             } else {
                 // we extracted this archive so we know it is on local FS
                 zipArchive = archivesReader.readEntries(archivePath);
             }
-            return new ArchiveData(zipArchive, isTopLevel);
-        } catch (IOException e) {
-            return null;
+            return new ArchiveData(zipArchive, needsFsManager);
+        });
+        origins.putIfAbsent(archivePath, new ArchiveOrigin(needsFsManager, null));
+        return archiveData;
+    }
+
+    private ArchiveData addSubArchiveIfAbsent(
+            ArchiveData archiveData,
+            ArchiveEntryPath entryPath,
+            FsManager fsManager
+    ) throws IOException {
+        ArchiveData subArchiveData = addNestedArchiveIfAbsent(archiveData, entryPath, fsManager);
+        if (subArchiveData != null) {
+            return subArchiveData;
+        }
+        return addExtractedArchiveIfAbsent(archiveData, entryPath, fsManager);
+    }
+
+    /**
+     * Returns null if the nested archive has to be extracted to be read.
+     */
+    private ArchiveData addNestedArchiveIfAbsent(
+            ArchiveData archiveData,
+            ArchiveEntryPath entryPath,
+            FsManager fsManager
+    ) throws IOException {
+        FsPath nestedArchivePath = new FsPath(
+                entryPath.getArchivePath().getPath() + NESTED_ARCHIVE_SEPARATOR +
+                        entryPath.getEntryPath(),
+                TargetType.ZIP_ARCHIVE,
+                entryPath.getLastComponent()
+        );
+        ArchiveData nestedData = loadIfAbsent(nestedArchivePath, () -> {
+            try {
+                // nested archive is read through the same channel as its parent
+                ZipArchive zipArchive = archivesReader.readNestedEntries(
+                        archiveData.getZipArchive(),
+                        entryPath.getEntryPath(),
+                        nestedArchivePath,
+                        archiveData.needsFsManager() ? fsManager : null
+                );
+                return zipArchive == null
+                        ? null : new ArchiveData(zipArchive, archiveData.needsFsManager());
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                // the archive will be extracted, so its errors are reported then
+                return null;
+            }
+        });
+        if (nestedData != null) {
+            origins.putIfAbsent(nestedArchivePath,
+                    new ArchiveOrigin(archiveData.needsFsManager(), entryPath));
         }
+        return nestedData;
     }
 
-    private FsPath extractSubArchive(
+    /**
+     * Archive is loaded once for all concurrent requests,
+     * the load is cancelled if all threads that wait for it are interrupted.
+     * Returns null if the loader returns null, such results are not cached.
+     */
+    private ArchiveData loadIfAbsent(FsPath archivePath, ArchiveLoader loader)
+            throws IOException {
+        ArchiveData archiveData = archives.get(archivePath);
+        if (archiveData != null) {
+            return archiveData;
+        }
+        LoadFailure failure = failures.get(archivePath);
+        if (failure != null && !failure.canRetry()) {
+            throw failure.toException();
+        }
+        ArchiveLoad load = loads.compute(archivePath, (key, existing) -> {
+            ArchiveLoad actual = existing;
+            // a finished load may still be in the map, its result might be evicted already
+            if (actual == null || actual.isDone()) {
+                actual = new ArchiveLoad(key, loader);
+                actual.start();
+            }
+            actual.addWaiter();
+            return actual;
+        });
+        try {
+            return load.await();
+        } catch (InterruptedException e) {
+            loads.computeIfPresent(archivePath, (key, existing) -> {
+                if (existing == load && load.removeWaiter() == 0) {
+                    load.cancel();
+                    return null;
+                }
+                return existing;
+            });
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (CancellationException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InterruptedIOException) {
+                throw new InterruptedIOException();
+            }
+            throw new IOException(
+                    FAILED_TO_PROCESS_ARCHIVE + " - " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Extracted archives are identified by their parent, entry name and CRC,
+     * so the same archive is extracted only once while it stays in the cache.
+     */
+    private ArchiveData addExtractedArchiveIfAbsent(
             ArchiveData archiveData,
             ArchiveEntryPath entryPath,
             FsManager fsManager
     ) throws IOException {
-        Path subArchiveDirectory = Files.createTempDirectory(
-                archiveCacheDirectory, EXTRACTED_SUB_ARCHIVE_PREFIX);
-        Path subArchiveFile = Paths.get(
-                subArchiveDirectory.toString(), entryPath.getLastComponent());
-        FsPath archivePath = entryPath.getArchivePath();
-        String entryName = entryPath.getEntryPath();
-        FsPath destinationPath = FsPath.fromPath(subArchiveFile);
-
-        boolean entryFound;
-        if (archiveData.isTopLevel()) {
-            // only fsManager knows where to find top level archives
-            entryFound = archivesReader.extractEntryFile(
-                    archivePath, entryName, destinationPath, fsManager);
+        ZipEntry entry = archiveData.getZipArchive().getEntry(entryPath.getEntryPath());
+        if (entry == null) {
+            throw new IOException("zip entry not found - " + entryPath);
+        }
+        String extractionKey = archiveData.getZipArchive().getPath().getPath() + "\n" +
+                entry.getName() + "\n";
+        if (entry.getCrc() != -1) {
+            extractionKey += entry.getCrc() + ":" + entry.getSize();
         } else {
+            // without CRC we can not tell if the parent archive has changed
+            extractionKey += "#" + archiveData.getId();
+        }
+        Path extractedFile = archiveCacheDirectory
+                .resolve(FsUtils.toFileName(extractionKey))
+                .resolve(entryPath.getLastComponent());
+        FsPath extractedPath = FsPath.fromPath(extractedFile);
+
+        ArchiveData extractedData = loadIfAbsent(extractedPath, () -> {
+            if (extractedArchives.get(extractedPath) == null) {
+                long maxSize = extractedArchives.getMaxWeight();
+                if (entry.getSize() > maxSize) {
+                    return streamSubArchive(archiveData, entryPath, extractedPath, fsManager);
+                }
+                long size = extractSubArchive(archiveData, entryPath, extractedFile, fsManager);
+                if (size > maxSize) {
+                    // the size was not known before the extraction
+                    removeExtractedArchive(extractedPath);
+                    return streamSubArchive(archiveData, entryPath, extractedPath, fsManager);
+                }
+                extractedArchives.putIfAbsent(extractedPath, size);
+            }
             // we extracted this archive so we know it is on local FS
-            entryFound = archivesReader.extractEntryFile(archivePath, entryName, destinationPath);
+            return new ArchiveData(archivesReader.readEntries(extractedPath), false);
+        });
+        origins.putIfAbsent(extractedPath, new ArchiveOrigin(false, entryPath));
+        return extractedData;
+    }
+
+    /**
+     * Archives that do not fit into the extraction budget are not kept on disk,
+     * they are read by streaming the parent entry instead.
+     */
+    private ArchiveData streamSubArchive(
+            ArchiveData archiveData,
+            ArchiveEntryPath entryPath,
+            FsPath streamedPath,
+            FsManager fsManager
+    ) throws IOException {
+        ZipArchive zipArchive = archivesReader.readStreamedEntries(
+                archiveData.getZipArchive(),
+                entryPath.getEntryPath(),
+                streamedPath,
+                archiveData.needsFsManager() ? fsManager : null
+        );
+        return new ArchiveData(zipArchive, archiveData.needsFsManager());
+    }
+
+    private long extractSubArchive(
+            ArchiveData archiveData,
+            ArchiveEntryPath entryPath,
+            Path extractedFile,
+            FsManager fsManager
+    ) throws IOException {
+        Path extractionDirectory = Files.createDirectories(extractedFile.getParent());
+        Path tmpFile = Files.createTempFile(
+                extractionDirectory, EXTRACTED_SUB_ARCHIVE_PREFIX, null);
+        try {
+            // only fsManager knows where to find top level archives,
+            // sub archives were extracted by us so they are on local FS
+            boolean entryFound = archivesReader.extractEntry(
+                    archiveData.getZipArchive(),
+                    entryPath.getEntryPath(),
+                    FsPath.fromPath(tmpFile),
+                    archiveData.needsFsManager() ? fsManager : null
+            );
+            if (!entryFound) {
+                throw new IOException("zip entry not found - " + entryPath);
+            }
+            Files.move(tmpFile, extractedFile, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpFile);
         }
-        if (!entryFound) {
-            throw new IOException("zip entry not found - " + entryPath);
+        return Files.size(extractedFile);
+    }
+
+    private void removeExtractedArchive(FsPath extractedPath) {
+        // the archive will be extracted again if it is needed
+        archives.remove(extractedPath);
+        try {
+            FsUtils.deleteDirectoryRecursively(Paths.get(extractedPath.getPath()).getParent());
+        } catch (IOException e) {
+            // the file may still be in use, it is deleted on dispose anyway
         }
-        return destinationPath;
     }
 
     private static class ArchiveData {
+        private final long id;
         private final ZipArchive zipArchive;
-        private final boolean isTopLevel;
+        private final boolean needsFsManager;
 
-        private ArchiveData(ZipArchive zipArchive, boolean isTopLevel) {
+        private static final AtomicLong lastId = new AtomicLong();
+
+        private ArchiveData(ZipArchive zipArchive, boolean needsFsManager) {
+            this.id = lastId.incrementAndGet();
             this.zipArchive = zipArchive;
-            this.isTopLevel = isTopLevel;
+            this.needsFsManager = needsFsManager;
+        }
+
+        long getId() {
+            return id;
         }
 
         ZipArchive getZipArchive() {
             return zipArchive;
         }
 
-        boolean isTopLevel() {
-            return isTopLevel;
+        boolean needsFsManager() {
+            return needsFsManager;
+        }
+
+        long getWeight() {
+            return zipArchive.getEntriesCount() + 1;
+        }
+    }
+
+    private static class ArchiveOrigin {
+        private final boolean needsFsManager;
+        // null for archives that are files on their own
+        private final ArchiveEntryPath parentEntry;
+
+        private ArchiveOrigin(boolean needsFsManager, ArchiveEntryPath parentEntry) {
+            this.needsFsManager = needsFsManager;
+            this.parentEntry = parentEntry;
+        }
+
+        boolean needsFsManager() {
+            return needsFsManager;
+        }
+
+        ArchiveEntryPath getParentEntry() {
+            return parentEntry;
+        }
+    }
+
+    private interface ArchiveLoader {
+        ArchiveData load() throws IOException;
+    }
+
+    private class ArchiveLoad {
+        private final FsPath archivePath;
+        private final ArchiveLoader loader;
+        private final CompletableFuture<ArchiveData> result;
+        private Future<?> task;
+        private int waitersCount = 0;
+
+        private ArchiveLoad(FsPath archivePath, ArchiveLoader loader) {
+            this.archivePath = archivePath;
+            this.loader = loader;
+            this.result = new CompletableFuture<>();
+        }
+
+        void start() {
+            try {
+                task = loadExecutor.submit(this::load);
+            } catch (RejectedExecutionException e) {
+                result.cancel(false);
+            }
+        }
+
+        synchronized void addWaiter() {
+            ++waitersCount;
+        }
+
+        synchronized int removeWaiter() {
+            return --waitersCount;
+        }
+
+        boolean isDone() {
+            return result.isDone();
+        }
+
+        ArchiveData await() throws InterruptedException, ExecutionException {
+            return result.get();
+        }
+
+        void cancel() {
+            result.cancel(false);
+            if (task != null) {
+                task.cancel(true);
+            }
+        }
+
+        private void load() {
+            try {
+                ArchiveData archiveData = loader.load();
+                if (archiveData != null) {
+                    // archive might have been indexed before this load
+                    ArchiveData existing = archives.putIfAbsent(archivePath, archiveData);
+                    archiveData = existing != null ? existing : archiveData;
+                }
+                failures.remove(archivePath);
+                result.complete(archiveData);
+            } catch (IOException e) {
+                boolean isInterrupted = Thread.currentThread().isInterrupted() ||
+                        e instanceof InterruptedIOException ||
+                        e instanceof ClosedByInterruptException;
+                if (!isInterrupted) {
+                    failures.merge(archivePath, new LoadFailure(e, 1),
+                            (previous, current) -> new LoadFailure(e, previous.attempts + 1));
+                }
+                result.completeExceptionally(e);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(new IOException(e.getMessage(), e));
+            } finally {
+                loads.remove(archivePath, this);
+            }
+        }
+    }
+
+    private static class LoadFailure {
+        private final IOException error;
+        private final int attempts;
+        private final long retryTimeMillis;
+
+        private LoadFailure(IOException error, int attempts) {
+            this.error = error;
+            this.attempts = attempts;
+            long delay = Math.min(
+                    MIN_RETRY_DELAY_MILLIS << Math.min(attempts - 1, 16), MAX_RETRY_DELAY_MILLIS);
+            this.retryTimeMillis = System.currentTimeMillis() + delay;
+        }
+
+        boolean canRetry() {
+            return System.currentTimeMillis() >= retryTimeMillis;
+        }
+
+        IOException toException() {
+            return new IOException(FAILED_TO_PROCESS_ARCHIVE + " - " + error.getMessage(), error);
         }
     }
 }
@@ -5,108 +5,363 @@ import fs.explorer.providers.dirtree.IOFunction;
 import fs.explorer.providers.dirtree.path.FsPath;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 public class ArchivesReader {
+    // null if indexes are not stored between sessions
+    private final ArchiveIndexStore indexStore;
+
     private static final int BUFFER_SIZE = 8192;
 
+    public ArchivesReader() {
+        this(null);
+    }
+
+    public ArchivesReader(ArchiveIndexStore indexStore) {
+        this.indexStore = indexStore;
+    }
+
     ZipArchive readEntries(FsPath archivePath) throws IOException {
         return readEntries(archivePath, null);
     }
 
     ZipArchive readEntries(FsPath archivePath, FsManager fsManager) throws IOException {
-        return withZipStream(archivePath, fsManager, zis -> {
-            List<ZipEntry> zipEntries = new ArrayList<>();
-            ZipEntry entry;
-            while ((entry = zis.getNextEntry()) != null) {
-                zipEntries.add(entry);
-                if (Thread.currentThread().isInterrupted()) {
-                    throw new InterruptedIOException();
-                }
+        try (SeekableByteChannel channel = newByteChannel(archivePath, fsManager)) {
+            if (channel != null) {
+                return readCentralDirectory(archivePath, channel, fsManager);
             }
-            return new ZipArchive(archivePath, zipEntries);
-        });
+        }
+        // no random access, so we have to read the whole archive
+        return withZipStream(archivePath, fsManager, zis ->
+                new ZipArchive(archivePath, readStreamEntries(zis)));
     }
 
-    boolean extractEntryFile(FsPath archivePath, String entryName, FsPath destinationPath)
-            throws IOException {
-        return extractEntryFile(archivePath, entryName, destinationPath, null);
+    private ZipArchive readCentralDirectory(
+            FsPath archivePath,
+            SeekableByteChannel channel,
+            FsManager fsManager
+    ) throws IOException {
+        // archives we extracted ourselves are not worth storing
+        long lastModifiedTime = -1;
+        if (indexStore != null && fsManager != null) {
+            lastModifiedTime = fsManager.getLastModifiedTime(archivePath);
+        }
+        if (lastModifiedTime == -1) {
+            return new ZipArchive(archivePath, CentralDirectoryReader.readEntries(channel));
+        }
+        long archiveSize = channel.size();
+        ZipArchive archive = null;
+        try {
+            archive = indexStore.load(archivePath, archiveSize, lastModifiedTime);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            // the store is only a cache, so the archive is read as usual
+        }
+        if (archive != null) {
+            return archive;
+        }
+        archive = new ZipArchive(archivePath, CentralDirectoryReader.readEntries(channel));
+        try {
+            indexStore.save(archive, archiveSize, lastModifiedTime);
+        } catch (IOException e) {
+            // the archive is read anyway
+        }
+        return archive;
     }
 
-    boolean extractEntryFile(
-            FsPath archivePath,
+    boolean extractEntry(
+            ZipArchive archive,
             String entryName,
             FsPath destinationPath,
             FsManager fsManager
     ) throws IOException {
         try (FileOutputStream fos = new FileOutputStream(destinationPath.getPath())) {
-            return readEntryFile(archivePath, entryName, fos, fsManager);
+            return readEntry(archive, entryName, fos, fsManager);
         }
     }
 
-    boolean readEntryFile(
-            FsPath archivePath,
+    /**
+     * Reads only the data of the entry if the archive was indexed from
+     * its central directory and can be accessed randomly,
+     * otherwise scans the archive for the entry.
+     */
+    boolean readEntry(
+            ZipArchive archive,
             String entryName,
-            OutputStream destination
+            OutputStream destination,
+            FsManager fsManager
+    ) throws IOException {
+        ZipEntry entry = archive.getEntry(entryName);
+        if (entry == null || !entry.getName().equals(entryName)) {
+            return false;
+        }
+        if (entry instanceof IndexedZipEntry) {
+            try (SeekableByteChannel channel = openChannel(archive, fsManager)) {
+                if (channel != null) {
+                    readEntryData(channel, (IndexedZipEntry) entry, destination);
+                    return true;
+                }
+            }
+        }
+        return withArchiveStream(archive, fsManager, zis ->
+                copyStreamEntry(zis, entryName, destination));
+    }
+
+    /**
+     * Indexes a nested archive in place if it is stored uncompressed
+     * and the parent archive can be accessed randomly, returns null otherwise.
+     */
+    ZipArchive readNestedEntries(
+            ZipArchive parent,
+            String entryName,
+            FsPath nestedPath,
+            FsManager fsManager
     ) throws IOException {
-        return readEntryFile(archivePath, entryName, destination, null);
+        ZipEntry entry = parent.getEntry(entryName);
+        boolean isStored = entry instanceof IndexedZipEntry &&
+                entry.getName().equals(entryName) &&
+                entry.getMethod() == ZipEntry.STORED &&
+                entry.getSize() == entry.getCompressedSize();
+        if (!isStored) {
+            return null;
+        }
+        try (SeekableByteChannel channel = openChannel(parent, fsManager)) {
+            if (channel == null) {
+                return null;
+            }
+            long size = entry.getSize();
+            long dataOffset = CentralDirectoryReader.readDataOffset(
+                    channel, ((IndexedZipEntry) entry).getLocalHeaderOffset());
+            if (dataOffset + size > channel.size()) {
+                throw new IOException("corrupted zip entry - " + entryName);
+            }
+            ArchiveSlice parentSlice = parent.getSlice();
+            ArchiveSlice slice;
+            if (parentSlice == null) {
+                slice = new ArchiveSlice(parent.getPath(), dataOffset, size);
+            } else {
+                slice = new ArchiveSlice(
+                        parentSlice.getFilePath(), parentSlice.getOffset() + dataOffset, size);
+            }
+            try (SeekableByteChannel nestedChannel = new ChannelSlice(channel, dataOffset, size)) {
+                EntryTable entries = CentralDirectoryReader.readEntries(nestedChannel);
+                return new ZipArchive(nestedPath, entries, slice);
+            }
+        }
     }
 
-    boolean readEntryFile(
-            FsPath archivePath,
+    /**
+     * Indexes a nested archive by streaming it out of its parent, so it takes no disk space,
+     * but each read of its entries streams it again.
+     */
+    ZipArchive readStreamedEntries(
+            ZipArchive parent,
             String entryName,
-            OutputStream destination,
+            FsPath nestedPath,
             FsManager fsManager
     ) throws IOException {
-        return withZipStream(archivePath, fsManager, zis -> {
-            boolean entryFound = false;
+        return withEntryStream(parent, entryName, fsManager, is -> applyToZipStream(is, zis ->
+                new ZipArchive(nestedPath, readStreamEntries(zis), parent, entryName)));
+    }
+
+    private static List<ZipEntry> readStreamEntries(ZipInputStream zis) throws IOException {
+        List<ZipEntry> zipEntries = new ArrayList<>();
+        ZipEntry entry;
+        while ((entry = zis.getNextEntry()) != null) {
+            zipEntries.add(entry);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+        }
+        return zipEntries;
+    }
+
+    private static boolean copyStreamEntry(
+            ZipInputStream zis,
+            String entryName,
+            OutputStream destination
+    ) throws IOException {
+        ZipEntry zipEntry;
+        while ((zipEntry = zis.getNextEntry()) != null) {
+            if (zipEntry.getName().equals(entryName)) {
+                if (zipEntry.isDirectory()) {
+                    throw new IOException("failed to extract entry directory");
+                }
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int len;
+                while ((len = zis.read(buffer)) != -1) {
+                    destination.write(buffer, 0, len);
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                return true;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+        }
+        return false;
+    }
+
+    private void readEntryData(
+            SeekableByteChannel channel,
+            IndexedZipEntry entry,
+            OutputStream destination
+    ) throws IOException {
+        withEntryData(channel, entry, is -> {
+            copyEntryData(is, entry, destination);
+            return true;
+        });
+    }
+
+    private <R> R withEntryData(
+            SeekableByteChannel channel,
+            IndexedZipEntry entry,
+            IOFunction<InputStream, R> dataReader
+    ) throws IOException {
+        if (entry.isDirectory()) {
+            throw new IOException("failed to extract entry directory");
+        }
+        long dataOffset = CentralDirectoryReader.readDataOffset(
+                channel, entry.getLocalHeaderOffset());
+        ChannelSlice data = new ChannelSlice(channel, dataOffset, entry.getCompressedSize());
+        InputStream compressed = Channels.newInputStream(data);
+        int method = entry.getMethod();
+        if (method == ZipEntry.STORED) {
+            return dataReader.apply(compressed);
+        } else if (method == ZipEntry.DEFLATED) {
+            Inflater inflater = new Inflater(true);
+            try {
+                // inflater in 'nowrap' mode may need an extra dummy byte at the end of input
+                InputStream padded = new SequenceInputStream(
+                        compressed, new ByteArrayInputStream(new byte[1]));
+                return dataReader.apply(new InflaterInputStream(padded, inflater, BUFFER_SIZE));
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw new IOException("unsupported compression method");
+        }
+    }
+
+    private void copyEntryData(InputStream is, ZipEntry entry, OutputStream destination)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        long totalLen = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int len;
+        while ((len = is.read(buffer)) != -1) {
+            destination.write(buffer, 0, len);
+            crc.update(buffer, 0, len);
+            totalLen += len;
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+        }
+        boolean isCorrupted = (entry.getSize() != -1 && entry.getSize() != totalLen) ||
+                (entry.getCrc() != -1 && entry.getCrc() != crc.getValue());
+        if (isCorrupted) {
+            throw new IOException("corrupted zip entry - " + entry.getName());
+        }
+    }
+
+    /**
+     * Streamed archives are read through the stream of their parent entry,
+     * other archives are read as files.
+     */
+    private <R> R withArchiveStream(
+            ZipArchive archive,
+            FsManager fsManager,
+            IOFunction<ZipInputStream, R> streamReader
+    ) throws IOException {
+        ZipArchive parent = archive.getStreamParent();
+        if (parent == null) {
+            return withZipStream(archive.getPath(), fsManager, streamReader);
+        }
+        return withEntryStream(parent, archive.getStreamEntryName(), fsManager,
+                is -> applyToZipStream(is, streamReader));
+    }
+
+    private <R> R withEntryStream(
+            ZipArchive archive,
+            String entryName,
+            FsManager fsManager,
+            IOFunction<InputStream, R> entryReader
+    ) throws IOException {
+        ZipEntry entry = archive.getEntry(entryName);
+        if (entry == null || !entry.getName().equals(entryName)) {
+            throw new IOException("zip entry not found - " + entryName);
+        }
+        if (entry instanceof IndexedZipEntry) {
+            try (SeekableByteChannel channel = openChannel(archive, fsManager)) {
+                if (channel != null) {
+                    return withEntryData(channel, (IndexedZipEntry) entry, entryReader);
+                }
+            }
+        }
+        return withArchiveStream(archive, fsManager, zis -> {
             ZipEntry zipEntry;
             while ((zipEntry = zis.getNextEntry()) != null) {
                 if (zipEntry.getName().equals(entryName)) {
                     if (zipEntry.isDirectory()) {
                         throw new IOException("failed to extract entry directory");
                     }
-                    entryFound = true;
-                    byte[] buffer = new byte[BUFFER_SIZE];
-                    int len;
-                    while ((len = zis.read(buffer)) != -1) {
-                        destination.write(buffer, 0, len);
-                        if (Thread.currentThread().isInterrupted()) {
-                            throw new InterruptedIOException();
-                        }
-                    }
-                    break;
+                    return entryReader.apply(zis);
                 }
                 if (Thread.currentThread().isInterrupted()) {
                     throw new InterruptedIOException();
                 }
             }
-            return entryFound;
+            throw new IOException("zip entry not found - " + entryName);
         });
     }
 
+    private SeekableByteChannel openChannel(ZipArchive archive, FsManager fsManager)
+            throws IOException {
+        ArchiveSlice slice = archive.getSlice();
+        if (slice == null) {
+            return newByteChannel(archive.getPath(), fsManager);
+        }
+        SeekableByteChannel channel = newByteChannel(slice.getFilePath(), fsManager);
+        if (channel == null) {
+            throw new IOException("failed to access nested archive");
+        }
+        return new ChannelSlice(channel, slice.getOffset(), slice.getSize(), true);
+    }
+
+    private SeekableByteChannel newByteChannel(FsPath archivePath, FsManager fsManager)
+            throws IOException {
+        if (fsManager != null) {
+            return fsManager.newByteChannel(archivePath);
+        }
+        try {
+            return Files.newByteChannel(Paths.get(archivePath.getPath()), StandardOpenOption.READ);
+        } catch (InvalidPathException e) {
+            throw new IOException("malformed archive path");
+        }
+    }
+
     private <R> R withZipStream(
             FsPath archivePath,
             FsManager fsManager,
             IOFunction<ZipInputStream, R> streamReader
     ) throws IOException {
         if (fsManager != null) {
-            return fsManager.withFileStream(archivePath, is -> {
-                try {
-                    // we do not close this stream as `is` will also be closed
-                    // but we are not supposed to manage its lifecycle
-                    ZipInputStream zis = new ZipInputStream(is);
-                    return streamReader.apply(zis);
-                } catch (IllegalArgumentException e) {
-                    // IllegalArgumentException exception is thrown
-                    // when zip entries have non default encoding we use here
-                    // TODO add custom encodings support
-                    throw new IOException("failed to decode zip file");
-                }
-            });
+            return fsManager.withFileStream(archivePath, is -> applyToZipStream(is, streamReader));
         } else {
             try (
                     FileInputStream fis = new FileInputStream(archivePath.getPath());
@@ -122,4 +377,21 @@ public class ArchivesReader {
             }
         }
     }
+
+    private static <R> R applyToZipStream(
+            InputStream is,
+            IOFunction<ZipInputStream, R> streamReader
+    ) throws IOException {
+        try {
+            // we do not close this stream as `is` will also be closed
+            // but we are not supposed to manage its lifecycle
+            ZipInputStream zis = new ZipInputStream(is);
+            return streamReader.apply(zis);
+        } catch (IllegalArgumentException e) {
+            // IllegalArgumentException exception is thrown
+            // when zip entries have non default encoding we use here
+            // TODO add custom encodings support
+            throw new IOException("failed to decode zip file");
+        }
+    }
 }
@@ -0,0 +1,343 @@
+package fs.explorer.providers.dirtree.archives;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads zip entries from the central directory located at the end of an archive.
+ * Unlike ZipInputStream it does not touch entries data, so the cost of reading
+ * is proportional to the size of the central directory and not of the archive.
+ */
+class CentralDirectoryReader {
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int LOC_HEADER_SIZE = 30;
+
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int CEN_HEADER_SIZE = 46;
+
+    private static final long MAX_UINT16 = 0xFFFFL;
+    private static final long MAX_UINT32 = 0xFFFFFFFFL;
+
+    static EntryTable readEntries(SeekableByteChannel channel) throws IOException {
+        long archiveSize = channel.size();
+        if (archiveSize < EOCD_SIZE) {
+            throw new IOException("zip end of central directory not found");
+        }
+        // the tail usually contains the whole central directory, so for most
+        // archives it is the only part that is read, which matters for remote ones
+        int tailSize = (int) Math.min(archiveSize, EOCD_SIZE + MAX_COMMENT_SIZE);
+        long tailPosition = archiveSize - tailSize;
+        ByteBuffer tail = read(channel, tailPosition, tailSize);
+        long eocdPosition = tailPosition + findEndOfCentralDirectory(tail);
+        ByteBuffer eocd = slice(tail, (int) (eocdPosition - tailPosition), EOCD_SIZE);
+        long entriesCount = uint16(eocd, 10);
+        long directorySize = uint32(eocd, 12);
+        long directoryOffset = uint32(eocd, 16);
+        long directoryEnd = eocdPosition;
+        boolean hasZip64Count = false;
+
+        boolean isZip64 = entriesCount == MAX_UINT16 ||
+                directorySize == MAX_UINT32 ||
+                directoryOffset == MAX_UINT32;
+        if (isZip64 && eocdPosition >= ZIP64_EOCD_LOCATOR_SIZE) {
+            long locatorPosition = eocdPosition - ZIP64_EOCD_LOCATOR_SIZE;
+            ByteBuffer locator = read(
+                    channel, tail, tailPosition, locatorPosition, ZIP64_EOCD_LOCATOR_SIZE);
+            if (locator.getInt(0) == ZIP64_EOCD_LOCATOR_SIGNATURE) {
+                long zip64EocdPosition = locator.getLong(8);
+                if (zip64EocdPosition < 0 ||
+                        zip64EocdPosition > locatorPosition - ZIP64_EOCD_SIZE) {
+                    throw new IOException("corrupted zip64 end of central directory");
+                }
+                ByteBuffer zip64Eocd = read(
+                        channel, tail, tailPosition, zip64EocdPosition, ZIP64_EOCD_SIZE);
+                if (zip64Eocd.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                    throw new IOException("corrupted zip64 end of central directory");
+                }
+                entriesCount = zip64Eocd.getLong(32);
+                directorySize = zip64Eocd.getLong(40);
+                directoryOffset = zip64Eocd.getLong(48);
+                directoryEnd = zip64EocdPosition;
+                hasZip64Count = true;
+            }
+        }
+        if (directorySize < 0 || directorySize > directoryEnd) {
+            throw new IOException("corrupted zip central directory");
+        }
+        if (directorySize > Integer.MAX_VALUE) {
+            throw new IOException("zip central directory is too large");
+        }
+        // data prepended to the archive (e.g. self-extracting stubs)
+        // shifts all offsets stored in the central directory
+        long offsetShift = directoryEnd - directorySize - directoryOffset;
+        if (offsetShift < 0) {
+            throw new IOException("corrupted zip central directory");
+        }
+        ByteBuffer directory = read(channel, tail, tailPosition,
+                directoryOffset + offsetShift, (int) directorySize);
+        return readDirectory(directory, entriesCount, hasZip64Count, offsetShift);
+    }
+
+    /**
+     * Returns position of entry data that follows the local file header.
+     * Name and extra field lengths in the local header may differ from
+     * the ones in the central directory, so the header has to be read.
+     */
+    static long readDataOffset(SeekableByteChannel channel, long localHeaderOffset)
+            throws IOException {
+        if (localHeaderOffset < 0 || localHeaderOffset + LOC_HEADER_SIZE > channel.size()) {
+            throw new IOException("corrupted zip local header");
+        }
+        ByteBuffer header = read(channel, localHeaderOffset, LOC_HEADER_SIZE);
+        if (header.getInt(0) != LOC_SIGNATURE) {
+            throw new IOException("corrupted zip local header");
+        }
+        long nameLength = uint16(header, 26);
+        long extraLength = uint16(header, 28);
+        return localHeaderOffset + LOC_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer tail) throws IOException {
+        int tailSize = tail.limit();
+        for (int i = tailSize - EOCD_SIZE; i >= 0; --i) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) {
+                int commentSize = (int) uint16(tail, i + 20);
+                if (i + EOCD_SIZE + commentSize <= tailSize) {
+                    return i;
+                }
+            }
+        }
+        throw new IOException("zip end of central directory not found");
+    }
+
+    private static EntryTable readDirectory(
+            ByteBuffer directory,
+            long entriesCount,
+            boolean hasZip64Count,
+            long offsetShift
+    ) throws IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer nameChars = CharBuffer.allocate((int) MAX_UINT16);
+        EntryTable entries = new EntryTable((int) Math.min(entriesCount, 1 << 16));
+        int position = 0;
+        int limit = directory.limit();
+        while (position + CEN_HEADER_SIZE <= limit) {
+            if (directory.getInt(position) != CEN_SIGNATURE) {
+                throw new IOException("corrupted zip central directory");
+            }
+            int method = (int) uint16(directory, position + 10);
+            long dosTime = uint32(directory, position + 12);
+            long crc = uint32(directory, position + 16);
+            long compressedSize = uint32(directory, position + 20);
+            long size = uint32(directory, position + 24);
+            int nameLength = (int) uint16(directory, position + 28);
+            int extraLength = (int) uint16(directory, position + 30);
+            int commentLength = (int) uint16(directory, position + 32);
+            long localHeaderOffset = uint32(directory, position + 42);
+            int nameStart = position + CEN_HEADER_SIZE;
+            int extraStart = nameStart + nameLength;
+            int next = extraStart + extraLength + commentLength;
+            if (next > limit) {
+                throw new IOException("corrupted zip central directory");
+            }
+
+            checkName(directory, nameStart, nameLength, decoder, nameChars);
+            if (size == MAX_UINT32 ||
+                    compressedSize == MAX_UINT32 ||
+                    localHeaderOffset == MAX_UINT32) {
+                long[] zip64Fields = readZip64Fields(directory, extraStart, extraLength,
+                        size, compressedSize, localHeaderOffset);
+                size = zip64Fields[0];
+                compressedSize = zip64Fields[1];
+                localHeaderOffset = zip64Fields[2];
+            }
+            if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+                method = -1;
+            }
+            entries.addEntry(directory.array(), directory.arrayOffset() + nameStart, nameLength,
+                    method, dosToJavaTime(dosTime), crc, size, compressedSize,
+                    localHeaderOffset + offsetShift);
+
+            position = next;
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+        }
+        long readEntriesCount = entries.getEntriesCount();
+        // some archives with more entries than fit in 16 bits have no zip64 records,
+        // their count wraps around like ZipFile expects
+        if (!hasZip64Count) {
+            readEntriesCount &= MAX_UINT16;
+        }
+        if (readEntriesCount != entriesCount) {
+            throw new IOException("corrupted zip central directory");
+        }
+        entries.trim();
+        return entries;
+    }
+
+    private static long[] readZip64Fields(
+            ByteBuffer directory,
+            int extraStart,
+            int extraLength,
+            long size,
+            long compressedSize,
+            long localHeaderOffset
+    ) throws IOException {
+        int position = extraStart;
+        int extraEnd = extraStart + extraLength;
+        while (position + 4 <= extraEnd) {
+            int id = (int) uint16(directory, position);
+            int dataSize = (int) uint16(directory, position + 2);
+            int dataStart = position + 4;
+            if (dataStart + dataSize > extraEnd) {
+                break;
+            }
+            if (id == ZIP64_EXTRA_ID) {
+                // zip64 fields are present only for values that did not fit
+                int field = dataStart;
+                if (size == MAX_UINT32) {
+                    size = readZip64Field(directory, field, dataStart + dataSize);
+                    field += 8;
+                }
+                if (compressedSize == MAX_UINT32) {
+                    compressedSize = readZip64Field(directory, field, dataStart + dataSize);
+                    field += 8;
+                }
+                if (localHeaderOffset == MAX_UINT32) {
+                    localHeaderOffset = readZip64Field(directory, field, dataStart + dataSize);
+                }
+                break;
+            }
+            position = dataStart + dataSize;
+        }
+        return new long[]{size, compressedSize, localHeaderOffset};
+    }
+
+    private static long readZip64Field(ByteBuffer directory, int position, int end)
+            throws IOException {
+        if (position + 8 > end) {
+            throw new IOException("corrupted zip64 extra field");
+        }
+        long value = directory.getLong(position);
+        if (value < 0) {
+            throw new IOException("corrupted zip64 extra field");
+        }
+        return value;
+    }
+
+    /**
+     * Names are kept as bytes and decoded on demand,
+     * so here they are only checked to be decodable.
+     */
+    private static void checkName(
+            ByteBuffer directory,
+            int start,
+            int length,
+            CharsetDecoder decoder,
+            CharBuffer nameChars
+    ) throws IOException {
+        ByteBuffer nameBytes = directory.duplicate();
+        nameBytes.position(start);
+        nameBytes.limit(start + length);
+        nameChars.clear();
+        decoder.reset();
+        // names are decoded as UTF-8 regardless of the language encoding flag,
+        // just like ZipInputStream created with the default charset does
+        // TODO add custom encodings support
+        CoderResult result = decoder.decode(nameBytes, nameChars, true);
+        if (!result.isError()) {
+            result = decoder.flush(nameChars);
+        }
+        if (result.isError()) {
+            throw new IOException("failed to decode zip file");
+        }
+    }
+
+    private static long dosToJavaTime(long dosTime) {
+        try {
+            LocalDateTime dateTime = LocalDateTime.of(
+                    (int) ((dosTime >> 25) & 0x7f) + 1980,
+                    (int) ((dosTime >> 21) & 0x0f),
+                    (int) ((dosTime >> 16) & 0x1f),
+                    (int) ((dosTime >> 11) & 0x1f),
+                    (int) ((dosTime >> 5) & 0x3f),
+                    (int) ((dosTime << 1) & 0x3e)
+            );
+            return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Takes the bytes from the tail if it contains them.
+     */
+    private static ByteBuffer read(
+            SeekableByteChannel channel,
+            ByteBuffer tail,
+            long tailPosition,
+            long position,
+            int size
+    ) throws IOException {
+        if (position >= tailPosition && position + size <= tailPosition + tail.limit()) {
+            return slice(tail, (int) (position - tailPosition), size);
+        }
+        return read(channel, position, size);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int size) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        slice.limit(offset + size);
+        return slice.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer read(SeekableByteChannel channel, long position, int size)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        channel.position(position);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                throw new IOException("unexpected end of zip file");
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static long uint16(ByteBuffer buffer, int position) {
+        return buffer.getShort(position) & MAX_UINT16;
+    }
+
+    private static long uint32(ByteBuffer buffer, int position) {
+        return buffer.getInt(position) & MAX_UINT32;
+    }
+}
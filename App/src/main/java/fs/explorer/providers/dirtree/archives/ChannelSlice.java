@@ -0,0 +1,119 @@
+package fs.explorer.providers.dirtree.archives;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read only view of a byte range of another channel.
+ * Reads from file channels are positional, so slices of the same
+ * file channel do not interfere with each other.
+ */
+class ChannelSlice implements SeekableByteChannel {
+    private final SeekableByteChannel channel;
+    private final long offset;
+    private final long size;
+    private final boolean ownsChannel;
+
+    private long position = 0;
+    private boolean isOpen = true;
+
+    ChannelSlice(SeekableByteChannel channel, long offset, long size) {
+        this(channel, offset, size, false);
+    }
+
+    ChannelSlice(SeekableByteChannel channel, long offset, long size, boolean ownsChannel) {
+        this.channel = channel;
+        this.offset = offset;
+        this.size = size;
+        this.ownsChannel = ownsChannel;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        long remaining = size - position;
+        if (remaining <= 0) {
+            return -1;
+        }
+        int len;
+        if (dst.remaining() > remaining) {
+            ByteBuffer limited = dst.duplicate();
+            limited.limit(limited.position() + (int) remaining);
+            len = readAt(limited, offset + position);
+            if (len > 0) {
+                dst.position(dst.position() + len);
+            }
+        } else {
+            len = readAt(dst, offset + position);
+        }
+        if (len > 0) {
+            position += len;
+        }
+        return len;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("negative position");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return isOpen && channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        isOpen = false;
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+
+    private int readAt(ByteBuffer dst, long channelPosition) throws IOException {
+        if (channel instanceof FileChannel) {
+            return ((FileChannel) channel).read(dst, channelPosition);
+        }
+        synchronized (channel) {
+            channel.position(channelPosition);
+            return channel.read(dst);
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package fs.explorer.providers.dirtree.archives;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+
+/**
+ * Compact storage of zip entries and of the directory tree they form.
+ * Entries and tree nodes are kept in primitive arrays, names are stored
+ * once per path component as UTF-8 bytes and decoded only when requested.
+ * Nodes are tree elements identified by names without trailing slashes,
+ * directories that do not have their own entries are nodes without entries.
+ */
+class EntryTable {
+    static final int ROOT = -1;
+    static final int NONE = -1;
+
+    private static final byte SEPARATOR = '/';
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final byte ENTRY_DIRECTORY = 1;
+    private static final byte ENTRY_CRC_KNOWN = 2;
+
+    // entries in the order they were added
+    private int entriesCount = 0;
+    private int[] entryNodes;
+    private byte[] entryFlags;
+    private byte[] methods;
+    private long[] times;
+    private int[] crcs;
+    private long[] sizes;
+    private long[] compressedSizes;
+    private long[] localHeaderOffsets;
+
+    // node names are components that follow names of their parents,
+    // children of the root have their whole names as components
+    private int nodesCount = 0;
+    private byte[] names;
+    private int namesLength = 0;
+    private int[] nameOffsets;
+    private int[] parents;
+    private int[] nodeEntries;
+    private boolean[] directories;
+    private int[] hashes;
+    private int[] firstChildren;
+    private int[] lastChildren;
+    private int[] nextSiblings;
+    private int rootFirstChild = NONE;
+    private int rootLastChild = NONE;
+
+    // open addressing table of node indexes plus one, zero means empty slot
+    private int[] hashTable;
+
+    EntryTable(int expectedEntriesCount) {
+        int capacity = Math.max(expectedEntriesCount, INITIAL_CAPACITY);
+        entryNodes = new int[capacity];
+        entryFlags = new byte[capacity];
+        methods = new byte[capacity];
+        times = new long[capacity];
+        crcs = new int[capacity];
+        sizes = new long[capacity];
+        compressedSizes = new long[capacity];
+        localHeaderOffsets = new long[capacity];
+
+        names = new byte[capacity * 16];
+        nameOffsets = new int[capacity + 1];
+        parents = new int[capacity];
+        nodeEntries = new int[capacity];
+        directories = new boolean[capacity];
+        hashes = new int[capacity];
+        firstChildren = new int[capacity];
+        lastChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        hashTable = new int[tableSizeFor(capacity)];
+    }
+
+    void addEntry(ZipEntry entry) {
+        byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+        long localHeaderOffset = entry instanceof IndexedZipEntry
+                ? ((IndexedZipEntry) entry).getLocalHeaderOffset() : -1;
+        addEntry(name, 0, name.length, entry.getMethod(), entry.getTime(), entry.getCrc(),
+                entry.getSize(), entry.getCompressedSize(), localHeaderOffset);
+    }
+
+    /**
+     * Name bytes are copied, so the buffer can be reused.
+     * Unknown attributes are -1.
+     */
+    void addEntry(
+            byte[] nameBuffer,
+            int nameOffset,
+            int nameLength,
+            int method,
+            long time,
+            long crc,
+            long size,
+            long compressedSize,
+            long localHeaderOffset
+    ) {
+        ensureEntriesCapacity(entriesCount + 1);
+        int entry = entriesCount++;
+        boolean isDirectory = nameLength > 0 &&
+                nameBuffer[nameOffset + nameLength - 1] == SEPARATOR;
+        byte flags = 0;
+        if (isDirectory) {
+            flags |= ENTRY_DIRECTORY;
+        }
+        if (crc != -1) {
+            flags |= ENTRY_CRC_KNOWN;
+        }
+        entryFlags[entry] = flags;
+        methods[entry] = (byte) method;
+        times[entry] = time;
+        crcs[entry] = (int) crc;
+        sizes[entry] = size;
+        compressedSizes[entry] = compressedSize;
+        localHeaderOffsets[entry] = localHeaderOffset;
+
+        int keyLength = keyLength(nameBuffer, nameOffset, nameLength);
+        if (keyLength == 0) {
+            entryNodes[entry] = NONE;
+            return;
+        }
+        int hash = hash(nameBuffer, nameOffset, keyLength);
+        int node = findNode(nameBuffer, nameOffset, keyLength, hash);
+        if (node != NONE) {
+            // an explicit directory entry may come after its children
+            if (nodeEntries[node] == NONE && isDirectory) {
+                nodeEntries[node] = entry;
+            }
+            entryNodes[entry] = node;
+            return;
+        }
+        int parent = parentNode(nameBuffer, nameOffset, keyLength);
+        node = addNode(parent, nameBuffer, nameOffset, keyLength, isDirectory, hash);
+        nodeEntries[node] = entry;
+        entryNodes[entry] = node;
+    }
+
+    /**
+     * Releases spare capacity, nothing can be added afterwards.
+     */
+    void trim() {
+        entryNodes = Arrays.copyOf(entryNodes, entriesCount);
+        entryFlags = Arrays.copyOf(entryFlags, entriesCount);
+        methods = Arrays.copyOf(methods, entriesCount);
+        times = Arrays.copyOf(times, entriesCount);
+        crcs = Arrays.copyOf(crcs, entriesCount);
+        sizes = Arrays.copyOf(sizes, entriesCount);
+        compressedSizes = Arrays.copyOf(compressedSizes, entriesCount);
+        localHeaderOffsets = Arrays.copyOf(localHeaderOffsets, entriesCount);
+
+        names = Arrays.copyOf(names, namesLength);
+        nameOffsets = Arrays.copyOf(nameOffsets, nodesCount + 1);
+        parents = Arrays.copyOf(parents, nodesCount);
+        nodeEntries = Arrays.copyOf(nodeEntries, nodesCount);
+        directories = Arrays.copyOf(directories, nodesCount);
+        hashes = Arrays.copyOf(hashes, nodesCount);
+        firstChildren = Arrays.copyOf(firstChildren, nodesCount);
+        nextSiblings = Arrays.copyOf(nextSiblings, nodesCount);
+        lastChildren = null;
+        int[] oldHashTable = hashTable;
+        hashTable = new int[tableSizeFor(nodesCount)];
+        if (hashTable.length != oldHashTable.length) {
+            rehash();
+        } else {
+            hashTable = oldHashTable;
+        }
+    }
+
+    int getEntriesCount() {
+        return entriesCount;
+    }
+
+    ZipEntry getEntry(int entry) {
+        String name = getEntryName(entry);
+        long localHeaderOffset = localHeaderOffsets[entry];
+        ZipEntry zipEntry = localHeaderOffset == -1
+                ? new ZipEntry(name) : new IndexedZipEntry(name, localHeaderOffset);
+        if (methods[entry] != -1) {
+            zipEntry.setMethod(methods[entry]);
+        }
+        if (times[entry] != -1) {
+            zipEntry.setTime(times[entry]);
+        }
+        if ((entryFlags[entry] & ENTRY_CRC_KNOWN) != 0) {
+            zipEntry.setCrc(crcs[entry] & 0xFFFFFFFFL);
+        }
+        if (sizes[entry] != -1) {
+            zipEntry.setSize(sizes[entry]);
+        }
+        if (compressedSizes[entry] != -1) {
+            zipEntry.setCompressedSize(compressedSizes[entry]);
+        }
+        return zipEntry;
+    }
+
+    String getEntryName(int entry) {
+        boolean isDirectory = (entryFlags[entry] & ENTRY_DIRECTORY) != 0;
+        int node = entryNodes[entry];
+        String key = node == NONE ? "" : getKey(node);
+        return isDirectory ? key + (char) SEPARATOR : key;
+    }
+
+    /**
+     * Returns NONE if there is no node for the name,
+     * trailing slashes of the name are ignored.
+     */
+    int findNode(String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int keyLength = keyLength(nameBytes, 0, nameBytes.length);
+        if (keyLength == 0) {
+            return NONE;
+        }
+        return findNode(nameBytes, 0, keyLength, hash(nameBytes, 0, keyLength));
+    }
+
+    /**
+     * Returns NONE for directories that do not have their own entries.
+     */
+    int getNodeEntry(int node) {
+        return nodeEntries[node];
+    }
+
+    boolean isDirectory(int node) {
+        return directories[node];
+    }
+
+    int getFirstChild(int node) {
+        return node == ROOT ? rootFirstChild : firstChildren[node];
+    }
+
+    int getNextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    /**
+     * Returns name of the entry of the node or the name of implicit directory.
+     */
+    String getName(int node) {
+        int entry = nodeEntries[node];
+        if (entry != NONE) {
+            return getEntryName(entry);
+        }
+        return getKey(node) + (char) SEPARATOR;
+    }
+
+    String getLastComponent(int node) {
+        int start = nameOffsets[node];
+        int end = nameOffsets[node + 1];
+        int componentStart = start;
+        for (int i = start; i < end; ++i) {
+            if (names[i] == SEPARATOR) {
+                componentStart = i + 1;
+            }
+        }
+        return new String(names, componentStart, end - componentStart, StandardCharsets.UTF_8);
+    }
+
+    private String getKey(int node) {
+        int keyLength = 0;
+        for (int n = node; n != ROOT; n = parents[n]) {
+            keyLength += nameOffsets[n + 1] - nameOffsets[n];
+            if (parents[n] != ROOT) {
+                ++keyLength;
+            }
+        }
+        byte[] key = new byte[keyLength];
+        int end = keyLength;
+        for (int n = node; n != ROOT; n = parents[n]) {
+            int componentLength = nameOffsets[n + 1] - nameOffsets[n];
+            end -= componentLength;
+            System.arraycopy(names, nameOffsets[n], key, end, componentLength);
+            if (parents[n] != ROOT) {
+                key[--end] = SEPARATOR;
+            }
+        }
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private int parentNode(byte[] nameBuffer, int nameOffset, int keyLength) {
+        int separatorIndex = lastSeparator(nameBuffer, nameOffset, keyLength);
+        if (separatorIndex <= 0) {
+            return ROOT;
+        }
+        int parentHash = hash(nameBuffer, nameOffset, separatorIndex);
+        int parent = findNode(nameBuffer, nameOffset, separatorIndex, parentHash);
+        if (parent == NONE) {
+            // archives are not required to have entries for directories,
+            // so we synthesize them from the names of nested entries
+            int grandParent = parentNode(nameBuffer, nameOffset, separatorIndex);
+            parent = addNode(grandParent, nameBuffer, nameOffset, separatorIndex, true, parentHash);
+        }
+        return parent;
+    }
+
+    private int addNode(
+            int parent,
+            byte[] nameBuffer,
+            int nameOffset,
+            int keyLength,
+            boolean isDirectory,
+            int hash
+    ) {
+        ensureNodesCapacity(nodesCount + 1);
+        int node = nodesCount++;
+        int componentStart = parent == ROOT
+                ? 0 : lastSeparator(nameBuffer, nameOffset, keyLength) + 1;
+        int componentLength = keyLength - componentStart;
+        ensureNamesCapacity(namesLength + componentLength);
+        System.arraycopy(nameBuffer, nameOffset + componentStart, names, namesLength,
+                componentLength);
+        nameOffsets[node] = namesLength;
+        namesLength += componentLength;
+        nameOffsets[node + 1] = namesLength;
+
+        parents[node] = parent;
+        nodeEntries[node] = NONE;
+        directories[node] = isDirectory;
+        hashes[node] = hash;
+        firstChildren[node] = NONE;
+        lastChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        if (parent == ROOT) {
+            if (rootLastChild == NONE) {
+                rootFirstChild = node;
+            } else {
+                nextSiblings[rootLastChild] = node;
+            }
+            rootLastChild = node;
+        } else {
+            if (lastChildren[parent] == NONE) {
+                firstChildren[parent] = node;
+            } else {
+                nextSiblings[lastChildren[parent]] = node;
+            }
+            lastChildren[parent] = node;
+        }
+        insertIntoHashTable(node);
+        return node;
+    }
+
+    private int findNode(byte[] keyBuffer, int keyOffset, int keyLength, int hash) {
+        int mask = hashTable.length - 1;
+        for (int slot = hash & mask; hashTable[slot] != 0; slot = (slot + 1) & mask) {
+            int node = hashTable[slot] - 1;
+            if (hashes[node] == hash && keyEquals(node, keyBuffer, keyOffset, keyLength)) {
+                return node;
+            }
+        }
+        return NONE;
+    }
+
+    private boolean keyEquals(int node, byte[] keyBuffer, int keyOffset, int keyLength) {
+        int end = keyOffset + keyLength;
+        while (true) {
+            int componentStart = nameOffsets[node];
+            int componentLength = nameOffsets[node + 1] - componentStart;
+            int start = end - componentLength;
+            if (start < keyOffset) {
+                return false;
+            }
+            for (int i = 0; i < componentLength; ++i) {
+                if (names[componentStart + i] != keyBuffer[start + i]) {
+                    return false;
+                }
+            }
+            int parent = parents[node];
+            if (parent == ROOT) {
+                return start == keyOffset;
+            }
+            if (start - 1 < keyOffset || keyBuffer[start - 1] != SEPARATOR) {
+                return false;
+            }
+            end = start - 1;
+            node = parent;
+        }
+    }
+
+    private void insertIntoHashTable(int node) {
+        if ((nodesCount) * 2 > hashTable.length) {
+            hashTable = new int[hashTable.length * 2];
+            rehash();
+            return;
+        }
+        int mask = hashTable.length - 1;
+        int slot = hashes[node] & mask;
+        while (hashTable[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        hashTable[slot] = node + 1;
+    }
+
+    private void rehash() {
+        int mask = hashTable.length - 1;
+        for (int node = 0; node < nodesCount; ++node) {
+            int slot = hashes[node] & mask;
+            while (hashTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            hashTable[slot] = node + 1;
+        }
+    }
+
+    private void ensureEntriesCapacity(int capacity) {
+        if (capacity <= entryNodes.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, entryNodes.length * 2);
+        entryNodes = Arrays.copyOf(entryNodes, newCapacity);
+        entryFlags = Arrays.copyOf(entryFlags, newCapacity);
+        methods = Arrays.copyOf(methods, newCapacity);
+        times = Arrays.copyOf(times, newCapacity);
+        crcs = Arrays.copyOf(crcs, newCapacity);
+        sizes = Arrays.copyOf(sizes, newCapacity);
+        compressedSizes = Arrays.copyOf(compressedSizes, newCapacity);
+        localHeaderOffsets = Arrays.copyOf(localHeaderOffsets, newCapacity);
+    }
+
+    private void ensureNodesCapacity(int capacity) {
+        if (capacity <= parents.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, parents.length * 2);
+        nameOffsets = Arrays.copyOf(nameOffsets, newCapacity + 1);
+        parents = Arrays.copyOf(parents, newCapacity);
+        nodeEntries = Arrays.copyOf(nodeEntries, newCapacity);
+        directories = Arrays.copyOf(directories, newCapacity);
+        hashes = Arrays.copyOf(hashes, newCapacity);
+        firstChildren = Arrays.copyOf(firstChildren, newCapacity);
+        lastChildren = Arrays.copyOf(lastChildren, newCapacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, newCapacity);
+    }
+
+    private void ensureNamesCapacity(int capacity) {
+        if (capacity > names.length) {
+            names = Arrays.copyOf(names, Math.max(capacity, names.length * 2));
+        }
+    }
+
+    private static int keyLength(byte[] nameBuffer, int nameOffset, int nameLength) {
+        int keyLength = nameLength;
+        while (keyLength > 0 && nameBuffer[nameOffset + keyLength - 1] == SEPARATOR) {
+            --keyLength;
+        }
+        return keyLength;
+    }
+
+    private static int lastSeparator(byte[] keyBuffer, int keyOffset, int keyLength) {
+        for (int i = keyLength - 1; i >= 0; --i) {
+            if (keyBuffer[keyOffset + i] == SEPARATOR) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int hash(byte[] keyBuffer, int keyOffset, int keyLength) {
+        int hash = 0;
+        for (int i = keyOffset; i < keyOffset + keyLength; ++i) {
+            hash = 31 * hash + keyBuffer[i];
+        }
+        // spread higher bits as table indexes use only lower ones
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int tableSizeFor(int nodesCount) {
+        int size = INITIAL_CAPACITY;
+        while (size < nodesCount * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,20 @@
+package fs.explorer.providers.dirtree.archives;
+
+import java.util.zip.ZipEntry;
+
+/**
+ * Zip entry read from the central directory, so its location is known
+ * and its data can be read without scanning the archive.
+ */
+class IndexedZipEntry extends ZipEntry {
+    private final long localHeaderOffset;
+
+    IndexedZipEntry(String name, long localHeaderOffset) {
+        super(name);
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    long getLocalHeaderOffset() {
+        return localHeaderOffset;
+    }
+}
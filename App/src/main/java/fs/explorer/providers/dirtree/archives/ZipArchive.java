@@ -5,91 +5,147 @@ import fs.explorer.providers.dirtree.path.FsPath;
 import fs.explorer.providers.dirtree.path.TargetType;
 import fs.explorer.utils.FileTypeInfo;
 
-import java.nio.file.Paths;
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.ZipEntry;
 
-// TODO improve performance
 public class ZipArchive {
     private final FsPath path;
-    private final List<ExtZipEntry> entries;
+    // null if the archive is a file on its own
+    private final ArchiveSlice slice;
+    // not null if the archive is read by streaming an entry of its parent
+    private final ZipArchive streamParent;
+    private final String streamEntryName;
+    private final EntryTable entries;
 
     ZipArchive(FsPath path, List<ZipEntry> entries) {
+        this(path, entries, null);
+    }
+
+    ZipArchive(FsPath path, List<ZipEntry> entries, ArchiveSlice slice) {
+        this(path, toEntryTable(entries), slice);
+    }
+
+    ZipArchive(
+            FsPath path,
+            List<ZipEntry> entries,
+            ZipArchive streamParent,
+            String streamEntryName
+    ) {
+        this(path, toEntryTable(entries), null, streamParent, streamEntryName);
+    }
+
+    ZipArchive(FsPath path, EntryTable entries) {
+        this(path, entries, null);
+    }
+
+    ZipArchive(FsPath path, EntryTable entries, ArchiveSlice slice) {
+        this(path, entries, slice, null, null);
+    }
+
+    private ZipArchive(
+            FsPath path,
+            EntryTable entries,
+            ArchiveSlice slice,
+            ZipArchive streamParent,
+            String streamEntryName
+    ) {
         this.path = path;
-        this.entries = entries.stream()
-                .map(ZipArchive::toExtZipEntry)
-                .collect(Collectors.toList());
+        this.slice = slice;
+        this.streamParent = streamParent;
+        this.streamEntryName = streamEntryName;
+        this.entries = entries;
     }
 
     public List<ArchiveEntryPath> list(ArchiveEntryPath entryPath) {
         if (!path.equals(entryPath.getArchivePath())) {
             return null;
         }
-        Optional<ExtZipEntry> optExtEntry = entries.stream()
-                .filter(ee -> ee.getZipEntry().getName().equals(entryPath.getEntryPath()))
-                .findFirst();
-        if (!optExtEntry.isPresent()) {
+        int node = entries.findNode(entryPath.getEntryPath());
+        if (node == EntryTable.NONE) {
             return null;
         }
-        ExtZipEntry extEntry = optExtEntry.get();
-        String name = extEntry.getZipEntry().getName();
-        int componentsCount = extEntry.getNameComponentsCount();
-        return entries.stream()
-                .filter(ee -> ee.getNameComponentsCount() == componentsCount + 1)
-                .filter(ee -> ee.getZipEntry().getName().startsWith(name))
-                .map(this::toArchiveEntryPath)
-                .collect(Collectors.toList());
+        if (!entries.isDirectory(node)) {
+            return new ArrayList<>();
+        }
+        return toArchiveEntryPaths(node);
     }
 
     List<ArchiveEntryPath> listRoot() {
-        return entries.stream()
-                .filter(ee -> ee.getNameComponentsCount() == 1)
-                .map(this::toArchiveEntryPath)
-                .collect(Collectors.toList());
+        return toArchiveEntryPaths(EntryTable.ROOT);
     }
 
     List<ZipEntry> listAllEntries() {
-        return entries.stream()
-                .map(ExtZipEntry::getZipEntry)
-                .collect(Collectors.toList());
+        int entriesCount = entries.getEntriesCount();
+        List<ZipEntry> allEntries = new ArrayList<>(entriesCount);
+        for (int i = 0; i < entriesCount; ++i) {
+            allEntries.add(entries.getEntry(i));
+        }
+        return allEntries;
+    }
+
+    int getEntriesCount() {
+        return entries.getEntriesCount();
+    }
+
+    FsPath getPath() {
+        return path;
     }
 
-    private static ExtZipEntry toExtZipEntry(ZipEntry entry) {
-        int nameComponentsCount = Paths.get(entry.getName()).getNameCount();
-        return new ExtZipEntry(entry, nameComponentsCount);
+    ArchiveSlice getSlice() {
+        return slice;
     }
 
-    private ArchiveEntryPath toArchiveEntryPath(ExtZipEntry extEntry) {
-        ZipEntry entry = extEntry.getZipEntry();
-        String entryName = entry.getName();
+    ZipArchive getStreamParent() {
+        return streamParent;
+    }
+
+    String getStreamEntryName() {
+        return streamEntryName;
+    }
+
+    /**
+     * Returns null for absent entries and for directories
+     * that do not have their own entries in the archive.
+     * Entries are created on each call, so changing them does not affect the archive.
+     */
+    ZipEntry getEntry(String entryName) {
+        int node = entries.findNode(entryName);
+        if (node == EntryTable.NONE) {
+            return null;
+        }
+        int entry = entries.getNodeEntry(node);
+        return entry == EntryTable.NONE ? null : entries.getEntry(entry);
+    }
+
+    private List<ArchiveEntryPath> toArchiveEntryPaths(int node) {
+        List<ArchiveEntryPath> paths = new ArrayList<>();
+        for (int child = entries.getFirstChild(node);
+             child != EntryTable.NONE;
+             child = entries.getNextSibling(child)) {
+            paths.add(toArchiveEntryPath(child));
+        }
+        return paths;
+    }
+
+    private ArchiveEntryPath toArchiveEntryPath(int node) {
+        String entryName = entries.getName(node);
         TargetType targetType;
-        if (entry.isDirectory()) {
+        if (entries.isDirectory(node)) {
             targetType = TargetType.DIRECTORY;
         } else if (FileTypeInfo.isZipArchive(entryName)) {
             targetType = TargetType.ZIP_ARCHIVE;
         } else {
             targetType = TargetType.FILE;
         }
-        String lastComponent = Paths.get(entryName).getFileName().toString();
-        return new ArchiveEntryPath(path, entryName, targetType, lastComponent);
+        return new ArchiveEntryPath(
+                path, entryName, targetType, entries.getLastComponent(node));
     }
 
-    private static class ExtZipEntry {
-        private final ZipEntry zipEntry;
-        private final int nameComponentsCount;
-
-        private ExtZipEntry(ZipEntry zipEntry, int nameComponentsCount) {
-            this.zipEntry = zipEntry;
-            this.nameComponentsCount = nameComponentsCount;
-        }
-
-        ZipEntry getZipEntry() {
-            return zipEntry;
-        }
-
-        int getNameComponentsCount() {
-            return nameComponentsCount;
-        }
+    private static EntryTable toEntryTable(List<ZipEntry> zipEntries) {
+        EntryTable table = new EntryTable(zipEntries.size());
+        zipEntries.forEach(table::addEntry);
+        table.trim();
+        return table;
     }
 }
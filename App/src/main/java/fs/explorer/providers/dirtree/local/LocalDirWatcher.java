@@ -0,0 +1,188 @@
+package fs.explorer.providers.dirtree.local;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.utils.Disposable;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches directories for created and deleted entries.
+ * Events that come within a short window after the first one are reported together,
+ * so a burst of changes, e.g. copying many files, is reported once per directory.
+ */
+class LocalDirWatcher implements AutoCloseable {
+    private final WatchService watchService;
+    private final Listener listener;
+    private final long coalesceMillis;
+    private final Map<WatchKey, Registration> registrations = new HashMap<>();
+    private final Thread thread;
+
+    static final long DEFAULT_COALESCE_MILLIS = 200;
+
+    LocalDirWatcher(Listener listener) throws IOException {
+        this(listener, DEFAULT_COALESCE_MILLIS);
+    }
+
+    LocalDirWatcher(Listener listener, long coalesceMillis) throws IOException {
+        if (coalesceMillis < 0) {
+            throw new IllegalArgumentException("coalesce window must be non-negative");
+        }
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.listener = listener;
+        this.coalesceMillis = coalesceMillis;
+        this.thread = new Thread(this::run, "local-dir-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * A directory that is watched several times is watched until all its watches are disposed.
+     */
+    Disposable watch(FsPath directoryPath, Path dir) throws IOException {
+        WatchKey key;
+        try {
+            key = dir.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (ClosedWatchServiceException e) {
+            throw new IOException("watcher is closed");
+        }
+        synchronized (this) {
+            Registration registration = registrations.get(key);
+            if (registration == null) {
+                registration = new Registration(directoryPath, dir);
+                registrations.put(key, registration);
+            }
+            ++registration.count;
+        }
+        return new Watch(key);
+    }
+
+    synchronized int getWatchedDirectoriesCount() {
+        return registrations.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        watchService.close();
+    }
+
+    private synchronized void unwatch(WatchKey key) {
+        Registration registration = registrations.get(key);
+        if (registration != null && --registration.count == 0) {
+            registrations.remove(key);
+            key.cancel();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                Map<WatchKey, Set<Path>> changes = new LinkedHashMap<>();
+                Set<WatchKey> overflowedKeys = new HashSet<>();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(coalesceMillis);
+                while (key != null) {
+                    collectEvents(key, changes, overflowedKeys);
+                    long remaining = deadline - System.nanoTime();
+                    key = remaining > 0 ? watchService.poll(remaining, TimeUnit.NANOSECONDS) :
+                            watchService.poll();
+                }
+                report(changes, overflowedKeys);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // the watcher is closed
+        }
+    }
+
+    private void collectEvents(
+            WatchKey key,
+            Map<WatchKey, Set<Path>> changes,
+            Set<WatchKey> overflowedKeys
+    ) {
+        Registration registration = getRegistration(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (registration == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflowedKeys.add(key);
+            } else {
+                changes.computeIfAbsent(key, k -> new HashSet<>())
+                        .add(registration.dir.resolve((Path) event.context()));
+            }
+        }
+        // keys of deleted directories are no longer valid
+        if (!key.reset()) {
+            synchronized (this) {
+                registrations.remove(key);
+            }
+        }
+    }
+
+    // entries of an overflowed directory are read again, so its events are dropped
+    private void report(Map<WatchKey, Set<Path>> changes, Set<WatchKey> overflowedKeys) {
+        for (WatchKey key : overflowedKeys) {
+            Registration registration = getRegistration(key);
+            if (registration != null) {
+                listener.onOverflow(registration.directoryPath, registration.dir);
+            }
+        }
+        changes.forEach((key, entries) -> {
+            Registration registration = getRegistration(key);
+            if (registration != null && !overflowedKeys.contains(key)) {
+                listener.onEntriesChanged(registration.directoryPath, entries);
+            }
+        });
+    }
+
+    private synchronized Registration getRegistration(WatchKey key) {
+        return registrations.get(key);
+    }
+
+    /**
+     * Methods are called from the thread of the watcher.
+     */
+    interface Listener {
+        void onEntriesChanged(FsPath directoryPath, Set<Path> entries);
+
+        void onOverflow(FsPath directoryPath, Path dir);
+    }
+
+    private static class Registration {
+        private final FsPath directoryPath;
+        private final Path dir;
+        private int count = 0;
+
+        private Registration(FsPath directoryPath, Path dir) {
+            this.directoryPath = directoryPath;
+            this.dir = dir;
+        }
+    }
+
+    private class Watch implements Disposable {
+        private final WatchKey key;
+        private boolean isDisposed = false;
+
+        private Watch(WatchKey key) {
+            this.key = key;
+        }
+
+        @Override
+        public void dispose() {
+            synchronized (LocalDirWatcher.this) {
+                if (!isDisposed) {
+                    isDisposed = true;
+                    unwatch(key);
+                }
+            }
+        }
+    }
+}
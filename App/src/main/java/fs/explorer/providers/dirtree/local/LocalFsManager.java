@@ -1,18 +1,33 @@
 package fs.explorer.providers.dirtree.local;
 
+import fs.explorer.providers.dirtree.EntriesChangeListener;
 import fs.explorer.providers.dirtree.FsManager;
 import fs.explorer.providers.dirtree.IOFunction;
 import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.utils.Disposable;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.InvalidPathException;
-import java.nio.file.Paths;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+public class LocalFsManager implements FsManager, Disposable {
+    // started on the first watch
+    private LocalDirWatcher dirWatcher;
+    private boolean isDisposed = false;
+    private volatile EntriesChangeListener entriesChangeListener =
+            (directoryPath, changedEntries, removedEntries) -> {};
+    private volatile BiConsumer<FsPath, List<FsPath>> listingUpdateListener = (path, entries) -> {};
 
-public class LocalFsManager implements FsManager {
     private static final int BUFFER_SIZE = 8196;
+    private static final int DEFAULT_BATCH_SIZE = 1000;
 
     @Override
     public byte[] readFile(FsPath fsPath) throws IOException {
@@ -41,8 +56,43 @@ public class LocalFsManager implements FsManager {
         }
     }
 
+    @Override
+    public SeekableByteChannel newByteChannel(FsPath fsPath) throws IOException {
+        if (fsPath == null || fsPath.getPath() == null) {
+            throw new IOException("bad file path");
+        }
+        try {
+            return Files.newByteChannel(Paths.get(fsPath.getPath()), StandardOpenOption.READ);
+        } catch (InvalidPathException e) {
+            throw new IOException("malformed file path");
+        }
+    }
+
+    @Override
+    public long getLastModifiedTime(FsPath fsPath) throws IOException {
+        if (fsPath == null || fsPath.getPath() == null) {
+            throw new IOException("bad file path");
+        }
+        try {
+            return Files.getLastModifiedTime(Paths.get(fsPath.getPath())).toMillis();
+        } catch (InvalidPathException e) {
+            throw new IOException("malformed file path");
+        }
+    }
+
     @Override
     public List<FsPath> list(FsPath directoryPath) throws IOException {
+        List<FsPath> entries = new ArrayList<>();
+        list(directoryPath, DEFAULT_BATCH_SIZE, entries::addAll);
+        return entries;
+    }
+
+    /**
+     * Interruption is checked between batches.
+     */
+    @Override
+    public void list(FsPath directoryPath, int batchSize, Consumer<List<FsPath>> onBatch)
+            throws IOException {
         if (directoryPath == null) {
             throw new IOException("bad directory path");
         }
@@ -53,19 +103,162 @@ public class LocalFsManager implements FsManager {
         if (pathStr == null) {
             throw new IOException("bad directory path");
         }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
         try {
-            List<FsPath> entries = Files.list(Paths.get(pathStr))
-                    .map(FsPath::fromPath)
-                    .collect(Collectors.toList());
-            // TODO consider checking interruption every N read entries
-            // Local reads should be fast enough, so for now we check
-            // interruption only after everything is read
-            if (Thread.currentThread().isInterrupted()) {
-                throw new InterruptedIOException();
-            }
-            return entries;
+            walkEntries(Paths.get(pathStr), batchSize, onBatch);
+        } catch (InvalidPathException e) {
+            throw new IOException("malformed directory path");
+        }
+    }
+
+    @Override
+    public void setListingUpdateListener(BiConsumer<FsPath, List<FsPath>> listener) {
+        listingUpdateListener = listener;
+    }
+
+    @Override
+    public void setEntriesChangeListener(EntriesChangeListener listener) {
+        entriesChangeListener = listener;
+    }
+
+    /**
+     * Created and deleted entries are reported, the directory is listed again
+     * only if the system drops some of its events.
+     */
+    @Override
+    public Disposable watchDirectory(FsPath directoryPath) throws IOException {
+        if (directoryPath == null || directoryPath.getPath() == null) {
+            throw new IOException("bad directory path");
+        }
+        if (!directoryPath.isDirectory()) {
+            throw new IOException("not a directory");
+        }
+        Path dir;
+        try {
+            dir = Paths.get(directoryPath.getPath());
         } catch (InvalidPathException e) {
             throw new IOException("malformed directory path");
         }
+        return getDirWatcher().watch(directoryPath, dir);
+    }
+
+    @Override
+    public synchronized void dispose() {
+        isDisposed = true;
+        if (dirWatcher != null) {
+            try {
+                dirWatcher.close();
+            } catch (IOException e) {
+                // do nothing
+            }
+            dirWatcher = null;
+        }
+    }
+
+    private synchronized LocalDirWatcher getDirWatcher() throws IOException {
+        if (isDisposed) {
+            throw new IOException("file system manager is disposed");
+        }
+        if (dirWatcher == null) {
+            dirWatcher = new LocalDirWatcher(new LocalDirWatcher.Listener() {
+                @Override
+                public void onEntriesChanged(FsPath directoryPath, Set<Path> entries) {
+                    reportChanges(directoryPath, entries);
+                }
+
+                @Override
+                public void onOverflow(FsPath directoryPath, Path dir) {
+                    reportListing(directoryPath);
+                }
+            });
+        }
+        return dirWatcher;
+    }
+
+    // entries are read one by one, so the directory is not listed
+    private void reportChanges(FsPath directoryPath, Collection<Path> entries) {
+        List<FsPath> changedEntries = new ArrayList<>();
+        List<FsPath> removedEntries = new ArrayList<>();
+        for (Path entry : entries) {
+            try {
+                changedEntries.add(FsPath.fromPath(
+                        entry, Files.readAttributes(entry, BasicFileAttributes.class)));
+            } catch (NoSuchFileException e) {
+                // broken links are listed as files
+                if (Files.exists(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    changedEntries.add(FsPath.fromPath(entry));
+                } else {
+                    removedEntries.add(FsPath.fromPath(entry));
+                }
+            } catch (IOException e) {
+                changedEntries.add(FsPath.fromPath(entry));
+            }
+        }
+        entriesChangeListener.onEntriesChanged(directoryPath, changedEntries, removedEntries);
+    }
+
+    private void reportListing(FsPath directoryPath) {
+        try {
+            listingUpdateListener.accept(directoryPath, list(directoryPath));
+        } catch (IOException e) {
+            // the directory is listed again on reload
+        }
+    }
+
+    /**
+     * Entries are read with their attributes in one pass over the directory.
+     * Links are followed, broken ones are listed as files.
+     */
+    private static void walkEntries(Path dir, int batchSize, Consumer<List<FsPath>> onBatch)
+            throws IOException {
+        List<FsPath> batch = new ArrayList<>();
+        Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1,
+                new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                            throws IOException {
+                        // the walk starts with visiting the file itself if it is not a directory
+                        if (file.equals(dir)) {
+                            throw new NotDirectoryException(dir.toString());
+                        }
+                        addEntry(FsPath.fromPath(file, attrs));
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc)
+                            throws IOException {
+                        if (file.equals(dir)) {
+                            throw exc;
+                        }
+                        // the entry is still shown, as it was before attributes were read
+                        addEntry(FsPath.fromPath(file));
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    private void addEntry(FsPath entry) throws InterruptedIOException {
+                        batch.add(entry);
+                        if (batch.size() >= batchSize) {
+                            passBatch(batch, onBatch);
+                        }
+                    }
+                });
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException();
+        }
+        if (!batch.isEmpty()) {
+            onBatch.accept(batch);
+        }
+    }
+
+    private static void passBatch(List<FsPath> batch, Consumer<List<FsPath>> onBatch)
+            throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException();
+        }
+        onBatch.accept(new ArrayList<>(batch));
+        batch.clear();
     }
 }
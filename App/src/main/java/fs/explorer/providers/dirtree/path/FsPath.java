@@ -4,16 +4,32 @@ import fs.explorer.utils.FileTypeInfo;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 
 public final class FsPath {
     private final String path;
     private final TargetType targetType;
     private final String lastComponent;
+    // attributes are known only if they were received with the path
+    private final long size;
+    private final long lastModifiedTime;
 
     public FsPath(String path, TargetType targetType, String lastComponent) {
+        this(path, targetType, lastComponent, -1, -1);
+    }
+
+    public FsPath(
+            String path,
+            TargetType targetType,
+            String lastComponent,
+            long size,
+            long lastModifiedTime
+    ) {
         this.path = path;
         this.targetType = targetType;
         this.lastComponent = lastComponent;
+        this.size = size;
+        this.lastModifiedTime = lastModifiedTime;
     }
 
     public String getPath() {
@@ -28,10 +44,27 @@ public final class FsPath {
         return lastComponent;
     }
 
+    /**
+     * Returns size in bytes or -1 if it is unknown.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns time of the last modification in milliseconds or -1 if it is unknown.
+     */
+    public long getLastModifiedTime() {
+        return lastModifiedTime;
+    }
+
     public boolean isDirectory() {
         return targetType == TargetType.DIRECTORY;
     }
 
+    /**
+     * Attributes are not compared, they describe the target at some moment only.
+     */
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
@@ -66,17 +99,43 @@ public final class FsPath {
         if (path == null) {
             return null;
         }
+        return fromPath(path, Files.isDirectory(path), -1, -1);
+    }
+
+    /**
+     * Takes the type, size and time of the last modification from the attributes,
+     * so the file system is not queried again.
+     */
+    public static FsPath fromPath(Path path, BasicFileAttributes attributes) {
+        if (path == null) {
+            return null;
+        }
+        if (attributes == null) {
+            return fromPath(path);
+        }
+        boolean isDirectory = attributes.isDirectory();
+        return fromPath(path, isDirectory,
+                isDirectory ? -1 : attributes.size(),
+                attributes.lastModifiedTime().toMillis());
+    }
+
+    private static FsPath fromPath(
+            Path path,
+            boolean isDirectory,
+            long size,
+            long lastModifiedTime
+    ) {
         Path fileName = path.getFileName();
         String lastComponent = fileName == null ? "" : fileName.toString();
         String pathStr = path.toString();
         TargetType targetType;
-        if (Files.isDirectory(path)) {
+        if (isDirectory) {
             targetType = TargetType.DIRECTORY;
         } else if (FileTypeInfo.isZipArchive(pathStr)) {
             targetType = TargetType.ZIP_ARCHIVE;
         } else {
             targetType = TargetType.FILE;
         }
-        return new FsPath(pathStr, targetType, lastComponent);
+        return new FsPath(pathStr, targetType, lastComponent, size, lastModifiedTime);
     }
 }
@@ -0,0 +1,9 @@
+package fs.explorer.providers.dirtree.remote;
+
+@FunctionalInterface
+public interface DownloadProgressListener {
+    /**
+     * Total size is -1 if the server does not report it.
+     */
+    void onProgress(long downloadedBytes, long totalBytes);
+}
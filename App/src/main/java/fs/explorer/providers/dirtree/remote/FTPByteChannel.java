@@ -0,0 +1,210 @@
+package fs.explorer.providers.dirtree.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only random access to a remote file.
+ * Each read that does not continue the previous one restarts
+ * the transfer at the new position with REST, so only the requested
+ * ranges are downloaded and not the whole file.
+ */
+class FTPByteChannel implements SeekableByteChannel {
+    private final FTPConnectionPool connectionPool;
+    private final FTPConnection connection;
+    private final String path;
+    private final long size;
+
+    private long position = 0;
+    // the current transfer, null if there is none
+    private InputStream stream;
+    private long streamPosition;
+    private boolean isOpen = true;
+    // connection can not be reused after failed transfers
+    private boolean isBroken = false;
+
+    private static final int BUFFER_SIZE = 8192;
+    // short gaps are cheaper to skip than to restart the transfer
+    private static final long MAX_SKIP_BYTES = 16 * 1024;
+
+    /**
+     * The connection is released to the pool when the channel is closed.
+     */
+    FTPByteChannel(
+            FTPConnectionPool connectionPool,
+            FTPConnection connection,
+            String path,
+            long size
+    ) {
+        this.connectionPool = connectionPool;
+        this.connection = connection;
+        this.path = path;
+        this.size = size;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        try {
+            return readFromStream(dst);
+        } catch (IOException e) {
+            isBroken = true;
+            throw FTPConnection.toInterruptedIfNeeded(e);
+        } catch (RuntimeException e) {
+            isBroken = true;
+            throw e;
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("negative position");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return isOpen;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!isOpen) {
+            return;
+        }
+        isOpen = false;
+        try {
+            abortTransfer();
+        } catch (IOException e) {
+            isBroken = true;
+        } finally {
+            connectionPool.release(connection, !isBroken);
+        }
+    }
+
+    private int readFromStream(ByteBuffer dst) throws IOException {
+        moveStreamTo(position);
+        int maxLength = (int) Math.min(dst.remaining(), size - position);
+        int len;
+        if (dst.hasArray()) {
+            len = stream.read(dst.array(), dst.arrayOffset() + dst.position(), maxLength);
+            if (len > 0) {
+                dst.position(dst.position() + len);
+            }
+        } else {
+            byte[] buffer = new byte[Math.min(maxLength, BUFFER_SIZE)];
+            len = stream.read(buffer);
+            if (len > 0) {
+                dst.put(buffer, 0, len);
+            }
+        }
+        if (len == -1) {
+            finishTransfer();
+            throw new IOException("unexpected end of remote file");
+        }
+        position += len;
+        streamPosition = position;
+        if (position == size) {
+            finishTransfer();
+        }
+        return len;
+    }
+
+    private void moveStreamTo(long newPosition) throws IOException {
+        if (stream != null && newPosition >= streamPosition &&
+                newPosition - streamPosition <= MAX_SKIP_BYTES) {
+            skipStream(newPosition - streamPosition);
+            return;
+        }
+        abortTransfer();
+        connection.setRestartOffset(newPosition);
+        stream = connection.retrieveFileStream(path);
+        if (stream == null) {
+            throw new IOException("failed to read remote file range");
+        }
+        streamPosition = newPosition;
+    }
+
+    private void skipStream(long count) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = count;
+        while (remaining > 0) {
+            int len = stream.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+            if (len == -1) {
+                finishTransfer();
+                throw new IOException("unexpected end of remote file");
+            }
+            remaining -= len;
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+        }
+        streamPosition += count;
+    }
+
+    private void finishTransfer() throws IOException {
+        InputStream finished = stream;
+        stream = null;
+        finished.close();
+        if (!connection.completePendingCommand()) {
+            throw new IOException("failed to finish remote file read");
+        }
+    }
+
+    /**
+     * Closing the data connection makes the server abort the transfer
+     * and reply with an error, which is expected here.
+     */
+    private void abortTransfer() throws IOException {
+        if (stream == null) {
+            return;
+        }
+        InputStream aborted = stream;
+        stream = null;
+        aborted.close();
+        connection.completePendingCommand();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen) {
+            throw new ClosedChannelException();
+        }
+    }
+}
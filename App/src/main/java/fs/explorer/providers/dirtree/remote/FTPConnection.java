@@ -2,23 +2,59 @@ package fs.explorer.providers.dirtree.remote;
 
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
-import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPCmd;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+import org.apache.commons.net.ftp.FTPFileEntryParser;
 import org.apache.commons.net.ftp.FTPReply;
+import org.apache.commons.net.ftp.parser.DefaultFTPFileEntryParserFactory;
+import org.apache.commons.net.ftp.parser.MLSxEntryParser;
+import org.apache.commons.net.ftp.parser.ParserInitializationException;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.InflaterInputStream;
 
+/**
+ * Sockets of the connection are closed at once if the thread using them is interrupted,
+ * the connection is not usable after that.
+ */
 public class FTPConnection implements AutoCloseable {
-    private final FTPClient ftpClient;
+    private final ListingFTPClient ftpClient;
     private final FTPConnectionInfo connectionInfo;
 
     private boolean isClosed = false;
+    private FTPFileEntryParser entryParser;
+    // decided on the first transfer, so connections that do not transfer data skip FEAT
+    private Boolean isCompressed;
 
     private static final int CONNECTION_TIMEOUT_MILLISECONDS = 10000;
     private static final long KEEP_ALIVE_TIMEOUT_SECONDS = 150;
+    private static final String SIZE_COMMAND = "SIZE";
+    private static final String MODIFICATION_TIME_COMMAND = "MDTM";
+    // fractions of a second may follow
+    private static final String MODIFICATION_TIME_FORMAT = "yyyyMMddHHmmss";
+    // servers that support MLST support MLSD as well
+    private static final String MACHINE_LISTING_FEATURE = "MLST";
+    private static final String MODE_COMMAND = "MODE";
+    // deflate compression of data transfers
+    private static final String DEFLATE_MODE = "Z";
+
+    static final String SERVICE_NOT_AVAILABLE = "service not available";
 
     FTPConnection(FTPConnectionInfo connectionInfo) {
-        ftpClient = new FTPClient();
+        ftpClient = new ListingFTPClient();
+        ftpClient.setSocketFactory(new InterruptibleSocketFactory());
+        ftpClient.setServerSocketFactory(new InterruptibleServerSocketFactory());
+        // a server that stopped replying does not hold the connection, e.g. on QUIT
+        ftpClient.setDefaultTimeout(
+                connectionInfo.getTransferSettings().getControlTimeoutMillis());
         this.connectionInfo = connectionInfo;
     }
 
@@ -27,15 +63,28 @@ public class FTPConnection implements AutoCloseable {
         if (!isClosed && ftpClient.isConnected()) {
             try {
                 ftpClient.logout();
-                ftpClient.disconnect();
             } catch (IOException e) {
                 throw new FTPException("failed to disconnect");
             } finally {
                 isClosed = true;
+                disconnectQuietly();
             }
         }
     }
 
+    /**
+     * Failures of interrupted threads are reported as interruptions,
+     * as they are caused by sockets closed on interrupt.
+     */
+    static IOException toInterruptedIfNeeded(IOException e) {
+        if (e instanceof InterruptedIOException || !Thread.currentThread().isInterrupted()) {
+            return e;
+        }
+        InterruptedIOException interrupted = new InterruptedIOException(e.getMessage());
+        interrupted.initCause(e);
+        return interrupted;
+    }
+
     void open() throws FTPException {
         if (isClosed) {
             throw new FTPException("attempt to reopen closed connection");
@@ -53,20 +102,155 @@ public class FTPConnection implements AutoCloseable {
     }
 
     InputStream retrieveFileStream(String path) throws IOException {
-        return ftpClient.retrieveFileStream(path);
+        boolean isCompressed = negotiateCompression();
+        InputStream is = ftpClient.retrieveFileStream(path);
+        return is != null && isCompressed ? decompress(is) : is;
+    }
+
+    /**
+     * Returns false if the connection is not usable anymore.
+     */
+    boolean sendNoOp() {
+        try {
+            return ftpClient.sendNoOp();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    boolean isConnected() {
+        return !isClosed && ftpClient.isConnected();
+    }
+
+    /**
+     * The offset is used by the next transfer only.
+     */
+    void setRestartOffset(long offset) {
+        ftpClient.setRestartOffset(offset);
+    }
+
+    /**
+     * Returns -1 if the server does not report file sizes.
+     */
+    long getFileSize(String path) throws IOException {
+        if (!FTPReply.isPositiveCompletion(ftpClient.sendCommand(SIZE_COMMAND, path))) {
+            return -1;
+        }
+        String[] reply = ftpClient.getReplyString().trim().split(" ");
+        try {
+            return Long.parseLong(reply[reply.length - 1]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns time in milliseconds or -1 if the server does not report modification times.
+     */
+    long getModificationTime(String path) throws IOException {
+        if (!FTPReply.isPositiveCompletion(
+                ftpClient.sendCommand(MODIFICATION_TIME_COMMAND, path))) {
+            return -1;
+        }
+        String[] reply = ftpClient.getReplyString().trim().split(" ");
+        String time = reply[reply.length - 1];
+        int fractionStart = time.indexOf('.');
+        String fraction = fractionStart == -1 ? "" : time.substring(fractionStart + 1);
+        SimpleDateFormat format = new SimpleDateFormat(MODIFICATION_TIME_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        format.setLenient(false);
+        try {
+            long millis = format.parse(
+                    fractionStart == -1 ? time : time.substring(0, fractionStart)).getTime();
+            if (!fraction.isEmpty()) {
+                millis += Long.parseLong((fraction + "00").substring(0, 3));
+            }
+            return millis;
+        } catch (ParseException | NumberFormatException e) {
+            return -1;
+        }
     }
 
     boolean completePendingCommand() throws IOException {
         return ftpClient.completePendingCommand();
     }
 
-    FTPFile[] listFiles(String path) throws IOException {
-        return ftpClient.listFiles(path);
+    /**
+     * Uses MLSD if the server supports it, LIST output is parsed only otherwise.
+     * Returns null if the server refused to list the directory.
+     * The reader must be closed and then the command must be completed.
+     */
+    FTPListReader openListReader(String path) throws IOException {
+        negotiateCompression();
+        if (ftpClient.hasFeature(MACHINE_LISTING_FEATURE)) {
+            Socket socket = ftpClient.openMachineListConnection(path);
+            if (socket == null) {
+                return null;
+            }
+            return new FTPListReader(socket, openDataInput(socket), MLSxEntryParser.getInstance(),
+                    ftpClient.getControlEncoding(), true);
+        }
+        FTPFileEntryParser parser = getEntryParser();
+        Socket socket = ftpClient.openListConnection(path);
+        if (socket == null) {
+            return null;
+        }
+        return new FTPListReader(
+                socket, openDataInput(socket), parser, ftpClient.getControlEncoding(), false);
+    }
+
+    /**
+     * Returns true if data is transferred compressed.
+     */
+    private boolean negotiateCompression() throws IOException {
+        if (isCompressed == null) {
+            isCompressed = connectionInfo.getTransferSettings().isCompressionEnabled() &&
+                    ftpClient.hasFeature(MODE_COMMAND, DEFLATE_MODE) &&
+                    FTPReply.isPositiveCompletion(
+                            ftpClient.sendCommand(MODE_COMMAND, DEFLATE_MODE));
+        }
+        return isCompressed;
+    }
+
+    private InputStream openDataInput(Socket socket) throws IOException {
+        InputStream is = socket.getInputStream();
+        return isCompressed ? decompress(is) : is;
+    }
+
+    private InputStream decompress(InputStream is) {
+        // the inflater reads small chunks, so they are taken from a buffer
+        return new InflaterInputStream(new BufferedInputStream(
+                is, connectionInfo.getTransferSettings().getBufferSize()));
+    }
+
+    private FTPFileEntryParser getEntryParser() throws IOException {
+        if (entryParser == null) {
+            try {
+                entryParser = new DefaultFTPFileEntryParserFactory()
+                        .createFileEntryParser(ftpClient.getSystemType());
+            } catch (ParserInitializationException e) {
+                throw new IOException("unsupported listing format");
+            }
+        }
+        return entryParser;
+    }
+
+    private void disconnectQuietly() {
+        try {
+            ftpClient.disconnect();
+        } catch (IOException e) {
+            // do nothing
+        }
     }
 
     private void makeConnection() throws IOException, FTPException {
         ftpClient.setConnectTimeout(CONNECTION_TIMEOUT_MILLISECONDS);
-        ftpClient.connect(connectionInfo.getHost());
+        try {
+            ftpClient.connect(connectionInfo.getHost(), connectionInfo.getPort());
+        } catch (FTPConnectionClosedException e) {
+            // servers reply with 421 when they limit the number of connections
+            throw new FTPException(SERVICE_NOT_AVAILABLE);
+        }
         int replyCode = ftpClient.getReplyCode();
         if (!FTPReply.isPositiveCompletion(replyCode)) {
             throw new FTPException("connection failed");
@@ -90,5 +274,29 @@ public class FTPConnection implements AutoCloseable {
             throw new FTPException("connection configureClient failed");
         }
         ftpClient.setControlKeepAliveTimeout(KEEP_ALIVE_TIMEOUT_SECONDS);
+        FTPTransferSettings settings = connectionInfo.getTransferSettings();
+        ftpClient.setBufferSize(settings.getBufferSize());
+        ftpClient.setSendDataSocketBufferSize(settings.getSendBufferSize());
+        ftpClient.setReceieveDataSocketBufferSize(settings.getReceiveBufferSize());
+        ftpClient.setDataTimeout(settings.getDataTimeoutMillis());
+        if (settings.isPassiveMode()) {
+            ftpClient.enterLocalPassiveMode();
+        } else {
+            ftpClient.enterLocalActiveMode();
+        }
+    }
+
+    /**
+     * Gives access to data connections of listing commands,
+     * FTPClient itself reads the whole listing before it can be parsed.
+     */
+    private static class ListingFTPClient extends FTPClient {
+        Socket openListConnection(String path) throws IOException {
+            return _openDataConnection_(FTPCmd.LIST, getListArguments(path));
+        }
+
+        Socket openMachineListConnection(String path) throws IOException {
+            return _openDataConnection_(FTPCmd.MLSD, path);
+        }
     }
 }
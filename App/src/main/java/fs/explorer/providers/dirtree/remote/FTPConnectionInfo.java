@@ -2,19 +2,43 @@ package fs.explorer.providers.dirtree.remote;
 
 public class FTPConnectionInfo {
     private final String host;
+    private final int port;
     private final String user;
     private final char[] password;
+    private final FTPTransferSettings transferSettings;
+
+    public static final int DEFAULT_PORT = 21;
 
     public FTPConnectionInfo(String host, String user, char[] password) {
+        this(host, DEFAULT_PORT, user, password);
+    }
+
+    public FTPConnectionInfo(String host, int port, String user, char[] password) {
+        this(host, port, user, password, new FTPTransferSettings());
+    }
+
+    public FTPConnectionInfo(
+            String host,
+            int port,
+            String user,
+            char[] password,
+            FTPTransferSettings transferSettings
+    ) {
         this.host = host;
+        this.port = port;
         this.user = user;
         this.password = password;
+        this.transferSettings = transferSettings;
     }
 
     public String getHost() {
         return host;
     }
 
+    public int getPort() {
+        return port;
+    }
+
     public String getUser() {
         return user;
     }
@@ -22,4 +46,15 @@ public class FTPConnectionInfo {
     public char[] getPassword() {
         return password;
     }
+
+    public FTPTransferSettings getTransferSettings() {
+        return transferSettings;
+    }
+
+    /**
+     * Identifies a remote file or directory among all servers and users.
+     */
+    String toKey(String path) {
+        return user + "@" + host + ":" + port + path;
+    }
 }
@@ -0,0 +1,306 @@
+package fs.explorer.providers.dirtree.remote;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Keeps open connections to one server, so operations do not pay
+ * for connecting and logging in each time.
+ * Connections that were idle for a while are checked with NOOP before reuse
+ * and closed once they were idle for too long.
+ * If the server refuses a connection because of its connections limit,
+ * the pool does not open more connections than it has at that moment,
+ * the limit is raised back by one connection at a time after a delay.
+ */
+class FTPConnectionPool implements AutoCloseable {
+    private final FTPConnectionInfo connectionInfo;
+    private final long validationIntervalMillis;
+    private final long idleTimeoutMillis;
+    private final int configuredMaxConnections;
+    private final long limitRetryMillis;
+    // most recently released connections are at the head
+    private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+
+    private int maxConnections;
+    private long limitRetryTime = 0;
+    private int openConnectionsCount = 0;
+    private boolean isClosed = false;
+
+    static final int DEFAULT_MAX_CONNECTIONS = 4;
+    static final long DEFAULT_VALIDATION_INTERVAL_MILLIS = 5000;
+    // servers usually drop idle connections after a few minutes
+    static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60_000;
+    static final long DEFAULT_LIMIT_RETRY_MILLIS = 30_000;
+
+    FTPConnectionPool(FTPConnectionInfo connectionInfo) {
+        this(connectionInfo, DEFAULT_MAX_CONNECTIONS,
+                DEFAULT_VALIDATION_INTERVAL_MILLIS, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    FTPConnectionPool(
+            FTPConnectionInfo connectionInfo,
+            int maxConnections,
+            long validationIntervalMillis,
+            long idleTimeoutMillis
+    ) {
+        this(connectionInfo, maxConnections, validationIntervalMillis, idleTimeoutMillis,
+                DEFAULT_LIMIT_RETRY_MILLIS);
+    }
+
+    FTPConnectionPool(
+            FTPConnectionInfo connectionInfo,
+            int maxConnections,
+            long validationIntervalMillis,
+            long idleTimeoutMillis,
+            long limitRetryMillis
+    ) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("max connections must be positive");
+        }
+        this.connectionInfo = connectionInfo;
+        this.maxConnections = maxConnections;
+        this.configuredMaxConnections = maxConnections;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.limitRetryMillis = limitRetryMillis;
+    }
+
+    /**
+     * Waits for a free connection if the limit is reached.
+     * Acquired connection must be released.
+     */
+    FTPConnection acquire() throws FTPException, InterruptedIOException {
+        while (true) {
+            IdleConnection idle;
+            List<FTPConnection> expired = new ArrayList<>();
+            try {
+                synchronized (this) {
+                    removeExpired(expired);
+                    raiseLimit();
+                    while (idleConnections.isEmpty() && openConnectionsCount >= maxConnections) {
+                        ensureOpen();
+                        try {
+                            // the limit is raised without any release, so it is checked again
+                            wait(maxConnections < configuredMaxConnections
+                                    ? Math.max(limitRetryTime - System.currentTimeMillis(), 1)
+                                    : 0);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException();
+                        }
+                        removeExpired(expired);
+                        raiseLimit();
+                    }
+                    ensureOpen();
+                    idle = idleConnections.pollFirst();
+                    if (idle == null) {
+                        ++openConnectionsCount;
+                    }
+                }
+            } finally {
+                // expired connections are most likely dropped by the server already
+                expired.forEach(this::closeQuietly);
+            }
+            if (idle == null) {
+                FTPConnection connection = openConnection();
+                if (connection != null) {
+                    return connection;
+                }
+                // waits for one of connections that are in use
+                continue;
+            }
+            if (isValid(idle)) {
+                return idle.connection;
+            }
+            discard(idle.connection);
+        }
+    }
+
+    /**
+     * Connections that failed in the middle of an operation
+     * might be in unknown state, so they should not be reused.
+     */
+    void release(FTPConnection connection, boolean isReusable) {
+        synchronized (this) {
+            if (isReusable && !isClosed && connection.isConnected()) {
+                idleConnections.addFirst(new IdleConnection(connection));
+                notifyAll();
+                return;
+            }
+        }
+        discard(connection);
+    }
+
+    /**
+     * Opens connections until the given number of them is open.
+     * Opened connections stay idle in the pool.
+     */
+    void warmUp(int count) throws FTPException, InterruptedIOException {
+        while (true) {
+            synchronized (this) {
+                ensureOpen();
+                raiseLimit();
+                if (openConnectionsCount >= Math.min(count, maxConnections)) {
+                    return;
+                }
+                ++openConnectionsCount;
+            }
+            FTPConnection connection = openConnection();
+            if (connection == null) {
+                return;
+            }
+            release(connection, true);
+        }
+    }
+
+    /**
+     * Sends NOOP on up to the given number of most recently released connections
+     * that were idle for the given time, so neither they expire nor the server drops them.
+     * Other idle connections are left to expire.
+     */
+    void keepAlive(int count, long idleTimeMillis) {
+        List<FTPConnection> expired = new ArrayList<>();
+        List<FTPConnection> checked = new ArrayList<>();
+        synchronized (this) {
+            removeExpired(expired);
+            long now = System.currentTimeMillis();
+            Iterator<IdleConnection> it = idleConnections.iterator();
+            for (int i = 0; i < count && it.hasNext(); ++i) {
+                IdleConnection idle = it.next();
+                if (now - idle.releaseTime >= idleTimeMillis) {
+                    it.remove();
+                    checked.add(idle.connection);
+                }
+            }
+        }
+        expired.forEach(this::closeQuietly);
+        // checked connections are released as if they were just used
+        checked.forEach(connection -> release(connection, connection.sendNoOp()));
+    }
+
+    FTPConnectionInfo getConnectionInfo() {
+        return connectionInfo;
+    }
+
+    synchronized int getOpenConnectionsCount() {
+        return openConnectionsCount;
+    }
+
+    synchronized int getIdleConnectionsCount() {
+        return idleConnections.size();
+    }
+
+    synchronized int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Connections that are in use are closed when they are released.
+     */
+    @Override
+    public void close() {
+        List<FTPConnection> connections = new ArrayList<>();
+        synchronized (this) {
+            isClosed = true;
+            idleConnections.forEach(idle -> connections.add(idle.connection));
+            idleConnections.clear();
+            openConnectionsCount -= connections.size();
+            notifyAll();
+        }
+        connections.forEach(this::closeQuietly);
+    }
+
+    /**
+     * Returns null if the server refused the connection because of its limit.
+     */
+    private FTPConnection openConnection() throws FTPException, InterruptedIOException {
+        FTPConnection connection = new FTPConnection(connectionInfo);
+        try {
+            connection.open();
+            return connection;
+        } catch (FTPException e) {
+            closeQuietly(connection);
+            synchronized (this) {
+                --openConnectionsCount;
+                notifyAll();
+                // the socket is closed if the thread is interrupted while connecting
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException();
+                }
+                boolean isLimitReached = openConnectionsCount > 0 &&
+                        FTPConnection.SERVICE_NOT_AVAILABLE.equals(e.getMessage());
+                if (isLimitReached) {
+                    maxConnections = openConnectionsCount;
+                    limitRetryTime = System.currentTimeMillis() + limitRetryMillis;
+                    return null;
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Other clients of the server might have disconnected since it refused a connection.
+     */
+    private void raiseLimit() {
+        long now = System.currentTimeMillis();
+        if (maxConnections < configuredMaxConnections && now >= limitRetryTime) {
+            ++maxConnections;
+            limitRetryTime = now + limitRetryMillis;
+        }
+    }
+
+    private boolean isValid(IdleConnection idle) {
+        if (!idle.connection.isConnected()) {
+            return false;
+        }
+        long idleTime = System.currentTimeMillis() - idle.releaseTime;
+        return idleTime < validationIntervalMillis || idle.connection.sendNoOp();
+    }
+
+    private void discard(FTPConnection connection) {
+        synchronized (this) {
+            --openConnectionsCount;
+            notifyAll();
+        }
+        closeQuietly(connection);
+    }
+
+    private void removeExpired(List<FTPConnection> expired) {
+        long now = System.currentTimeMillis();
+        // the least recently released connections are at the tail
+        while (!idleConnections.isEmpty() &&
+                now - idleConnections.peekLast().releaseTime >= idleTimeoutMillis) {
+            expired.add(idleConnections.pollLast().connection);
+            --openConnectionsCount;
+        }
+    }
+
+    private void ensureOpen() throws FTPException {
+        if (isClosed) {
+            throw new FTPException("connection pool is closed");
+        }
+    }
+
+    private void closeQuietly(FTPConnection connection) {
+        try {
+            connection.close();
+        } catch (FTPException e) {
+            // do nothing
+        }
+    }
+
+    private static class IdleConnection {
+        private final FTPConnection connection;
+        private final long releaseTime;
+
+        private IdleConnection(FTPConnection connection) {
+            this.connection = connection;
+            this.releaseTime = System.currentTimeMillis();
+        }
+    }
+}
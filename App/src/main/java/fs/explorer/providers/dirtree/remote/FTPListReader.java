@@ -0,0 +1,100 @@
+package fs.explorer.providers.dirtree.remote;
+
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPFileEntryParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parses a directory listing page by page while it is being received,
+ * as FTPListParseEngine does after it has read the whole listing.
+ * So the first entries are available early and a long listing
+ * can be abandoned in the middle.
+ */
+class FTPListReader implements AutoCloseable {
+    private final Socket socket;
+    private final FTPFileEntryParser parser;
+    private final BufferedReader reader;
+    private final boolean isMachineReadable;
+
+    private boolean hasNext = true;
+
+    /**
+     * The listing is read from the input, which may decompress data of the socket.
+     */
+    FTPListReader(
+            Socket socket,
+            InputStream input,
+            FTPFileEntryParser parser,
+            String encoding,
+            boolean isMachineReadable
+    ) throws IOException {
+        this.socket = socket;
+        this.parser = parser;
+        this.reader = new BufferedReader(new InputStreamReader(input, encoding));
+        this.isMachineReadable = isMachineReadable;
+    }
+
+    boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * Machine readable listings (MLSD) have exact sizes and modification times,
+     * times in LIST output are local to the server and often lack the year or minutes.
+     */
+    boolean isMachineReadable() {
+        return isMachineReadable;
+    }
+
+    /**
+     * Returns at most count entries, lines that are not entries are skipped.
+     */
+    List<FTPFile> getNext(int count) throws IOException {
+        List<FTPFile> files = new ArrayList<>(Math.min(count, 1024));
+        while (hasNext && files.size() < count) {
+            String entry = parser.readNextEntry(reader);
+            if (entry == null) {
+                hasNext = false;
+                break;
+            }
+            if (isMachineReadable && isListedDirectory(entry)) {
+                continue;
+            }
+            FTPFile file = parser.parseFTPEntry(entry);
+            if (file != null) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    // MLSD lists the directory itself and its parent as "cdir" and "pdir"
+    private static boolean isListedDirectory(String entry) {
+        int factsEnd = entry.indexOf(' ');
+        String facts = (factsEnd == -1 ? entry : entry.substring(0, factsEnd))
+                .toLowerCase(Locale.US);
+        return facts.startsWith("type=cdir;") || facts.startsWith("type=pdir;") ||
+                facts.contains(";type=cdir;") || facts.contains(";type=pdir;");
+    }
+
+    /**
+     * Closing the data connection before the end of the listing
+     * makes the server abort the transfer.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package fs.explorer.providers.dirtree.remote;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a few connections of the pool warm while the server is browsed.
+ * They are opened in background at start, so first operations do not wait
+ * for connecting and logging in, and they are sent NOOP while idle,
+ * so neither the pool nor the server closes them.
+ */
+class FTPSessionKeeper implements AutoCloseable {
+    private final FTPConnectionPool connectionPool;
+    private final int warmConnectionsCount;
+    private final long keepAliveIntervalMillis;
+    private final ScheduledExecutorService scheduler;
+
+    static final int DEFAULT_WARM_CONNECTIONS_COUNT = 2;
+    // below the idle timeout of the pool even if a check is half an interval late
+    static final long DEFAULT_KEEP_ALIVE_INTERVAL_MILLIS = 30_000;
+
+    FTPSessionKeeper(FTPConnectionPool connectionPool) {
+        this(connectionPool, DEFAULT_WARM_CONNECTIONS_COUNT, DEFAULT_KEEP_ALIVE_INTERVAL_MILLIS);
+    }
+
+    FTPSessionKeeper(
+            FTPConnectionPool connectionPool,
+            int warmConnectionsCount,
+            long keepAliveIntervalMillis
+    ) {
+        if (warmConnectionsCount < 0) {
+            throw new IllegalArgumentException("warm connections count must be non-negative");
+        }
+        if (keepAliveIntervalMillis <= 0) {
+            throw new IllegalArgumentException("keep alive interval must be positive");
+        }
+        this.connectionPool = connectionPool;
+        this.warmConnectionsCount = warmConnectionsCount;
+        this.keepAliveIntervalMillis = keepAliveIntervalMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "remote-session-keeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void start() {
+        scheduler.execute(this::warmUp);
+        // checked twice per interval, so connections are idle for at most 1.5 intervals
+        long checkIntervalMillis = Math.max(1, keepAliveIntervalMillis / 2);
+        scheduler.scheduleWithFixedDelay(this::keepAlive,
+                checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Interrupts the warm-up. Connections are closed by the pool.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void warmUp() {
+        try {
+            connectionPool.warmUp(warmConnectionsCount);
+        } catch (FTPException | InterruptedIOException e) {
+            // connections are opened on demand then
+        }
+    }
+
+    private void keepAlive() {
+        connectionPool.keepAlive(warmConnectionsCount, keepAliveIntervalMillis);
+    }
+}
@@ -0,0 +1,105 @@
+package fs.explorer.providers.dirtree.remote;
+
+/**
+ * Tuning of data transfers for every connection to a server.
+ * Socket buffer sizes of 0 leave the ones of the system.
+ * Data timeout of 0 makes reads wait for the server as long as it takes,
+ * control timeout of 0 makes commands wait for their replies as long as it takes.
+ * Compression (MODE Z) is used only if the server supports it.
+ */
+public class FTPTransferSettings {
+    private final int bufferSize;
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final boolean isPassiveMode;
+    private final int dataTimeoutMillis;
+    private final int controlTimeoutMillis;
+    private final boolean isCompressionEnabled;
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_SOCKET_BUFFER_SIZE = 0;
+    public static final int DEFAULT_DATA_TIMEOUT_MILLIS = 60_000;
+    public static final int DEFAULT_CONTROL_TIMEOUT_MILLIS = 60_000;
+
+    public FTPTransferSettings() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_SOCKET_BUFFER_SIZE, DEFAULT_SOCKET_BUFFER_SIZE,
+                false, DEFAULT_DATA_TIMEOUT_MILLIS, true);
+    }
+
+    public FTPTransferSettings(
+            int bufferSize,
+            int sendBufferSize,
+            int receiveBufferSize,
+            boolean isPassiveMode,
+            int dataTimeoutMillis,
+            boolean isCompressionEnabled
+    ) {
+        this(bufferSize, sendBufferSize, receiveBufferSize, isPassiveMode,
+                dataTimeoutMillis, DEFAULT_CONTROL_TIMEOUT_MILLIS, isCompressionEnabled);
+    }
+
+    public FTPTransferSettings(
+            int bufferSize,
+            int sendBufferSize,
+            int receiveBufferSize,
+            boolean isPassiveMode,
+            int dataTimeoutMillis,
+            int controlTimeoutMillis,
+            boolean isCompressionEnabled
+    ) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be positive");
+        }
+        if (sendBufferSize < 0 || receiveBufferSize < 0) {
+            throw new IllegalArgumentException("socket buffer size must be non-negative");
+        }
+        if (dataTimeoutMillis < 0) {
+            throw new IllegalArgumentException("data timeout must be non-negative");
+        }
+        if (controlTimeoutMillis < 0) {
+            throw new IllegalArgumentException("control timeout must be non-negative");
+        }
+        this.bufferSize = bufferSize;
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.isPassiveMode = isPassiveMode;
+        this.dataTimeoutMillis = dataTimeoutMillis;
+        this.controlTimeoutMillis = controlTimeoutMillis;
+        this.isCompressionEnabled = isCompressionEnabled;
+    }
+
+    /**
+     * Size of buffers that data is read with.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public boolean isPassiveMode() {
+        return isPassiveMode;
+    }
+
+    public int getDataTimeoutMillis() {
+        return dataTimeoutMillis;
+    }
+
+    /**
+     * Limits waiting for replies to commands, the control connection
+     * is not read while data is transferred, so long transfers are not affected.
+     */
+    public int getControlTimeoutMillis() {
+        return controlTimeoutMillis;
+    }
+
+    public boolean isCompressionEnabled() {
+        return isCompressionEnabled;
+    }
+}
@@ -0,0 +1,51 @@
+package fs.explorer.providers.dirtree.remote;
+
+import javax.net.ServerSocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Creates server sockets backed by channels, so waiting for a data connection
+ * in active mode stops as soon as the waiting thread is interrupted.
+ * Accepted sockets are interruptible as well.
+ */
+class InterruptibleServerSocketFactory extends ServerSocketFactory {
+    // the same as the one of plain server sockets
+    private static final int DEFAULT_BACKLOG = 50;
+
+    @Override
+    public ServerSocket createServerSocket() throws IOException {
+        return ServerSocketChannel.open().socket();
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        return bind(port, DEFAULT_BACKLOG, null);
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+        return bind(port, backlog, null);
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port, int backlog, InetAddress address)
+            throws IOException {
+        return bind(port, backlog, address);
+    }
+
+    private ServerSocket bind(int port, int backlog, InetAddress address) throws IOException {
+        ServerSocket serverSocket = createServerSocket();
+        try {
+            serverSocket.bind(new InetSocketAddress(address, port),
+                    backlog > 0 ? backlog : DEFAULT_BACKLOG);
+            return serverSocket;
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+    }
+}
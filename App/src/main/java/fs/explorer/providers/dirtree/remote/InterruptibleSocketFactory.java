@@ -0,0 +1,64 @@
+package fs.explorer.providers.dirtree.remote;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Creates sockets backed by channels. Unlike plain sockets, they are closed
+ * as soon as the thread blocked on them is interrupted,
+ * so cancelled operations do not wait for the server.
+ */
+class InterruptibleSocketFactory extends SocketFactory {
+    @Override
+    public Socket createSocket() throws IOException {
+        return SocketChannel.open().socket();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return connect(new InetSocketAddress(host, port), null);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localAddress, int localPort)
+            throws IOException {
+        return connect(new InetSocketAddress(host, port),
+                new InetSocketAddress(localAddress, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port) throws IOException {
+        return connect(new InetSocketAddress(address, port), null);
+    }
+
+    @Override
+    public Socket createSocket(
+            InetAddress address,
+            int port,
+            InetAddress localAddress,
+            int localPort
+    ) throws IOException {
+        return connect(new InetSocketAddress(address, port),
+                new InetSocketAddress(localAddress, localPort));
+    }
+
+    private Socket connect(SocketAddress address, SocketAddress localAddress)
+            throws IOException {
+        Socket socket = createSocket();
+        try {
+            if (localAddress != null) {
+                socket.bind(localAddress);
+            }
+            socket.connect(address);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package fs.explorer.providers.dirtree.remote;
+
+import fs.explorer.utils.FsUtils;
+import fs.explorer.utils.WeightedLruCache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Keeps downloaded remote files on the local disk, so they are read
+ * from the server once while they do not change.
+ * A cached file is used only if its size and modification time
+ * are the same as the ones of the remote file.
+ * Least recently used files are deleted once their total size exceeds the limit.
+ * Concurrent requests for the same file wait for one download.
+ * This class is thread safe.
+ */
+public class RemoteContentCache {
+    private final long maxBytes;
+    // weight of a file is its size in bytes
+    private final WeightedLruCache<String, CachedFile> files;
+    private final ConcurrentMap<String, CompletableFuture<Void>> downloads;
+
+    private Path cacheDirectory;
+
+    private static final String CONTENT_CACHE_PREFIX = "RemoteContentCache";
+    private static final String CONTENT_FILE_PREFIX = "content";
+    private static final int MAX_OPEN_ATTEMPTS = 3;
+
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    public RemoteContentCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public RemoteContentCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.files = new WeightedLruCache<>(
+                maxBytes, CachedFile::getSize, (key, file) -> deleteQuietly(file.getPath()));
+        this.downloads = new ConcurrentHashMap<>();
+    }
+
+    boolean canCache(FileVersion version) {
+        return version.getSize() <= maxBytes;
+    }
+
+    boolean containsKey(String key) {
+        return files.containsKey(key);
+    }
+
+    /**
+     * Returns null if the file is not cached or the cached one is of another version.
+     */
+    SeekableByteChannel openIfPresent(String key, FileVersion version) throws IOException {
+        for (int attempt = 0; attempt < MAX_OPEN_ATTEMPTS; ++attempt) {
+            CachedFile file = files.get(key);
+            if (file == null || !file.getVersion().equals(version)) {
+                return null;
+            }
+            try {
+                return FileChannel.open(file.getPath(), StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                // the file was evicted in the meantime
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Downloads the file if it is not cached yet.
+     * A file that turns out to be of another version than expected
+     * is returned, but it is not cached.
+     */
+    SeekableByteChannel open(String key, FileVersion version, Downloader downloader)
+            throws IOException {
+        for (int attempt = 0; attempt < MAX_OPEN_ATTEMPTS; ++attempt) {
+            SeekableByteChannel channel = openIfPresent(key, version);
+            if (channel != null) {
+                return channel;
+            }
+            CompletableFuture<Void> download = new CompletableFuture<>();
+            CompletableFuture<Void> existing = downloads.putIfAbsent(key, download);
+            if (existing != null) {
+                awaitDownload(existing);
+                continue;
+            }
+            try {
+                channel = download(key, version, downloader);
+                download.complete(null);
+                if (channel != null) {
+                    return channel;
+                }
+            } catch (IOException | RuntimeException e) {
+                download.completeExceptionally(e);
+                throw e;
+            } finally {
+                downloads.remove(key, download);
+            }
+        }
+        throw new IOException("failed to cache remote file");
+    }
+
+    public synchronized void clear() throws IOException {
+        files.clear();
+        if (cacheDirectory != null) {
+            FsUtils.deleteDirectoryRecursively(cacheDirectory);
+            cacheDirectory = null;
+        }
+    }
+
+    public WeightedLruCache.Stats getStats() {
+        return files.getStats();
+    }
+
+    private SeekableByteChannel download(String key, FileVersion version, Downloader downloader)
+            throws IOException {
+        Path path = Files.createTempFile(getCacheDirectory(), CONTENT_FILE_PREFIX, null);
+        boolean isCached = false;
+        try {
+            downloader.download(path);
+            if (Files.size(path) != version.getSize()) {
+                // the file has changed since its version was requested
+                return FileChannel.open(
+                        path, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            files.put(key, new CachedFile(path, version));
+            isCached = true;
+            return FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            // the file was evicted right after it was downloaded
+            return null;
+        } finally {
+            if (!isCached) {
+                deleteQuietly(path);
+            }
+        }
+    }
+
+    /**
+     * Failures of other downloads are reported as they are,
+     * but an interrupted download is made again by the waiting thread.
+     */
+    private void awaitDownload(CompletableFuture<Void> download) throws IOException {
+        try {
+            download.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (!(cause instanceof InterruptedIOException)) {
+                throw new IOException(cause.getMessage(), cause);
+            }
+        }
+    }
+
+    private synchronized Path getCacheDirectory() throws IOException {
+        if (cacheDirectory == null) {
+            cacheDirectory = Files.createTempDirectory(CONTENT_CACHE_PREFIX);
+        }
+        return cacheDirectory;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // the file may still be in use, it is deleted on clear anyway
+        }
+    }
+
+    interface Downloader {
+        void download(Path target) throws IOException;
+    }
+
+    static class FileVersion {
+        private final long size;
+        private final long lastModifiedTime;
+
+        FileVersion(long size, long lastModifiedTime) {
+            this.size = size;
+            this.lastModifiedTime = lastModifiedTime;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getLastModifiedTime() {
+            return lastModifiedTime;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof FileVersion)) {
+                return false;
+            }
+            FileVersion other = (FileVersion) obj;
+            return size == other.size && lastModifiedTime == other.lastModifiedTime;
+        }
+
+        @Override
+        public int hashCode() {
+            int res = 17;
+            res = 31 * res + Long.hashCode(size);
+            res = 31 * res + Long.hashCode(lastModifiedTime);
+            return res;
+        }
+    }
+
+    private static class CachedFile {
+        private final Path path;
+        private final FileVersion version;
+
+        private CachedFile(Path path, FileVersion version) {
+            this.path = path;
+            this.version = version;
+        }
+
+        Path getPath() {
+            return path;
+        }
+
+        FileVersion getVersion() {
+            return version;
+        }
+
+        long getSize() {
+            return version.getSize();
+        }
+    }
+}
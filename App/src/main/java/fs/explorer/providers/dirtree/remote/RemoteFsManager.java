@@ -4,6 +4,7 @@ import fs.explorer.providers.dirtree.FsManager;
 import fs.explorer.providers.dirtree.IOFunction;
 import fs.explorer.providers.dirtree.path.FsPath;
 import fs.explorer.providers.dirtree.path.TargetType;
+import fs.explorer.utils.Disposable;
 import fs.explorer.utils.FTPPathUtils;
 import fs.explorer.utils.FileTypeInfo;
 import org.apache.commons.net.ftp.FTPFile;
@@ -12,30 +13,138 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
-import java.util.Arrays;
-import java.util.List;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-public class RemoteFsManager implements FsManager {
-    private final FTPConnectionInfo connectionInfo;
+/**
+ * If a listing cache is given, cached listings are returned at once
+ * and expired ones are read again in background.
+ * The listener is called when a listing read again differs from the cached one.
+ * If a content cache is given, files are read from their local copies while they do not change,
+ * files are copied only if their listing tells their sizes and times.
+ */
+public class RemoteFsManager implements FsManager, Disposable {
+    private final FTPConnectionPool connectionPool;
+    private final RemoteListingCache listingCache;
+    private final RemoteContentCache contentCache;
+    private final ExecutorService revalidationExecutor;
+    private final ExecutorService downloadExecutor;
+    // directories that are being read again
+    private final Set<String> revalidatedPaths;
 
-    private static final int BUFFER_SIZE = 8192;
+    private FTPSessionKeeper sessionKeeper;
+    private boolean isDisposed = false;
+    private volatile BiConsumer<FsPath, List<FsPath>> listingUpdateListener = (path, entries) -> {};
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    // archives up to this size are downloaded at once instead of being read by ranges
+    private static final long MAX_PREFETCHED_ARCHIVE_SIZE = 4 * 1024 * 1024;
 
     public RemoteFsManager(FTPConnectionInfo connectionInfo) {
-        this.connectionInfo = connectionInfo;
+        this(connectionInfo, null);
+    }
+
+    public RemoteFsManager(FTPConnectionInfo connectionInfo, RemoteListingCache listingCache) {
+        this(connectionInfo, listingCache, null);
+    }
+
+    public RemoteFsManager(
+            FTPConnectionInfo connectionInfo,
+            RemoteListingCache listingCache,
+            RemoteContentCache contentCache
+    ) {
+        this(new FTPConnectionPool(connectionInfo), listingCache, contentCache);
+    }
+
+    RemoteFsManager(FTPConnectionPool connectionPool) {
+        this(connectionPool, null, null);
+    }
+
+    RemoteFsManager(
+            FTPConnectionPool connectionPool,
+            RemoteListingCache listingCache,
+            RemoteContentCache contentCache
+    ) {
+        this.connectionPool = connectionPool;
+        this.listingCache = listingCache;
+        this.contentCache = contentCache;
+        this.revalidationExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "remote-listing-revalidator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.revalidatedPaths = ConcurrentHashMap.newKeySet();
+        this.downloadExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "remote-segment-download");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
+    /**
+     * The connection stays in the pool for the following operations.
+     */
     public void checkConnection() throws FTPException {
-        try (FTPConnection connection = new FTPConnection(connectionInfo)) {
-            connection.open();
+        FTPConnection connection;
+        try {
+            connection = connectionPool.acquire();
+        } catch (InterruptedIOException e) {
+            throw new FTPException("connection check interrupted");
+        }
+        connectionPool.release(connection, true);
+    }
+
+    public void keepSessionAlive() {
+        keepSessionAlive(FTPSessionKeeper.DEFAULT_WARM_CONNECTIONS_COUNT,
+                FTPSessionKeeper.DEFAULT_KEEP_ALIVE_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opens the given number of connections in background
+     * and sends NOOP on them at the given interval while they are idle, until disposed.
+     */
+    public synchronized void keepSessionAlive(
+            int warmConnectionsCount,
+            long keepAliveIntervalMillis
+    ) {
+        if (isDisposed || sessionKeeper != null) {
+            return;
+        }
+        sessionKeeper = new FTPSessionKeeper(
+                connectionPool, warmConnectionsCount, keepAliveIntervalMillis);
+        sessionKeeper.start();
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (this) {
+            isDisposed = true;
+            if (sessionKeeper != null) {
+                sessionKeeper.close();
+            }
         }
+        revalidationExecutor.shutdownNow();
+        downloadExecutor.shutdownNow();
+        connectionPool.close();
     }
 
     @Override
     public byte[] readFile(FsPath filePath) throws IOException {
         return withFileStream(filePath, is -> {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] buffer = newBuffer();
             int len;
             while ((len = is.read(buffer)) != -1) {
                 baos.write(buffer, 0, len);
@@ -53,8 +162,19 @@ public class RemoteFsManager implements FsManager {
         if (filePath == null || filePath.getPath() == null) {
             throw new IOException("bad file path");
         }
-        try (FTPConnection connection = new FTPConnection(connectionInfo)) {
-            connection.open();
+        if (contentCache != null) {
+            // without a size and a time from the listing the version check costs round trips,
+            // it only pays off if there is a copy to read
+            boolean isVersionListed = filePath.getSize() != -1 &&
+                    filePath.getLastModifiedTime() != -1;
+            long maxDownloadSize = isVersionListed ? Long.MAX_VALUE : 0;
+            try (SeekableByteChannel channel = openCachedFile(filePath, maxDownloadSize)) {
+                if (channel != null) {
+                    return streamReader.apply(Channels.newInputStream(channel));
+                }
+            }
+        }
+        return withConnection(connection -> {
             R result;
             try (InputStream is = connection.retrieveFileStream(filePath.getPath())) {
                 if (is == null) {
@@ -63,21 +183,94 @@ public class RemoteFsManager implements FsManager {
                 result = streamReader.apply(is);
                 // read the rest or command completion fails
                 skipRest(is);
-            } catch (InterruptedIOException e) {
-                connection.completePendingCommand();
-                throw new InterruptedIOException(e.getMessage());
             }
             if (!connection.completePendingCommand()) {
                 throw new IOException("failed to finish remote file read");
             }
             return result;
-        } catch (FTPException e) {
-            throw new IOException(e.getMessage());
+        });
+    }
+
+    /**
+     * The transfer starts at the offset with REST and is aborted
+     * as soon as enough bytes are read, so the rest of the file is not downloaded.
+     */
+    @Override
+    public byte[] readFileRange(FsPath filePath, long offset, int maxBytes) throws IOException {
+        if (filePath == null || filePath.getPath() == null) {
+            throw new IOException("bad file path");
         }
+        if (contentCache != null) {
+            try (SeekableByteChannel channel = openCachedFile(filePath, 0)) {
+                if (channel != null) {
+                    return readRange(channel, offset, maxBytes);
+                }
+            }
+        }
+        return withConnection(connection -> {
+            connection.setRestartOffset(offset);
+            byte[] bytes = new byte[maxBytes];
+            int count = 0;
+            try (InputStream is = connection.retrieveFileStream(filePath.getPath())) {
+                if (is == null) {
+                    throw new IOException("failed to read remote file");
+                }
+                int len;
+                while (count < maxBytes && (len = is.read(bytes, count, maxBytes - count)) != -1) {
+                    count += len;
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+            // the server replies with an error if the transfer was aborted
+            boolean isCompleted = connection.completePendingCommand();
+            if (!isCompleted && count < maxBytes) {
+                throw new IOException("failed to read remote file");
+            }
+            return count == maxBytes ? bytes : Arrays.copyOf(bytes, count);
+        });
+    }
+
+    /**
+     * Large files are downloaded by segments over several connections.
+     * A stopped download of the same file to the same target is continued
+     * if the remote file has not changed, otherwise it starts over.
+     * Files of unknown size are downloaded over one connection and are not continued.
+     * The listener is called from the calling thread.
+     */
+    public void downloadFile(FsPath filePath, Path target, DownloadProgressListener listener)
+            throws IOException {
+        if (filePath == null || filePath.getPath() == null) {
+            throw new IOException("bad file path");
+        }
+        if (target == null) {
+            throw new IOException("bad target path");
+        }
+        RemoteContentCache.FileVersion version = getFileVersion(filePath);
+        if (version.getSize() == -1) {
+            download(filePath.getPath(), target);
+            long size = Files.size(target);
+            listener.onProgress(size, size);
+            return;
+        }
+        new SegmentedDownload(connectionPool, downloadExecutor, filePath.getPath(), target, version)
+                .run(listener);
     }
 
     @Override
     public List<FsPath> list(FsPath directoryPath) throws IOException {
+        List<FsPath> entries = new ArrayList<>();
+        list(directoryPath, DEFAULT_BATCH_SIZE, entries::addAll);
+        return entries;
+    }
+
+    /**
+     * Interruption is checked between batches.
+     */
+    @Override
+    public void list(FsPath directoryPath, int batchSize, Consumer<List<FsPath>> onBatch)
+            throws IOException {
         if (directoryPath == null) {
             throw new IOException("bad directory path");
         }
@@ -88,24 +281,275 @@ public class RemoteFsManager implements FsManager {
         if (pathStr == null) {
             throw new IOException("bad directory path");
         }
-        FTPFile[] entries;
-        try (FTPConnection connection = new FTPConnection(connectionInfo)) {
-            connection.open();
-            entries = connection.listFiles(pathStr);
-        } catch (FTPException e) {
-            throw new IOException(e.getMessage());
+        if (listingCache == null) {
+            listRemote(pathStr, batchSize, onBatch);
+            return;
+        }
+        FTPConnectionInfo connectionInfo = connectionPool.getConnectionInfo();
+        RemoteListingCache.Listing cached = listingCache.get(connectionInfo, pathStr);
+        if (cached != null) {
+            List<FsPath> entries = cached.getEntries();
+            for (int i = 0; i < entries.size(); i += batchSize) {
+                onBatch.accept(new ArrayList<>(
+                        entries.subList(i, Math.min(i + batchSize, entries.size()))));
+            }
+            if (listingCache.isExpired(cached)) {
+                revalidate(directoryPath, entries);
+            }
+            return;
+        }
+        List<FsPath> entries = new ArrayList<>();
+        listRemote(pathStr, batchSize, batch -> {
+            entries.addAll(batch);
+            onBatch.accept(batch);
+        });
+        listingCache.put(connectionInfo, pathStr, entries);
+    }
+
+    @Override
+    public void setListingUpdateListener(BiConsumer<FsPath, List<FsPath>> listener) {
+        listingUpdateListener = listener;
+    }
+
+    @Override
+    public void invalidateListing(FsPath directoryPath) {
+        if (listingCache != null && directoryPath != null && directoryPath.getPath() != null) {
+            listingCache.remove(connectionPool.getConnectionInfo(), directoryPath.getPath());
+        }
+    }
+
+    private void listRemote(String pathStr, int batchSize, Consumer<List<FsPath>> onBatch)
+            throws IOException {
+        withConnection(connection -> {
+            try (FTPListReader reader = connection.openListReader(pathStr)) {
+                // servers refuse to list missing directories
+                if (reader == null) {
+                    return null;
+                }
+                while (reader.hasNext()) {
+                    List<FTPFile> entries = reader.getNext(batchSize);
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                    if (!entries.isEmpty()) {
+                        onBatch.accept(toFsPaths(pathStr, entries, reader.isMachineReadable()));
+                    }
+                }
+            }
+            if (!connection.completePendingCommand()) {
+                throw new IOException("failed to list entries");
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Changed sizes and times are reported too, as files are read from their cached copies
+     * by the sizes and times of their entries.
+     */
+    private void revalidate(FsPath directoryPath, List<FsPath> cachedEntries) {
+        String pathStr = directoryPath.getPath();
+        if (!revalidatedPaths.add(pathStr)) {
+            return;
+        }
+        try {
+            revalidationExecutor.execute(() -> {
+                try {
+                    List<FsPath> entries = new ArrayList<>();
+                    listRemote(pathStr, DEFAULT_BATCH_SIZE, entries::addAll);
+                    listingCache.put(connectionPool.getConnectionInfo(), pathStr, entries);
+                    if (!isSameListing(entries, cachedEntries)) {
+                        listingUpdateListener.accept(directoryPath, entries);
+                    }
+                } catch (IOException e) {
+                    // the cached listing is read again next time
+                } finally {
+                    revalidatedPaths.remove(pathStr);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the manager is disposed
+            revalidatedPaths.remove(pathStr);
+        }
+    }
+
+    private static boolean isSameListing(List<FsPath> entries, List<FsPath> otherEntries) {
+        Map<FsPath, FsPath> entriesMap = toMap(entries);
+        Map<FsPath, FsPath> otherEntriesMap = toMap(otherEntries);
+        if (!entriesMap.keySet().equals(otherEntriesMap.keySet())) {
+            return false;
+        }
+        // paths are equal regardless of sizes and times
+        return entriesMap.values().stream().allMatch(entry -> {
+            FsPath other = otherEntriesMap.get(entry);
+            return entry.getSize() == other.getSize() &&
+                    entry.getLastModifiedTime() == other.getLastModifiedTime();
+        });
+    }
+
+    private static Map<FsPath, FsPath> toMap(List<FsPath> entries) {
+        Map<FsPath, FsPath> map = new HashMap<>();
+        entries.forEach(entry -> map.put(entry, entry));
+        return map;
+    }
+
+    /**
+     * The channel holds a connection of the pool until it is closed.
+     * Returns null if the server does not report the size of the file.
+     * Small archives are downloaded to the content cache, so they are read locally.
+     */
+    @Override
+    public SeekableByteChannel newByteChannel(FsPath filePath) throws IOException {
+        if (filePath == null || filePath.getPath() == null) {
+            throw new IOException("bad file path");
+        }
+        if (contentCache != null) {
+            SeekableByteChannel channel = openCachedFile(filePath, MAX_PREFETCHED_ARCHIVE_SIZE);
+            if (channel != null) {
+                return channel;
+            }
+        }
+        FTPConnection connection = acquireConnection();
+        boolean isReusable = false;
+        try {
+            long size = connection.getFileSize(filePath.getPath());
+            isReusable = true;
+            if (size != -1) {
+                SeekableByteChannel channel = new FTPByteChannel(
+                        connectionPool, connection, filePath.getPath(), size);
+                connection = null;
+                return channel;
+            }
+            return null;
+        } finally {
+            if (connection != null) {
+                connectionPool.release(connection, isReusable);
+            }
+        }
+    }
+
+    @Override
+    public long getLastModifiedTime(FsPath filePath) throws IOException {
+        // modification times are not requested from FTP servers
+        return -1;
+    }
+
+    /**
+     * Files larger than maxDownloadSize are not downloaded, but their cached copies are used.
+     * Returns null if the file has no usable copy.
+     */
+    private SeekableByteChannel openCachedFile(FsPath filePath, long maxDownloadSize)
+            throws IOException {
+        String path = filePath.getPath();
+        String key = connectionPool.getConnectionInfo().toKey(path);
+        if (maxDownloadSize <= 0 && !contentCache.containsKey(key)) {
+            return null;
         }
-        // we do not have control over listFiles so we can
-        // only check interruption after operation is completed
-        if (Thread.currentThread().isInterrupted()) {
-            throw new InterruptedIOException();
+        RemoteContentCache.FileVersion version = getFileVersion(filePath);
+        if (version.getSize() == -1 || version.getLastModifiedTime() == -1) {
+            return null;
         }
-        if (entries == null) {
-            throw new IOException("failed to list entries");
+        if (version.getSize() > maxDownloadSize || !contentCache.canCache(version)) {
+            return contentCache.openIfPresent(key, version);
         }
-        return Arrays.stream(entries).map(e -> {
+        return contentCache.open(key, version, target -> download(path, target));
+    }
+
+    /**
+     * Sizes and times from the listing are used if they are known,
+     * otherwise they are requested from the server.
+     * Sizes and times the server does not report are -1.
+     */
+    private RemoteContentCache.FileVersion getFileVersion(FsPath filePath) throws IOException {
+        long size = filePath.getSize();
+        long lastModifiedTime = filePath.getLastModifiedTime();
+        if (size != -1 && lastModifiedTime != -1) {
+            return new RemoteContentCache.FileVersion(size, lastModifiedTime);
+        }
+        return withConnection(connection -> {
+            long actualSize = size != -1 ? size : connection.getFileSize(filePath.getPath());
+            long actualTime = lastModifiedTime != -1 ?
+                    lastModifiedTime : connection.getModificationTime(filePath.getPath());
+            return new RemoteContentCache.FileVersion(actualSize, actualTime);
+        });
+    }
+
+    private void download(String path, Path target) throws IOException {
+        withConnection(connection -> {
+            try (
+                    InputStream is = connection.retrieveFileStream(path);
+                    OutputStream os = Files.newOutputStream(target)
+            ) {
+                if (is == null) {
+                    throw new IOException("failed to read remote file");
+                }
+                byte[] buffer = newBuffer();
+                int len;
+                while ((len = is.read(buffer)) != -1) {
+                    os.write(buffer, 0, len);
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+            if (!connection.completePendingCommand()) {
+                throw new IOException("failed to finish remote file read");
+            }
+            return null;
+        });
+    }
+
+    private static byte[] readRange(SeekableByteChannel channel, long offset, int maxBytes)
+            throws IOException {
+        channel.position(offset);
+        ByteBuffer buffer = ByteBuffer.allocate(maxBytes);
+        while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+        }
+        return buffer.position() == maxBytes ?
+                buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Connections that failed are not returned to the pool.
+     * If the thread is interrupted, the operation stops at once and its connection is closed.
+     */
+    private <R> R withConnection(IOFunction<FTPConnection, R> operation) throws IOException {
+        FTPConnection connection = acquireConnection();
+        boolean isReusable = false;
+        try {
+            R result = operation.apply(connection);
+            isReusable = true;
+            return result;
+        } catch (IOException e) {
+            throw FTPConnection.toInterruptedIfNeeded(e);
+        } finally {
+            connectionPool.release(connection, isReusable);
+        }
+    }
+
+    private byte[] newBuffer() {
+        return new byte[connectionPool.getConnectionInfo().getTransferSettings().getBufferSize()];
+    }
+
+    private FTPConnection acquireConnection() throws IOException {
+        try {
+            return connectionPool.acquire();
+        } catch (FTPException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private static List<FsPath> toFsPaths(
+            String directoryPath,
+            List<FTPFile> entries,
+            boolean hasExactTimes
+    ) {
+        return entries.stream().map(e -> {
             String lastComponent = e.getName();
-            String path = FTPPathUtils.append(pathStr, lastComponent);
+            String path = FTPPathUtils.append(directoryPath, lastComponent);
             TargetType targetType;
             if (e.isDirectory()) {
                 targetType = TargetType.DIRECTORY;
@@ -114,12 +558,16 @@ public class RemoteFsManager implements FsManager {
             } else {
                 targetType = TargetType.FILE;
             }
-            return new FsPath(path, targetType, lastComponent);
+            long size = e.isDirectory() ? -1 : e.getSize();
+            Calendar timestamp = e.getTimestamp();
+            long lastModifiedTime = hasExactTimes && timestamp != null ?
+                    timestamp.getTimeInMillis() : -1;
+            return new FsPath(path, targetType, lastComponent, size, lastModifiedTime);
         }).collect(Collectors.toList());
     }
 
     private void skipRest(InputStream is) throws IOException {
-        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] buffer = newBuffer();
         while (is.read(buffer) != -1) {
             if (Thread.currentThread().isInterrupted()) {
                 throw new InterruptedIOException();
@@ -0,0 +1,83 @@
+package fs.explorer.providers.dirtree.remote;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.utils.WeightedLruCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps listings of remote directories, so directories listed recently
+ * are shown without asking the server again.
+ * The cache outlives connections, so listings are kept after reconnecting to the same host.
+ * Listings of all hosts share one limit, the weight of a listing is the number of its entries.
+ * Expired listings are still returned, it is up to the caller to read them again.
+ * This class is thread safe.
+ */
+public class RemoteListingCache {
+    private final long timeToLiveMillis;
+    private final WeightedLruCache<String, Listing> listings;
+
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 30_000;
+    public static final long DEFAULT_MAX_CACHED_ENTRIES = 200_000;
+
+    public RemoteListingCache() {
+        this(DEFAULT_TIME_TO_LIVE_MILLIS, DEFAULT_MAX_CACHED_ENTRIES);
+    }
+
+    public RemoteListingCache(long timeToLiveMillis, long maxCachedEntries) {
+        if (timeToLiveMillis < 0) {
+            throw new IllegalArgumentException("time to live must be non-negative");
+        }
+        this.timeToLiveMillis = timeToLiveMillis;
+        // empty listings weigh as much as listings of one entry
+        this.listings = new WeightedLruCache<>(
+                maxCachedEntries, listing -> Math.max(listing.getEntries().size(), 1));
+    }
+
+    /**
+     * Returns null if the directory is not cached.
+     */
+    Listing get(FTPConnectionInfo connectionInfo, String directoryPath) {
+        return listings.get(connectionInfo.toKey(directoryPath));
+    }
+
+    void put(FTPConnectionInfo connectionInfo, String directoryPath, List<FsPath> entries) {
+        listings.put(connectionInfo.toKey(directoryPath), new Listing(entries));
+    }
+
+    void remove(FTPConnectionInfo connectionInfo, String directoryPath) {
+        listings.remove(connectionInfo.toKey(directoryPath));
+    }
+
+    boolean isExpired(Listing listing) {
+        return System.currentTimeMillis() - listing.getListingTime() >= timeToLiveMillis;
+    }
+
+    public void clear() {
+        listings.clear();
+    }
+
+    public WeightedLruCache.Stats getStats() {
+        return listings.getStats();
+    }
+
+    static class Listing {
+        private final List<FsPath> entries;
+        private final long listingTime;
+
+        private Listing(List<FsPath> entries) {
+            this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+            this.listingTime = System.currentTimeMillis();
+        }
+
+        List<FsPath> getEntries() {
+            return entries;
+        }
+
+        long getListingTime() {
+            return listingTime;
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package fs.explorer.providers.dirtree.remote;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Downloads a remote file by segments over several connections of the pool.
+ * Every segment is read from its offset with REST and written to its place
+ * in the target file, which is allocated at full size beforehand.
+ * Progress of segments is saved next to the target file, so a download
+ * that was stopped is continued if the remote file has not changed since.
+ */
+class SegmentedDownload {
+    private final FTPConnectionPool connectionPool;
+    private final ExecutorService executor;
+    private final String path;
+    private final Path target;
+    private final Path stateFile;
+    private final RemoteContentCache.FileVersion version;
+    private final long minSegmentSize;
+    private final long progressIntervalMillis;
+    // threads that write segments
+    private final Set<Thread> workers = new HashSet<>();
+
+    private int runningCount = 0;
+    private boolean isStopped = false;
+
+    private static final int STATE_FORMAT = 1;
+    private static final String STATE_FILE_SUFFIX = ".download";
+
+    static final long DEFAULT_MIN_SEGMENT_SIZE = 1024 * 1024;
+    static final long DEFAULT_PROGRESS_INTERVAL_MILLIS = 200;
+
+    SegmentedDownload(
+            FTPConnectionPool connectionPool,
+            ExecutorService executor,
+            String path,
+            Path target,
+            RemoteContentCache.FileVersion version
+    ) {
+        this(connectionPool, executor, path, target, version,
+                DEFAULT_MIN_SEGMENT_SIZE, DEFAULT_PROGRESS_INTERVAL_MILLIS);
+    }
+
+    SegmentedDownload(
+            FTPConnectionPool connectionPool,
+            ExecutorService executor,
+            String path,
+            Path target,
+            RemoteContentCache.FileVersion version,
+            long minSegmentSize,
+            long progressIntervalMillis
+    ) {
+        if (version.getSize() < 0) {
+            throw new IllegalArgumentException("file size must be known");
+        }
+        if (minSegmentSize <= 0) {
+            throw new IllegalArgumentException("min segment size must be positive");
+        }
+        this.connectionPool = connectionPool;
+        this.executor = executor;
+        this.path = path;
+        this.target = target;
+        this.stateFile = getStateFile(target);
+        this.version = version;
+        this.minSegmentSize = minSegmentSize;
+        this.progressIntervalMillis = progressIntervalMillis;
+    }
+
+    static Path getStateFile(Path target) {
+        return target.resolveSibling(target.getFileName() + STATE_FILE_SUFFIX);
+    }
+
+    /**
+     * The listener is called from the calling thread.
+     * Segments are stopped if the calling thread is interrupted or one of them fails.
+     */
+    void run(DownloadProgressListener listener) throws IOException {
+        List<Segment> segments = readState();
+        if (segments == null) {
+            segments = newSegments();
+            allocateTarget();
+        }
+        writeState(segments);
+        CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+        int remaining = 0;
+        boolean isCompleted = false;
+        try {
+            for (Segment segment : segments) {
+                if (!segment.isCompleted()) {
+                    submit(completionService, segment);
+                    ++remaining;
+                }
+            }
+            boolean hasDownloads = remaining > 0;
+            while (remaining > 0) {
+                Future<Void> download = completionService.poll(
+                        progressIntervalMillis, TimeUnit.MILLISECONDS);
+                if (download != null) {
+                    getResult(download);
+                    --remaining;
+                }
+                writeState(segments);
+                listener.onProgress(getDownloadedBytes(segments), version.getSize());
+            }
+            if (!hasDownloads) {
+                listener.onProgress(version.getSize(), version.getSize());
+            }
+            isCompleted = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (RejectedExecutionException e) {
+            throw new IOException("download is cancelled");
+        } finally {
+            if (!isCompleted) {
+                // an interrupted thread would close the channel of the state file
+                boolean isInterrupted = Thread.interrupted();
+                try {
+                    stopWorkers();
+                    writeState(segments);
+                } finally {
+                    if (isInterrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+        Files.deleteIfExists(stateFile);
+    }
+
+    private void submit(CompletionService<Void> completionService, Segment segment) {
+        synchronized (this) {
+            ++runningCount;
+        }
+        try {
+            completionService.submit(() -> {
+                try {
+                    if (startWork()) {
+                        try {
+                            download(segment);
+                        } finally {
+                            finishWork();
+                        }
+                    }
+                    return null;
+                } finally {
+                    synchronized (this) {
+                        --runningCount;
+                        notifyAll();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                --runningCount;
+            }
+            throw e;
+        }
+    }
+
+    private synchronized boolean startWork() {
+        if (isStopped) {
+            return false;
+        }
+        workers.add(Thread.currentThread());
+        return true;
+    }
+
+    private synchronized void finishWork() {
+        workers.remove(Thread.currentThread());
+    }
+
+    /**
+     * Waits until segments stop writing to the target file.
+     */
+    private synchronized void stopWorkers() {
+        isStopped = true;
+        workers.forEach(Thread::interrupt);
+        boolean isInterrupted = false;
+        while (runningCount > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void download(Segment segment) throws IOException {
+        FTPConnection connection;
+        try {
+            connection = connectionPool.acquire();
+        } catch (FTPException e) {
+            throw new IOException(e.getMessage());
+        }
+        boolean isReusable = false;
+        // every segment has its own channel, as an interrupted write closes the channel
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            long position = segment.getPosition();
+            connection.setRestartOffset(position);
+            try (InputStream is = connection.retrieveFileStream(path)) {
+                if (is == null) {
+                    throw new IOException("failed to read remote file");
+                }
+                byte[] buffer = new byte[
+                        connectionPool.getConnectionInfo().getTransferSettings().getBufferSize()];
+                int len;
+                while (position < segment.end && (len = is.read(
+                        buffer, 0, (int) Math.min(buffer.length, segment.end - position))) != -1) {
+                    ByteBuffer data = ByteBuffer.wrap(buffer, 0, len);
+                    while (data.hasRemaining()) {
+                        position += channel.write(data, position);
+                    }
+                    segment.setPosition(position);
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+            // the server replies with an error if the transfer was aborted
+            boolean isTransferCompleted = connection.completePendingCommand();
+            if (!segment.isCompleted()) {
+                throw new IOException(isTransferCompleted ?
+                        "remote file is shorter than expected" : "failed to read remote file");
+            }
+            isReusable = true;
+        } finally {
+            connectionPool.release(connection, isReusable);
+        }
+    }
+
+    private List<Segment> newSegments() {
+        long size = version.getSize();
+        long count = Math.max(1, Math.min(
+                connectionPool.getMaxConnections(), size / minSegmentSize));
+        List<Segment> segments = new ArrayList<>();
+        for (long i = 0; i < count; ++i) {
+            long start = size * i / count;
+            segments.add(new Segment(start, size * (i + 1) / count, start));
+        }
+        return segments;
+    }
+
+    private void allocateTarget() throws IOException {
+        try (FileChannel channel = FileChannel.open(target,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long size = version.getSize();
+            if (channel.size() > size) {
+                channel.truncate(size);
+            } else if (channel.size() < size) {
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+        }
+    }
+
+    /**
+     * Returns null if there is no saved progress of the same version of the file.
+     */
+    private List<Segment> readState() throws IOException {
+        if (version.getLastModifiedTime() == -1 || !Files.isRegularFile(target) ||
+                Files.size(target) != version.getSize()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(stateFile)))) {
+            if (in.readInt() != STATE_FORMAT) {
+                return null;
+            }
+            RemoteContentCache.FileVersion savedVersion =
+                    new RemoteContentCache.FileVersion(in.readLong(), in.readLong());
+            if (!savedVersion.equals(version)) {
+                return null;
+            }
+            int count = in.readInt();
+            List<Segment> segments = new ArrayList<>();
+            long end = 0;
+            for (int i = 0; i < count; ++i) {
+                Segment segment = new Segment(in.readLong(), in.readLong(), in.readLong());
+                if (segment.start != end || segment.getPosition() < segment.start ||
+                        segment.getPosition() > segment.end) {
+                    return null;
+                }
+                segments.add(segment);
+                end = segment.end;
+            }
+            return count > 0 && end == version.getSize() ? segments : null;
+        } catch (NoSuchFileException | EOFException e) {
+            return null;
+        }
+    }
+
+    private void writeState(List<Segment> segments) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(stateFile)))) {
+            out.writeInt(STATE_FORMAT);
+            out.writeLong(version.getSize());
+            out.writeLong(version.getLastModifiedTime());
+            out.writeInt(segments.size());
+            for (Segment segment : segments) {
+                out.writeLong(segment.start);
+                out.writeLong(segment.end);
+                out.writeLong(segment.getPosition());
+            }
+        }
+    }
+
+    private static void getResult(Future<Void> download) throws IOException {
+        try {
+            download.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private static long getDownloadedBytes(List<Segment> segments) {
+        return segments.stream().mapToLong(s -> s.getPosition() - s.start).sum();
+    }
+
+    private static class Segment {
+        private final long start;
+        private final long end;
+        private volatile long position;
+
+        private Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+
+        long getPosition() {
+            return position;
+        }
+
+        void setPosition(long position) {
+            this.position = position;
+        }
+
+        boolean isCompleted() {
+            return position >= end;
+        }
+    }
+}
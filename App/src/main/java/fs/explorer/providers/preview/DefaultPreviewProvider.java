@@ -71,9 +71,22 @@ public class DefaultPreviewProvider implements PreviewProvider {
             progressHandler.onCanNotRenderer();
             return;
         }
+        // renderer may not need the whole file
+        int maxBytes = renderer.getMaxBytesNeeded();
+        PathContainer path = data.getPath();
+        FsManager currentFsManager = fsManager;
         byte[] fileBytes;
+        MoreBytesLoader moreBytesLoader = null;
         try {
-            fileBytes = readContents(data);
+            if (maxBytes > 0 && path.isFsPath()) {
+                fileBytes = currentFsManager.readFileRange(path.asFsPath(), 0, maxBytes);
+                if (fileBytes != null && fileBytes.length == maxBytes) {
+                    moreBytesLoader = new FileRangeLoader(
+                            currentFsManager, path.asFsPath(), fileBytes.length);
+                }
+            } else {
+                fileBytes = readContents(data, currentFsManager);
+            }
         } catch (InterruptedIOException e) {
             return;
         } catch (IOException e) {
@@ -85,7 +98,7 @@ public class DefaultPreviewProvider implements PreviewProvider {
         }
         try {
             PreviewRenderingData renderingData = new PreviewRenderingData(
-                    fileName, fileBytes, context);
+                    fileName, fileBytes, context, moreBytesLoader);
             JComponent preview = renderer.render(renderingData);
             if (preview != null) {
                 progressHandler.onComplete(preview);
@@ -97,7 +110,7 @@ public class DefaultPreviewProvider implements PreviewProvider {
         }
     }
 
-    private byte[] readContents(TreeNodeData data) throws IOException {
+    private byte[] readContents(TreeNodeData data, FsManager fsManager) throws IOException {
         PathContainer path = data.getPath();
         if (path.isFsPath()) {
             FsPath dataFsPath = path.asFsPath();
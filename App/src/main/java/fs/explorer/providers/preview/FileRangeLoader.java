@@ -0,0 +1,31 @@
+package fs.explorer.providers.preview;
+
+import fs.explorer.providers.dirtree.FsManager;
+import fs.explorer.providers.dirtree.path.FsPath;
+
+import java.io.IOException;
+
+/**
+ * Continues reading a file after its head was read for a preview.
+ */
+class FileRangeLoader implements MoreBytesLoader {
+    private final FsManager fsManager;
+    private final FsPath filePath;
+    private long offset;
+
+    FileRangeLoader(FsManager fsManager, FsPath filePath, long offset) {
+        this.fsManager = fsManager;
+        this.filePath = filePath;
+        this.offset = offset;
+    }
+
+    @Override
+    public synchronized byte[] loadMore(int maxBytes) throws IOException {
+        byte[] bytes = fsManager.readFileRange(filePath, offset, maxBytes);
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        offset += bytes.length;
+        return bytes;
+    }
+}
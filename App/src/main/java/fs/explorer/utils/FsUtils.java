@@ -1,11 +1,14 @@
 package fs.explorer.utils;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class FsUtils {
     public static void deleteDirectoryRecursively(Path dir) throws IOException {
@@ -28,4 +31,23 @@ public class FsUtils {
             }
         });
     }
+
+    /**
+     * Returns a name that is safe to use on any file system
+     * and is practically unique for the given key.
+     */
+    public static String toFileName(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -3,6 +3,9 @@ package fs.explorer.utils;
 import fs.explorer.providers.dirtree.path.FsPath;
 import fs.explorer.providers.dirtree.path.TargetType;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 public class OSInfo {
     private static String osName = System.getProperty("os.name").toLowerCase();
 
@@ -16,6 +19,29 @@ public class OSInfo {
         }
     }
 
+    /**
+     * Returns directory for non-essential application data,
+     * it does not necessarily exist.
+     */
+    public static Path getUserCacheDirectory(String applicationName) {
+        String home = System.getProperty("user.home");
+        if (isWindows()) {
+            String localAppData = System.getenv("LOCALAPPDATA");
+            if (localAppData != null && !localAppData.isEmpty()) {
+                return Paths.get(localAppData, applicationName, "Cache");
+            }
+            return Paths.get(home, "AppData", "Local", applicationName, "Cache");
+        } else if (isMac()) {
+            return Paths.get(home, "Library", "Caches", applicationName);
+        } else {
+            String cacheHome = System.getenv("XDG_CACHE_HOME");
+            if (cacheHome != null && !cacheHome.isEmpty()) {
+                return Paths.get(cacheHome, applicationName);
+            }
+            return Paths.get(home, ".cache", applicationName);
+        }
+    }
+
     private static boolean isWindows() {
         return osName.contains("win");
     }
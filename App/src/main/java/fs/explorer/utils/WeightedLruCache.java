@@ -0,0 +1,187 @@
+package fs.explorer.utils;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread safe cache that evicts least recently used values
+ * once the total weight of its values exceeds the limit.
+ * Weight of a value is computed once, when the value is added.
+ */
+public class WeightedLruCache<K, V> {
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    // called without holding the cache lock
+    private final BiConsumer<K, V> evictionListener;
+    private final LinkedHashMap<K, WeightedValue<V>> values;
+
+    private long weight = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    public WeightedLruCache(long maxWeight, ToLongFunction<V> weigher) {
+        this(maxWeight, weigher, (key, value) -> {});
+    }
+
+    public WeightedLruCache(
+            long maxWeight,
+            ToLongFunction<V> weigher,
+            BiConsumer<K, V> evictionListener
+    ) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("max weight must be positive");
+        }
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+        this.values = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public synchronized V get(K key) {
+        WeightedValue<V> value = values.get(key);
+        if (value == null) {
+            ++missCount;
+            return null;
+        }
+        ++hitCount;
+        return value.getValue();
+    }
+
+    /**
+     * Returns the value that is already in the cache or null if the given one was added.
+     * A value heavier than the limit is not added at all.
+     */
+    public V putIfAbsent(K key, V value) {
+        Map<K, V> evicted = new LinkedHashMap<>();
+        V existing;
+        synchronized (this) {
+            existing = putIfAbsent(key, value, evicted);
+        }
+        evicted.forEach(evictionListener);
+        return existing;
+    }
+
+    /**
+     * Replaces the value that is in the cache and returns it, or returns null if there was none.
+     * A value heavier than the limit is not added, but the old value is removed anyway.
+     */
+    public V put(K key, V value) {
+        Map<K, V> evicted = new LinkedHashMap<>();
+        V previous;
+        synchronized (this) {
+            previous = remove(key);
+            putIfAbsent(key, value, evicted);
+        }
+        evicted.forEach(evictionListener);
+        return previous;
+    }
+
+    public synchronized V remove(K key) {
+        WeightedValue<V> removed = values.remove(key);
+        if (removed == null) {
+            return null;
+        }
+        weight -= removed.getWeight();
+        return removed.getValue();
+    }
+
+    public synchronized boolean containsKey(K key) {
+        return values.containsKey(key);
+    }
+
+    public synchronized void clear() {
+        values.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return values.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hitCount, missCount, evictionCount);
+    }
+
+    private V putIfAbsent(K key, V value, Map<K, V> evicted) {
+        WeightedValue<V> existing = values.get(key);
+        if (existing != null) {
+            return existing.getValue();
+        }
+        long valueWeight = Math.max(weigher.applyAsLong(value), 0);
+        if (valueWeight > maxWeight) {
+            // there is no point to evict other values for it
+            ++evictionCount;
+            evicted.put(key, value);
+            return null;
+        }
+        values.put(key, new WeightedValue<>(value, valueWeight));
+        weight += valueWeight;
+        Iterator<Map.Entry<K, WeightedValue<V>>> it = values.entrySet().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            Map.Entry<K, WeightedValue<V>> eldest = it.next();
+            weight -= eldest.getValue().getWeight();
+            evicted.put(eldest.getKey(), eldest.getValue().getValue());
+            it.remove();
+            ++evictionCount;
+        }
+        return null;
+    }
+
+    public static final class Stats {
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+
+        private Stats(long hitCount, long missCount, long evictionCount) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        @Override
+        public String toString() {
+            return "hits: " + hitCount + ", misses: " + missCount +
+                    ", evictions: " + evictionCount;
+        }
+    }
+
+    private static class WeightedValue<V> {
+        private final V value;
+        private final long weight;
+
+        private WeightedValue(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+
+        V getValue() {
+            return value;
+        }
+
+        long getWeight() {
+            return weight;
+        }
+    }
+}
@@ -17,12 +17,18 @@ public class DirTreePane {
     private final JTree tree;
     private final EventsListener eventsListener;
 
+    private static final int MIN_ROW_HEIGHT = 16;
+
     public DirTreePane(DefaultTreeModel treeModel) {
         tree = new JTree(treeModel);
         tree.setRootVisible(false);
         tree.setEditable(false);
         tree.getSelectionModel().setSelectionMode(TreeSelectionModel.SINGLE_TREE_SELECTION);
         tree.setShowsRootHandles(true);
+        // rows of a large model with fixed height are laid out only when they are shown
+        tree.setRowHeight(Math.max(MIN_ROW_HEIGHT,
+                tree.getFontMetrics(tree.getFont()).getHeight()));
+        tree.setLargeModel(true);
         scrollPane = new JScrollPane(tree);
         eventsListener = new EventsListener(tree);
         tree.addTreeExpansionListener(eventsListener);
@@ -37,6 +43,10 @@ public class DirTreePane {
         tree.expandPath(treePath);
     }
 
+    public boolean isExpanded(TreePath treePath) {
+        return tree.isExpanded(treePath);
+    }
+
     JComponent asJComponent() {
         return scrollPane;
     }
@@ -73,6 +83,13 @@ public class DirTreePane {
                 return;
             }
             controller.handleTreeCollapse(event);
+            // the tree updates its layout after listeners, so nodes are released afterwards
+            TreePath path = event.getPath();
+            SwingUtilities.invokeLater(() -> {
+                if (controller != null && !tree.isExpanded(path)) {
+                    controller.releaseCollapsedContents(event, tree::hasBeenExpanded);
+                }
+            });
         }
 
         void setController(DirTreeController controller) {
@@ -6,6 +6,7 @@ import fs.explorer.providers.dirtree.TreeNodeData;
 import fs.explorer.providers.dirtree.path.FsPath;
 import fs.explorer.providers.dirtree.path.TargetType;
 import fs.explorer.providers.dirtree.TreeNodeLoader;
+import fs.explorer.utils.Disposable;
 import fs.explorer.views.DirTreePane;
 import org.junit.Before;
 import org.junit.Test;
@@ -114,7 +115,7 @@ public class DirTreeControllerTest {
         DefaultMutableTreeNode dir2 = TestUtils.getChild(dirTreeModel, 0, 1);
         dirTreeController.handleTreeExpansion(expansionEvent(dir2));
 
-        verify(dirTreeController.getTreeDataProvider()).getNodesFor(any(), any(), any());
+        verify(dirTreeController.getTreeDataProvider()).getNodesFor(any(), any(), any(), any());
 
         assertEquals(Status.LOADED, getStatus(dir2));
         List<DefaultMutableTreeNode> chs = dirTreeModel.getChildren(dir2);
@@ -135,7 +136,7 @@ public class DirTreeControllerTest {
         DefaultMutableTreeNode dir2 = TestUtils.getChild(dirTreeModel, 0, 1);
         dirTreeController.handleTreeExpansion(expansionEvent(dir2));
 
-        verify(dirTreeController.getTreeDataProvider()).getNodesFor(any(), any(), any());
+        verify(dirTreeController.getTreeDataProvider()).getNodesFor(any(), any(), any(), any());
 
         assertEquals(Status.LOADED, getStatus(dir2));
         List<DefaultMutableTreeNode> chs = dirTreeModel.getChildren(dir2);
@@ -154,7 +155,8 @@ public class DirTreeControllerTest {
         DefaultMutableTreeNode dir1 = TestUtils.getChild(dirTreeModel, 0);
         dirTreeController.handleTreeExpansion(expansionEvent(dir1));
 
-        verify(dirTreeController.getTreeDataProvider(), never()).getNodesFor(any(), any(), any());
+        verify(dirTreeController.getTreeDataProvider(), never())
+                .getNodesFor(any(), any(), any(), any());
         checkTestDirTreeModelNotChanged();
         verify(dirTreePane, never()).expandPath(any());
     }
@@ -166,7 +168,8 @@ public class DirTreeControllerTest {
         DirTreeModel.getExtNodeData(dir2).setStatus(Status.LOADING);
         dirTreeController.handleTreeExpansion(expansionEvent(dir2));
 
-        verify(dirTreeController.getTreeDataProvider(), never()).getNodesFor(any(), any(), any());
+        verify(dirTreeController.getTreeDataProvider(), never())
+                .getNodesFor(any(), any(), any(), any());
         checkTestDirTreeModelNotChanged();
         verify(dirTreePane, never()).expandPath(any());
     }
@@ -176,7 +179,8 @@ public class DirTreeControllerTest {
         setupTestDirTreeModel();
         dirTreeController.handleTreeExpansion(expansionEvent(null));
 
-        verify(dirTreeController.getTreeDataProvider(), never()).getNodesFor(any(), any(), any());
+        verify(dirTreeController.getTreeDataProvider(), never())
+                .getNodesFor(any(), any(), any(), any());
         checkTestDirTreeModelNotChanged();
         verify(dirTreePane, never()).expandPath(any());
     }
@@ -188,7 +192,8 @@ public class DirTreeControllerTest {
         when(badEvent.getPath()).thenReturn(null);
         dirTreeController.handleTreeExpansion(badEvent);
 
-        verify(dirTreeController.getTreeDataProvider(), never()).getNodesFor(any(), any(), any());
+        verify(dirTreeController.getTreeDataProvider(), never())
+                .getNodesFor(any(), any(), any(), any());
         checkTestDirTreeModelNotChanged();
         verify(dirTreePane, never()).expandPath(any());
     }
@@ -200,7 +205,7 @@ public class DirTreeControllerTest {
         DefaultMutableTreeNode dir2 = TestUtils.getChild(dirTreeModel, 0, 1);
         dirTreeController.handleTreeExpansion(expansionEvent(dir2));
 
-        verify(dirTreeController.getTreeDataProvider()).getNodesFor(any(), any(), any());
+        verify(dirTreeController.getTreeDataProvider()).getNodesFor(any(), any(), any(), any());
 
         assertEquals(Status.LOADED, getStatus(dir2));
 
@@ -232,10 +237,13 @@ public class DirTreeControllerTest {
         DirTreeModel spiedModel = changeDirTreeModelToSpied();
         dirTreeController.handleTreeExpansion(expansionEvent(dir2));
 
-        verify(dirTreeController.getTreeDataProvider()).getNodesFor(any(), any(), any());
-        verify(spiedModel).containsNode(dir2);
+        verify(dirTreeController.getTreeDataProvider(), never())
+                .getNodesFor(any(), any(), any(), any());
+        verify(spiedModel, atLeastOnce()).containsNode(dir2);
         verify(spiedModel, never()).addNullDirChild(any(), any());
         verify(spiedModel, never()).addFileChild(any(), any());
+        verify(spiedModel, never()).insertNullDirChild(any(), any(), anyInt());
+        verify(spiedModel, never()).insertFileChild(any(), any(), anyInt());
     }
 
     @Test
@@ -247,10 +255,13 @@ public class DirTreeControllerTest {
         DirTreeModel spiedModel = changeDirTreeModelToSpied();
         dirTreeController.handleTreeExpansion(expansionEvent(dir2));
 
-        verify(dirTreeController.getTreeDataProvider()).getNodesFor(any(), any(), any());
-        verify(spiedModel).containsNode(dir2);
+        verify(dirTreeController.getTreeDataProvider(), never())
+                .getNodesFor(any(), any(), any(), any());
+        verify(spiedModel, atLeastOnce()).containsNode(dir2);
         verify(spiedModel, never()).addNullDirChild(any(), any());
         verify(spiedModel, never()).addFileChild(any(), any());
+        verify(spiedModel, never()).insertNullDirChild(any(), any(), anyInt());
+        verify(spiedModel, never()).insertFileChild(any(), any(), anyInt());
     }
 
     @Test
@@ -262,10 +273,13 @@ public class DirTreeControllerTest {
         DirTreeModel spiedModel = changeDirTreeModelToSpied();
         dirTreeController.handleTreeExpansion(expansionEvent(dir2));
 
-        verify(dirTreeController.getTreeDataProvider()).getNodesFor(any(), any(), any());
-        verify(spiedModel).containsNode(dir2);
+        verify(dirTreeController.getTreeDataProvider(), never())
+                .getNodesFor(any(), any(), any(), any());
+        verify(spiedModel, atLeastOnce()).containsNode(dir2);
         verify(spiedModel, never()).addNullDirChild(any(), any());
         verify(spiedModel, never()).addFileChild(any(), any());
+        verify(spiedModel, never()).insertNullDirChild(any(), any(), anyInt());
+        verify(spiedModel, never()).insertFileChild(any(), any(), anyInt());
     }
 
     @Test
@@ -275,7 +289,7 @@ public class DirTreeControllerTest {
         DefaultMutableTreeNode dir2 = TestUtils.getChild(dirTreeModel, 0, 1);
         dirTreeController.handleTreeExpansion(expansionEvent(dir2));
 
-        verify(dirTreeController.getTreeDataProvider()).getNodesFor(any(), any(), any());
+        verify(dirTreeController.getTreeDataProvider()).getNodesFor(any(), any(), any(), any());
 
         List<DefaultMutableTreeNode> chs = dirTreeModel.getChildren(dir2);
         assertEquals(3, chs.size());
@@ -306,7 +320,8 @@ public class DirTreeControllerTest {
         dirTreeController.handleTreeSelection(null, dir1);
         dirTreeController.reloadLastSelectedNode();
 
-        verify(dirTreeController.getTreeDataProvider()).getNodesFor(any(), any(), any());
+        verify(dirTreeController.getTreeDataProvider()).invalidateNodesFor(any());
+        verify(dirTreeController.getTreeDataProvider()).getNodesFor(any(), any(), any(), any());
 
         assertEquals(Status.LOADED, getStatus(dir1));
         List<DefaultMutableTreeNode> chs = dirTreeModel.getChildren(dir1);
@@ -324,7 +339,8 @@ public class DirTreeControllerTest {
         dirTreeController.reloadLastSelectedNode();
         dirTreeController.reloadLastSelectedNode();
 
-        verify(dirTreeController.getTreeDataProvider(), times(2)).getNodesFor(any(), any(), any());
+        verify(dirTreeController.getTreeDataProvider(), times(2))
+                .getNodesFor(any(), any(), any(), any());
 
         assertEquals(Status.LOADED, getStatus(dir1));
         List<DefaultMutableTreeNode> chs = dirTreeModel.getChildren(dir1);
@@ -354,7 +370,8 @@ public class DirTreeControllerTest {
         dirTreeController.reloadLastSelectedNode();
 
         verify(previewController, never()).updatePreview(any());
-        verify(dirTreeController.getTreeDataProvider(), never()).getNodesFor(any(), any(), any());
+        verify(dirTreeController.getTreeDataProvider(), never())
+                .getNodesFor(any(), any(), any(), any());
         assertNotEquals(Status.LOADING, getStatus(fakeNode));
     }
 
@@ -458,6 +475,141 @@ public class DirTreeControllerTest {
         assertNotSame(currentLoader, getLoader(dir2));
     }
 
+    @Test
+    public void mergesContentsLoadedInBatches() {
+        setUpTestProviderWithBatches(Arrays.asList(
+                Arrays.asList(
+                        nodeData("b-dir", TargetType.DIRECTORY),
+                        nodeData("c-file", TargetType.FILE)
+                ),
+                Collections.emptyList(),
+                Arrays.asList(
+                        nodeData("a-dir", TargetType.DIRECTORY),
+                        nodeData("a-file", TargetType.FILE),
+                        nodeData("d-arch.zip", TargetType.ZIP_ARCHIVE)
+                )
+        ));
+        setupTestDirTreeModel();
+        DefaultMutableTreeNode dir2 = TestUtils.getChild(dirTreeModel, 0, 1);
+        dirTreeController.handleTreeExpansion(expansionEvent(dir2));
+
+        assertEquals(Status.LOADED, getStatus(dir2));
+        List<String> labels = dirTreeModel.getChildren(dir2).stream()
+                .map(this::getLabel)
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList("a-dir", "b-dir", "a-file", "c-file", "d-arch.zip"), labels);
+    }
+
+    @Test
+    public void createsEmptyFakeNodeIfAllBatchesAreEmpty() {
+        setUpTestProviderWithBatches(Arrays.asList(
+                Collections.emptyList(),
+                Collections.emptyList()
+        ));
+        setupTestDirTreeModel();
+        DefaultMutableTreeNode dir2 = TestUtils.getChild(dirTreeModel, 0, 1);
+        dirTreeController.handleTreeExpansion(expansionEvent(dir2));
+
+        List<DefaultMutableTreeNode> chs = dirTreeModel.getChildren(dir2);
+        assertEquals(1, chs.size());
+        assertEquals("<empty>", getLabel(chs.get(0)));
+    }
+
+    @Test
+    public void ignoresBatchesAfterCollapse() {
+        BatchCapturingDataProvider provider = new BatchCapturingDataProvider();
+        dirTreeController = new DirTreeController(
+                dirTreePane,
+                dirTreeModel,
+                previewController,
+                statusBarController,
+                provider
+        );
+        setupTestDirTreeModel();
+        DefaultMutableTreeNode dir2 = TestUtils.getChild(dirTreeModel, 0, 1);
+        dirTreeController.handleTreeExpansion(expansionEvent(dir2));
+        provider.onBatch.accept(Collections.singletonList(nodeData("a", TargetType.FILE)));
+        dirTreeController.handleTreeCollapse(expansionEvent(dir2));
+        provider.onBatch.accept(Collections.singletonList(nodeData("b", TargetType.FILE)));
+        provider.onComplete.run();
+
+        assertEquals(Status.NULL, getStatus(dir2));
+        List<DefaultMutableTreeNode> chs = dirTreeModel.getChildren(dir2);
+        assertEquals(1, chs.size());
+        assertEquals("a", getLabel(chs.get(0)));
+    }
+
+    @Test
+    public void updatesContentsOfLoadedDirectory() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        List<DefaultMutableTreeNode> oldChildren = dirTreeModel.getChildren(dir);
+        dirTreeController.updateContents(nodeData("dir", TargetType.DIRECTORY, "/dir"),
+                Arrays.asList(
+                        nodeData("a-dir", TargetType.DIRECTORY, "/dir/a-dir"),
+                        nodeData("b-dir", TargetType.DIRECTORY, "/dir/b-dir"),
+                        nodeData("c-file", TargetType.FILE, "/dir/c-file")
+                ));
+
+        List<DefaultMutableTreeNode> chs = dirTreeModel.getChildren(dir);
+        List<String> labels = chs.stream()
+                .map(this::getLabel)
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList("a-dir", "b-dir", "c-file"), labels);
+        // nodes of kept entries are not replaced
+        assertSame(oldChildren.get(0), chs.get(0));
+        assertSame(oldChildren.get(2), chs.get(2));
+        assertEquals(Status.LOADED, getStatus(dir));
+    }
+
+    @Test
+    public void replacesNodesOfChangedFiles() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        List<DefaultMutableTreeNode> oldChildren = dirTreeModel.getChildren(dir);
+        dirTreeController.updateContents(nodeData("dir", TargetType.DIRECTORY, "/dir"),
+                Arrays.asList(
+                        nodeData("a-dir", TargetType.DIRECTORY, "/dir/a-dir", 4096),
+                        nodeData("b-file", TargetType.FILE, "/dir/b-file", 10),
+                        nodeData("c-file", TargetType.FILE, "/dir/c-file")
+                ));
+
+        List<DefaultMutableTreeNode> chs = dirTreeModel.getChildren(dir);
+        assertEquals(3, chs.size());
+        assertSame(oldChildren.get(0), chs.get(0));
+        assertEquals("b-file", getLabel(chs.get(1)));
+        assertNotSame(oldChildren.get(1), chs.get(1));
+        assertSame(oldChildren.get(2), chs.get(2));
+    }
+
+    @Test
+    public void createsEmptyFakeNodeIfAllEntriesAreRemoved() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        dirTreeController.updateContents(
+                nodeData("dir", TargetType.DIRECTORY, "/dir"), Collections.emptyList());
+
+        List<DefaultMutableTreeNode> chs = dirTreeModel.getChildren(dir);
+        assertEquals(1, chs.size());
+        assertEquals("<empty>", getLabel(chs.get(0)));
+    }
+
+    @Test
+    public void doesNotUpdateContentsOfNotLoadedDirectory() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        DirTreeModel.getExtNodeData(dir).setStatus(Status.LOADING);
+        dirTreeController.updateContents(
+                nodeData("dir", TargetType.DIRECTORY, "/dir"), Collections.emptyList());
+
+        assertEquals(3, dir.getChildCount());
+    }
+
+    @Test
+    public void doesNotUpdateContentsOfOtherDirectory() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        dirTreeController.updateContents(
+                nodeData("other", TargetType.DIRECTORY, "/other"), Collections.emptyList());
+
+        assertEquals(3, dir.getChildCount());
+    }
+
     @Test
     public void cancelsLoadingOnCollapse() {
         setupTestDirTreeModel();
@@ -485,6 +637,275 @@ public class DirTreeControllerTest {
         assertSame(initialLoader, getLoader(dir1));
     }
 
+    @Test
+    public void releasesContentsOfCollapsedDirectory() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        dirTreeController.releaseCollapsedContents(expansionEvent(dir), path -> false);
+
+        assertTrue(dirTreeModel.getMaterializedChildren(dir).isEmpty());
+        assertEquals(3, dir.getChildCount());
+        assertEquals("b-file", getLabel((DefaultMutableTreeNode) dir.getChildAt(1)));
+        assertEquals(Status.LOADED, getStatus(dir));
+    }
+
+    @Test
+    public void updatesContentsOfReleasedDirectory() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        dirTreeController.releaseCollapsedContents(expansionEvent(dir), path -> false);
+        dirTreeController.updateContents(nodeData("dir", TargetType.DIRECTORY, "/dir"),
+                Arrays.asList(
+                        nodeData("a-dir", TargetType.DIRECTORY, "/dir/a-dir"),
+                        nodeData("d-file", TargetType.FILE, "/dir/d-file")
+                ));
+
+        List<String> labels = dirTreeModel.getChildren(dir).stream()
+                .map(this::getLabel)
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList("a-dir", "d-file"), labels);
+    }
+
+    @Test
+    public void watchesExpandedDirectoryUntilCollapse() {
+        setupTestDirTreeModel();
+        Disposable watch = mock(Disposable.class);
+        setUpWatch(watch);
+        DefaultMutableTreeNode dir2 = TestUtils.getChild(dirTreeModel, 0, 1);
+        dirTreeController.handleTreeExpansion(expansionEvent(dir2));
+        assertSame(watch, DirTreeModel.getExtNodeData(dir2).getWatch());
+
+        dirTreeController.handleTreeCollapse(expansionEvent(dir2));
+        verify(watch).dispose();
+        assertNull(DirTreeModel.getExtNodeData(dir2).getWatch());
+    }
+
+    @Test
+    public void listsDirectoryOnceWatchStarts() {
+        setupTestDirTreeModel();
+        AsyncFsDataProvider provider = dirTreeController.getTreeDataProvider();
+        doNothing().when(provider).watchNodesFor(any(), any());
+        DefaultMutableTreeNode dir2 = TestUtils.getChild(dirTreeModel, 0, 1);
+        dirTreeController.handleTreeExpansion(expansionEvent(dir2));
+        verify(provider, never()).getNodesFor(any(), any(), any(), any());
+        assertEquals(Status.LOADING, getStatus(dir2));
+
+        Disposable watch = mock(Disposable.class);
+        captureWatchConsumer(provider).accept(watch);
+        assertSame(watch, DirTreeModel.getExtNodeData(dir2).getWatch());
+        verify(provider).getNodesFor(any(), any(), any(), any());
+        assertEquals(Status.LOADED, getStatus(dir2));
+    }
+
+    @Test
+    public void disposesWatchThatStartsAfterCollapse() {
+        setupTestDirTreeModel();
+        AsyncFsDataProvider provider = dirTreeController.getTreeDataProvider();
+        doNothing().when(provider).watchNodesFor(any(), any());
+        DefaultMutableTreeNode dir2 = TestUtils.getChild(dirTreeModel, 0, 1);
+        dirTreeController.handleTreeExpansion(expansionEvent(dir2));
+        dirTreeController.handleTreeCollapse(expansionEvent(dir2));
+
+        Disposable watch = mock(Disposable.class);
+        captureWatchConsumer(provider).accept(watch);
+        verify(watch).dispose();
+        assertNull(DirTreeModel.getExtNodeData(dir2).getWatch());
+        verify(provider, never()).getNodesFor(any(), any(), any(), any());
+        assertEquals(Status.NULL, getStatus(dir2));
+    }
+
+    @Test
+    public void disposesWatchThatStartsAfterRefreshedDirectoryIsCollapsed() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        AsyncFsDataProvider provider = dirTreeController.getTreeDataProvider();
+        doNothing().when(provider).watchNodesFor(any(), any());
+        dirTreeController.handleTreeExpansion(expansionEvent(dir));
+        dirTreeController.handleTreeCollapse(expansionEvent(dir));
+
+        Disposable watch = mock(Disposable.class);
+        captureWatchConsumer(provider).accept(watch);
+        verify(watch).dispose();
+        assertNull(DirTreeModel.getExtNodeData(dir).getWatch());
+        verify(provider, never()).getNodesFor(any(), any(), any());
+    }
+
+    @Test
+    public void stopsWatchesOfExpandedDescendantsOnCollapse() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        DefaultMutableTreeNode subDir = (DefaultMutableTreeNode) dir.getChildAt(0);
+        DirTreeModel.getExtNodeData(subDir).setStatus(Status.LOADED);
+        Disposable watch = mock(Disposable.class);
+        Disposable subDirWatch = mock(Disposable.class);
+        DirTreeModel.getExtNodeData(dir).setWatch(watch);
+        DirTreeModel.getExtNodeData(subDir).setWatch(subDirWatch);
+        dirTreeController.handleTreeCollapse(expansionEvent(dir));
+
+        verify(watch).dispose();
+        verify(subDirWatch).dispose();
+        assertNull(DirTreeModel.getExtNodeData(subDir).getWatch());
+    }
+
+    @Test
+    public void watchesExpandedDescendantsAgainOnExpansion() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        DefaultMutableTreeNode subDir = (DefaultMutableTreeNode) dir.getChildAt(0);
+        DirTreeModel.getExtNodeData(subDir).setStatus(Status.LOADED);
+        DirTreeModel.getExtNodeData(dir).setWatch(mock(Disposable.class));
+        Disposable watch = mock(Disposable.class);
+        setUpWatch(watch);
+        when(dirTreePane.isExpanded(new TreePath(subDir.getPath()))).thenReturn(true);
+        dirTreeController.handleTreeExpansion(expansionEvent(dir));
+
+        assertSame(watch, DirTreeModel.getExtNodeData(subDir).getWatch());
+        assertEquals("newDir1", getLabel((DefaultMutableTreeNode) subDir.getChildAt(0)));
+    }
+
+    @Test
+    public void stopsWatchesOfRemovedNodes() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        DefaultMutableTreeNode subDir = (DefaultMutableTreeNode) dir.getChildAt(0);
+        Disposable watch = mock(Disposable.class);
+        DirTreeModel.getExtNodeData(subDir).setWatch(watch);
+        dirTreeController.updateContents(
+                nodeData("dir", TargetType.DIRECTORY, "/dir"), Collections.emptyList());
+
+        verify(watch).dispose();
+    }
+
+    @Test
+    public void appliesChangesOfLoadedDirectory() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        DefaultMutableTreeNode aDir = (DefaultMutableTreeNode) dir.getChildAt(0);
+        dirTreeController.applyChanges(nodeData("dir", TargetType.DIRECTORY, "/dir"),
+                Arrays.asList(
+                        nodeData("a-dir", TargetType.DIRECTORY, "/dir/a-dir"),
+                        nodeData("b-file", TargetType.DIRECTORY, "/dir/b-file"),
+                        nodeData("d-file", TargetType.FILE, "/dir/d-file")
+                ),
+                Collections.singletonList(nodeData("c-file", TargetType.FILE, "/dir/c-file")));
+
+        List<DefaultMutableTreeNode> chs = dirTreeModel.getChildren(dir);
+        List<String> labels = chs.stream()
+                .map(this::getLabel)
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList("a-dir", "b-file", "d-file"), labels);
+        assertSame(aDir, chs.get(0));
+        assertTrue(isDirectoryNode(chs.get(1)));
+    }
+
+    @Test
+    public void doesNotApplyChangesToRemovedNodes() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        DefaultMutableTreeNode subDir = (DefaultMutableTreeNode) dir.getChildAt(0);
+        dirTreeController.handleTreeExpansion(expansionEvent(subDir));
+        assertEquals(Status.LOADED, getStatus(subDir));
+        dirTreeController.applyChanges(nodeData("dir", TargetType.DIRECTORY, "/dir"),
+                Collections.emptyList(),
+                Collections.singletonList(nodeData("a-dir", TargetType.FILE, "/dir/a-dir")));
+        int childCount = subDir.getChildCount();
+        dirTreeController.applyChanges(nodeData("a-dir", TargetType.DIRECTORY, "/dir/a-dir"),
+                Collections.singletonList(nodeData("new", TargetType.FILE, "/dir/a-dir/new")),
+                Collections.emptyList());
+
+        assertFalse(dirTreeModel.containsNode(subDir));
+        assertEquals(childCount, subDir.getChildCount());
+    }
+
+    @Test
+    public void createsEmptyFakeNodeIfAllEntriesAreDeleted() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        dirTreeController.applyChanges(nodeData("dir", TargetType.DIRECTORY, "/dir"),
+                Collections.emptyList(),
+                Arrays.asList(
+                        nodeData("a-dir", TargetType.FILE, "/dir/a-dir"),
+                        nodeData("b-file", TargetType.FILE, "/dir/b-file"),
+                        nodeData("c-file", TargetType.FILE, "/dir/c-file")
+                ));
+
+        List<DefaultMutableTreeNode> chs = dirTreeModel.getChildren(dir);
+        assertEquals(1, chs.size());
+        assertEquals("<empty>", getLabel(chs.get(0)));
+    }
+
+    @Test
+    public void appliesChangesReportedWhileLoading() {
+        BatchCapturingDataProvider provider = new BatchCapturingDataProvider();
+        dirTreeController = new DirTreeController(
+                dirTreePane,
+                dirTreeModel,
+                previewController,
+                statusBarController,
+                provider
+        );
+        DefaultMutableTreeNode dir = dirTreeModel.addNullDirChild(
+                dirTreeModel.getRoot(), nodeData("dir", TargetType.DIRECTORY, "/dir"));
+        TreeNodeData dirData = nodeData("dir", TargetType.DIRECTORY, "/dir");
+        dirTreeController.handleTreeExpansion(expansionEvent(dir));
+        provider.onBatch.accept(Arrays.asList(
+                nodeData("a-file", TargetType.FILE, "/dir/a-file"),
+                nodeData("b-file", TargetType.FILE, "/dir/b-file")
+        ));
+        dirTreeController.applyChanges(dirData,
+                Collections.singletonList(nodeData("c-file", TargetType.FILE, "/dir/c-file")),
+                Collections.singletonList(nodeData("a-file", TargetType.FILE, "/dir/a-file")));
+        dirTreeController.applyChanges(dirData,
+                Collections.singletonList(nodeData("d-file", TargetType.FILE, "/dir/d-file")),
+                Collections.singletonList(nodeData("c-file", TargetType.FILE, "/dir/c-file")));
+        assertEquals(2, dir.getChildCount());
+        provider.onComplete.run();
+
+        List<String> labels = dirTreeModel.getChildren(dir).stream()
+                .map(this::getLabel)
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList("b-file", "d-file"), labels);
+        assertEquals(Status.LOADED, getStatus(dir));
+        assertNull(DirTreeModel.getExtNodeData(dir).getPendingChanges());
+    }
+
+    @Test
+    public void dropsChangesReportedBeforeCollapse() {
+        BatchCapturingDataProvider provider = new BatchCapturingDataProvider();
+        dirTreeController = new DirTreeController(
+                dirTreePane,
+                dirTreeModel,
+                previewController,
+                statusBarController,
+                provider
+        );
+        DefaultMutableTreeNode dir = dirTreeModel.addNullDirChild(
+                dirTreeModel.getRoot(), nodeData("dir", TargetType.DIRECTORY, "/dir"));
+        dirTreeController.handleTreeExpansion(expansionEvent(dir));
+        dirTreeController.applyChanges(nodeData("dir", TargetType.DIRECTORY, "/dir"),
+                Collections.singletonList(nodeData("a-file", TargetType.FILE, "/dir/a-file")),
+                Collections.emptyList());
+        dirTreeController.handleTreeCollapse(expansionEvent(dir));
+
+        assertNull(DirTreeModel.getExtNodeData(dir).getPendingChanges());
+    }
+
+    @Test
+    public void refreshesLoadedDirectoryWhenWatchedAgain() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        Disposable watch = mock(Disposable.class);
+        setUpWatch(watch);
+        when(dirTreePane.isExpanded(new TreePath(dir.getPath()))).thenReturn(true);
+        dirTreeController.handleTreeExpansion(expansionEvent(dir));
+
+        assertSame(watch, DirTreeModel.getExtNodeData(dir).getWatch());
+        List<String> labels = dirTreeModel.getChildren(dir).stream()
+                .map(this::getLabel)
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList("newDir1", "newDir2", "newFile1"), labels);
+        assertEquals(Status.LOADED, getStatus(dir));
+    }
+
+    @Test
+    public void doesNotRefreshLoadedDirectoryThatIsNotWatched() {
+        DefaultMutableTreeNode dir = setUpLoadedDirectory();
+        dirTreeController.handleTreeExpansion(expansionEvent(dir));
+
+        verify(dirTreeController.getTreeDataProvider(), never()).getNodesFor(any(), any(), any());
+        assertEquals(3, dir.getChildCount());
+    }
+
     private AsyncFsDataProvider makeTestDataProvider() {
         TestDataProvider provider = spy(new TestDataProvider());
         provider.setTestTopNode(nodeData("/", TargetType.DIRECTORY));
@@ -508,6 +929,18 @@ public class DirTreeControllerTest {
         );
     }
 
+    private void setUpTestProviderWithBatches(List<List<TreeNodeData>> batches) {
+        TestDataProvider provider = spy(new TestDataProvider());
+        provider.setTestBatches(batches);
+        dirTreeController = new DirTreeController(
+                dirTreePane,
+                dirTreeModel,
+                previewController,
+                statusBarController,
+                provider
+        );
+    }
+
     private void setUpFailingDataProvider() {
         FailingDataProvider provider = spy(new FailingDataProvider());
         dirTreeController = new DirTreeController(
@@ -555,6 +988,21 @@ public class DirTreeControllerTest {
         );
     }
 
+    @SuppressWarnings("unchecked")
+    private Consumer<Disposable> captureWatchConsumer(AsyncFsDataProvider provider) {
+        ArgumentCaptor<Consumer> captor = ArgumentCaptor.forClass(Consumer.class);
+        verify(provider, atLeastOnce()).watchNodesFor(any(), captor.capture());
+        return captor.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void setUpWatch(Disposable watch) {
+        doAnswer(invocation -> {
+            ((Consumer<Disposable>) invocation.getArguments()[1]).accept(watch);
+            return null;
+        }).when(dirTreeController.getTreeDataProvider()).watchNodesFor(any(), any());
+    }
+
     private void setupTestDirTreeModel() {
         dirTreeModel.removeAllChildren(dirTreeModel.getRoot());
 
@@ -573,6 +1021,24 @@ public class DirTreeControllerTest {
         DirTreeModel.getExtNodeData(dir2).setLoader(mock(TreeNodeLoader.class));
     }
 
+    private DefaultMutableTreeNode setUpLoadedDirectory() {
+        dirTreeModel.removeAllChildren(dirTreeModel.getRoot());
+        DefaultMutableTreeNode dir = dirTreeModel.addNullDirChild(
+                dirTreeModel.getRoot(), nodeData("dir", TargetType.DIRECTORY, "/dir"));
+        // the directory is loaded by the controller, so its node is known to it
+        TestDataProvider provider = (TestDataProvider) dirTreeController.getTreeDataProvider();
+        List<List<TreeNodeData>> testBatches = provider.testBatches;
+        provider.setTestBatches(Collections.singletonList(Arrays.asList(
+                nodeData("a-dir", TargetType.DIRECTORY, "/dir/a-dir"),
+                nodeData("b-file", TargetType.FILE, "/dir/b-file"),
+                nodeData("c-file", TargetType.FILE, "/dir/c-file")
+        )));
+        dirTreeController.handleTreeExpansion(expansionEvent(dir));
+        provider.setTestBatches(testBatches);
+        assertEquals(Status.LOADED, getStatus(dir));
+        return dir;
+    }
+
     private DirTreeModel changeDirTreeModelToSpied() {
         DirTreeModel spiedModel = spy(dirTreeModel);
         dirTreeController = new DirTreeController(
@@ -600,6 +1066,19 @@ public class DirTreeControllerTest {
         return new TreeNodeData(label, new FsPath("", targetType, ""));
     }
 
+    private static TreeNodeData nodeData(String label, TargetType targetType, String path) {
+        return new TreeNodeData(label, new FsPath(path, targetType, label));
+    }
+
+    private static TreeNodeData nodeData(
+            String label,
+            TargetType targetType,
+            String path,
+            long size
+    ) {
+        return new TreeNodeData(label, new FsPath(path, targetType, label, size, -1));
+    }
+
     private TreeExpansionEvent expansionEvent(DefaultMutableTreeNode node) {
         TreePath path = mock(TreePath.class);
         when(path.getLastPathComponent()).thenReturn(node);
@@ -631,6 +1110,7 @@ public class DirTreeControllerTest {
     private static class TestDataProvider implements AsyncFsDataProvider {
         private TreeNodeData testTopNode;
         private List<TreeNodeData> testNodes;
+        private List<List<TreeNodeData>> testBatches;
 
         @Override
         public void getTopNode(Consumer<TreeNodeData> onComplete) {
@@ -647,12 +1127,38 @@ public class DirTreeControllerTest {
             return mock(TreeNodeLoader.class);
         }
 
+        @Override
+        public TreeNodeLoader getNodesFor(
+                TreeNodeData node,
+                Consumer<List<TreeNodeData>> onBatch,
+                Runnable onComplete,
+                Consumer<String> onFail
+        ) {
+            testBatches.forEach(onBatch);
+            onComplete.run();
+            return mock(TreeNodeLoader.class);
+        }
+
         void setTestTopNode(TreeNodeData testTopNode) {
             this.testTopNode = testTopNode;
         }
 
         void setTestNodes(List<TreeNodeData> testNodes) {
             this.testNodes = testNodes;
+            this.testBatches = Collections.singletonList(testNodes);
+        }
+
+        void setTestBatches(List<List<TreeNodeData>> testBatches) {
+            this.testBatches = testBatches;
+        }
+
+        @Override
+        public void invalidateNodesFor(TreeNodeData node) {
+        }
+
+        @Override
+        public void watchNodesFor(TreeNodeData node, Consumer<Disposable> onWatch) {
+            onWatch.accept(null);
         }
     }
 
@@ -671,6 +1177,26 @@ public class DirTreeControllerTest {
             onFail.accept(null);
             return null;
         }
+
+        @Override
+        public TreeNodeLoader getNodesFor(
+                TreeNodeData node,
+                Consumer<List<TreeNodeData>> onBatch,
+                Runnable onComplete,
+                Consumer<String> onFail
+        ) {
+            onFail.accept(null);
+            return null;
+        }
+
+        @Override
+        public void invalidateNodesFor(TreeNodeData node) {
+        }
+
+        @Override
+        public void watchNodesFor(TreeNodeData node, Consumer<Disposable> onWatch) {
+            onWatch.accept(null);
+        }
     }
 
     private static class DoNothingDataProvider implements AsyncFsDataProvider {
@@ -686,5 +1212,41 @@ public class DirTreeControllerTest {
         ) {
             return null;
         }
+
+        @Override
+        public TreeNodeLoader getNodesFor(
+                TreeNodeData node,
+                Consumer<List<TreeNodeData>> onBatch,
+                Runnable onComplete,
+                Consumer<String> onFail
+        ) {
+            return null;
+        }
+
+        @Override
+        public void invalidateNodesFor(TreeNodeData node) {
+        }
+
+        @Override
+        public void watchNodesFor(TreeNodeData node, Consumer<Disposable> onWatch) {
+            onWatch.accept(null);
+        }
+    }
+
+    private static class BatchCapturingDataProvider extends DoNothingDataProvider {
+        private Consumer<List<TreeNodeData>> onBatch;
+        private Runnable onComplete;
+
+        @Override
+        public TreeNodeLoader getNodesFor(
+                TreeNodeData node,
+                Consumer<List<TreeNodeData>> onBatch,
+                Runnable onComplete,
+                Consumer<String> onFail
+        ) {
+            this.onBatch = onBatch;
+            this.onComplete = onComplete;
+            return mock(TreeNodeLoader.class);
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,13 +1,24 @@
 package fs.explorer.models.dirtree;
 
 import fs.explorer.providers.dirtree.TreeNodeData;
+import fs.explorer.providers.dirtree.TreeNodeLoader;
+import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.providers.dirtree.path.TargetType;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.swing.*;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
 import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.TreePath;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -16,6 +27,9 @@ import static fs.explorer.models.dirtree.ExtTreeNodeData.*;
 public class DirTreeModelTest {
     private DirTreeModel dirTreeModel;
 
+    private static final Comparator<TreeNodeData> LABELS_ORDER =
+            Comparator.comparing(TreeNodeData::getLabel);
+
     @Before
     public void setUp() {
         dirTreeModel = new DirTreeModel();
@@ -98,6 +112,193 @@ public class DirTreeModelTest {
         assertEquals(0, dirTreeModel.getChildren(root).size());
     }
 
+    @Test
+    public void removesAllChildrenWithOneEvent() {
+        DefaultMutableTreeNode root = dirTreeModel.getRoot();
+        for (int i = 0; i < 5; ++i) {
+            dirTreeModel.addFileChild(root, fileData("file" + i));
+        }
+        List<TreeModelEvent> events = recordEvents();
+        dirTreeModel.removeAllChildren(root);
+
+        assertEquals(0, root.getChildCount());
+        assertEquals(1, events.size());
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, events.get(0).getChildIndices());
+    }
+
+    @Test
+    public void removesGivenChildrenWithOneEvent() {
+        DefaultMutableTreeNode root = dirTreeModel.getRoot();
+        DefaultMutableTreeNode file0 = dirTreeModel.addFileChild(root, fileData("file0"));
+        dirTreeModel.addFileChild(root, fileData("file1"));
+        DefaultMutableTreeNode file2 = dirTreeModel.addFileChild(root, fileData("file2"));
+        List<TreeModelEvent> events = recordEvents();
+        dirTreeModel.removeChildren(root, Arrays.asList(file2, file0));
+
+        assertEquals(Collections.singletonList("file1"), labels(root));
+        assertEquals(1, events.size());
+        assertArrayEquals(new int[] {0, 2}, events.get(0).getChildIndices());
+        assertArrayEquals(new Object[] {file0, file2}, events.get(0).getChildren());
+        assertFalse(dirTreeModel.containsNode(file0));
+    }
+
+    @Test
+    public void insertsChildrenInOrderWithOneEvent() {
+        DefaultMutableTreeNode root = dirTreeModel.getRoot();
+        dirTreeModel.addFileChild(root, fileData("b"));
+        dirTreeModel.addFileChild(root, fileData("d"));
+        List<TreeModelEvent> events = recordEvents();
+        dirTreeModel.insertChildren(root,
+                Arrays.asList(fileData("e"), fileData("a"), fileData("c"), dirData("z")),
+                LABELS_ORDER);
+
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "z"), labels(root));
+        assertEquals(1, events.size());
+        assertArrayEquals(new int[] {0, 2, 4, 5}, events.get(0).getChildIndices());
+        checkNode((DefaultMutableTreeNode) root.getChildAt(0), Type.NORMAL, Status.LOADED, "a");
+        DefaultMutableTreeNode dir = (DefaultMutableTreeNode) root.getChildAt(5);
+        checkNode(dir, Type.NORMAL, Status.NULL, "z");
+        assertEquals(1, dir.getChildCount());
+    }
+
+    @Test
+    public void doesNotFireEventsForNoInsertedChildren() {
+        List<TreeModelEvent> events = recordEvents();
+        dirTreeModel.insertChildren(dirTreeModel.getRoot(), Collections.emptyList(), LABELS_ORDER);
+        dirTreeModel.removeAllChildren(dirTreeModel.getRoot());
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void replacesChildrenWithOneEvent() {
+        DefaultMutableTreeNode root = dirTreeModel.getRoot();
+        DefaultMutableTreeNode old = dirTreeModel.addFileChild(root, fileData("old"));
+        List<TreeModelEvent> events = recordEvents();
+        dirTreeModel.replaceChildren(root, Arrays.asList(dirData("dir"), fileData("file")));
+
+        assertEquals(Arrays.asList("dir", "file"), labels(root));
+        checkNode((DefaultMutableTreeNode) root.getChildAt(0), Type.NORMAL, Status.NULL, "dir");
+        assertFalse(dirTreeModel.containsNode(old));
+        assertEquals(1, events.size());
+        assertNull(events.get(0).getChildIndices());
+    }
+
+    @Test
+    public void replacesChildrenWithFakeChild() {
+        DefaultMutableTreeNode root = dirTreeModel.getRoot();
+        dirTreeModel.addFileChild(root, fileData("file1"));
+        dirTreeModel.addFileChild(root, fileData("file2"));
+        List<TreeModelEvent> events = recordEvents();
+        dirTreeModel.replaceWithFakeChild(root, "fake");
+
+        assertEquals(1, root.getChildCount());
+        checkNode((DefaultMutableTreeNode) root.getChildAt(0), Type.FAKE, Status.LOADED, "fake");
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    public void createsChildNodesOnDemand() {
+        DefaultMutableTreeNode root = dirTreeModel.getRoot();
+        dirTreeModel.replaceChildren(root,
+                Arrays.asList(dirData("a"), fileData("b"), fileData("c")));
+        assertTrue(dirTreeModel.getMaterializedChildren(root).isEmpty());
+        assertEquals("b", dirTreeModel.getChildData(root, 1).getLabel());
+
+        DefaultMutableTreeNode child = (DefaultMutableTreeNode) root.getChildAt(1);
+        assertSame(child, root.getChildAt(1));
+        assertSame(root, child.getParent());
+        assertEquals(1, root.getIndex(child));
+        assertEquals(Collections.singletonList(child), dirTreeModel.getMaterializedChildren(root));
+    }
+
+    @Test
+    public void doesNotCreateChildNodesOnInsert() {
+        DefaultMutableTreeNode root = dirTreeModel.getRoot();
+        DefaultMutableTreeNode b = dirTreeModel.addFileChild(root, fileData("b"));
+        List<TreeModelEvent> events = recordEvents();
+        dirTreeModel.insertChildren(
+                root, Arrays.asList(fileData("c"), fileData("a")), LABELS_ORDER);
+
+        assertEquals(Collections.singletonList(b), dirTreeModel.getMaterializedChildren(root));
+        assertEquals(1, root.getIndex(b));
+        assertEquals(1, events.size());
+        assertNull(events.get(0).getChildren());
+        assertEquals(Arrays.asList("a", "b", "c"), labels(root));
+    }
+
+    @Test
+    public void releasesChildNodesWithoutState() {
+        DefaultMutableTreeNode root = dirTreeModel.getRoot();
+        dirTreeModel.replaceChildren(root, Arrays.asList(dirData("dir"), dirData("empty")));
+        DefaultMutableTreeNode dir = (DefaultMutableTreeNode) root.getChildAt(0);
+        DefaultMutableTreeNode empty = (DefaultMutableTreeNode) root.getChildAt(1);
+        DirTreeModel.getExtNodeData(dir).setStatus(Status.LOADED);
+        dirTreeModel.replaceChildren(dir, Arrays.asList(fileData("file1"), fileData("file2")));
+        DefaultMutableTreeNode file1 = (DefaultMutableTreeNode) dir.getChildAt(0);
+        List<TreeModelEvent> events = recordEvents();
+        dirTreeModel.releaseChildren(root, path -> false);
+
+        assertEquals(Collections.singletonList(dir), dirTreeModel.getMaterializedChildren(root));
+        assertTrue(dirTreeModel.getMaterializedChildren(dir).isEmpty());
+        assertFalse(dirTreeModel.containsNode(empty));
+        assertFalse(dirTreeModel.containsNode(file1));
+        assertTrue(events.isEmpty());
+
+        DefaultMutableTreeNode recreated = (DefaultMutableTreeNode) dir.getChildAt(0);
+        assertNotSame(file1, recreated);
+        checkNode(recreated, Type.NORMAL, Status.LOADED, "file1");
+        assertEquals(Arrays.asList("dir", "empty"), labels(root));
+    }
+
+    @Test
+    public void keepsLoadingChildNodesOnRelease() {
+        DefaultMutableTreeNode root = dirTreeModel.getRoot();
+        DefaultMutableTreeNode dir = dirTreeModel.addNullDirChild(root, dirData("dir"));
+        DirTreeModel.getExtNodeData(dir).setLoader(mock(TreeNodeLoader.class));
+        List<TreeModelEvent> events = recordEvents();
+        dirTreeModel.releaseChildren(root, path -> false);
+
+        assertTrue(dirTreeModel.containsNode(dir));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void keepsExpandedChildNodesOnRelease() {
+        DefaultMutableTreeNode root = dirTreeModel.getRoot();
+        DefaultMutableTreeNode dir = dirTreeModel.addNullDirChild(root, dirData("dir"));
+        DefaultMutableTreeNode other = dirTreeModel.addNullDirChild(root, dirData("other"));
+        dirTreeModel.releaseChildren(root, path -> path.getLastPathComponent() == dir);
+
+        assertTrue(dirTreeModel.containsNode(dir));
+        assertFalse(dirTreeModel.containsNode(other));
+    }
+
+    @Test
+    public void keepsDescendantsExpandedAcrossCollapse() {
+        DefaultMutableTreeNode root = dirTreeModel.getRoot();
+        DefaultMutableTreeNode dir = dirTreeModel.addNullDirChild(root, dirData("dir"));
+        DirTreeModel.getExtNodeData(dir).setStatus(Status.LOADED);
+        dirTreeModel.replaceChildren(dir, Arrays.asList(dirData("sub"), fileData("file")));
+        DefaultMutableTreeNode sub = (DefaultMutableTreeNode) dir.getChildAt(0);
+        DirTreeModel.getExtNodeData(sub).setStatus(Status.LOADED);
+        dirTreeModel.replaceChildren(sub, Collections.singletonList(fileData("sub-file")));
+        JTree tree = new JTree(dirTreeModel.getInnerTreeModel());
+        tree.setLargeModel(true);
+        tree.setRowHeight(16);
+        TreePath dirPath = new TreePath(dir.getPath());
+        TreePath subPath = new TreePath(sub.getPath());
+        tree.expandPath(dirPath);
+        tree.expandPath(subPath);
+
+        tree.collapsePath(dirPath);
+        dirTreeModel.releaseChildren(dir, tree::hasBeenExpanded);
+        tree.expandPath(dirPath);
+
+        assertTrue(tree.isExpanded(subPath));
+        assertSame(sub, dir.getChildAt(0));
+        assertSame(sub.getChildAt(0), tree.getPathForRow(3).getLastPathComponent());
+    }
+
     @Test
     public void containsRoot() {
         assertTrue(dirTreeModel.containsNode(dirTreeModel.getRoot()));
@@ -197,6 +398,46 @@ public class DirTreeModelTest {
         checkNode(children.get(0), Type.NORMAL, Status.LOADED, "file1");
     }
 
+    private List<TreeModelEvent> recordEvents() {
+        List<TreeModelEvent> events = new ArrayList<>();
+        dirTreeModel.getInnerTreeModel().addTreeModelListener(new TreeModelListener() {
+            @Override
+            public void treeNodesChanged(TreeModelEvent e) {
+                events.add(e);
+            }
+
+            @Override
+            public void treeNodesInserted(TreeModelEvent e) {
+                events.add(e);
+            }
+
+            @Override
+            public void treeNodesRemoved(TreeModelEvent e) {
+                events.add(e);
+            }
+
+            @Override
+            public void treeStructureChanged(TreeModelEvent e) {
+                events.add(e);
+            }
+        });
+        return events;
+    }
+
+    private List<String> labels(DefaultMutableTreeNode node) {
+        return dirTreeModel.getChildren(node).stream()
+                .map(child -> DirTreeModel.getExtNodeData(child).getNodeData().getLabel())
+                .collect(Collectors.toList());
+    }
+
+    private static TreeNodeData fileData(String label) {
+        return new TreeNodeData(label, new FsPath("/" + label, TargetType.FILE, label));
+    }
+
+    private static TreeNodeData dirData(String label) {
+        return new TreeNodeData(label, new FsPath("/" + label, TargetType.DIRECTORY, label));
+    }
+
     private TreeNodeData nodeData(String label) {
         TreeNodeData data = mock(TreeNodeData.class);
         when(data.toString()).thenReturn(label);
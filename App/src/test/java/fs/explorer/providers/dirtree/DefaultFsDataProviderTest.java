@@ -7,12 +7,15 @@ import fs.explorer.providers.dirtree.path.FsPath;
 import fs.explorer.providers.dirtree.path.TargetType;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import static org.junit.Assert.*;
@@ -70,6 +73,84 @@ public class DefaultFsDataProviderTest {
         verify(onFail, never()).accept(any());
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void providesSortedNodesOfUpdatedListing() {
+        ArgumentCaptor<BiConsumer> listener = ArgumentCaptor.forClass(BiConsumer.class);
+        List<TreeNodeData> updatedNodes = new ArrayList<>();
+        fsDataProvider.setNodesUpdateListener((node, nodes) -> {
+            checkFsPathNode("home", "/home", true, "home", node);
+            updatedNodes.addAll(nodes);
+        });
+        verify(fsManager).setListingUpdateListener(listener.capture());
+        listener.getValue().accept(
+                new FsPath("/home", TargetType.DIRECTORY, "home"),
+                Arrays.asList(
+                        new FsPath("/home/my-text.txt", TargetType.FILE, "my-text.txt"),
+                        new FsPath("/home/music", TargetType.DIRECTORY, "music")
+                )
+        );
+
+        assertEquals(2, updatedNodes.size());
+        checkFsPathNode("music", "/home/music", true, "music", updatedNodes.get(0));
+        checkFsPathNode(
+                "my-text.txt", "/home/my-text.txt", false, "my-text.txt",
+                updatedNodes.get(1)
+        );
+    }
+
+    @Test
+    public void invalidatesListingOfDirNode() {
+        fsDataProvider.invalidateNodesFor(fsPathNode(true));
+        verify(fsManager).invalidateListing(any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void providesNodesForDirInSortedBatches() throws IOException {
+        doAnswer(inv -> {
+            Consumer<List<FsPath>> onBatch = (Consumer<List<FsPath>>) inv.getArguments()[2];
+            onBatch.accept(Arrays.asList(
+                    new FsPath("/home/my-text.txt", TargetType.FILE, "my-text.txt"),
+                    new FsPath("/home/music", TargetType.DIRECTORY, "music")
+            ));
+            onBatch.accept(Collections.singletonList(
+                    new FsPath("/home/documents", TargetType.DIRECTORY, "documents")
+            ));
+            return null;
+        }).when(fsManager).list(any(), anyInt(), any());
+        List<List<TreeNodeData>> batches = new ArrayList<>();
+        Runnable onComplete = mock(Runnable.class);
+        Consumer<String> onFail = spy(new TestUtils.DummyConsumer<>());
+        fsDataProvider.getNodesFor(fsPathNode(true), batches::add, onComplete, onFail);
+
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(0).size());
+        checkFsPathNode("music", "/home/music", true, "music", batches.get(0).get(0));
+        checkFsPathNode(
+                "my-text.txt", "/home/my-text.txt", false, "my-text.txt",
+                batches.get(0).get(1)
+        );
+        assertEquals(1, batches.get(1).size());
+        checkFsPathNode(
+                "documents", "/home/documents", true, "documents",
+                batches.get(1).get(0)
+        );
+        verify(onComplete).run();
+        verify(onFail, never()).accept(any());
+    }
+
+    @Test
+    public void doesNotCompleteBatchesOnFsManagerFail() throws IOException {
+        doThrow(new IOException()).when(fsManager).list(any(), anyInt(), any());
+        Runnable onComplete = mock(Runnable.class);
+        Consumer<String> onFail = spy(new TestUtils.DummyConsumer<>());
+        fsDataProvider.getNodesFor(fsPathNode(true), nodes -> {}, onComplete, onFail);
+
+        verify(onComplete, never()).run();
+        verify(onFail).accept(any());
+    }
+
     @Test
     public void doesNotProvideNodesForFile() {
         Consumer<List<TreeNodeData>> onComplete = spy(new TestUtils.DummyConsumer<>());
@@ -0,0 +1,109 @@
+package fs.explorer.providers.dirtree.archives;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.providers.dirtree.path.TargetType;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.*;
+
+public class ArchiveIndexStoreTest {
+    private Path storeDirectory;
+    private ArchiveIndexStore indexStore;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        storeDirectory = tmpDir.getRoot().toPath().resolve("index");
+        indexStore = new ArchiveIndexStore(storeDirectory);
+    }
+
+    @Test
+    public void loadsSavedIndex() throws IOException {
+        FsPath archivePath = archivePath("/some/arch.zip");
+        indexStore.save(testArchive(archivePath), 1000, 12345);
+        ZipArchive loaded = indexStore.load(archivePath, 1000, 12345);
+
+        assertNotNull(loaded);
+        List<ZipEntry> entries = loaded.listAllEntries();
+        assertEquals(Arrays.asList("home/", "home/draft.txt", "home/pics/photo.jpg"),
+                entries.stream().map(ZipEntry::getName).collect(Collectors.toList()));
+        IndexedZipEntry draft = (IndexedZipEntry) loaded.getEntry("home/draft.txt");
+        assertEquals(40, draft.getLocalHeaderOffset());
+        assertEquals(ZipEntry.DEFLATED, draft.getMethod());
+        assertEquals(0xe0da3393L, draft.getCrc());
+        assertEquals(100, draft.getSize());
+        assertEquals(50, draft.getCompressedSize());
+    }
+
+    @Test
+    public void doesNotLoadIndexOfModifiedArchive() throws IOException {
+        FsPath archivePath = archivePath("/some/arch.zip");
+        indexStore.save(testArchive(archivePath), 1000, 12345);
+
+        assertNull(indexStore.load(archivePath, 1001, 12345));
+        assertNull(indexStore.load(archivePath, 1000, 12346));
+    }
+
+    @Test
+    public void doesNotLoadAbsentIndex() throws IOException {
+        assertNull(indexStore.load(archivePath("/some/arch.zip"), 1000, 12345));
+    }
+
+    @Test
+    public void doesNotLoadCorruptedIndex() throws IOException {
+        FsPath archivePath = archivePath("/some/arch.zip");
+        indexStore.save(testArchive(archivePath), 1000, 12345);
+        Path indexFile = Files.list(storeDirectory).findFirst().get();
+        byte[] data = Files.readAllBytes(indexFile);
+        Files.write(indexFile, Arrays.copyOf(data, data.length / 2));
+
+        assertNull(indexStore.load(archivePath, 1000, 12345));
+        assertFalse(Files.exists(indexFile));
+    }
+
+    @Test
+    public void removesLeastRecentlyUsedIndexes() throws IOException {
+        FsPath archivePath1 = archivePath("/some/arch1.zip");
+        FsPath archivePath2 = archivePath("/some/arch2.zip");
+        FsPath archivePath3 = archivePath("/some/arch3.zip");
+        indexStore.save(testArchive(archivePath1), 1000, 12345);
+        long indexSize = Files.list(storeDirectory).findFirst().get().toFile().length();
+        ArchiveIndexStore smallStore = new ArchiveIndexStore(storeDirectory, indexSize * 2);
+        Files.list(storeDirectory).findFirst().get().toFile().setLastModified(1000);
+        smallStore.save(testArchive(archivePath2), 1000, 12345);
+        smallStore.save(testArchive(archivePath3), 1000, 12345);
+
+        assertNull(smallStore.load(archivePath1, 1000, 12345));
+        assertNotNull(smallStore.load(archivePath2, 1000, 12345));
+        assertNotNull(smallStore.load(archivePath3, 1000, 12345));
+    }
+
+    private FsPath archivePath(String path) {
+        return new FsPath(path, TargetType.ZIP_ARCHIVE, "arch.zip");
+    }
+
+    private ZipArchive testArchive(FsPath archivePath) {
+        ZipEntry dir = new IndexedZipEntry("home/", 0);
+        ZipEntry draft = new IndexedZipEntry("home/draft.txt", 40);
+        draft.setMethod(ZipEntry.DEFLATED);
+        draft.setCrc(0xe0da3393L);
+        draft.setSize(100);
+        draft.setCompressedSize(50);
+        draft.setTime(1500000000000L);
+        ZipEntry photo = new IndexedZipEntry("home/pics/photo.jpg", 200);
+        return new ZipArchive(archivePath, Arrays.asList(dir, draft, photo));
+    }
+}
@@ -10,9 +10,13 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.*;
 import java.util.zip.ZipEntry;
 
 import static fs.explorer.providers.dirtree.archives.TestUtils.*;
@@ -151,8 +155,7 @@ public class ArchivesManagerTest {
         ));
         when(archivesReader.readEntries(any(), same(fsManager))).thenReturn(testArchive);
         when(archivesReader.readEntries(any())).thenReturn(subArchive);
-        when(archivesReader.extractEntryFile(any(), any(), any(), any())).thenReturn(true);
-        when(archivesReader.extractEntryFile(any(), any(), any())).thenReturn(false);
+        when(archivesReader.extractEntry(any(), any(), any(), any())).thenReturn(true);
         archivesManager.addArchiveIfAbsent(fsPath, fsManager);
         List<ArchiveEntryPath> entries = archivesManager.listSubEntry(
                 zipPath(fsPath, "home/sub-arch.zip", "sub-arch.zip"), fsManager);
@@ -172,6 +175,306 @@ public class ArchivesManagerTest {
         assertTrue(path.endsWith("sub-arch.zip"));
     }
 
+    @Test
+    public void listsStoredZipSubEntryInPlace() throws IOException {
+        FsPath fsPath = new FsPath("/some/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip");
+        ZipArchive testArchive = new ZipArchive(fsPath, Arrays.asList(
+                new ZipEntry("home/"),
+                new ZipEntry("home/sub-arch.zip")
+        ));
+        when(archivesReader.readEntries(any(), same(fsManager))).thenReturn(testArchive);
+        when(archivesReader.readNestedEntries(any(), any(), any(), any())).thenAnswer(inv ->
+                new ZipArchive((FsPath) inv.getArguments()[2], Arrays.asList(
+                        new ZipEntry("sub/"),
+                        new ZipEntry("sub/file.txt")
+                )));
+        archivesManager.addArchiveIfAbsent(fsPath, fsManager);
+        ArchiveEntryPath subArchive = zipPath(fsPath, "home/sub-arch.zip", "sub-arch.zip");
+        archivesManager.listSubEntry(subArchive, fsManager);
+        List<ArchiveEntryPath> entries = archivesManager.listSubEntry(subArchive, fsManager);
+
+        assertNotNull(entries);
+        assertEquals(1, entries.size());
+        List<ArchiveEntryPath> subEntries = archivesManager.listSubEntry(entries.get(0), fsManager);
+        assertNotNull(subEntries);
+        assertEquals(1, subEntries.size());
+        verify(archivesReader).readNestedEntries(
+                same(testArchive), eq("home/sub-arch.zip"), any(), same(fsManager));
+        verify(archivesReader, never()).extractEntry(any(), any(), any(), any());
+    }
+
+    @Test
+    public void evictsArchivesOverEntriesBudget() throws IOException {
+        ArchivesManager boundedManager = new ArchivesManager(
+                archivesReader, 5, ArchivesManager.DEFAULT_MAX_EXTRACTED_BYTES);
+        try {
+            FsPath path1 = new FsPath("/some/arch1.zip", TargetType.ZIP_ARCHIVE, "arch1.zip");
+            FsPath path2 = new FsPath("/some/arch2.zip", TargetType.ZIP_ARCHIVE, "arch2.zip");
+            when(archivesReader.readEntries(same(path1), same(fsManager))).thenReturn(
+                    new ZipArchive(path1, Arrays.asList(
+                            new ZipEntry("home/"), new ZipEntry("home/draft.txt"))));
+            when(archivesReader.readEntries(same(path2), same(fsManager))).thenReturn(
+                    new ZipArchive(path2, Arrays.asList(
+                            new ZipEntry("data/"), new ZipEntry("data/file.txt"))));
+            boundedManager.addArchiveIfAbsent(path1, fsManager);
+            boundedManager.addArchiveIfAbsent(path2, fsManager);
+
+            assertFalse(boundedManager.containsArchive(path1));
+            assertTrue(boundedManager.containsArchive(path2));
+            assertEquals(1, boundedManager.getCacheStats().getEvictionCount());
+        } finally {
+            boundedManager.clearCache();
+        }
+    }
+
+    @Test
+    public void reindexesEvictedArchives() throws IOException {
+        ArchivesManager boundedManager = new ArchivesManager(
+                archivesReader, 5, ArchivesManager.DEFAULT_MAX_EXTRACTED_BYTES);
+        try {
+            FsPath path1 = new FsPath("/some/arch1.zip", TargetType.ZIP_ARCHIVE, "arch1.zip");
+            FsPath path2 = new FsPath("/some/arch2.zip", TargetType.ZIP_ARCHIVE, "arch2.zip");
+            when(archivesReader.readEntries(same(path1), same(fsManager))).thenReturn(
+                    new ZipArchive(path1, Arrays.asList(
+                            new ZipEntry("home/"), new ZipEntry("home/draft.txt"))));
+            when(archivesReader.readEntries(same(path2), same(fsManager))).thenReturn(
+                    new ZipArchive(path2, Arrays.asList(
+                            new ZipEntry("data/"), new ZipEntry("data/file.txt"))));
+            boundedManager.addArchiveIfAbsent(path1, fsManager);
+            boundedManager.addArchiveIfAbsent(path2, fsManager);
+            List<ArchiveEntryPath> entries = boundedManager.listArchive(path1, fsManager);
+
+            assertThat(entries, contains(dirPath(path1, "home/", "home")));
+            verify(archivesReader, times(2)).readEntries(same(path1), same(fsManager));
+            assertFalse(boundedManager.containsArchive(path2));
+        } finally {
+            boundedManager.clearCache();
+        }
+    }
+
+    @Test
+    public void forgetsLeastRecentlyUsedOriginsOverLimit() throws IOException {
+        ArchivesManager boundedManager = new ArchivesManager(
+                archivesReader, 5, ArchivesManager.DEFAULT_MAX_EXTRACTED_BYTES, 1);
+        try {
+            FsPath path1 = new FsPath("/some/arch1.zip", TargetType.ZIP_ARCHIVE, "arch1.zip");
+            FsPath path2 = new FsPath("/some/arch2.zip", TargetType.ZIP_ARCHIVE, "arch2.zip");
+            when(archivesReader.readEntries(same(path1), same(fsManager))).thenReturn(
+                    new ZipArchive(path1, Arrays.asList(
+                            new ZipEntry("home/"), new ZipEntry("home/draft.txt"))));
+            when(archivesReader.readEntries(same(path2), same(fsManager))).thenReturn(
+                    new ZipArchive(path2, Arrays.asList(
+                            new ZipEntry("data/"), new ZipEntry("data/file.txt"))));
+            boundedManager.addArchiveIfAbsent(path1, fsManager);
+            boundedManager.addArchiveIfAbsent(path2, fsManager);
+
+            assertNull(boundedManager.listArchive(path1, fsManager));
+            assertThat(boundedManager.listArchive(path2, fsManager),
+                    contains(dirPath(path2, "data/", "data")));
+            verify(archivesReader, times(1)).readEntries(same(path1), same(fsManager));
+        } finally {
+            boundedManager.clearCache();
+        }
+    }
+
+    @Test
+    public void sharesConcurrentArchiveLoads() throws Exception {
+        FsPath fsPath = new FsPath("/some/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip");
+        ZipArchive testArchive = new ZipArchive(fsPath, Collections.emptyList());
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch loadAllowed = new CountDownLatch(1);
+        when(archivesReader.readEntries(any(), same(fsManager))).thenAnswer(inv -> {
+            loadStarted.countDown();
+            loadAllowed.await();
+            return testArchive;
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<ZipArchive> first = executor.submit(() ->
+                    archivesManager.addArchiveIfAbsent(fsPath, fsManager));
+            loadStarted.await();
+            Future<ZipArchive> second = executor.submit(() ->
+                    archivesManager.addArchiveIfAbsent(fsPath, fsManager));
+            loadAllowed.countDown();
+
+            assertTrue(first.get(5, TimeUnit.SECONDS) == testArchive);
+            assertTrue(second.get(5, TimeUnit.SECONDS) == testArchive);
+            verify(archivesReader, times(1)).readEntries(any(), any());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void cancelsArchiveLoadWithoutWaiters() throws Exception {
+        FsPath fsPath = new FsPath("/some/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip");
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch loadInterrupted = new CountDownLatch(1);
+        when(archivesReader.readEntries(any(), same(fsManager))).thenAnswer(inv -> {
+            loadStarted.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                loadInterrupted.countDown();
+            }
+            throw new InterruptedIOException();
+        });
+        Thread waiter = new Thread(() -> {
+            try {
+                archivesManager.addArchiveIfAbsent(fsPath, fsManager);
+            } catch (IOException e) {
+                // expected
+            }
+        });
+        waiter.start();
+        loadStarted.await();
+        waiter.interrupt();
+        waiter.join(5000);
+
+        assertTrue(loadInterrupted.await(5, TimeUnit.SECONDS));
+        assertFalse(archivesManager.containsArchive(fsPath));
+    }
+
+    @Test
+    public void reportsArchiveLoadFailures() throws IOException {
+        FsPath fsPath = new FsPath("/some/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip");
+        when(archivesReader.readEntries(any(), same(fsManager)))
+                .thenThrow(new IOException("zip end of central directory not found"));
+        for (int i = 0; i < 2; ++i) {
+            try {
+                archivesManager.addArchiveIfAbsent(fsPath, fsManager);
+                fail();
+            } catch (IOException e) {
+                assertThat(e.getMessage(),
+                        containsString("zip end of central directory not found"));
+            }
+        }
+        // the second request fails without a retry until backoff delay passes
+        verify(archivesReader, times(1)).readEntries(any(), any());
+    }
+
+    @Test
+    public void extractsSubArchiveOnlyOnce() throws IOException {
+        ArchivesManager boundedManager = new ArchivesManager(
+                archivesReader, 6, ArchivesManager.DEFAULT_MAX_EXTRACTED_BYTES);
+        try {
+            FsPath fsPath = new FsPath("/some/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip");
+            FsPath otherPath = new FsPath("/other/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip");
+            ZipEntry subArchiveEntry = new ZipEntry("sub-arch.zip");
+            subArchiveEntry.setCrc(42);
+            when(archivesReader.readEntries(same(fsPath), same(fsManager))).thenAnswer(inv ->
+                    new ZipArchive(fsPath, Arrays.asList(new ZipEntry("a.txt"), subArchiveEntry)));
+            when(archivesReader.readEntries(same(otherPath), same(fsManager))).thenReturn(
+                    new ZipArchive(otherPath, Arrays.asList(
+                            new ZipEntry("b.txt"), new ZipEntry("c.txt"))));
+            when(archivesReader.readEntries(any())).thenAnswer(inv ->
+                    new ZipArchive((FsPath) inv.getArguments()[0], Arrays.asList(
+                            new ZipEntry("sub/"), new ZipEntry("sub/file.txt"))));
+            when(archivesReader.extractEntry(any(), any(), any(), any())).thenReturn(true);
+            ArchiveEntryPath subArchive = zipPath(fsPath, "sub-arch.zip", "sub-arch.zip");
+
+            boundedManager.addArchiveIfAbsent(fsPath, fsManager);
+            boundedManager.listSubEntry(subArchive, fsManager);
+            // evicts indexes of both archive and its sub archive
+            boundedManager.addArchiveIfAbsent(otherPath, fsManager);
+            List<ArchiveEntryPath> entries = boundedManager.listSubEntry(subArchive, fsManager);
+
+            assertEquals(1, entries.size());
+            verify(archivesReader, times(2)).readEntries(any());
+            verify(archivesReader, times(1)).extractEntry(any(), any(), any(), any());
+        } finally {
+            boundedManager.clearCache();
+        }
+    }
+
+    @Test
+    public void removesExtractedArchivesOverDiskBudget() throws IOException {
+        ArchivesManager boundedManager = new ArchivesManager(
+                archivesReader, ArchivesManager.DEFAULT_MAX_CACHED_ENTRIES, 15);
+        try {
+            FsPath fsPath = new FsPath("/some/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip");
+            when(archivesReader.readEntries(any(), same(fsManager))).thenReturn(
+                    new ZipArchive(fsPath, Arrays.asList(
+                            new ZipEntry("sub1.zip"), new ZipEntry("sub2.zip"))));
+            when(archivesReader.readEntries(any())).thenAnswer(inv ->
+                    new ZipArchive((FsPath) inv.getArguments()[0], Collections.emptyList()));
+            when(archivesReader.extractEntry(any(), any(), any(), any())).thenAnswer(inv -> {
+                FsPath destination = (FsPath) inv.getArguments()[2];
+                Files.write(Paths.get(destination.getPath()), new byte[10]);
+                return true;
+            });
+            boundedManager.addArchiveIfAbsent(fsPath, fsManager);
+            boundedManager.listSubEntry(zipPath(fsPath, "sub1.zip", "sub1.zip"), fsManager);
+            boundedManager.listSubEntry(zipPath(fsPath, "sub2.zip", "sub2.zip"), fsManager);
+
+            ArgumentCaptor<FsPath> captor = ArgumentCaptor.forClass(FsPath.class);
+            verify(archivesReader, times(2)).readEntries(captor.capture());
+            List<FsPath> extractedPaths = captor.getAllValues();
+            assertFalse(Files.exists(Paths.get(extractedPaths.get(0).getPath())));
+            assertTrue(Files.exists(Paths.get(extractedPaths.get(1).getPath())));
+            assertFalse(boundedManager.containsArchive(extractedPaths.get(0)));
+        } finally {
+            boundedManager.clearCache();
+        }
+    }
+
+    @Test
+    public void streamsSubArchivesOverDiskBudget() throws IOException {
+        ArchivesManager boundedManager = new ArchivesManager(
+                archivesReader, ArchivesManager.DEFAULT_MAX_CACHED_ENTRIES, 15);
+        try {
+            FsPath fsPath = new FsPath("/some/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip");
+            ZipEntry largeEntry = new ZipEntry("large.zip");
+            largeEntry.setSize(20);
+            ZipArchive testArchive = new ZipArchive(fsPath, Collections.singletonList(largeEntry));
+            when(archivesReader.readEntries(any(), same(fsManager))).thenReturn(testArchive);
+            when(archivesReader.readStreamedEntries(same(testArchive), eq("large.zip"), any(),
+                    same(fsManager))).thenAnswer(inv -> new ZipArchive(
+                            (FsPath) inv.getArguments()[2],
+                            Collections.singletonList(new ZipEntry("file.txt"))));
+            boundedManager.addArchiveIfAbsent(fsPath, fsManager);
+            List<ArchiveEntryPath> entries = boundedManager.listSubEntry(
+                    zipPath(fsPath, "large.zip", "large.zip"), fsManager);
+
+            assertEquals(1, entries.size());
+            verify(archivesReader, never()).extractEntry(any(), any(), any(), any());
+        } finally {
+            boundedManager.clearCache();
+        }
+    }
+
+    @Test
+    public void removesExtractedArchivesOfUnknownSizeOverDiskBudget() throws IOException {
+        ArchivesManager boundedManager = new ArchivesManager(
+                archivesReader, ArchivesManager.DEFAULT_MAX_CACHED_ENTRIES, 15);
+        try {
+            FsPath fsPath = new FsPath("/some/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip");
+            ZipArchive testArchive = new ZipArchive(
+                    fsPath, Collections.singletonList(new ZipEntry("large.zip")));
+            when(archivesReader.readEntries(any(), same(fsManager))).thenReturn(testArchive);
+            when(archivesReader.extractEntry(any(), any(), any(), any())).thenAnswer(inv -> {
+                FsPath destination = (FsPath) inv.getArguments()[2];
+                Files.write(Paths.get(destination.getPath()), new byte[20]);
+                return true;
+            });
+            when(archivesReader.readStreamedEntries(same(testArchive), eq("large.zip"), any(),
+                    same(fsManager))).thenAnswer(inv -> new ZipArchive(
+                            (FsPath) inv.getArguments()[2],
+                            Collections.singletonList(new ZipEntry("file.txt"))));
+            boundedManager.addArchiveIfAbsent(fsPath, fsManager);
+            List<ArchiveEntryPath> entries = boundedManager.listSubEntry(
+                    zipPath(fsPath, "large.zip", "large.zip"), fsManager);
+
+            assertEquals(1, entries.size());
+            ArgumentCaptor<FsPath> captor = ArgumentCaptor.forClass(FsPath.class);
+            verify(archivesReader).extractEntry(any(), any(), captor.capture(), any());
+            assertFalse(Files.exists(Paths.get(captor.getValue().getPath()).getParent()));
+            verify(archivesReader, never()).readEntries(any());
+        } finally {
+            boundedManager.clearCache();
+        }
+    }
+
     @Test
     public void doesNotListSubEntryOnFile() throws IOException {
         FsPath fsPath = new FsPath("/some/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip");
@@ -223,7 +526,7 @@ public class ArchivesManagerTest {
         when(archivesReader.readEntries(any(), same(fsManager))).thenReturn(testArchive);
         archivesManager.addArchiveIfAbsent(archivePath, fsManager);
 
-        when(archivesReader.readEntryFile(any(), any(), any(), any())).thenReturn(true);
+        when(archivesReader.readEntry(any(), any(), any(), any())).thenReturn(true);
         byte[] contents = archivesManager.readEntry(filePath(archivePath, "", ""), fsManager);
 
         assertNotNull(contents);
@@ -236,7 +539,7 @@ public class ArchivesManagerTest {
         when(archivesReader.readEntries(any(), same(fsManager))).thenReturn(testArchive);
         archivesManager.addArchiveIfAbsent(archivePath, fsManager);
 
-        when(archivesReader.readEntryFile(any(), any(), any(), any())).thenReturn(true);
+        when(archivesReader.readEntry(any(), any(), any(), any())).thenReturn(true);
         FsPath otherArch = new FsPath("/other/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip");
         byte[] contents = archivesManager.readEntry(filePath(otherArch, "", ""), fsManager);
 
@@ -250,7 +553,7 @@ public class ArchivesManagerTest {
         when(archivesReader.readEntries(any(), same(fsManager))).thenReturn(testArchive);
         archivesManager.addArchiveIfAbsent(archivePath, fsManager);
 
-        when(archivesReader.readEntryFile(any(), any(), any(), any())).thenReturn(false);
+        when(archivesReader.readEntry(any(), any(), any(), any())).thenReturn(false);
         byte[] contents = archivesManager.readEntry(filePath(archivePath, "", ""), fsManager);
 
         assertNull(contents);
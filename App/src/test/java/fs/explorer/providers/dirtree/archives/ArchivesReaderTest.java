@@ -3,18 +3,32 @@ package fs.explorer.providers.dirtree.archives;
 import fs.explorer.providers.dirtree.local.LocalFsManager;
 import fs.explorer.providers.dirtree.path.FsPath;
 import fs.explorer.providers.dirtree.path.TargetType;
+import fs.explorer.providers.dirtree.remote.RemoteFsManager;
+import fs.explorer.providers.dirtree.remote.TestFTPServer;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import static fs.explorer.providers.dirtree.archives.TestUtils.ZipEntryData;
 import static org.hamcrest.Matchers.*;
@@ -56,23 +70,27 @@ public class ArchivesReaderTest {
         assertEquals(0, archive.listAllEntries().size());
     }
 
-    // TODO this should throw exception instead
-    // Current behaviour is due to ZipInputStream
-    // that cannot detect corrupted zip files
-    @Test
-    public void readsEntriesOfCorruptedZipFilesAsEmpty() throws URISyntaxException, IOException {
-        ZipArchive archive = archivesReader.readEntries(testZipPath("/zips/bad.zip", "bad.zip"));
-        assertNotNull(archive);
-        assertEquals(0, archive.listAllEntries().size());
+    @Test(expected = IOException.class)
+    public void failsToReadEntriesOfCorruptedZipFiles() throws URISyntaxException, IOException {
+        archivesReader.readEntries(testZipPath("/zips/bad.zip", "bad.zip"));
+    }
+
+    @Test(expected = IOException.class)
+    public void failsToReadEntriesOfNonZipFiles() throws URISyntaxException, IOException {
+        FsPath path = testDataPath("/testdirs/home/draft.txt", TargetType.FILE, "draft.txt");
+        archivesReader.readEntries(path);
     }
 
     // TODO this should throw exception instead
     // Current behaviour is due to ZipInputStream
     // that cannot detect corrupted zip files
     @Test
-    public void readsEntriesOfNonZipFilesAsEmpty() throws URISyntaxException, IOException {
-        FsPath path = testDataPath("/testdirs/home/draft.txt", TargetType.FILE, "draft.txt");
-        ZipArchive archive = archivesReader.readEntries(path);
+    public void readsEntriesOfCorruptedZipFilesAsEmptyWithoutRandomAccess()
+            throws URISyntaxException, IOException {
+        LocalFsManager fsManager = spy(new LocalFsManager());
+        doReturn(null).when(fsManager).newByteChannel(any());
+        ZipArchive archive = archivesReader.readEntries(
+                testZipPath("/zips/bad.zip", "bad.zip"), fsManager);
         assertNotNull(archive);
         assertEquals(0, archive.listAllEntries().size());
     }
@@ -96,14 +114,90 @@ public class ArchivesReaderTest {
         ZipArchive archive = archivesReader.readEntries(archivePath, fsManager);
         assertNotNull(archive);
         assertEquals(11, archive.listAllEntries().size());
+        verify(fsManager).newByteChannel(same(archivePath));
+        verify(fsManager, never()).withFileStream(any(), any());
+    }
+
+    @Test
+    public void readsEntriesViaFsManagerWithoutRandomAccess()
+            throws URISyntaxException, IOException {
+        LocalFsManager fsManager = spy(new LocalFsManager());
+        doReturn(null).when(fsManager).newByteChannel(any());
+        FsPath archivePath = testZipPath("/zips/home.zip", "home.zip");
+        ZipArchive archive = archivesReader.readEntries(archivePath, fsManager);
+        assertNotNull(archive);
+        assertEquals(11, archive.listAllEntries().size());
         verify(fsManager).withFileStream(same(archivePath), any());
     }
 
+    @Test
+    public void readsEntriesAttributes() throws URISyntaxException, IOException {
+        ZipArchive archive = archivesReader.readEntries(testZipPath("/zips/data.zip", "data.zip"));
+        ZipEntry entry = archive.listAllEntries().stream()
+                .filter(e -> e.getName().equals("drunk.jpg"))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+        assertEquals(69847, entry.getSize());
+        assertEquals(69610, entry.getCompressedSize());
+        assertEquals(0xe0da3393L, entry.getCrc());
+    }
+
+    @Test
+    public void readsEntriesOfZip64Archive() throws IOException {
+        // more than 65535 entries make ZipOutputStream write zip64 records
+        int entriesCount = 70000;
+        Path zipPath = Paths.get(tmpDir.getRoot().toString(), "big.zip");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipPath))) {
+            for (int i = 0; i < entriesCount; ++i) {
+                zos.putNextEntry(new ZipEntry("dir/" + i + ".txt"));
+                zos.closeEntry();
+            }
+        }
+        FsPath archivePath = new FsPath(zipPath.toString(), TargetType.ZIP_ARCHIVE, "big.zip");
+        ZipArchive archive = archivesReader.readEntries(archivePath);
+        assertEquals(entriesCount, archive.listAllEntries().size());
+        assertEquals(entriesCount, archive.list(
+                TestUtils.dirPath(archivePath, "dir/", "dir")).size());
+    }
+
+    @Test
+    public void readsEntriesOfArchiveWithWrappedEntriesCount() throws IOException {
+        int entriesCount = 70000;
+        Path zipPath = Paths.get(tmpDir.getRoot().toString(), "wrapped.zip");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipPath))) {
+            for (int i = 0; i < entriesCount; ++i) {
+                zos.putNextEntry(new ZipEntry("dir/" + i + ".txt"));
+                zos.closeEntry();
+            }
+        }
+        // zip64 records are dropped and 16-bit counts of the end record wrap around
+        byte[] data = Files.readAllBytes(zipPath);
+        int eocdSize = 22;
+        int zip64RecordsSize = 56 + 20;
+        ByteBuffer eocd = ByteBuffer.wrap(Arrays.copyOfRange(
+                data, data.length - eocdSize, data.length)).order(ByteOrder.LITTLE_ENDIAN);
+        eocd.putShort(8, (short) entriesCount);
+        eocd.putShort(10, (short) entriesCount);
+        int directoryEnd = data.length - eocdSize - zip64RecordsSize;
+        byte[] patched = Arrays.copyOf(data, directoryEnd + eocdSize);
+        System.arraycopy(eocd.array(), 0, patched, directoryEnd, eocdSize);
+        Files.write(zipPath, patched);
+
+        FsPath archivePath = new FsPath(zipPath.toString(), TargetType.ZIP_ARCHIVE, "wrapped.zip");
+        ZipArchive archive = archivesReader.readEntries(archivePath);
+        assertEquals(entriesCount, archive.listAllEntries().size());
+        try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+            assertEquals(entriesCount, zipFile.size());
+        }
+    }
+
     @Test
     public void extractsEntryFile() throws URISyntaxException, IOException {
-        FsPath archive = testZipPath("/zips/home.zip", "home.zip");
+        ZipArchive archive = archivesReader.readEntries(testZipPath("/zips/home.zip", "home.zip"));
         FsPath extracted = tmpDestinationFile("extracted-draft.txt");
-        boolean entryFound = archivesReader.extractEntryFile(archive, "home/draft.txt", extracted);
+        boolean entryFound = archivesReader.extractEntry(
+                archive, "home/draft.txt", extracted, null);
         assertTrue(entryFound);
         Path extractedPath = Paths.get(extracted.getPath());
         assertTrue(Files.exists(extractedPath));
@@ -112,88 +206,284 @@ public class ArchivesReaderTest {
         assertEquals("draft text", lines.get(0));
     }
 
-    @Test
-    public void extractsEntryZip() throws URISyntaxException, IOException {
-        FsPath archive = testZipPath("/zips/nested.zip", "nested.zip");
-        FsPath extracted = tmpDestinationFile("extracted-dir1.zip");
-        boolean entryFound = archivesReader.extractEntryFile(archive, "nested/dir1.zip", extracted);
-        assertTrue(entryFound);
-        Path extractedPath = Paths.get(extracted.getPath());
-        assertTrue(Files.exists(extractedPath));
-        ZipArchive extractedArchive = archivesReader.readEntries(extracted);
-        assertNotNull(extractedArchive);
-        assertEquals(2, extractedArchive.listAllEntries().size());
-    }
-
     @Test(expected = IOException.class)
     public void failsToExtractsEntryDirectory() throws URISyntaxException, IOException {
-        FsPath archive = testZipPath("/zips/home.zip", "home.zip");
+        ZipArchive archive = archivesReader.readEntries(testZipPath("/zips/home.zip", "home.zip"));
         FsPath extracted = tmpDestinationFile("extracted-home");
-        archivesReader.extractEntryFile(archive, "home/", extracted);
+        archivesReader.extractEntry(archive, "home/", extracted, null);
     }
 
     @Test
     public void doesNotExtractNonExistingEntry() throws URISyntaxException, IOException {
-        FsPath archive = testZipPath("/zips/home.zip", "home.zip");
+        ZipArchive archive = archivesReader.readEntries(testZipPath("/zips/home.zip", "home.zip"));
         FsPath extracted = tmpDestinationFile("extracted");
-        boolean entryFound = archivesReader.extractEntryFile(
-                archive, "home/no-such-file.txt", extracted);
+        boolean entryFound = archivesReader.extractEntry(
+                archive, "home/no-such-file.txt", extracted, null);
         assertFalse(entryFound);
     }
 
     @Test(expected = IOException.class)
     public void failsToExtractsFromNonExistingArchive() throws URISyntaxException, IOException {
-        FsPath archive = new FsPath("/zips/no-such.zip", TargetType.ZIP_ARCHIVE, "no-such.zip");
+        FsPath archivePath = new FsPath(
+                "/zips/no-such.zip", TargetType.ZIP_ARCHIVE, "no-such.zip");
+        ZipArchive archive = new ZipArchive(
+                archivePath, Collections.singletonList(new ZipEntry("file.txt")));
         FsPath extracted = tmpDestinationFile("extracted");
-        archivesReader.extractEntryFile(archive, "dir/", extracted);
+        archivesReader.extractEntry(archive, "file.txt", extracted, null);
     }
 
     @Test
     public void extractsEntryFileViaFsManager() throws URISyntaxException, IOException {
-        FsPath archive = testZipPath("/zips/home.zip", "home.zip");
+        FsPath archivePath = testZipPath("/zips/home.zip", "home.zip");
         FsPath extracted = tmpDestinationFile("extracted-draft.txt");
         LocalFsManager fsManager = spy(new LocalFsManager());
-        boolean entryFound = archivesReader.extractEntryFile(
+        ZipArchive archive = archivesReader.readEntries(archivePath, fsManager);
+        boolean entryFound = archivesReader.extractEntry(
                 archive, "home/draft.txt", extracted, fsManager);
         assertTrue(entryFound);
-        Path extractedPath = Paths.get(extracted.getPath());
-        assertTrue(Files.exists(extractedPath));
-        List<String> lines = Files.readAllLines(extractedPath);
+        List<String> lines = Files.readAllLines(Paths.get(extracted.getPath()));
         assertEquals(1, lines.size());
         assertEquals("draft text", lines.get(0));
-        verify(fsManager).withFileStream(same(archive), any());
+        verify(fsManager, times(2)).newByteChannel(same(archivePath));
+        verify(fsManager, never()).withFileStream(any(), any());
     }
 
     @Test
-    public void readsEntryFile1() throws URISyntaxException, IOException {
-        FsPath archive = testZipPath("/zips/data.zip", "data.zip");
+    public void readsStoredEntry() throws URISyntaxException, IOException {
+        FsPath archivePath = testZipPath("/zips/data.zip", "data.zip");
+        ZipArchive archive = archivesReader.readEntries(archivePath);
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        boolean entryFound = archivesReader.readEntryFile(archive, "text/descr.txt", baos);
+        boolean entryFound = archivesReader.readEntry(archive, "text/descr.txt", baos, null);
         assertTrue(entryFound);
-        String contents = new String(baos.toByteArray());
-        assertEquals("textual description", contents);
+        assertEquals("textual description", new String(baos.toByteArray()));
     }
 
     @Test
-    public void readsEntryFile2() throws URISyntaxException, IOException {
-        FsPath archive = testZipPath("/zips/data.zip", "data.zip");
+    public void readsDeflatedEntry() throws URISyntaxException, IOException {
+        FsPath archivePath = testZipPath("/zips/data.zip", "data.zip");
+        ZipArchive archive = archivesReader.readEntries(archivePath);
+        byte[] expected;
+        try (ZipFile zipFile = new ZipFile(archivePath.getPath())) {
+            ZipEntry entry = zipFile.getEntry("drunk.jpg");
+            assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            try (InputStream is = zipFile.getInputStream(entry)) {
+                ByteArrayOutputStream expectedStream = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int len;
+                while ((len = is.read(buffer)) != -1) {
+                    expectedStream.write(buffer, 0, len);
+                }
+                expected = expectedStream.toByteArray();
+            }
+        }
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        boolean entryFound = archivesReader.readEntryFile(archive, "drunk.jpg", baos);
+        boolean entryFound = archivesReader.readEntry(archive, "drunk.jpg", baos, null);
         assertTrue(entryFound);
-        assertTrue(baos.toByteArray().length > 0);
+        assertEquals(69847, baos.size());
+        assertArrayEquals(expected, baos.toByteArray());
     }
 
     @Test
-    public void readsEntryFileViaFsManager() throws URISyntaxException, IOException {
-        FsPath archive = testZipPath("/zips/data.zip", "data.zip");
+    public void readsEntryViaFsManager() throws URISyntaxException, IOException {
+        FsPath archivePath = testZipPath("/zips/data.zip", "data.zip");
         LocalFsManager fsManager = spy(new LocalFsManager());
+        ZipArchive archive = archivesReader.readEntries(archivePath, fsManager);
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        boolean entryFound = archivesReader.readEntryFile(
-                archive, "text/descr.txt", baos, fsManager);
+        boolean entryFound = archivesReader.readEntry(archive, "text/descr.txt", baos, fsManager);
         assertTrue(entryFound);
-        String contents = new String(baos.toByteArray());
-        assertEquals("textual description", contents);
-        verify(fsManager).withFileStream(same(archive), any());
+        assertEquals("textual description", new String(baos.toByteArray()));
+        verify(fsManager, times(2)).newByteChannel(same(archivePath));
+        verify(fsManager, never()).withFileStream(any(), any());
+    }
+
+    @Test
+    public void readsEntryViaFsManagerWithoutRandomAccess()
+            throws URISyntaxException, IOException {
+        FsPath archivePath = testZipPath("/zips/data.zip", "data.zip");
+        LocalFsManager fsManager = spy(new LocalFsManager());
+        doReturn(null).when(fsManager).newByteChannel(any());
+        ZipArchive archive = archivesReader.readEntries(archivePath, fsManager);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        boolean entryFound = archivesReader.readEntry(archive, "text/descr.txt", baos, fsManager);
+        assertTrue(entryFound);
+        assertEquals("textual description", new String(baos.toByteArray()));
+    }
+
+    @Test
+    public void doesNotReadNonExistingEntry() throws URISyntaxException, IOException {
+        FsPath archivePath = testZipPath("/zips/home.zip", "home.zip");
+        ZipArchive archive = archivesReader.readEntries(archivePath);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        assertFalse(archivesReader.readEntry(archive, "home/no-such-file.txt", baos, null));
+        assertFalse(archivesReader.readEntry(archive, "home", baos, null));
+    }
+
+    @Test(expected = IOException.class)
+    public void failsToReadEntryDirectory() throws URISyntaxException, IOException {
+        FsPath archivePath = testZipPath("/zips/home.zip", "home.zip");
+        ZipArchive archive = archivesReader.readEntries(archivePath);
+        archivesReader.readEntry(archive, "home/", new ByteArrayOutputStream(), null);
+    }
+
+    @Test
+    public void extractsEntry() throws URISyntaxException, IOException {
+        FsPath archivePath = testZipPath("/zips/nested.zip", "nested.zip");
+        ZipArchive archive = archivesReader.readEntries(archivePath);
+        FsPath extracted = tmpDestinationFile("extracted-dir1.zip");
+        boolean entryFound = archivesReader.extractEntry(
+                archive, "nested/dir1.zip", extracted, null);
+        assertTrue(entryFound);
+        ZipArchive extractedArchive = archivesReader.readEntries(extracted);
+        assertEquals(2, extractedArchive.listAllEntries().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsToReadCorruptedEntry() throws IOException {
+        Path zipPath = tmpDir.getRoot().toPath().resolve("corrupted.zip");
+        byte[] data = "some text".getBytes();
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipPath))) {
+            ZipEntry entry = new ZipEntry("file.txt");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.length);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            entry.setCrc(crc.getValue());
+            zos.putNextEntry(entry);
+            zos.write(data);
+            zos.closeEntry();
+        }
+        String contents = new String(Files.readAllBytes(zipPath), StandardCharsets.ISO_8859_1);
+        byte[] corrupted = contents.replace("some text", "some tExt")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        Files.write(zipPath, corrupted);
+        FsPath archivePath = new FsPath(
+                zipPath.toString(), TargetType.ZIP_ARCHIVE, "corrupted.zip");
+        ZipArchive archive = archivesReader.readEntries(archivePath);
+        archivesReader.readEntry(archive, "file.txt", new ByteArrayOutputStream(), null);
+    }
+
+    @Test
+    public void readsStoredNestedArchivesInPlace() throws URISyntaxException, IOException {
+        FsPath archivePath = testZipPath("/zips/nested.zip", "nested.zip");
+        ZipArchive archive = archivesReader.readEntries(archivePath);
+        FsPath dir1Path = new FsPath("dir1", TargetType.ZIP_ARCHIVE, "dir1.zip");
+        ZipArchive dir1 = archivesReader.readNestedEntries(
+                archive, "nested/dir1.zip", dir1Path, null);
+        assertNotNull(dir1);
+        assertEquals(2, dir1.listAllEntries().size());
+        FsPath dir2Path = new FsPath("dir2", TargetType.ZIP_ARCHIVE, "dir2.zip");
+        ZipArchive dir2 = archivesReader.readNestedEntries(dir1, "dir1/dir2.zip", dir2Path, null);
+        assertNotNull(dir2);
+        assertEquals(archivePath, dir2.getSlice().getFilePath());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        boolean entryFound = archivesReader.readEntry(dir2, "dir2/file2.txt", baos, null);
+        assertTrue(entryFound);
+        assertEquals("file2 contents", new String(baos.toByteArray()).trim());
+    }
+
+    @Test
+    public void doesNotReadDeflatedNestedArchivesInPlace() throws IOException {
+        Path zipPath = tmpDir.getRoot().toPath().resolve("outer.zip");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipPath))) {
+            zos.putNextEntry(new ZipEntry("inner.zip"));
+            try (ByteArrayOutputStream inner = new ByteArrayOutputStream()) {
+                new ZipOutputStream(inner).close();
+                zos.write(inner.toByteArray());
+            }
+            zos.closeEntry();
+        }
+        FsPath archivePath = new FsPath(zipPath.toString(), TargetType.ZIP_ARCHIVE, "outer.zip");
+        ZipArchive archive = archivesReader.readEntries(archivePath);
+        FsPath innerPath = new FsPath("inner", TargetType.ZIP_ARCHIVE, "inner.zip");
+        assertNull(archivesReader.readNestedEntries(archive, "inner.zip", innerPath, null));
+    }
+
+    @Test
+    public void readsDeflatedNestedArchivesAsStream() throws IOException {
+        Path zipPath = tmpDir.getRoot().toPath().resolve("outer.zip");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipPath))) {
+            zos.putNextEntry(new ZipEntry("inner.zip"));
+            ByteArrayOutputStream inner = new ByteArrayOutputStream();
+            try (ZipOutputStream innerZos = new ZipOutputStream(inner)) {
+                innerZos.putNextEntry(new ZipEntry("dir/"));
+                innerZos.closeEntry();
+                innerZos.putNextEntry(new ZipEntry("dir/file.txt"));
+                innerZos.write("file contents".getBytes());
+                innerZos.closeEntry();
+            }
+            zos.write(inner.toByteArray());
+            zos.closeEntry();
+        }
+        FsPath archivePath = new FsPath(zipPath.toString(), TargetType.ZIP_ARCHIVE, "outer.zip");
+        ZipArchive archive = archivesReader.readEntries(archivePath);
+        FsPath innerPath = new FsPath("inner", TargetType.ZIP_ARCHIVE, "inner.zip");
+        ZipArchive inner = archivesReader.readStreamedEntries(
+                archive, "inner.zip", innerPath, null);
+
+        assertEquals(2, inner.listAllEntries().size());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        assertTrue(archivesReader.readEntry(inner, "dir/file.txt", baos, null));
+        assertEquals("file contents", new String(baos.toByteArray()));
+        assertFalse(archivesReader.readEntry(inner, "dir/other.txt", baos, null));
+    }
+
+    @Test
+    public void readsEntriesFromIndexStore() throws URISyntaxException, IOException {
+        Path zipPath = tmpDir.getRoot().toPath().resolve("data.zip");
+        Files.copy(Paths.get(testZipPath("/zips/data.zip", "data.zip").getPath()), zipPath);
+        FsPath archivePath = new FsPath(zipPath.toString(), TargetType.ZIP_ARCHIVE, "data.zip");
+        Path storeDirectory = tmpDir.getRoot().toPath().resolve("index");
+        ArchivesReader storingReader = new ArchivesReader(new ArchiveIndexStore(storeDirectory));
+        LocalFsManager fsManager = new LocalFsManager();
+
+        ZipArchive archive = storingReader.readEntries(archivePath, fsManager);
+        assertEquals(1, Files.list(storeDirectory).count());
+        // the central directory can not be found anymore, but the archive looks the same
+        FileTime lastModifiedTime = Files.getLastModifiedTime(zipPath);
+        byte[] data = Files.readAllBytes(zipPath);
+        data[data.length - 22] = 0;
+        Files.write(zipPath, data);
+        Files.setLastModifiedTime(zipPath, lastModifiedTime);
+        ZipArchive storedArchive = storingReader.readEntries(archivePath, fsManager);
+
+        assertThat(storedArchive.listAllEntries().stream()
+                        .map(ZipEntry::getName).collect(Collectors.toList()),
+                contains(archive.listAllEntries().stream()
+                        .map(ZipEntry::getName).toArray()));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        storingReader.readEntry(storedArchive, "text/descr.txt", baos, fsManager);
+        assertEquals("textual description", new String(baos.toByteArray()));
+    }
+
+    @Test
+    public void readsRemoteArchiveByRanges() throws IOException {
+        Path zipPath = tmpDir.getRoot().toPath().resolve("remote.zip");
+        Random random = new Random(42);
+        byte[] entryData = new byte[256 * 1024];
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipPath))) {
+            for (int i = 0; i < 32; ++i) {
+                random.nextBytes(entryData);
+                zos.putNextEntry(new ZipEntry("data/entry" + i + ".bin"));
+                zos.write(entryData);
+                zos.closeEntry();
+            }
+        }
+        long archiveSize = Files.size(zipPath);
+        try (TestFTPServer server = new TestFTPServer(tmpDir.getRoot().toPath())) {
+            RemoteFsManager fsManager = new RemoteFsManager(server.getConnectionInfo());
+            FsPath archivePath = new FsPath("/remote.zip", TargetType.ZIP_ARCHIVE, "remote.zip");
+
+            ZipArchive archive = archivesReader.readEntries(archivePath, fsManager);
+            assertEquals(32, archive.getEntriesCount());
+            assertThat(server.getBytesSent(), lessThan(archiveSize / 16));
+
+            server.resetBytesSent();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            assertTrue(archivesReader.readEntry(archive, "data/entry31.bin", baos, fsManager));
+            assertArrayEquals(entryData, baos.toByteArray());
+            assertThat(server.getBytesSent(), lessThan(archiveSize / 4));
+        }
     }
 
     private FsPath testZipPath(String relativePath, String lastComponent) throws URISyntaxException {
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
@@ -117,6 +118,72 @@ public class ZipArchiveTest {
         assertEquals(0, entries.size());
     }
 
+    @Test
+    public void listsImplicitDirectories() {
+        archivePath = new FsPath("/some/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip");
+        zipArchive = new ZipArchive(archivePath, Arrays.asList(
+                new ZipEntry("home/draft.txt"),
+                new ZipEntry("home/pics/photo.jpg"),
+                new ZipEntry("readme.txt")
+        ));
+        assertThat(zipArchive.listRoot(), containsInAnyOrder(
+                dirPath(archivePath, "home/", "home"),
+                filePath(archivePath, "readme.txt", "readme.txt")
+        ));
+        assertThat(zipArchive.list(dirPath(archivePath, "home/", "home")), containsInAnyOrder(
+                dirPath(archivePath, "home/pics/", "pics"),
+                filePath(archivePath, "home/draft.txt", "draft.txt")
+        ));
+        assertThat(zipArchive.list(dirPath(archivePath, "home/pics/", "pics")), containsInAnyOrder(
+                filePath(archivePath, "home/pics/photo.jpg", "photo.jpg")
+        ));
+    }
+
+    @Test
+    public void listsExplicitDirectoryAddedAfterItsChildren() {
+        archivePath = new FsPath("/some/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip");
+        zipArchive = new ZipArchive(archivePath, Arrays.asList(
+                new ZipEntry("home/music/track1.mp3"),
+                new ZipEntry("home/music/"),
+                new ZipEntry("home/")
+        ));
+        assertThat(zipArchive.listRoot(), containsInAnyOrder(
+                dirPath(archivePath, "home/", "home")
+        ));
+        assertThat(zipArchive.list(dirPath(archivePath, "home/", "home")), containsInAnyOrder(
+                dirPath(archivePath, "home/music/", "music")
+        ));
+        assertEquals(3, zipArchive.listAllEntries().size());
+    }
+
+    @Test
+    public void keepsEntriesAttributesAndNonAsciiNames() {
+        archivePath = new FsPath("/some/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip");
+        String dirName = "d\u00e9j\u00e0";
+        String fileName = "r\u00e9sum\u00e9.txt";
+        ZipEntry entry = new IndexedZipEntry(dirName + "/" + fileName, 42);
+        entry.setMethod(ZipEntry.DEFLATED);
+        entry.setCrc(0xe0da3393L);
+        entry.setSize(100);
+        entry.setCompressedSize(60);
+        zipArchive = new ZipArchive(archivePath, Arrays.asList(
+                entry,
+                new ZipEntry(dirName + "/")
+        ));
+        assertThat(zipArchive.list(dirPath(archivePath, dirName + "/", dirName)), contains(
+                filePath(archivePath, dirName + "/" + fileName, fileName)
+        ));
+        IndexedZipEntry stored = (IndexedZipEntry) zipArchive.getEntry(dirName + "/" + fileName);
+        assertEquals(dirName + "/" + fileName, stored.getName());
+        assertEquals(42, stored.getLocalHeaderOffset());
+        assertEquals(ZipEntry.DEFLATED, stored.getMethod());
+        assertEquals(0xe0da3393L, stored.getCrc());
+        assertEquals(100, stored.getSize());
+        assertEquals(60, stored.getCompressedSize());
+        assertEquals(dirName + "/", zipArchive.getEntry(dirName).getName());
+        assertNull(zipArchive.getEntry(fileName));
+    }
+
     @Test
     public void listsAllEntries() throws IOException, URISyntaxException {
         setUpInsideHomeZip();
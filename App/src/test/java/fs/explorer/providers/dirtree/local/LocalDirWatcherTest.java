@@ -0,0 +1,116 @@
+package fs.explorer.providers.dirtree.local;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.utils.Disposable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LocalDirWatcherTest {
+    private final BlockingQueue<Set<Path>> reports = new LinkedBlockingQueue<>();
+    private LocalDirWatcher watcher;
+    private Path dir;
+    private FsPath dirPath;
+
+    private static final long COALESCE_MILLIS = 300;
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = tmpDir.newFolder("dir").toPath();
+        dirPath = FsPath.fromPath(dir);
+        watcher = new LocalDirWatcher(new LocalDirWatcher.Listener() {
+            @Override
+            public void onEntriesChanged(FsPath directoryPath, Set<Path> entries) {
+                assertEquals(dirPath, directoryPath);
+                reports.add(entries);
+            }
+
+            @Override
+            public void onOverflow(FsPath directoryPath, Path dir) {
+                reports.add(new HashSet<>());
+            }
+        }, COALESCE_MILLIS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        watcher.close();
+    }
+
+    @Test
+    public void reportsCreatedAndDeletedEntries() throws Exception {
+        Path file = Files.createFile(dir.resolve("file"));
+        watcher.watch(dirPath, dir);
+        Path newFile = Files.createFile(dir.resolve("new-file"));
+        Files.delete(file);
+
+        assertEquals(setOf(file, newFile), reports.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void reportsBurstOfChangesOnce() throws Exception {
+        watcher.watch(dirPath, dir);
+        Set<Path> files = new HashSet<>();
+        for (int i = 0; i < 50; ++i) {
+            files.add(Files.createFile(dir.resolve("file" + i)));
+        }
+
+        Set<Path> reported = new HashSet<>();
+        while (reported.size() < files.size()) {
+            Set<Path> entries = reports.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            assertNotNull(entries);
+            reported.addAll(entries);
+        }
+        assertEquals(files, reported);
+        assertNull(reports.poll(2 * COALESCE_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void stopsReportingWhenWatchIsDisposed() throws Exception {
+        Disposable watch = watcher.watch(dirPath, dir);
+        watch.dispose();
+        assertEquals(0, watcher.getWatchedDirectoriesCount());
+        Files.createFile(dir.resolve("file"));
+
+        assertNull(reports.poll(3 * COALESCE_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void watchesDirectoryUntilAllWatchesAreDisposed() throws Exception {
+        Disposable watch1 = watcher.watch(dirPath, dir);
+        Disposable watch2 = watcher.watch(dirPath, dir);
+        watch1.dispose();
+        watch1.dispose();
+        assertEquals(1, watcher.getWatchedDirectoriesCount());
+        Path file = Files.createFile(dir.resolve("file"));
+        assertEquals(setOf(file), reports.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        watch2.dispose();
+        assertEquals(0, watcher.getWatchedDirectoriesCount());
+    }
+
+    private static Set<Path> setOf(Path... paths) {
+        Set<Path> set = new HashSet<>();
+        for (Path path : paths) {
+            set.add(path);
+        }
+        return set;
+    }
+}
@@ -2,21 +2,36 @@ package fs.explorer.providers.dirtree.local;
 
 import fs.explorer.providers.dirtree.path.FsPath;
 import fs.explorer.providers.dirtree.path.TargetType;
+import org.junit.Assume;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.*;
 
 public class LocalFsManagerTest {
     private LocalFsManager localFsManager = new LocalFsManager();
+
+    private static final long MODIFICATION_TIME = 1_500_000_000_000L;
+
     @Rule
     public TemporaryFolder tmpDir = new TemporaryFolder();
 
@@ -72,6 +87,132 @@ public class LocalFsManagerTest {
         ));
     }
 
+    @Test
+    public void listsEntriesWithAttributes() throws IOException {
+        Path dir = tmpDir.newFolder("dir").toPath();
+        Files.createDirectory(dir.resolve("sub"));
+        Path file = Files.write(dir.resolve("file.txt"), new byte[1000]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(MODIFICATION_TIME));
+        Files.write(dir.resolve("arch.zip"), new byte[10]);
+
+        List<FsPath> paths = localFsManager.list(
+                new FsPath(dir.toString(), TargetType.DIRECTORY, "dir"));
+        paths.sort(Comparator.comparing(FsPath::getLastComponent));
+        assertEquals(Arrays.asList(
+                new FsPath(dir.resolve("arch.zip").toString(), TargetType.ZIP_ARCHIVE, "arch.zip"),
+                new FsPath(file.toString(), TargetType.FILE, "file.txt"),
+                new FsPath(dir.resolve("sub").toString(), TargetType.DIRECTORY, "sub")
+        ), paths);
+        assertEquals(10, paths.get(0).getSize());
+        assertEquals(1000, paths.get(1).getSize());
+        assertEquals(MODIFICATION_TIME, paths.get(1).getLastModifiedTime());
+        assertEquals(-1, paths.get(2).getSize());
+        assertTrue(paths.get(2).getLastModifiedTime() > 0);
+    }
+
+    @Test
+    public void listsLinksAsTheirTargets() throws IOException {
+        Path dir = tmpDir.newFolder("dir").toPath();
+        Path target = Files.createDirectory(tmpDir.getRoot().toPath().resolve("target"));
+        try {
+            Files.createSymbolicLink(dir.resolve("link"), target);
+            Files.createSymbolicLink(dir.resolve("broken"), dir.resolve("missing"));
+        } catch (UnsupportedOperationException | IOException e) {
+            Assume.assumeNoException(e);
+        }
+
+        List<FsPath> paths = localFsManager.list(
+                new FsPath(dir.toString(), TargetType.DIRECTORY, "dir"));
+        assertThat(paths, containsInAnyOrder(
+                new FsPath(dir.resolve("link").toString(), TargetType.DIRECTORY, "link"),
+                new FsPath(dir.resolve("broken").toString(), TargetType.FILE, "broken")
+        ));
+    }
+
+    @Test
+    public void listsEntriesInBatches() throws IOException {
+        FsPath dir = newDirWithFiles(25);
+        List<List<FsPath>> batches = new ArrayList<>();
+        localFsManager.list(dir, 10, batches::add);
+
+        assertEquals(Arrays.asList(10, 10, 5),
+                batches.stream().map(List::size).collect(Collectors.toList()));
+        assertEquals(25, batches.stream().flatMap(List::stream).distinct().count());
+    }
+
+    @Test
+    public void listsEmptyDirectoryWithoutBatches() throws IOException {
+        FsPath dir = newDirWithFiles(0);
+        List<List<FsPath>> batches = new ArrayList<>();
+        localFsManager.list(dir, 10, batches::add);
+        assertTrue(batches.isEmpty());
+        assertTrue(localFsManager.list(dir).isEmpty());
+    }
+
+    @Test
+    public void stopsListingBetweenBatchesWhenInterrupted() throws IOException {
+        FsPath dir = newDirWithFiles(25);
+        List<List<FsPath>> batches = new ArrayList<>();
+        try {
+            localFsManager.list(dir, 10, batch -> {
+                batches.add(batch);
+                Thread.currentThread().interrupt();
+            });
+            fail("listing is not interrupted");
+        } catch (InterruptedIOException e) {
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void failsToListOnInterruptedThread() throws IOException {
+        FsPath dir = newDirWithFiles(5);
+        Thread.currentThread().interrupt();
+        try {
+            localFsManager.list(dir);
+            fail("listing is not interrupted");
+        } catch (InterruptedIOException e) {
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    @Test
+    public void reportsChangesOfWatchedDirectory() throws Exception {
+        FsPath dir = newDirWithFiles(2);
+        BlockingQueue<List<FsPath>> changes = new LinkedBlockingQueue<>();
+        localFsManager.setEntriesChangeListener((directoryPath, changedEntries, removedEntries) -> {
+            assertEquals(dir, directoryPath);
+            changes.add(changedEntries);
+            changes.add(removedEntries);
+        });
+        try {
+            localFsManager.watchDirectory(dir);
+            Files.createDirectory(Paths.get(dir.getPath(), "new-dir"));
+            Files.delete(Paths.get(dir.getPath(), "file-0"));
+
+            List<FsPath> changedEntries = new ArrayList<>();
+            List<FsPath> removedEntries = new ArrayList<>();
+            while (changedEntries.isEmpty() || removedEntries.isEmpty()) {
+                List<FsPath> changed = changes.poll(10, TimeUnit.SECONDS);
+                assertNotNull(changed);
+                changedEntries.addAll(changed);
+                removedEntries.addAll(changes.take());
+            }
+            assertEquals(Collections.singletonList(new FsPath(
+                    Paths.get(dir.getPath(), "new-dir").toString(),
+                    TargetType.DIRECTORY, "new-dir")), changedEntries);
+            assertEquals(Collections.singletonList(Paths.get(dir.getPath(), "file-0").toString()),
+                    removedEntries.stream().map(FsPath::getPath).collect(Collectors.toList()));
+        } finally {
+            localFsManager.dispose();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void failsToWatchFile() throws URISyntaxException, IOException {
+        localFsManager.watchDirectory(testFsPath("/testdirs/home/draft.txt", false, ""));
+    }
 
     @Test(expected = IOException.class)
     public void failsToListEntriesOnFile() throws URISyntaxException, IOException {
@@ -118,6 +259,14 @@ public class LocalFsManagerTest {
         });
     }
 
+    private FsPath newDirWithFiles(int count) throws IOException {
+        Path dir = tmpDir.newFolder("dir").toPath();
+        for (int i = 0; i < count; ++i) {
+            Files.createFile(dir.resolve("file-" + i));
+        }
+        return new FsPath(dir.toString(), TargetType.DIRECTORY, "dir");
+    }
+
     private FsPath testFsPath(String relativePath, boolean isDir, String lastComponent)
             throws URISyntaxException {
         Path dirPath = Paths.get(getClass().getResource(relativePath).toURI());
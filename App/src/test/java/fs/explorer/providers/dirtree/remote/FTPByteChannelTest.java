@@ -0,0 +1,114 @@
+package fs.explorer.providers.dirtree.remote;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.providers.dirtree.path.TargetType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.*;
+
+public class FTPByteChannelTest {
+    private TestFTPServer server;
+    private RemoteFsManager remoteFsManager;
+    private byte[] data;
+
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        data = new byte[FILE_SIZE];
+        new Random(42).nextBytes(data);
+        Path root = tmpDir.getRoot().toPath();
+        Files.write(root.resolve("data.bin"), data);
+        server = new TestFTPServer(root);
+        remoteFsManager = new RemoteFsManager(server.getConnectionInfo());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        remoteFsManager.dispose();
+        server.close();
+    }
+
+    @Test
+    public void readsRangesOfRemoteFile() throws IOException {
+        try (SeekableByteChannel channel = remoteFsManager.newByteChannel(dataPath())) {
+            assertNotNull(channel);
+            assertEquals(FILE_SIZE, channel.size());
+            assertArrayEquals(range(3_000_000, 1000), read(channel, 3_000_000, 1000));
+            assertArrayEquals(range(1000, 5000), read(channel, 1000, 5000));
+            // continues the current transfer
+            assertArrayEquals(range(7000, 2000), read(channel, 7000, 2000));
+            assertArrayEquals(range(FILE_SIZE - 10, 10), read(channel, FILE_SIZE - 10, 10));
+        }
+        assertThat(server.getBytesSent(), lessThan((long) FILE_SIZE / 8));
+        assertEquals(3, server.countCommands("REST"));
+    }
+
+    @Test
+    public void readsNothingAtEndOfRemoteFile() throws IOException {
+        try (SeekableByteChannel channel = remoteFsManager.newByteChannel(dataPath())) {
+            channel.position(FILE_SIZE);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+        }
+        assertEquals(0, server.getBytesSent());
+    }
+
+    @Test
+    public void returnsNoChannelForMissingFile() throws IOException {
+        FsPath path = new FsPath("/missing.bin", TargetType.FILE, "missing.bin");
+        assertNull(remoteFsManager.newByteChannel(path));
+    }
+
+    @Test
+    public void readsHeadOfRemoteFile() throws IOException {
+        byte[] head = remoteFsManager.readFileRange(dataPath(), 0, 64 * 1024);
+        assertArrayEquals(range(0, 64 * 1024), head);
+        assertThat(server.getBytesSent(), lessThan((long) FILE_SIZE / 8));
+        assertEquals(0, server.countCommands("REST"));
+    }
+
+    @Test
+    public void readsFileRangesOverOneConnection() throws IOException {
+        assertArrayEquals(range(0, 1000), remoteFsManager.readFileRange(dataPath(), 0, 1000));
+        assertArrayEquals(range(1000, 1000), remoteFsManager.readFileRange(dataPath(), 1000, 1000));
+        assertArrayEquals(range(FILE_SIZE - 10, 10),
+                remoteFsManager.readFileRange(dataPath(), FILE_SIZE - 10, 1000));
+        assertEquals(0, remoteFsManager.readFileRange(dataPath(), FILE_SIZE, 1000).length);
+        assertEquals(1, server.countCommands("USER"));
+        assertEquals(4, server.countCommands("RETR"));
+    }
+
+    private byte[] range(int offset, int length) {
+        return Arrays.copyOfRange(data, offset, offset + length);
+    }
+
+    private static byte[] read(SeekableByteChannel channel, long position, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        channel.position(position);
+        while (buffer.hasRemaining()) {
+            assertNotEquals(-1, channel.read(buffer));
+        }
+        return buffer.array();
+    }
+
+    private static FsPath dataPath() {
+        return new FsPath("/data.bin", TargetType.FILE, "data.bin");
+    }
+}
@@ -0,0 +1,175 @@
+package fs.explorer.providers.dirtree.remote;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.providers.dirtree.path.TargetType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class FTPConnectionPoolTest {
+    private TestFTPServer server;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        Files.write(tmpDir.getRoot().toPath().resolve("file.txt"), "text".getBytes());
+        server = new TestFTPServer(tmpDir.getRoot().toPath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void reusesConnectionOpenedToCheckIt() throws Exception {
+        RemoteFsManager remoteFsManager = new RemoteFsManager(server.getConnectionInfo());
+        try {
+            remoteFsManager.checkConnection();
+            FsPath root = new FsPath("/", TargetType.DIRECTORY, "/");
+            assertEquals(1, remoteFsManager.list(root).size());
+            assertEquals(1, remoteFsManager.list(root).size());
+            FsPath file = new FsPath("/file.txt", TargetType.FILE, "file.txt");
+            assertEquals("text", new String(remoteFsManager.readFile(file)));
+        } finally {
+            remoteFsManager.dispose();
+        }
+        assertEquals(1, server.countCommands("USER"));
+        assertEquals(1, server.countCommands("QUIT"));
+    }
+
+    @Test
+    public void validatesIdleConnections() throws Exception {
+        try (FTPConnectionPool pool = new FTPConnectionPool(
+                server.getConnectionInfo(), 4, 0, FTPConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS)) {
+            pool.release(pool.acquire(), true);
+            pool.release(pool.acquire(), true);
+        }
+        assertEquals(1, server.countCommands("USER"));
+        assertEquals(1, server.countCommands("NOOP"));
+    }
+
+    @Test
+    public void replacesConnectionsDroppedByServer() throws Exception {
+        try (FTPConnectionPool pool = new FTPConnectionPool(
+                server.getConnectionInfo(), 4, 0, FTPConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS)) {
+            pool.release(pool.acquire(), true);
+            server.dropSessions();
+            FTPConnection connection = pool.acquire();
+            assertTrue(connection.sendNoOp());
+            pool.release(connection, true);
+            assertEquals(1, pool.getOpenConnectionsCount());
+        }
+        assertEquals(2, server.countCommands("USER"));
+    }
+
+    @Test
+    public void closesExpiredConnections() throws Exception {
+        try (FTPConnectionPool pool = new FTPConnectionPool(server.getConnectionInfo(), 4, 0, 0)) {
+            pool.release(pool.acquire(), true);
+            pool.release(pool.acquire(), true);
+            assertEquals(1, pool.getOpenConnectionsCount());
+        }
+        assertEquals(2, server.countCommands("USER"));
+        assertEquals(0, server.countCommands("NOOP"));
+    }
+
+    @Test
+    public void doesNotReuseFailedConnections() throws Exception {
+        try (FTPConnectionPool pool = new FTPConnectionPool(server.getConnectionInfo())) {
+            pool.release(pool.acquire(), false);
+            assertEquals(0, pool.getOpenConnectionsCount());
+            pool.release(pool.acquire(), true);
+        }
+        assertEquals(2, server.countCommands("USER"));
+    }
+
+    @Test
+    public void waitsForConnectionOverLimit() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (FTPConnectionPool pool = new FTPConnectionPool(server.getConnectionInfo(), 1,
+                FTPConnectionPool.DEFAULT_VALIDATION_INTERVAL_MILLIS,
+                FTPConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS)) {
+            FTPConnection connection = pool.acquire();
+            Future<FTPConnection> waiting = executor.submit(pool::acquire);
+            try {
+                waiting.get(200, TimeUnit.MILLISECONDS);
+                fail("connection limit exceeded");
+            } catch (TimeoutException e) {
+                // expected
+            }
+            pool.release(connection, true);
+            assertSame(connection, waiting.get(5, TimeUnit.SECONDS));
+            pool.release(connection, true);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, server.countCommands("USER"));
+    }
+
+    @Test
+    public void followsConnectionsLimitOfServer() throws Exception {
+        server.setMaxSessions(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (FTPConnectionPool pool = new FTPConnectionPool(server.getConnectionInfo())) {
+            FTPConnection connection = pool.acquire();
+            Future<FTPConnection> waiting = executor.submit(pool::acquire);
+            try {
+                waiting.get(200, TimeUnit.MILLISECONDS);
+                fail("server connections limit exceeded");
+            } catch (TimeoutException e) {
+                // expected
+            }
+            assertEquals(1, pool.getMaxConnections());
+            pool.release(connection, true);
+            assertSame(connection, waiting.get(5, TimeUnit.SECONDS));
+            pool.release(connection, true);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void raisesConnectionsLimitAfterDelay() throws Exception {
+        server.setMaxSessions(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (FTPConnectionPool pool = new FTPConnectionPool(server.getConnectionInfo(), 4,
+                FTPConnectionPool.DEFAULT_VALIDATION_INTERVAL_MILLIS,
+                FTPConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS, 100)) {
+            FTPConnection connection = pool.acquire();
+            Future<FTPConnection> waiting = executor.submit(pool::acquire);
+            try {
+                waiting.get(50, TimeUnit.MILLISECONDS);
+                fail("server connections limit exceeded");
+            } catch (TimeoutException e) {
+                // expected
+            }
+            server.setMaxSessions(2);
+            FTPConnection other = waiting.get(5, TimeUnit.SECONDS);
+
+            assertNotSame(connection, other);
+            assertEquals(2, pool.getMaxConnections());
+            pool.release(connection, true);
+            pool.release(other, true);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = FTPException.class)
+    public void failsToAcquireFromClosedPool() throws Exception {
+        FTPConnectionPool pool = new FTPConnectionPool(server.getConnectionInfo());
+        pool.close();
+        pool.acquire();
+    }
+}
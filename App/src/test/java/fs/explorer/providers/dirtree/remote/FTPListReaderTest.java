@@ -0,0 +1,146 @@
+package fs.explorer.providers.dirtree.remote;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.providers.dirtree.path.TargetType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasItems;
+import static org.junit.Assert.*;
+
+public class FTPListReaderTest {
+    private TestFTPServer server;
+    private FTPConnectionPool connectionPool;
+    private RemoteFsManager remoteFsManager;
+    private Path root;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        root = tmpDir.getRoot().toPath();
+        server = new TestFTPServer(root);
+        connectionPool = new FTPConnectionPool(server.getConnectionInfo());
+        remoteFsManager = new RemoteFsManager(connectionPool);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        remoteFsManager.dispose();
+        server.close();
+    }
+
+    @Test
+    public void listsDirectoryInBatches() throws IOException {
+        createFiles(25);
+        Files.createDirectory(root.resolve("dir"));
+        Files.createFile(root.resolve("arch.zip"));
+        List<List<FsPath>> batches = new ArrayList<>();
+        remoteFsManager.list(new FsPath("/", TargetType.DIRECTORY, ""), 10, batches::add);
+
+        assertEquals(3, batches.size());
+        assertEquals(10, batches.get(0).size());
+        assertEquals(10, batches.get(1).size());
+        assertEquals(7, batches.get(2).size());
+        List<FsPath> entries = batches.stream()
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+        assertThat(entries, hasItems(
+                new FsPath("/dir", TargetType.DIRECTORY, "dir"),
+                new FsPath("/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip"),
+                new FsPath("/file-0", TargetType.FILE, "file-0"),
+                new FsPath("/file-24", TargetType.FILE, "file-24")
+        ));
+    }
+
+    @Test
+    public void reusesConnectionAfterListing() throws IOException {
+        createFiles(3);
+        FsPath directory = new FsPath("/", TargetType.DIRECTORY, "");
+        assertEquals(3, remoteFsManager.list(directory).size());
+        assertEquals(3, remoteFsManager.list(directory).size());
+        assertEquals(1, server.countCommands("USER"));
+        assertEquals(2, server.countCommands("LIST"));
+    }
+
+    @Test
+    public void stopsListingWhenInterrupted() throws IOException {
+        createFiles(5000);
+        List<List<FsPath>> batches = new ArrayList<>();
+        try {
+            remoteFsManager.list(new FsPath("/", TargetType.DIRECTORY, ""), 100, batch -> {
+                batches.add(batch);
+                Thread.currentThread().interrupt();
+            });
+            fail("listing is not interrupted");
+        } catch (InterruptedIOException e) {
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals(1, batches.size());
+        // the connection is in unknown state after the aborted transfer
+        assertEquals(0, connectionPool.getOpenConnectionsCount());
+    }
+
+    @Test
+    public void keepsAttributesFromMachineListing() throws IOException {
+        server.setMachineListingSupported(true);
+        Path file = Files.write(root.resolve("file"), new byte[123]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1_500_000_000_123L));
+        Files.createDirectory(root.resolve("dir"));
+        List<FsPath> entries = remoteFsManager.list(new FsPath("/", TargetType.DIRECTORY, ""));
+
+        // the directory itself and its parent are not listed
+        assertThat(entries, containsInAnyOrder(
+                new FsPath("/dir", TargetType.DIRECTORY, "dir"),
+                new FsPath("/file", TargetType.FILE, "file")
+        ));
+        FsPath filePath = entries.stream()
+                .filter(e -> !e.isDirectory())
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        assertEquals(123, filePath.getSize());
+        assertEquals(1_500_000_000_123L, filePath.getLastModifiedTime());
+        assertEquals(1, server.countCommands("MLSD"));
+        assertEquals(0, server.countCommands("LIST"));
+    }
+
+    @Test
+    public void keepsOnlySizesFromListOutput() throws IOException {
+        Path file = Files.write(root.resolve("file"), new byte[123]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1_500_000_000_123L));
+        List<FsPath> entries = remoteFsManager.list(new FsPath("/", TargetType.DIRECTORY, ""));
+
+        assertEquals(1, entries.size());
+        assertEquals(123, entries.get(0).getSize());
+        assertEquals(-1, entries.get(0).getLastModifiedTime());
+        assertEquals(0, server.countCommands("MLSD"));
+        assertEquals(1, server.countCommands("LIST"));
+    }
+
+    @Test
+    public void listsNothingInEmptyDirectory() throws IOException {
+        List<List<FsPath>> batches = new ArrayList<>();
+        remoteFsManager.list(new FsPath("/", TargetType.DIRECTORY, ""), 10, batches::add);
+        assertEquals(0, batches.size());
+    }
+
+    private void createFiles(int count) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            Files.createFile(root.resolve("file-" + i));
+        }
+    }
+}
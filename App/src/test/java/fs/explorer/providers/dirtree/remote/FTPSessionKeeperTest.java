@@ -0,0 +1,129 @@
+package fs.explorer.providers.dirtree.remote;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.providers.dirtree.path.TargetType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class FTPSessionKeeperTest {
+    private TestFTPServer server;
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        Files.write(tmpDir.getRoot().toPath().resolve("file.txt"), "text".getBytes());
+        server = new TestFTPServer(tmpDir.getRoot().toPath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void opensConnectionsInBackground() throws Exception {
+        try (FTPConnectionPool pool = new FTPConnectionPool(server.getConnectionInfo());
+             FTPSessionKeeper keeper = new FTPSessionKeeper(pool, 3, 60_000)) {
+            keeper.start();
+            waitUntil(() -> pool.getIdleConnectionsCount() == 3);
+            FTPConnection[] connections = new FTPConnection[3];
+            for (int i = 0; i < connections.length; ++i) {
+                connections[i] = pool.acquire();
+            }
+            for (FTPConnection connection : connections) {
+                pool.release(connection, true);
+            }
+            assertEquals(3, pool.getOpenConnectionsCount());
+        }
+        assertEquals(3, server.countCommands("USER"));
+    }
+
+    @Test
+    public void doesNotOpenMoreConnectionsThanPoolLimit() throws Exception {
+        try (FTPConnectionPool pool = new FTPConnectionPool(server.getConnectionInfo(), 2,
+                FTPConnectionPool.DEFAULT_VALIDATION_INTERVAL_MILLIS,
+                FTPConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS);
+             FTPSessionKeeper keeper = new FTPSessionKeeper(pool, 4, 60_000)) {
+            keeper.start();
+            waitUntil(() -> pool.getIdleConnectionsCount() == 2);
+            Thread.sleep(100);
+            assertEquals(2, pool.getOpenConnectionsCount());
+        }
+        assertEquals(2, server.countCommands("USER"));
+    }
+
+    @Test
+    public void keepsIdleConnectionsAlive() throws Exception {
+        try (FTPConnectionPool pool = new FTPConnectionPool(
+                server.getConnectionInfo(), 4, 0, 300);
+             FTPSessionKeeper keeper = new FTPSessionKeeper(pool, 1, 100)) {
+            keeper.start();
+            waitUntil(() -> server.countCommands("NOOP") >= 5);
+            assertEquals(1, pool.getOpenConnectionsCount());
+        }
+        assertEquals(1, server.countCommands("USER"));
+    }
+
+    @Test
+    public void letsConnectionsOverWarmOnesExpire() throws Exception {
+        try (FTPConnectionPool pool = new FTPConnectionPool(
+                server.getConnectionInfo(), 4, 0, 300);
+             FTPSessionKeeper keeper = new FTPSessionKeeper(pool, 1, 100)) {
+            FTPConnection first = pool.acquire();
+            FTPConnection second = pool.acquire();
+            pool.release(first, true);
+            pool.release(second, true);
+            keeper.start();
+            waitUntil(() -> server.countCommands("QUIT") == 1);
+            assertEquals(1, pool.getOpenConnectionsCount());
+        }
+    }
+
+    @Test
+    public void closesConnectionsOnDispose() throws Exception {
+        FTPConnectionPool pool = new FTPConnectionPool(server.getConnectionInfo());
+        RemoteFsManager remoteFsManager = new RemoteFsManager(pool);
+        remoteFsManager.checkConnection();
+        remoteFsManager.keepSessionAlive(2, 100);
+        waitUntil(() -> pool.getIdleConnectionsCount() == 2);
+        FsPath root = new FsPath("/", TargetType.DIRECTORY, "/");
+        assertEquals(1, remoteFsManager.list(root).size());
+        remoteFsManager.dispose();
+        assertEquals(2, server.countCommands("QUIT"));
+
+        int noOpsCount = server.countCommands("NOOP");
+        Thread.sleep(300);
+        assertEquals(noOpsCount, server.countCommands("NOOP"));
+        assertEquals(2, server.countCommands("USER"));
+    }
+
+    @Test
+    public void doesNotKeepSessionOfDisposedManager() throws Exception {
+        RemoteFsManager remoteFsManager = new RemoteFsManager(server.getConnectionInfo());
+        remoteFsManager.dispose();
+        remoteFsManager.keepSessionAlive(2, 100);
+        Thread.sleep(300);
+        assertEquals(0, server.countCommands("USER"));
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue("condition is not met in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package fs.explorer.providers.dirtree.remote;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.providers.dirtree.path.TargetType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.*;
+
+public class FTPTransferSettingsTest {
+    private TestFTPServer server;
+    private Path root;
+    private byte[] text;
+    private final List<RemoteFsManager> fsManagers = new ArrayList<>();
+
+    private static final FsPath ROOT_DIR = new FsPath("/", TargetType.DIRECTORY, "");
+    private static final FsPath TEXT_FILE = new FsPath("/file.txt", TargetType.FILE, "file.txt");
+    private static final int TEXT_SIZE = 100_000;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        root = tmpDir.getRoot().toPath();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < TEXT_SIZE; ++i) {
+            sb.append("line ").append(i).append('\n');
+        }
+        text = sb.substring(0, TEXT_SIZE).getBytes(StandardCharsets.US_ASCII);
+        Files.write(root.resolve("file.txt"), text);
+        server = new TestFTPServer(root);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fsManagers.forEach(RemoteFsManager::dispose);
+        server.close();
+    }
+
+    @Test
+    public void readsCompressedFiles() throws IOException {
+        server.setCompressionSupported(true);
+        RemoteFsManager fsManager = newFsManager(new FTPTransferSettings());
+        assertArrayEquals(text, fsManager.readFile(TEXT_FILE));
+        assertArrayEquals(text, fsManager.readFile(TEXT_FILE));
+        assertEquals(1, server.countCommands("MODE Z"));
+        assertThat(server.getBytesSent(), lessThan(2L * TEXT_SIZE / 4));
+    }
+
+    @Test
+    public void readsRangesOfCompressedFiles() throws IOException {
+        server.setCompressionSupported(true);
+        RemoteFsManager fsManager = newFsManager(new FTPTransferSettings());
+        assertArrayEquals(Arrays.copyOfRange(text, 50_000, 51_000),
+                fsManager.readFileRange(TEXT_FILE, 50_000, 1000));
+        assertEquals(1, server.countCommands("MODE Z"));
+    }
+
+    @Test
+    public void listsDirectoriesCompressed() throws IOException {
+        for (int i = 0; i < 100; ++i) {
+            Files.createFile(root.resolve("file-" + i));
+        }
+        server.setCompressionSupported(true);
+        RemoteFsManager fsManager = newFsManager(new FTPTransferSettings());
+        assertEquals(101, fsManager.list(ROOT_DIR).size());
+        assertEquals(1, server.countCommands("MODE Z"));
+    }
+
+    @Test
+    public void doesNotCompressIfServerDoesNotSupportIt() throws IOException {
+        RemoteFsManager fsManager = newFsManager(new FTPTransferSettings());
+        assertArrayEquals(text, fsManager.readFile(TEXT_FILE));
+        assertEquals(0, server.countCommands("MODE"));
+        assertEquals(TEXT_SIZE, server.getBytesSent());
+    }
+
+    @Test
+    public void doesNotCompressIfDisabled() throws IOException {
+        server.setCompressionSupported(true);
+        RemoteFsManager fsManager = newFsManager(new FTPTransferSettings(
+                1024, 0, 0, false, 0, false));
+        assertArrayEquals(text, fsManager.readFile(TEXT_FILE));
+        assertEquals(0, server.countCommands("MODE"));
+        assertEquals(TEXT_SIZE, server.getBytesSent());
+    }
+
+    @Test
+    public void usesPassiveMode() throws IOException {
+        RemoteFsManager fsManager = newFsManager(new FTPTransferSettings(
+                1024, 32 * 1024, 32 * 1024, true, 0, false));
+        assertArrayEquals(text, fsManager.readFile(TEXT_FILE));
+        assertEquals(1, fsManager.list(ROOT_DIR).size());
+        assertEquals(2, server.countCommands("PASV"));
+        assertEquals(0, server.countCommands("PORT"));
+    }
+
+    @Test
+    public void failsIfServerDoesNotSendDataInTime() {
+        server.setDataDelayMillis(60_000);
+        RemoteFsManager fsManager = newFsManager(new FTPTransferSettings(
+                1024, 0, 0, false, 200, 200, false));
+        try {
+            fsManager.readFile(TEXT_FILE);
+            fail("read does not time out");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void doesNotTimeOutRepliesToLongTransfers() throws IOException {
+        server.setBandwidthLimit(200_000);
+        RemoteFsManager fsManager = newFsManager(new FTPTransferSettings(
+                1024, 0, 0, false, 0, 200, false));
+        // the transfer takes about half a second
+        assertArrayEquals(text, fsManager.readFile(TEXT_FILE));
+    }
+
+    @Test
+    public void sendsLessDataOfCompressedFiles() throws IOException {
+        server.setCompressionSupported(true);
+        RemoteFsManager plainFsManager = newFsManager(new FTPTransferSettings(
+                FTPTransferSettings.DEFAULT_BUFFER_SIZE, 0, 0, false, 0, false));
+        assertArrayEquals(text, plainFsManager.readFile(TEXT_FILE));
+        long plainBytesSent = server.getBytesSent();
+
+        server.resetBytesSent();
+        RemoteFsManager compressingFsManager = newFsManager(new FTPTransferSettings());
+        assertArrayEquals(text, compressingFsManager.readFile(TEXT_FILE));
+        long compressedBytesSent = server.getBytesSent();
+
+        assertEquals(TEXT_SIZE, plainBytesSent);
+        assertThat(2 * compressedBytesSent, lessThan(plainBytesSent));
+    }
+
+    private RemoteFsManager newFsManager(FTPTransferSettings settings) {
+        RemoteFsManager fsManager = new RemoteFsManager(server.getConnectionInfo(settings));
+        fsManagers.add(fsManager);
+        return fsManager;
+    }
+}
@@ -0,0 +1,120 @@
+package fs.explorer.providers.dirtree.remote;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.providers.dirtree.path.TargetType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class InterruptibleSocketFactoryTest {
+    private TestFTPServer server;
+    private FTPConnectionPool connectionPool;
+    private RemoteFsManager remoteFsManager;
+    private ExecutorService executor;
+    private Path root;
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private static final FsPath FILE_PATH = new FsPath("/file", TargetType.FILE, "file");
+    // operations would wait for the server this long if they were not aborted
+    private static final long SERVER_DELAY_MILLIS = 60_000;
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        root = tmpDir.getRoot().toPath();
+        Files.write(root.resolve("file"), new byte[100_000]);
+        server = new TestFTPServer(root);
+        connectionPool = new FTPConnectionPool(server.getConnectionInfo());
+        remoteFsManager = new RemoteFsManager(connectionPool);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        remoteFsManager.dispose();
+        server.close();
+    }
+
+    @Test
+    public void abortsFileReadWhenCancelled() throws Exception {
+        server.setDataDelayMillis(SERVER_DELAY_MILLIS);
+        Future<?> read = start(() -> remoteFsManager.readFile(FILE_PATH));
+        awaitCommand("RETR");
+        assertAbortedAtOnce(read);
+    }
+
+    @Test
+    public void abortsRangeReadWhenCancelled() throws Exception {
+        server.setDataDelayMillis(SERVER_DELAY_MILLIS);
+        Future<?> read = start(() -> remoteFsManager.readFileRange(FILE_PATH, 1000, 1000));
+        awaitCommand("RETR");
+        assertAbortedAtOnce(read);
+    }
+
+    @Test
+    public void abortsListingWhenCancelled() throws Exception {
+        server.setDataDelayMillis(SERVER_DELAY_MILLIS);
+        Future<?> listing = start(() ->
+                remoteFsManager.list(new FsPath("/", TargetType.DIRECTORY, "")));
+        awaitCommand("LIST");
+        assertAbortedAtOnce(listing);
+    }
+
+    @Test
+    public void readsFileAfterCancelledRead() throws Exception {
+        server.setDataDelayMillis(SERVER_DELAY_MILLIS);
+        Future<?> read = start(() -> remoteFsManager.readFile(FILE_PATH));
+        awaitCommand("RETR");
+        assertAbortedAtOnce(read);
+
+        server.setDataDelayMillis(0);
+        assertEquals(100_000, remoteFsManager.readFile(FILE_PATH).length);
+        assertEquals(2, server.countCommands("USER"));
+    }
+
+    private Future<?> start(Callable<?> operation) {
+        return executor.submit(() -> {
+            try {
+                return operation.call();
+            } catch (Exception e) {
+                failure.set(e);
+                throw e;
+            } finally {
+                finished.countDown();
+            }
+        });
+    }
+
+    private void awaitCommand(String command) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (server.countCommands(command) == 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void assertAbortedAtOnce(Future<?> operation) throws InterruptedException {
+        operation.cancel(true);
+        assertTrue(finished.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(failure.get() instanceof InterruptedIOException);
+        // the connection is in unknown state after the aborted operation
+        assertEquals(0, connectionPool.getOpenConnectionsCount());
+    }
+}
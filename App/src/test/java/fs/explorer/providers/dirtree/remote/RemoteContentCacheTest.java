@@ -0,0 +1,195 @@
+package fs.explorer.providers.dirtree.remote;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.providers.dirtree.path.TargetType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class RemoteContentCacheTest {
+    private TestFTPServer server;
+    private RemoteContentCache contentCache;
+    private RemoteFsManager remoteFsManager;
+    private Path root;
+
+    private static final long MODIFICATION_TIME = 1_500_000_000_000L;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        root = tmpDir.getRoot().toPath();
+        server = new TestFTPServer(root);
+        contentCache = new RemoteContentCache(10_000);
+        remoteFsManager = new RemoteFsManager(server.getConnectionInfo(), null, contentCache);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        remoteFsManager.dispose();
+        contentCache.clear();
+        server.close();
+    }
+
+    @Test
+    public void readsUnchangedFileOnce() throws IOException {
+        byte[] data = writeFile("file", 1000, MODIFICATION_TIME);
+        assertArrayEquals(data, remoteFsManager.readFile(listedPath("file")));
+        assertArrayEquals(data, remoteFsManager.readFile(listedPath("file")));
+        assertEquals(1, server.countCommands("RETR"));
+    }
+
+    @Test
+    public void readsChangedFileAgain() throws IOException {
+        writeFile("file", 1000, MODIFICATION_TIME);
+        remoteFsManager.readFile(listedPath("file"));
+        byte[] data = writeFile("file", 1000, MODIFICATION_TIME + 5000);
+        assertArrayEquals(data, remoteFsManager.readFile(listedPath("file")));
+        assertEquals(2, server.countCommands("RETR"));
+    }
+
+    @Test
+    public void streamsUnlistedFileWithoutCaching() throws IOException {
+        byte[] data = writeFile("file", 1000, MODIFICATION_TIME);
+        assertArrayEquals(data, remoteFsManager.readFile(filePath("file")));
+        assertArrayEquals(data, remoteFsManager.readFile(filePath("file")));
+        assertEquals(2, server.countCommands("RETR"));
+        assertEquals(0, server.countCommands("SIZE"));
+        assertEquals(0, server.countCommands("MDTM"));
+    }
+
+    @Test
+    public void readsCachedCopyOfUnlistedFile() throws IOException {
+        byte[] data = writeFile("file", 1000, MODIFICATION_TIME);
+        remoteFsManager.readFile(listedPath("file"));
+        assertArrayEquals(data, remoteFsManager.readFile(filePath("file")));
+        assertEquals(1, server.countCommands("RETR"));
+        assertEquals(1, server.countCommands("MDTM"));
+    }
+
+    @Test
+    public void usesSizesAndTimesFromListing() throws IOException {
+        byte[] data = writeFile("file", 1000, MODIFICATION_TIME);
+        FsPath listedPath = new FsPath(
+                "/file", TargetType.FILE, "file", 1000, MODIFICATION_TIME);
+        assertArrayEquals(data, remoteFsManager.readFile(listedPath));
+        assertArrayEquals(data, remoteFsManager.readFile(listedPath));
+        assertEquals(1, server.countCommands("RETR"));
+        assertEquals(0, server.countCommands("SIZE"));
+        assertEquals(0, server.countCommands("MDTM"));
+    }
+
+    @Test
+    public void readsFileRangesFromCachedFile() throws IOException {
+        byte[] data = writeFile("file", 1000, MODIFICATION_TIME);
+        remoteFsManager.readFile(listedPath("file"));
+        assertArrayEquals(Arrays.copyOfRange(data, 100, 200),
+                remoteFsManager.readFileRange(filePath("file"), 100, 100));
+        assertArrayEquals(Arrays.copyOfRange(data, 900, 1000),
+                remoteFsManager.readFileRange(filePath("file"), 900, 500));
+        assertEquals(1, server.countCommands("RETR"));
+    }
+
+    @Test
+    public void doesNotCacheFileRanges() throws IOException {
+        writeFile("file", 1000, MODIFICATION_TIME);
+        remoteFsManager.readFileRange(filePath("file"), 0, 100);
+        remoteFsManager.readFileRange(filePath("file"), 0, 100);
+        assertEquals(2, server.countCommands("RETR"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyReadFiles() throws IOException {
+        writeFile("file-1", 4000, MODIFICATION_TIME);
+        writeFile("file-2", 4000, MODIFICATION_TIME);
+        writeFile("file-3", 4000, MODIFICATION_TIME);
+        remoteFsManager.readFile(listedPath("file-1"));
+        remoteFsManager.readFile(listedPath("file-2"));
+        remoteFsManager.readFile(listedPath("file-1"));
+        remoteFsManager.readFile(listedPath("file-3"));
+        assertEquals(3, server.countCommands("RETR"));
+        remoteFsManager.readFile(listedPath("file-1"));
+        assertEquals(3, server.countCommands("RETR"));
+        remoteFsManager.readFile(listedPath("file-2"));
+        assertEquals(4, server.countCommands("RETR"));
+    }
+
+    @Test
+    public void doesNotCacheFilesOverLimit() throws IOException {
+        byte[] data = writeFile("file", 20_000, MODIFICATION_TIME);
+        assertArrayEquals(data, remoteFsManager.readFile(listedPath("file")));
+        assertArrayEquals(data, remoteFsManager.readFile(listedPath("file")));
+        assertEquals(2, server.countCommands("RETR"));
+    }
+
+    @Test
+    public void downloadsFileOnceForConcurrentReads() throws Exception {
+        byte[] data = writeFile("file", 8000, MODIFICATION_TIME);
+        FsPath listedPath = listedPath("file");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<byte[]>> reads = new ArrayList<>();
+            for (int i = 0; i < 4; ++i) {
+                reads.add(executor.submit(() -> {
+                    start.await();
+                    return remoteFsManager.readFile(listedPath);
+                }));
+            }
+            start.countDown();
+            for (Future<byte[]> read : reads) {
+                assertArrayEquals(data, read.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, server.countCommands("RETR"));
+    }
+
+    @Test
+    public void readsSmallArchivesFromCachedFiles() throws IOException {
+        writeFile("arch.zip", 1000, MODIFICATION_TIME);
+        FsPath archivePath = new FsPath("/arch.zip", TargetType.ZIP_ARCHIVE, "arch.zip");
+        for (int i = 0; i < 2; ++i) {
+            try (SeekableByteChannel channel = remoteFsManager.newByteChannel(archivePath)) {
+                assertNotNull(channel);
+                assertEquals(1000, channel.size());
+            }
+        }
+        assertEquals(1, server.countCommands("RETR"));
+    }
+
+    private byte[] writeFile(String name, int size, long lastModifiedTime) throws IOException {
+        byte[] data = new byte[size];
+        new Random(lastModifiedTime).nextBytes(data);
+        Path file = Files.write(root.resolve(name), data);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModifiedTime));
+        return data;
+    }
+
+    private static FsPath filePath(String name) {
+        return new FsPath("/" + name, TargetType.FILE, name);
+    }
+
+    private FsPath listedPath(String name) throws IOException {
+        Path file = root.resolve(name);
+        return new FsPath("/" + name, TargetType.FILE, name,
+                Files.size(file), Files.getLastModifiedTime(file).toMillis());
+    }
+}
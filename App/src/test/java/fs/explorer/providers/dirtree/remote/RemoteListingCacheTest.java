@@ -0,0 +1,166 @@
+package fs.explorer.providers.dirtree.remote;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.providers.dirtree.path.TargetType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.*;
+
+public class RemoteListingCacheTest {
+    private TestFTPServer server;
+    private Path root;
+    private final List<RemoteFsManager> fsManagers = new ArrayList<>();
+
+    private static final FsPath ROOT_DIR = new FsPath("/", TargetType.DIRECTORY, "");
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        root = tmpDir.newFolder("root").toPath();
+        Files.createFile(root.resolve("file-1"));
+        server = new TestFTPServer(root);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fsManagers.forEach(RemoteFsManager::dispose);
+        server.close();
+    }
+
+    @Test
+    public void listsDirectoryOnceWithinTimeToLive() throws IOException {
+        RemoteListingCache cache = new RemoteListingCache(60_000, 1000);
+        assertEquals(1, newFsManager(cache).list(ROOT_DIR).size());
+        Files.createFile(root.resolve("file-2"));
+        assertEquals(1, newFsManager(cache).list(ROOT_DIR).size());
+        assertEquals(1, server.countCommands("LIST"));
+    }
+
+    @Test
+    public void returnsExpiredListingAndReportsNewOne() throws Exception {
+        RemoteListingCache cache = new RemoteListingCache(0, 1000);
+        RemoteFsManager fsManager = newFsManager(cache);
+        List<FsPath> updatedEntries = new ArrayList<>();
+        CountDownLatch updated = new CountDownLatch(1);
+        fsManager.setListingUpdateListener((directoryPath, entries) -> {
+            assertEquals(ROOT_DIR, directoryPath);
+            updatedEntries.addAll(entries);
+            updated.countDown();
+        });
+        assertEquals(1, fsManager.list(ROOT_DIR).size());
+        Files.createFile(root.resolve("file-2"));
+        assertEquals(1, fsManager.list(ROOT_DIR).size());
+
+        assertTrue(updated.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertThat(updatedEntries, containsInAnyOrder(
+                new FsPath("/file-1", TargetType.FILE, "file-1"),
+                new FsPath("/file-2", TargetType.FILE, "file-2")
+        ));
+        assertEquals(2, cache.get(server.getConnectionInfo(), "/").getEntries().size());
+    }
+
+    @Test
+    public void doesNotReportUnchangedListing() throws Exception {
+        RemoteListingCache cache = new RemoteListingCache(0, 1000);
+        RemoteFsManager fsManager = newFsManager(cache);
+        AtomicBoolean isUpdated = new AtomicBoolean();
+        fsManager.setListingUpdateListener((directoryPath, entries) -> isUpdated.set(true));
+        fsManager.list(ROOT_DIR);
+        long listingTime = cache.get(server.getConnectionInfo(), "/").getListingTime();
+        Thread.sleep(10);
+        fsManager.list(ROOT_DIR);
+
+        awaitListingUpdate(cache, listingTime);
+        assertFalse(isUpdated.get());
+        assertEquals(2, server.countCommands("LIST"));
+    }
+
+    @Test
+    public void reportsChangedSizesOfEntries() throws Exception {
+        RemoteListingCache cache = new RemoteListingCache(0, 1000);
+        RemoteFsManager fsManager = newFsManager(cache);
+        List<FsPath> updatedEntries = new ArrayList<>();
+        CountDownLatch updated = new CountDownLatch(1);
+        fsManager.setListingUpdateListener((directoryPath, entries) -> {
+            updatedEntries.addAll(entries);
+            updated.countDown();
+        });
+        fsManager.list(ROOT_DIR);
+        Files.write(root.resolve("file-1"), new byte[10]);
+        fsManager.list(ROOT_DIR);
+
+        assertTrue(updated.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(1, updatedEntries.size());
+        assertEquals(10, updatedEntries.get(0).getSize());
+    }
+
+    @Test
+    public void listsDirectoryAgainAfterInvalidation() throws IOException {
+        RemoteListingCache cache = new RemoteListingCache(60_000, 1000);
+        RemoteFsManager fsManager = newFsManager(cache);
+        fsManager.list(ROOT_DIR);
+        Files.createFile(root.resolve("file-2"));
+        fsManager.invalidateListing(ROOT_DIR);
+        assertEquals(2, fsManager.list(ROOT_DIR).size());
+        assertEquals(2, server.countCommands("LIST"));
+    }
+
+    @Test
+    public void keepsListingsOfHostsApart() throws IOException {
+        Path otherRoot = tmpDir.newFolder("other").toPath();
+        try (TestFTPServer otherServer = new TestFTPServer(otherRoot)) {
+            RemoteListingCache cache = new RemoteListingCache(60_000, 1000);
+            RemoteFsManager otherFsManager =
+                    new RemoteFsManager(otherServer.getConnectionInfo(), cache);
+            fsManagers.add(otherFsManager);
+            assertEquals(1, newFsManager(cache).list(ROOT_DIR).size());
+            assertEquals(0, otherFsManager.list(ROOT_DIR).size());
+            assertEquals(1, otherServer.countCommands("LIST"));
+        }
+    }
+
+    @Test
+    public void evictsListingsOverLimit() throws IOException {
+        Files.createDirectory(root.resolve("dir"));
+        Files.createFile(root.resolve("dir/file-2"));
+        Files.createFile(root.resolve("dir/file-3"));
+        RemoteListingCache cache = new RemoteListingCache(60_000, 3);
+        RemoteFsManager fsManager = newFsManager(cache);
+        fsManager.list(ROOT_DIR);
+        fsManager.list(new FsPath("/dir", TargetType.DIRECTORY, "dir"));
+        fsManager.list(ROOT_DIR);
+        assertEquals(3, server.countCommands("LIST"));
+    }
+
+    private RemoteFsManager newFsManager(RemoteListingCache cache) {
+        RemoteFsManager fsManager = new RemoteFsManager(server.getConnectionInfo(), cache);
+        fsManagers.add(fsManager);
+        return fsManager;
+    }
+
+    private void awaitListingUpdate(RemoteListingCache cache, long listingTime)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (cache.get(server.getConnectionInfo(), "/").getListingTime() == listingTime) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package fs.explorer.providers.dirtree.remote;
+
+import fs.explorer.providers.dirtree.path.FsPath;
+import fs.explorer.providers.dirtree.path.TargetType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class SegmentedDownloadTest {
+    private TestFTPServer server;
+    private FTPConnectionPool connectionPool;
+    private ExecutorService executor;
+    private Path root;
+    private Path target;
+
+    private static final int FILE_SIZE = 100_000;
+    private static final long MODIFICATION_TIME = 1_500_000_000_000L;
+    private static final long SEGMENT_SIZE = 10_000;
+    private static final long PROGRESS_INTERVAL_MILLIS = 10;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        root = tmpDir.newFolder("root").toPath();
+        target = tmpDir.newFolder("local").toPath().resolve("file");
+        server = new TestFTPServer(root);
+        connectionPool = new FTPConnectionPool(server.getConnectionInfo());
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        connectionPool.close();
+        server.close();
+    }
+
+    @Test
+    public void downloadsFileBySegments() throws IOException {
+        byte[] data = writeFile(FILE_SIZE, MODIFICATION_TIME);
+        newDownload(SEGMENT_SIZE).run((downloaded, total) -> {});
+
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertEquals(FTPConnectionPool.DEFAULT_MAX_CONNECTIONS, server.countCommands("RETR"));
+        // the first segment starts at the beginning of the file
+        assertEquals(FTPConnectionPool.DEFAULT_MAX_CONNECTIONS - 1, server.countCommands("REST"));
+        assertFalse(Files.exists(SegmentedDownload.getStateFile(target)));
+    }
+
+    @Test
+    public void downloadsSmallFileOverOneConnection() throws IOException {
+        byte[] data = writeFile(15_000, MODIFICATION_TIME);
+        newDownload(15_000, SEGMENT_SIZE).run((downloaded, total) -> {});
+
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertEquals(1, server.countCommands("RETR"));
+        assertEquals(0, server.countCommands("REST"));
+    }
+
+    @Test
+    public void downloadsEmptyFile() throws IOException {
+        writeFile(0, MODIFICATION_TIME);
+        List<Long> progress = new ArrayList<>();
+        newDownload(0, SEGMENT_SIZE).run((downloaded, total) -> progress.add(downloaded));
+
+        assertEquals(0, Files.size(target));
+        assertEquals(0, server.countCommands("RETR"));
+        assertEquals(1, progress.size());
+    }
+
+    @Test
+    public void overwritesLargerTargetFile() throws IOException {
+        byte[] data = writeFile(FILE_SIZE, MODIFICATION_TIME);
+        Files.write(target, new byte[2 * FILE_SIZE]);
+        newDownload(SEGMENT_SIZE).run((downloaded, total) -> {});
+        assertArrayEquals(data, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void reportsProgress() throws IOException {
+        writeFile(FILE_SIZE, MODIFICATION_TIME);
+        server.setDataDelayMillis(5);
+        List<Long> progress = new ArrayList<>();
+        newDownload(SEGMENT_SIZE).run((downloaded, total) -> {
+            assertEquals(FILE_SIZE, total);
+            progress.add(downloaded);
+        });
+
+        assertTrue(progress.size() > 1);
+        for (int i = 1; i < progress.size(); ++i) {
+            assertTrue(progress.get(i - 1) <= progress.get(i));
+        }
+        assertEquals(FILE_SIZE, (long) progress.get(progress.size() - 1));
+    }
+
+    @Test
+    public void continuesStoppedDownload() throws IOException {
+        byte[] data = writeFile(FILE_SIZE, MODIFICATION_TIME);
+        stopHalfwayThrough();
+        assertTrue(Files.exists(SegmentedDownload.getStateFile(target)));
+
+        server.setDataDelayMillis(0);
+        int commandsCount = server.getCommands().size();
+        newDownload(SEGMENT_SIZE).run((downloaded, total) -> {});
+
+        assertArrayEquals(data, Files.readAllBytes(target));
+        // every segment is continued from where it stopped
+        List<String> restCommands = server.getCommands()
+                .subList(commandsCount, server.getCommands().size()).stream()
+                .filter(command -> command.startsWith("REST"))
+                .collect(Collectors.toList());
+        assertEquals(FTPConnectionPool.DEFAULT_MAX_CONNECTIONS, restCommands.size());
+        assertTrue(Collections.disjoint(
+                restCommands, Arrays.asList("REST 25000", "REST 50000", "REST 75000")));
+        assertFalse(Files.exists(SegmentedDownload.getStateFile(target)));
+    }
+
+    @Test
+    public void startsOverIfFileChanged() throws IOException {
+        writeFile(FILE_SIZE, MODIFICATION_TIME);
+        stopHalfwayThrough();
+
+        byte[] data = writeFile(FILE_SIZE, MODIFICATION_TIME + 5000);
+        server.setDataDelayMillis(0);
+        server.resetBytesSent();
+        new SegmentedDownload(connectionPool, executor, "/file", target,
+                new RemoteContentCache.FileVersion(FILE_SIZE, MODIFICATION_TIME + 5000),
+                SEGMENT_SIZE, PROGRESS_INTERVAL_MILLIS).run((downloaded, total) -> {});
+
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertTrue(server.getBytesSent() >= FILE_SIZE);
+    }
+
+    @Test
+    public void downloadsSegmentsOverSeveralConnectionsAtOnce() throws IOException {
+        int size = 2 * FILE_SIZE;
+        byte[] data = writeFile(size, MODIFICATION_TIME);
+        // keeps every segment transfer long enough for the others to start
+        server.setDataDelayMillis(5);
+
+        newDownload(size, SEGMENT_SIZE).run((downloaded, total) -> {});
+
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertEquals(FTPConnectionPool.DEFAULT_MAX_CONNECTIONS, server.getMaxTransfersCount());
+    }
+
+    @Test
+    public void downloadsFileWithRemoteFsManager() throws IOException {
+        byte[] data = writeFile(FILE_SIZE, MODIFICATION_TIME);
+        RemoteFsManager remoteFsManager = new RemoteFsManager(connectionPool);
+        List<Long> progress = new ArrayList<>();
+        remoteFsManager.downloadFile(new FsPath("/file", TargetType.FILE, "file"), target,
+                (downloaded, total) -> progress.add(downloaded));
+
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertEquals(FILE_SIZE, (long) progress.get(progress.size() - 1));
+    }
+
+    private void stopHalfwayThrough() throws IOException {
+        server.setDataDelayMillis(20);
+        try {
+            newDownload(SEGMENT_SIZE).run((downloaded, total) -> {
+                if (downloaded >= total / 2) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            fail("download is not interrupted");
+        } catch (InterruptedIOException e) {
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    private SegmentedDownload newDownload(long minSegmentSize) {
+        return newDownload(FILE_SIZE, minSegmentSize);
+    }
+
+    private SegmentedDownload newDownload(long size, long minSegmentSize) {
+        return new SegmentedDownload(connectionPool, executor, "/file", target,
+                new RemoteContentCache.FileVersion(size, MODIFICATION_TIME),
+                minSegmentSize, PROGRESS_INTERVAL_MILLIS);
+    }
+
+    private byte[] writeFile(int size, long lastModifiedTime) throws IOException {
+        byte[] data = new byte[size];
+        new Random(lastModifiedTime).nextBytes(data);
+        Path file = Files.write(root.resolve("file"), data);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModifiedTime));
+        return data;
+    }
+}
@@ -0,0 +1,506 @@
+package fs.explorer.providers.dirtree.remote;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Minimal FTP server that serves files of a local directory,
+ * so remote file system code can be tested without network access.
+ * It counts bytes sent over data connections, tracks how many files are sent at once
+ * and records received commands.
+ */
+public class TestFTPServer implements AutoCloseable {
+    private final Path rootDirectory;
+    private final ServerSocket serverSocket;
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final List<String> commands = Collections.synchronizedList(new ArrayList<>());
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger sessionsCount = new AtomicInteger();
+    private final AtomicInteger transfersCount = new AtomicInteger();
+    private final AtomicInteger maxTransfersCount = new AtomicInteger();
+
+    private volatile int maxSessions = Integer.MAX_VALUE;
+    private volatile boolean isMachineListingSupported = false;
+    private volatile long dataDelayMillis = 0;
+    private volatile boolean isCompressionSupported = false;
+    private volatile long bandwidthBytesPerSecond = 0;
+
+    private static final int DATA_BUFFER_SIZE = 4096;
+
+    public TestFTPServer(Path rootDirectory) throws IOException {
+        this.rootDirectory = rootDirectory;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptSessions, "test-ftp-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public FTPConnectionInfo getConnectionInfo() {
+        return getConnectionInfo(new FTPTransferSettings());
+    }
+
+    public FTPConnectionInfo getConnectionInfo(FTPTransferSettings transferSettings) {
+        return new FTPConnectionInfo("127.0.0.1", serverSocket.getLocalPort(),
+                "user", "password".toCharArray(), transferSettings);
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public void resetBytesSent() {
+        bytesSent.set(0);
+    }
+
+    /**
+     * Returns the largest number of files that were sent at the same time.
+     */
+    public int getMaxTransfersCount() {
+        return maxTransfersCount.get();
+    }
+
+    public List<String> getCommands() {
+        synchronized (commands) {
+            return new ArrayList<>(commands);
+        }
+    }
+
+    /**
+     * Further connections are refused with 421 reply, as real servers do.
+     */
+    public void setMaxSessions(int maxSessions) {
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Enables MLST feature and MLSD command, LIST is supported anyway.
+     */
+    public void setMachineListingSupported(boolean isMachineListingSupported) {
+        this.isMachineListingSupported = isMachineListingSupported;
+    }
+
+    /**
+     * Enables MODE Z feature, data is then sent deflated once a client asks for it.
+     */
+    public void setCompressionSupported(boolean isCompressionSupported) {
+        this.isCompressionSupported = isCompressionSupported;
+    }
+
+    /**
+     * Limits the speed of every data connection, 0 means no limit.
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        this.bandwidthBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Delays every block of file data and every listed entry,
+     * as if the server were far away.
+     */
+    public void setDataDelayMillis(long dataDelayMillis) {
+        this.dataDelayMillis = dataDelayMillis;
+    }
+
+    /**
+     * Closes control connections of all clients, the server keeps running.
+     */
+    public void dropSessions() throws IOException {
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            sockets.clear();
+        }
+    }
+
+    public int countCommands(String command) {
+        return (int) getCommands().stream()
+                .filter(c -> c.toUpperCase(Locale.US).startsWith(command))
+                .count();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        dropSessions();
+    }
+
+    private void acceptSessions() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                Thread session = new Thread(() -> serve(socket), "test-ftp-session");
+                session.setDaemon(true);
+                session.start();
+            } catch (IOException e) {
+                // the server is closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (
+                Socket s = socket;
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        s.getInputStream(), StandardCharsets.UTF_8));
+                Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)
+        ) {
+            if (sessionsCount.incrementAndGet() > maxSessions) {
+                out.write("421 too many connections\r\n");
+                out.flush();
+                return;
+            }
+            new Session(in, out).run();
+        } catch (IOException e) {
+            // the client is gone
+        } finally {
+            sessionsCount.decrementAndGet();
+            sockets.remove(socket);
+        }
+    }
+
+    private class Session {
+        private final BufferedReader in;
+        private final Writer out;
+        private long restartOffset = 0;
+        private boolean isCompressed = false;
+        private ServerSocket passiveSocket;
+        private InetSocketAddress activeAddress;
+
+        private Session(BufferedReader in, Writer out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        void run() throws IOException {
+            reply("220 test server ready");
+            String line;
+            while ((line = in.readLine()) != null) {
+                commands.add(line);
+                int separator = line.indexOf(' ');
+                String command = (separator == -1 ? line : line.substring(0, separator))
+                        .toUpperCase(Locale.US);
+                String argument = separator == -1 ? "" : line.substring(separator + 1);
+                if (!handle(command, argument)) {
+                    return;
+                }
+            }
+        }
+
+        private boolean handle(String command, String argument) throws IOException {
+            switch (command) {
+                case "USER":
+                    reply("331 password required");
+                    break;
+                case "PASS":
+                    reply("230 logged in");
+                    break;
+                case "SYST":
+                    reply("215 UNIX Type: L8");
+                    break;
+                case "TYPE":
+                case "OPTS":
+                    reply("200 ok");
+                    break;
+                case "NOOP":
+                    reply("200 ok");
+                    break;
+                case "PWD":
+                    reply("257 \"/\"");
+                    break;
+                case "PASV":
+                    enterPassiveMode();
+                    break;
+                case "PORT":
+                    enterActiveMode(argument);
+                    break;
+                case "REST":
+                    restartOffset = Long.parseLong(argument.trim());
+                    reply("350 restarting at " + restartOffset);
+                    break;
+                case "SIZE":
+                    replyWithSize(argument);
+                    break;
+                case "MDTM":
+                    replyWithModificationTime(argument);
+                    break;
+                case "RETR":
+                    retrieve(argument);
+                    break;
+                case "FEAT":
+                    replyWithFeatures();
+                    break;
+                case "LIST":
+                    list(argument, false);
+                    break;
+                case "MLSD":
+                    if (isMachineListingSupported) {
+                        list(argument, true);
+                    } else {
+                        reply("502 command not implemented");
+                    }
+                    break;
+                case "MODE":
+                    changeMode(argument);
+                    break;
+                case "ABOR":
+                    reply("226 abort successful");
+                    break;
+                case "QUIT":
+                    reply("221 bye");
+                    return false;
+                default:
+                    reply("502 command not implemented");
+            }
+            return true;
+        }
+
+        private void enterPassiveMode() throws IOException {
+            closePassiveSocket();
+            passiveSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            int port = passiveSocket.getLocalPort();
+            reply("227 entering passive mode (127,0,0,1," +
+                    (port >> 8) + "," + (port & 0xFF) + ")");
+        }
+
+        private void enterActiveMode(String argument) throws IOException {
+            String[] parts = argument.trim().split(",");
+            String host = parts[0] + "." + parts[1] + "." + parts[2] + "." + parts[3];
+            int port = Integer.parseInt(parts[4]) * 256 + Integer.parseInt(parts[5]);
+            closePassiveSocket();
+            activeAddress = new InetSocketAddress(host, port);
+            reply("200 port command successful");
+        }
+
+        private void replyWithSize(String argument) throws IOException {
+            Path file = resolve(argument);
+            if (!Files.isRegularFile(file)) {
+                reply("550 no such file");
+                return;
+            }
+            reply("213 " + Files.size(file));
+        }
+
+        private void replyWithModificationTime(String argument) throws IOException {
+            Path file = resolve(argument);
+            if (!Files.exists(file)) {
+                reply("550 no such file");
+                return;
+            }
+            SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            reply("213 " + format.format(new Date(Files.getLastModifiedTime(file).toMillis())));
+        }
+
+        private void retrieve(String argument) throws IOException {
+            Path file = resolve(argument);
+            long offset = restartOffset;
+            restartOffset = 0;
+            if (!Files.isRegularFile(file)) {
+                reply("550 no such file");
+                return;
+            }
+            reply("150 opening data connection");
+            maxTransfersCount.accumulateAndGet(transfersCount.incrementAndGet(), Math::max);
+            try (
+                    Socket dataSocket = openDataConnection();
+                    InputStream is = Files.newInputStream(file)
+            ) {
+                long skipped = 0;
+                while (skipped < offset) {
+                    long len = is.skip(offset - skipped);
+                    if (len <= 0) {
+                        break;
+                    }
+                    skipped += len;
+                }
+                OutputStream os = openDataOutput(dataSocket);
+                byte[] buffer = new byte[DATA_BUFFER_SIZE];
+                int len;
+                while ((len = is.read(buffer)) != -1) {
+                    delay();
+                    os.write(buffer, 0, len);
+                }
+                os.close();
+            } catch (IOException e) {
+                reply("426 connection closed; transfer aborted");
+                return;
+            } finally {
+                transfersCount.decrementAndGet();
+            }
+            reply("226 transfer complete");
+        }
+
+        private void delay() throws IOException {
+            if (dataDelayMillis > 0) {
+                try {
+                    Thread.sleep(dataDelayMillis);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+
+        private void changeMode(String argument) throws IOException {
+            String mode = argument.trim().toUpperCase(Locale.US);
+            if (mode.equals("S") || (mode.equals("Z") && isCompressionSupported)) {
+                isCompressed = mode.equals("Z");
+                reply("200 mode set to " + mode);
+            } else {
+                reply("504 mode not supported");
+            }
+        }
+
+        /**
+         * Sent bytes are counted after compression.
+         * The stream must be closed to finish compressed data.
+         */
+        private OutputStream openDataOutput(Socket dataSocket) throws IOException {
+            OutputStream os = new FilterOutputStream(dataSocket.getOutputStream()) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    bytesSent.addAndGet(len);
+                    throttle(len);
+                }
+            };
+            return isCompressed ? new DeflaterOutputStream(os) : os;
+        }
+
+        private void throttle(int len) throws IOException {
+            long bytesPerSecond = bandwidthBytesPerSecond;
+            if (bytesPerSecond > 0) {
+                try {
+                    Thread.sleep(len * 1000L / bytesPerSecond);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+
+        private void replyWithFeatures() throws IOException {
+            out.write("211-Features:\r\n SIZE\r\n MDTM\r\n REST STREAM\r\n");
+            if (isCompressionSupported) {
+                out.write(" MODE Z\r\n");
+            }
+            if (isMachineListingSupported) {
+                out.write(" MLST type*;size*;modify*;\r\n");
+            }
+            reply("211 End");
+        }
+
+        private void list(String argument, boolean isMachineReadable) throws IOException {
+            String pathArgument = argument;
+            // options like "-a" are not supported
+            if (pathArgument.startsWith("-")) {
+                pathArgument = "";
+            }
+            Path directory = resolve(pathArgument);
+            List<Path> files;
+            if (Files.isDirectory(directory)) {
+                try (Stream<Path> entries = Files.list(directory)) {
+                    files = entries.sorted().collect(Collectors.toList());
+                }
+            } else {
+                files = Collections.emptyList();
+            }
+            reply("150 opening data connection");
+            try (Socket dataSocket = openDataConnection()) {
+                Writer writer = new OutputStreamWriter(
+                        openDataOutput(dataSocket), StandardCharsets.UTF_8);
+                if (isMachineReadable) {
+                    writer.write(toMachineListLine(directory, "cdir", "."));
+                    writer.write(toMachineListLine(directory, "pdir", ".."));
+                }
+                for (Path file : files) {
+                    delay();
+                    writer.write(isMachineReadable ?
+                            toMachineListLine(file, null, file.getFileName().toString()) :
+                            toListLine(file));
+                }
+                writer.close();
+            } catch (IOException e) {
+                reply("426 connection closed; transfer aborted");
+                return;
+            }
+            reply("226 transfer complete");
+        }
+
+        private String toListLine(Path file) throws IOException {
+            boolean isDirectory = Files.isDirectory(file);
+            SimpleDateFormat format = new SimpleDateFormat("MMM dd HH:mm", Locale.US);
+            String time = format.format(new Date(Files.getLastModifiedTime(file).toMillis()));
+            return (isDirectory ? "drwxr-xr-x" : "-rw-r--r--") + " 1 owner group " +
+                    (isDirectory ? 0 : Files.size(file)) + " " + time + " " +
+                    file.getFileName() + "\r\n";
+        }
+
+        private String toMachineListLine(Path file, String type, String name)
+                throws IOException {
+            boolean isDirectory = Files.isDirectory(file);
+            SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss.SSS", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            String time = format.format(new Date(Files.getLastModifiedTime(file).toMillis()));
+            String facts = "type=" + (type != null ? type : isDirectory ? "dir" : "file") + ";";
+            if (!isDirectory) {
+                facts += "size=" + Files.size(file) + ";";
+            }
+            return facts + "modify=" + time + "; " + name + "\r\n";
+        }
+
+        private Socket openDataConnection() throws IOException {
+            Socket dataSocket;
+            if (passiveSocket != null) {
+                try {
+                    dataSocket = passiveSocket.accept();
+                } finally {
+                    closePassiveSocket();
+                }
+            } else if (activeAddress != null) {
+                dataSocket = new Socket();
+                // keeps aborted transfers from sending much more than was read
+                dataSocket.setSendBufferSize(DATA_BUFFER_SIZE);
+                dataSocket.connect(activeAddress);
+                return dataSocket;
+            } else {
+                throw new IOException("no data connection");
+            }
+            dataSocket.setSendBufferSize(DATA_BUFFER_SIZE);
+            return dataSocket;
+        }
+
+        private void closePassiveSocket() throws IOException {
+            if (passiveSocket != null) {
+                passiveSocket.close();
+                passiveSocket = null;
+            }
+        }
+
+        private Path resolve(String path) {
+            String relativePath = path.trim();
+            while (relativePath.startsWith("/")) {
+                relativePath = relativePath.substring(1);
+            }
+            return relativePath.isEmpty() ? rootDirectory : rootDirectory.resolve(relativePath);
+        }
+
+        private void reply(String line) throws IOException {
+            out.write(line + "\r\n");
+            out.flush();
+        }
+    }
+}
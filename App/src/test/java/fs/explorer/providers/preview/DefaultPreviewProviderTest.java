@@ -15,6 +15,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 public class DefaultPreviewProviderTest {
@@ -201,6 +202,54 @@ public class DefaultPreviewProviderTest {
         verify(progressHandler, never()).onCanNotRenderer();
     }
 
+    @Test
+    public void readsOnlyHeadOfFileIfRendererNeedsIt() throws IOException {
+        CapturingRenderer renderer = setUpHeadRenderer(4);
+        when(fsManager.readFileRange(any(), eq(0L), eq(4))).thenReturn(new byte[4]);
+        when(fsManager.readFileRange(any(), eq(4L), eq(4))).thenReturn(new byte[3]);
+        PreviewProgressHandler progressHandler = mock(PreviewProgressHandler.class);
+        previewProvider.getPreview(fsPathNode("file.txt"), null, progressHandler);
+
+        verify(progressHandler).onComplete(any());
+        verify(fsManager, never()).readFile(any());
+        assertEquals(4, renderer.data.getFileBytes().length);
+        MoreBytesLoader moreBytesLoader = renderer.data.getMoreBytesLoader();
+        assertNotNull(moreBytesLoader);
+        assertEquals(3, moreBytesLoader.loadMore(4).length);
+        assertNull(moreBytesLoader.loadMore(4));
+        verify(fsManager).readFileRange(any(), eq(7L), eq(4));
+    }
+
+    @Test
+    public void doesNotLoadMoreIfWholeFileFitsHead() throws IOException {
+        CapturingRenderer renderer = setUpHeadRenderer(4);
+        when(fsManager.readFileRange(any(), eq(0L), eq(4))).thenReturn(new byte[3]);
+        PreviewProgressHandler progressHandler = mock(PreviewProgressHandler.class);
+        previewProvider.getPreview(fsPathNode("file.txt"), null, progressHandler);
+
+        verify(progressHandler).onComplete(any());
+        assertEquals(3, renderer.data.getFileBytes().length);
+        assertNull(renderer.data.getMoreBytesLoader());
+    }
+
+    @Test
+    public void readsWholeArchiveEntryIfRendererNeedsHead() throws IOException {
+        CapturingRenderer renderer = setUpHeadRenderer(4);
+        PreviewProgressHandler progressHandler = mock(PreviewProgressHandler.class);
+        previewProvider.getPreview(archiveEntryNode("file.txt"), null, progressHandler);
+
+        verify(progressHandler).onComplete(any());
+        verify(archivesManager).readEntry(any(), any());
+        assertNull(renderer.data.getMoreBytesLoader());
+    }
+
+    private CapturingRenderer setUpHeadRenderer(int maxBytesNeeded) {
+        CapturingRenderer renderer = new CapturingRenderer(maxBytesNeeded);
+        previewRenderers.clear();
+        previewRenderers.add(renderer);
+        return renderer;
+    }
+
     private void setUpNullRenderers() {
         previewProvider = new DefaultPreviewProvider(fsManager, archivesManager, null);
     }
@@ -275,4 +324,29 @@ public class DefaultPreviewProviderTest {
         return new TreeNodeData(
                 "", new ArchiveEntryPath(null, "some/entry", TargetType.FILE, lastComponent));
     }
-}
\ No newline at end of file
+
+    private static class CapturingRenderer implements PreviewRenderer {
+        private final int maxBytesNeeded;
+        private PreviewRenderingData data;
+
+        private CapturingRenderer(int maxBytesNeeded) {
+            this.maxBytesNeeded = maxBytesNeeded;
+        }
+
+        @Override
+        public boolean canRenderForExtension(String fileExtension) {
+            return true;
+        }
+
+        @Override
+        public JComponent render(PreviewRenderingData data) throws InterruptedException {
+            this.data = data;
+            return mock(JComponent.class);
+        }
+
+        @Override
+        public int getMaxBytesNeeded() {
+            return maxBytesNeeded;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package fs.explorer.utils;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class WeightedLruCacheTest {
+    @Test
+    public void evictsLeastRecentlyUsedValues() {
+        WeightedLruCache<String, String> cache = new WeightedLruCache<>(6, String::length);
+        cache.putIfAbsent("a", "aa");
+        cache.putIfAbsent("b", "bb");
+        cache.putIfAbsent("c", "cc");
+        assertEquals("aa", cache.get("a"));
+        cache.putIfAbsent("d", "dd");
+
+        assertTrue(cache.containsKey("a"));
+        assertFalse(cache.containsKey("b"));
+        assertTrue(cache.containsKey("c"));
+        assertTrue(cache.containsKey("d"));
+        assertEquals(6, cache.getWeight());
+    }
+
+    @Test
+    public void evictsValuesHeavierThanLimit() {
+        WeightedLruCache<String, String> cache = new WeightedLruCache<>(3, String::length);
+        cache.putIfAbsent("a", "a");
+        cache.putIfAbsent("b", "bbbb");
+
+        assertTrue(cache.containsKey("a"));
+        assertFalse(cache.containsKey("b"));
+        assertEquals(1, cache.getWeight());
+    }
+
+    @Test
+    public void notifiesAboutEvictedValues() {
+        Map<String, String> evicted = new HashMap<>();
+        WeightedLruCache<String, String> cache =
+                new WeightedLruCache<>(4, String::length, evicted::put);
+        cache.putIfAbsent("a", "aa");
+        cache.putIfAbsent("b", "bb");
+        cache.putIfAbsent("c", "cc");
+        cache.putIfAbsent("d", "ddddd");
+
+        assertEquals(2, evicted.size());
+        assertEquals("aa", evicted.get("a"));
+        assertEquals("ddddd", evicted.get("d"));
+    }
+
+    @Test
+    public void putsOnlyIfAbsent() {
+        WeightedLruCache<String, String> cache = new WeightedLruCache<>(10, String::length);
+        assertNull(cache.putIfAbsent("a", "a"));
+        assertEquals("a", cache.putIfAbsent("a", "aa"));
+        assertEquals("a", cache.get("a"));
+        assertEquals(1, cache.getWeight());
+    }
+
+    @Test
+    public void replacesValues() {
+        WeightedLruCache<String, String> cache = new WeightedLruCache<>(10, String::length);
+        assertNull(cache.put("a", "a"));
+        assertEquals("a", cache.put("a", "aaa"));
+        assertEquals("aaa", cache.get("a"));
+        assertEquals(3, cache.getWeight());
+        assertEquals("aaa", cache.put("a", "aaaaaaaaaaa"));
+        assertFalse(cache.containsKey("a"));
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void removesValues() {
+        WeightedLruCache<String, String> cache = new WeightedLruCache<>(10, String::length);
+        cache.putIfAbsent("a", "aa");
+        assertEquals("aa", cache.remove("a"));
+        assertNull(cache.remove("a"));
+        assertEquals(0, cache.getWeight());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void countsHitsMissesAndEvictions() {
+        WeightedLruCache<String, String> cache = new WeightedLruCache<>(2, String::length);
+        cache.get("a");
+        cache.putIfAbsent("a", "a");
+        cache.get("a");
+        cache.putIfAbsent("b", "bb");
+
+        WeightedLruCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(1, stats.getEvictionCount());
+    }
+}
@@ -0,0 +1,38 @@
+package fs.explorer.providers.preview.renderers.text;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes text that comes in parts.
+ * Bytes of a character split between parts are kept until the next part.
+ */
+class IncrementalTextDecoder {
+    private final CharsetDecoder decoder;
+    private byte[] leftover = new byte[0];
+
+    IncrementalTextDecoder(Charset charset) {
+        // malformed input is replaced as InputStreamReader does
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    String decode(byte[] bytes, boolean isLast) {
+        ByteBuffer in = ByteBuffer.allocate(leftover.length + bytes.length);
+        in.put(leftover).put(bytes).flip();
+        int maxChars = (int) (in.remaining() * (double) decoder.maxCharsPerByte()) + 1;
+        CharBuffer out = CharBuffer.allocate(maxChars);
+        decoder.decode(in, out, isLast);
+        if (isLast) {
+            decoder.flush(out);
+        }
+        leftover = new byte[in.remaining()];
+        in.get(leftover);
+        out.flip();
+        return out.toString();
+    }
+}
@@ -8,15 +8,26 @@ import java.util.Queue;
 class LazyScrollableTextArea {
     private final JTextArea textArea;
     private final Queue<String> textChunks;
+    private final TextChunksLoader textChunksLoader;
     private final JScrollPane scrollPane;
 
     LazyScrollableTextArea(JTextArea textArea, List<String> textChunksList) {
+        this(textArea, textChunksList, null);
+    }
+
+    LazyScrollableTextArea(
+            JTextArea textArea,
+            List<String> textChunksList,
+            TextChunksLoader chunksLoader
+    ) {
         this.textArea = textArea;
         this.textChunks = new LinkedList<>(textChunksList);
+        this.textChunksLoader = chunksLoader;
         this.scrollPane = new JScrollPane(textArea);
         JScrollBar verticalScrollBar = scrollPane.getVerticalScrollBar();
         TextChunksAppender appender = new TextChunksAppender(
-                textArea, textChunks, verticalScrollBar);
+                textArea, textChunks, verticalScrollBar,
+                TextChunksAppender.DEFAULT_APPEND_OFFSET, chunksLoader);
         verticalScrollBar.addAdjustmentListener(appender);
     }
 
@@ -28,6 +39,10 @@ class LazyScrollableTextArea {
         return textChunks;
     }
 
+    TextChunksLoader getTextChunksLoader() {
+        return textChunksLoader;
+    }
+
     JScrollPane getScrollPane() {
         return scrollPane;
     }
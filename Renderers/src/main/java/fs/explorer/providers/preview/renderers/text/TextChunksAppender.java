@@ -3,15 +3,26 @@ package fs.explorer.providers.preview.renderers.text;
 import javax.swing.*;
 import java.awt.event.AdjustmentEvent;
 import java.awt.event.AdjustmentListener;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ExecutionException;
 
+/**
+ * Appends text chunks when the text area is scrolled to its bottom.
+ * If the file was not read to the end, more chunks are loaded in background
+ * when appended chunks are over.
+ */
 class TextChunksAppender implements AdjustmentListener {
     private final JTextArea textArea;
     private final Queue<String> textChunks;
     private final JScrollBar targetScrollBar;
     private final int appendOffset;
 
-    private static final int DEFAULT_APPEND_OFFSET = 40;
+    // null if the whole file was read
+    private TextChunksLoader chunksLoader;
+    private boolean isLoading = false;
+
+    static final int DEFAULT_APPEND_OFFSET = 40;
 
     TextChunksAppender(JTextArea textArea, Queue<String> textChunks, JScrollBar targetScrollBar) {
         this(textArea, textChunks, targetScrollBar, DEFAULT_APPEND_OFFSET);
@@ -22,6 +33,16 @@ class TextChunksAppender implements AdjustmentListener {
             Queue<String> textChunks,
             JScrollBar targetScrollBar,
             int appendOffset
+    ) {
+        this(textArea, textChunks, targetScrollBar, appendOffset, null);
+    }
+
+    TextChunksAppender(
+            JTextArea textArea,
+            Queue<String> textChunks,
+            JScrollBar targetScrollBar,
+            int appendOffset,
+            TextChunksLoader chunksLoader
     ) {
         if (appendOffset < 0) {
             throw new IllegalArgumentException("append offset must be >= 0");
@@ -30,11 +51,12 @@ class TextChunksAppender implements AdjustmentListener {
         this.textChunks = textChunks;
         this.targetScrollBar = targetScrollBar;
         this.appendOffset = appendOffset;
+        this.chunksLoader = chunksLoader;
     }
 
     @Override
     public void adjustmentValueChanged(AdjustmentEvent event) {
-        if (textChunks.isEmpty()) {
+        if (textChunks.isEmpty() && chunksLoader == null) {
             targetScrollBar.removeAdjustmentListener(this);
             return;
         }
@@ -42,7 +64,45 @@ class TextChunksAppender implements AdjustmentListener {
         int current = targetScrollBar.getValue() + extent;
         int maximum = targetScrollBar.getMaximum();
         if (current >= maximum - appendOffset) {
-            textArea.append(textChunks.remove());
+            if (!textChunks.isEmpty()) {
+                textArea.append(textChunks.remove());
+            } else if (!isLoading) {
+                loadChunks();
+            }
         }
     }
+
+    private void loadChunks() {
+        isLoading = true;
+        TextChunksLoader loader = chunksLoader;
+        new SwingWorker<List<String>, Void>() {
+            @Override
+            protected List<String> doInBackground() throws Exception {
+                return loader.loadChunks();
+            }
+
+            @Override
+            protected void done() {
+                isLoading = false;
+                List<String> chunks;
+                try {
+                    chunks = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    chunks = null;
+                }
+                if (chunks == null) {
+                    // the rest of the file is not available
+                    chunksLoader = null;
+                    targetScrollBar.removeAdjustmentListener(TextChunksAppender.this);
+                    return;
+                }
+                textChunks.addAll(chunks);
+                if (textChunks.isEmpty()) {
+                    loadChunks();
+                } else {
+                    textArea.append(textChunks.remove());
+                }
+            }
+        }.execute();
+    }
 }
\ No newline at end of file
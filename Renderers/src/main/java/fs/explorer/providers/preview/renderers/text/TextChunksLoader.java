@@ -0,0 +1,63 @@
+package fs.explorer.providers.preview.renderers.text;
+
+import fs.explorer.providers.preview.MoreBytesLoader;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads text of a file further when the preview has shown all read text.
+ */
+class TextChunksLoader {
+    private final MoreBytesLoader moreBytesLoader;
+    private final IncrementalTextDecoder decoder;
+    private final int textChunkSize;
+    private final int maxBytes;
+
+    private boolean isFinished = false;
+
+    TextChunksLoader(
+            MoreBytesLoader moreBytesLoader,
+            IncrementalTextDecoder decoder,
+            int textChunkSize,
+            int maxBytes
+    ) {
+        this.moreBytesLoader = moreBytesLoader;
+        this.decoder = decoder;
+        this.textChunkSize = textChunkSize;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns null at the end of the file.
+     */
+    synchronized List<String> loadChunks() throws IOException {
+        if (isFinished) {
+            return null;
+        }
+        byte[] bytes = moreBytesLoader.loadMore(maxBytes);
+        String text;
+        if (bytes == null) {
+            isFinished = true;
+            text = decoder.decode(new byte[0], true);
+        } else {
+            text = decoder.decode(bytes, false);
+        }
+        List<String> chunks = splitToChunks(text, textChunkSize);
+        return chunks.isEmpty() && isFinished ? null : chunks;
+    }
+
+    static List<String> splitToChunks(String text, int textChunkSize) throws IOException {
+        List<String> chunks = new ArrayList<>();
+        try (TextChunksReader chunksReader = new TextChunksReader(
+                new StringReader(text), textChunkSize)) {
+            String chunk;
+            while ((chunk = chunksReader.readChunk()) != null) {
+                chunks.add(chunk);
+            }
+        }
+        return chunks;
+    }
+}
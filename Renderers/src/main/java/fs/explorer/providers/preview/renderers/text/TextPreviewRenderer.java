@@ -1,38 +1,47 @@
 package fs.explorer.providers.preview.renderers.text;
 
+import fs.explorer.providers.preview.MoreBytesLoader;
 import fs.explorer.providers.preview.PreviewRenderer;
 import fs.explorer.providers.preview.PreviewRenderingData;
 import fs.explorer.utils.FileTypeInfo;
 
 import javax.swing.*;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
 public class TextPreviewRenderer implements PreviewRenderer {
     private final int textChunkSize;
     private final int maxPreLoadedChunks;
+    private final int loadSize;
 
     private static final int DEFAULT_TEXT_CHUNK_SIZE = 5000;
     private static final int DEFAULT_MAX_PRE_LOADED_CHUNKS = 4;
+    // text is read by parts of this size in bytes
+    private static final int DEFAULT_LOAD_SIZE = 64 * 1024;
 
     public TextPreviewRenderer() {
-        textChunkSize = DEFAULT_TEXT_CHUNK_SIZE;
-        maxPreLoadedChunks = DEFAULT_MAX_PRE_LOADED_CHUNKS;
+        this(DEFAULT_TEXT_CHUNK_SIZE, DEFAULT_MAX_PRE_LOADED_CHUNKS, DEFAULT_LOAD_SIZE);
     }
 
     TextPreviewRenderer(int textChunkSize, int maxPreLoadedChunks) {
+        this(textChunkSize, maxPreLoadedChunks, DEFAULT_LOAD_SIZE);
+    }
+
+    TextPreviewRenderer(int textChunkSize, int maxPreLoadedChunks, int loadSize) {
         if (textChunkSize <= 0) {
             throw new IllegalArgumentException("chunk size must be > 0");
         }
         if (maxPreLoadedChunks < 0) {
             throw new IllegalArgumentException("pre loaded chunk number must be >= 0");
         }
+        if (loadSize <= 0) {
+            throw new IllegalArgumentException("load size must be > 0");
+        }
         this.textChunkSize = textChunkSize;
         this.maxPreLoadedChunks = maxPreLoadedChunks;
+        this.loadSize = loadSize;
     }
 
     @Override
@@ -49,37 +58,54 @@ public class TextPreviewRenderer implements PreviewRenderer {
         if (bytes == null) {
             return null;
         }
-        LazyScrollableTextArea lazyTextArea = renderLazyTextArea(bytes);
+        LazyScrollableTextArea lazyTextArea = renderLazyTextArea(
+                bytes, data.getMoreBytesLoader());
         return lazyTextArea == null ? null : lazyTextArea.asJComponent();
     }
 
+    /**
+     * Text is read further while the preview is scrolled.
+     */
+    @Override
+    public int getMaxBytesNeeded() {
+        return loadSize;
+    }
+
     LazyScrollableTextArea renderLazyTextArea(byte[] bytes) throws InterruptedException {
+        return renderLazyTextArea(bytes, null);
+    }
+
+    LazyScrollableTextArea renderLazyTextArea(byte[] bytes, MoreBytesLoader moreBytesLoader)
+            throws InterruptedException {
         JTextArea textArea = new JTextArea();
         textArea.setEditable(false);
         textArea.setLineWrap(true);
         textArea.setWrapStyleWord(true);
 
+        IncrementalTextDecoder decoder = new IncrementalTextDecoder(Charset.defaultCharset());
+        String text = decoder.decode(bytes, moreBytesLoader == null);
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
         List<String> textChunks = new ArrayList<>();
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-             Reader reader = new InputStreamReader(bais);
-             TextChunksReader chunksReader = new TextChunksReader(reader, textChunkSize)
-        ) {
+        try {
             int preLoadedChunks = 0;
-            String chunk;
-            while ((chunk = chunksReader.readChunk()) != null) {
+            for (String chunk : TextChunksLoader.splitToChunks(text, textChunkSize)) {
                 if (preLoadedChunks < maxPreLoadedChunks) {
                     textArea.append(chunk);
                     preLoadedChunks += 1;
                 } else {
                     textChunks.add(chunk);
                 }
-                if (Thread.currentThread().isInterrupted()) {
-                    throw new InterruptedException();
-                }
             }
         } catch (IOException e) {
             return null;
         }
-        return new LazyScrollableTextArea(textArea, textChunks);
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+        TextChunksLoader chunksLoader = moreBytesLoader == null ? null :
+                new TextChunksLoader(moreBytesLoader, decoder, textChunkSize, loadSize);
+        return new LazyScrollableTextArea(textArea, textChunks, chunksLoader);
     }
 }
@@ -0,0 +1,51 @@
+package fs.explorer.providers.preview.renderers.text;
+
+import fs.explorer.providers.preview.MoreBytesLoader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Queue;
+
+import static org.junit.Assert.*;
+
+public class TextChunksLoaderTest {
+    @Test
+    public void loadsTextChunksUntilEndOfFile() throws IOException {
+        TextChunksLoader loader = newLoader(3, "some ".getBytes(), "text".getBytes());
+        assertEquals(Arrays.asList("som", "e "), loader.loadChunks());
+        assertEquals(Arrays.asList("tex", "t"), loader.loadChunks());
+        assertNull(loader.loadChunks());
+        assertNull(loader.loadChunks());
+    }
+
+    @Test
+    public void keepsCharacterSplitBetweenLoads() throws IOException {
+        // the second character is encoded in two bytes
+        byte[] bytes = "a\u00e9b".getBytes(StandardCharsets.UTF_8);
+        TextChunksLoader loader = newLoader(10,
+                Arrays.copyOfRange(bytes, 0, 2), Arrays.copyOfRange(bytes, 2, 4));
+        assertEquals(Collections.singletonList("a"), loader.loadChunks());
+        assertEquals(Collections.singletonList("\u00e9b"), loader.loadChunks());
+        assertNull(loader.loadChunks());
+    }
+
+    @Test
+    public void replacesIncompleteCharacterAtEndOfFile() throws IOException {
+        byte[] bytes = "a\u00e9".getBytes(StandardCharsets.UTF_8);
+        TextChunksLoader loader = newLoader(10, Arrays.copyOfRange(bytes, 0, 2));
+        assertEquals(Collections.singletonList("a"), loader.loadChunks());
+        assertEquals(Collections.singletonList("\ufffd"), loader.loadChunks());
+        assertNull(loader.loadChunks());
+    }
+
+    private TextChunksLoader newLoader(int textChunkSize, byte[]... parts) {
+        Queue<byte[]> queue = new ArrayDeque<>(Arrays.asList(parts));
+        MoreBytesLoader moreBytesLoader = maxBytes -> queue.poll();
+        IncrementalTextDecoder decoder = new IncrementalTextDecoder(StandardCharsets.UTF_8);
+        return new TextChunksLoader(moreBytesLoader, decoder, textChunkSize, 1024);
+    }
+}
@@ -19,6 +19,17 @@ public class TextPreviewRendererTest {
         new TextPreviewRenderer(10, -1);
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void failsOnNonPositiveLoadSize() throws InterruptedException {
+        new TextPreviewRenderer(10, 2, 0);
+    }
+
+    @Test
+    public void needsOnlyLoadSizeBytes() {
+        TextPreviewRenderer renderer = new TextPreviewRenderer(10, 2, 100);
+        assertEquals(100, renderer.getMaxBytesNeeded());
+    }
+
     @Test
     public void doesNotRenderOnNullData() throws InterruptedException {
         TextPreviewRenderer renderer = new TextPreviewRenderer();
@@ -79,4 +90,24 @@ public class TextPreviewRendererTest {
         Queue<String> textToLoad = lazyTextArea.getTextChunks();
         assertTrue(textToLoad.isEmpty());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void rendersLazyTextAreaThatLoadsMoreText() throws InterruptedException {
+        TextPreviewRenderer renderer = new TextPreviewRenderer(2, 2, 100);
+        LazyScrollableTextArea lazyTextArea = renderer.renderLazyTextArea(
+                "some text".getBytes(), maxBytes -> null);
+        assertNotNull(lazyTextArea);
+        assertEquals("some", lazyTextArea.getTextArea().getText());
+        assertEquals(Arrays.asList(" t", "ex", "t"), lazyTextArea.getTextChunks());
+        assertNotNull(lazyTextArea.getTextChunksLoader());
+    }
+
+    @Test
+    public void rendersLazyTextAreaThatDoesNotLoadMoreTextForWholeFile()
+            throws InterruptedException {
+        TextPreviewRenderer renderer = new TextPreviewRenderer(2, 2, 100);
+        LazyScrollableTextArea lazyTextArea = renderer.renderLazyTextArea("some".getBytes());
+        assertNotNull(lazyTextArea);
+        assertNull(lazyTextArea.getTextChunksLoader());
+    }
+}
@@ -0,0 +1,14 @@
+package fs.explorer.providers.preview;
+
+import java.io.IOException;
+
+/**
+ * Reads a file further from where the previous read stopped.
+ * Reading takes time, so it should not be done in the event dispatch thread.
+ */
+public interface MoreBytesLoader {
+    /**
+     * Returns at most maxBytes next bytes of the file or null at the end of the file.
+     */
+    byte[] loadMore(int maxBytes) throws IOException;
+}
@@ -6,4 +6,13 @@ public interface PreviewRenderer {
     boolean canRenderForExtension(String fileExtension);
 
     JComponent render(PreviewRenderingData data) throws InterruptedException;
+
+    /**
+     * Returns how many leading bytes of a file are enough to render its preview
+     * or a non-positive number if the whole file is needed.
+     * More bytes can be requested later with the loader of rendering data.
+     */
+    default int getMaxBytesNeeded() {
+        return -1;
+    }
 }
@@ -7,11 +7,22 @@ public class PreviewRenderingData {
     // and this will decrease memory consumption
     private final byte[] fileBytes;
     private final PreviewContext previewContext;
+    private final MoreBytesLoader moreBytesLoader;
 
     public PreviewRenderingData(String fileName, byte[] fileBytes, PreviewContext previewContext) {
+        this(fileName, fileBytes, previewContext, null);
+    }
+
+    public PreviewRenderingData(
+            String fileName,
+            byte[] fileBytes,
+            PreviewContext previewContext,
+            MoreBytesLoader moreBytesLoader
+    ) {
         this.fileName = fileName;
         this.fileBytes = fileBytes;
         this.previewContext = previewContext;
+        this.moreBytesLoader = moreBytesLoader;
     }
 
     public String getFileName() {
@@ -25,4 +36,11 @@ public class PreviewRenderingData {
     public PreviewContext getPreviewContext() {
         return previewContext;
     }
+
+    /**
+     * Returns null if file bytes are the whole file.
+     */
+    public MoreBytesLoader getMoreBytesLoader() {
+        return moreBytesLoader;
+    }
 }